@@ -0,0 +1,198 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Corpus.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 24 10:03:17 2017
+ *
+ * @brief  Diagram corpora for the benchmarks.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The SVG and XML pairs of a directory of the repository, e.g.,
+ * <code>samples/chemistry</code>. Directories are searched recursively and an
+ * XML file is paired with the SVG file of the same base name. The repository
+ * root is taken from the system property <code>audiotactile.home</code> and
+ * defaults to the working directory.
+ */
+public final class Corpus {
+
+  private final List<String> svgFiles = new ArrayList<>();
+  private final List<String> xmlFiles = new ArrayList<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param directory The directory relative to the repository root.
+   *
+   * @throws IOException
+   *          If the directory does not contain any pairs.
+   */
+  public Corpus(final String directory) throws IOException {
+    final File dir = new File(System.getProperty("audiotactile.home", "."),
+                              directory);
+    this.collect(dir);
+    if (this.svgFiles.isEmpty()) {
+      throw new IOException("No SVG and XML pairs in " + dir);
+    }
+  }
+
+
+  /**
+   * Constructor for subsets.
+   */
+  private Corpus() {
+  }
+
+
+  /**
+   * Restricts the corpus to the pairs that can be converted with the given
+   * options, so that benchmarks do not fail on diagrams a profile does not
+   * support. Skipped pairs are reported on standard error.
+   *
+   * @param options The conversion options.
+   *
+   * @return The convertible pairs.
+   *
+   * @throws IOException
+   *          If no pair can be converted.
+   */
+  public Corpus convertible(final TactileOptions options) throws IOException {
+    final Corpus result = new Corpus();
+    final TactileConverter converter = new TactileConverter(options);
+    for (int i = 0; i < this.size(); i++) {
+      try {
+        converter.convert(this.svgFiles.get(i), this.xmlFiles.get(i));
+        result.svgFiles.add(this.svgFiles.get(i));
+        result.xmlFiles.add(this.xmlFiles.get(i));
+      } catch (Exception e) {
+        System.err.println("Skipping " + this.svgFiles.get(i) + " for "
+                           + options + ": " + e);
+      }
+    }
+    if (result.svgFiles.isEmpty()) {
+      throw new IOException("No convertible pairs for " + options);
+    }
+    return result;
+  }
+
+
+  /**
+   * Collects pairs in sorted order.
+   *
+   * @param dir The current directory.
+   */
+  private void collect(final File dir) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    for (final File file : files) {
+      if (file.isDirectory()) {
+        this.collect(file);
+        continue;
+      }
+      final String name = file.getPath();
+      if (!name.endsWith(".xml")) {
+        continue;
+      }
+      final File svg = new File(name.substring(0, name.length() - 4)
+                                + ".svg");
+      if (svg.isFile()) {
+        this.svgFiles.add(svg.getPath());
+        this.xmlFiles.add(name);
+      }
+    }
+  }
+
+
+  /**
+   * @return The number of pairs.
+   */
+  public int size() {
+    return this.svgFiles.size();
+  }
+
+
+  /**
+   * @return The SVG files.
+   */
+  public List<String> getSvgFiles() {
+    return Collections.unmodifiableList(this.svgFiles);
+  }
+
+
+  /**
+   * @return The XML files.
+   */
+  public List<String> getXmlFiles() {
+    return Collections.unmodifiableList(this.xmlFiles);
+  }
+
+
+  /**
+   * Loads all SVG documents.
+   *
+   * @return The documents in corpus order.
+   *
+   * @throws Exception
+   *          If a file can not be loaded.
+   */
+  public List<SVGDocument> loadSvgs() throws Exception {
+    final List<SVGDocument> result = new ArrayList<>(this.size());
+    for (final String file : this.svgFiles) {
+      result.add(FileHandler.loadSvg(file));
+    }
+    return result;
+  }
+
+
+  /**
+   * Loads all XML documents.
+   *
+   * @return The documents in corpus order.
+   *
+   * @throws Exception
+   *          If a file can not be loaded.
+   */
+  public List<Document> loadXmls() throws Exception {
+    final List<Document> result = new ArrayList<>(this.size());
+    for (final String file : this.xmlFiles) {
+      result.add(FileHandler.loadXml(file));
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,129 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   HullBenchmark.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 24 13:02:48 2017
+ *
+ * @brief  Benchmarks for the convex hull.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.vecmath.Point2d;
+
+
+/**
+ * Convex hulls of uniformly distributed points in a disc, where a sizeable
+ * fraction of the points ends up on the hull.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HullBenchmark {
+
+  @Param({"100", "1000", "10000", "100000"})
+  private int points;
+
+  private double[] xs;
+  private double[] ys;
+  private double[] scratchXs;
+  private double[] scratchYs;
+  private double[] hull;
+  private List<Point2d> list;
+
+
+  /**
+   * Creates the points.
+   */
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    this.xs = new double[this.points];
+    this.ys = new double[this.points];
+    this.list = new ArrayList<>(this.points);
+    for (int i = 0; i < this.points; i++) {
+      final double r = 500 * Math.sqrt(random.nextDouble());
+      final double phi = 2 * Math.PI * random.nextDouble();
+      this.xs[i] = r * Math.cos(phi);
+      this.ys[i] = r * Math.sin(phi);
+      this.list.add(new Point2d(this.xs[i], this.ys[i]));
+    }
+    this.scratchXs = new double[this.points];
+    this.scratchYs = new double[this.points];
+    this.hull = new double[4 * this.points + 2];
+  }
+
+
+  /**
+   * The allocation-free primitive hull on reused buffers.
+   *
+   * @return The number of hull vertices.
+   */
+  @Benchmark
+  public int primitive() {
+    System.arraycopy(this.xs, 0, this.scratchXs, 0, this.points);
+    System.arraycopy(this.ys, 0, this.scratchYs, 0, this.points);
+    return GrahamScan.convexHull(this.scratchXs, this.scratchYs, this.points,
+                                 this.hull);
+  }
+
+
+  /**
+   * The primitive hull leaving the input untouched.
+   *
+   * @return The hull.
+   */
+  @Benchmark
+  public double[] arrays() {
+    return GrahamScan.convexHull(this.xs, this.ys);
+  }
+
+
+  /**
+   * The point list entry point.
+   *
+   * @return The hull.
+   */
+  @Benchmark
+  public List<Point2d> pointList() {
+    return GrahamScan.getConvexHull(this.list);
+  }
+
+}
@@ -0,0 +1,131 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   LoadBenchmark.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 24 10:41:55 2017
+ *
+ * @brief  Benchmarks for loading input documents.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Loading of all SVG and all XML files of a corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+  @Param({"samples/chemistry", "samples/physics", "samples/statistics",
+          "testing"})
+  private String corpus;
+
+  private Corpus files;
+
+
+  /**
+   * Collects the files of the corpus.
+   *
+   * @throws Exception
+   *          If the corpus is empty.
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.files = new Corpus(this.corpus);
+  }
+
+
+  /**
+   * @param hole The blackhole.
+   *
+   * @throws Exception
+   *          If loading fails.
+   */
+  @Benchmark
+  public void loadSvg(final Blackhole hole) throws Exception {
+    for (final String file : this.files.getSvgFiles()) {
+      hole.consume(FileHandler.loadSvg(file));
+    }
+  }
+
+
+  /**
+   * @param hole The blackhole.
+   *
+   * @throws Exception
+   *          If loading fails.
+   */
+  @Benchmark
+  public void loadPlainSvg(final Blackhole hole) throws Exception {
+    for (final String file : this.files.getSvgFiles()) {
+      hole.consume(FileHandler.loadPlainSvg(file));
+    }
+  }
+
+
+  /**
+   * @param hole The blackhole.
+   *
+   * @throws Exception
+   *          If loading fails.
+   */
+  @Benchmark
+  public void loadXml(final Blackhole hole) throws Exception {
+    for (final String file : this.files.getXmlFiles()) {
+      hole.consume(FileHandler.loadXml(file));
+    }
+  }
+
+
+  /**
+   * @param hole The blackhole.
+   *
+   * @throws Exception
+   *          If loading fails.
+   */
+  @Benchmark
+  public void loadAnnotations(final Blackhole hole) throws Exception {
+    for (final String file : this.files.getXmlFiles()) {
+      hole.consume(FileHandler.loadAnnotations(file));
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   ParallelHullBenchmark.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Aug  3 11:27:05 2017
+ *
+ * @brief  Benchmarks for the parallel convex hull.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sequential and parallel convex hulls of large point sets. Points in a disc
+ * or a square are mostly discarded by the octagon filter, points on a circle
+ * are all on the hull, which is the worst case of the parallel computation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelHullBenchmark {
+
+  @Param({"100000", "1000000"})
+  private int points;
+
+  @Param({"disc", "square", "circle"})
+  private String shape;
+
+  private double[] xs;
+  private double[] ys;
+  private double[] scratchXs;
+  private double[] scratchYs;
+  private double[] hull;
+
+
+  /**
+   * Creates the points.
+   */
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    this.xs = new double[this.points];
+    this.ys = new double[this.points];
+    for (int i = 0; i < this.points; i++) {
+      final double phi = 2 * Math.PI * random.nextDouble();
+      switch (this.shape) {
+        case "disc":
+          final double r = 500 * Math.sqrt(random.nextDouble());
+          this.xs[i] = r * Math.cos(phi);
+          this.ys[i] = r * Math.sin(phi);
+          break;
+        case "square":
+          this.xs[i] = 1000 * random.nextDouble();
+          this.ys[i] = 1000 * random.nextDouble();
+          break;
+        case "circle":
+          this.xs[i] = 500 * Math.cos(phi);
+          this.ys[i] = 500 * Math.sin(phi);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown shape " + this.shape);
+      }
+    }
+    this.scratchXs = new double[this.points];
+    this.scratchYs = new double[this.points];
+    this.hull = new double[4 * this.points + 2];
+  }
+
+
+  /**
+   * The sequential hull on reused buffers.
+   *
+   * @return The number of hull vertices.
+   */
+  @Benchmark
+  public int sequential() {
+    System.arraycopy(this.xs, 0, this.scratchXs, 0, this.points);
+    System.arraycopy(this.ys, 0, this.scratchYs, 0, this.points);
+    return GrahamScan.convexHull(this.scratchXs, this.scratchYs, this.points,
+                                 this.hull);
+  }
+
+
+  /**
+   * The parallel hull on the common fork-join pool.
+   *
+   * @return The hull.
+   */
+  @Benchmark
+  public double[] parallel() {
+    return ParallelHull.convexHull(this.xs, this.ys);
+  }
+
+}
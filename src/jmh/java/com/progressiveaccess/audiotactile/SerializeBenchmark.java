@@ -0,0 +1,104 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   SerializeBenchmark.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 24 13:47:10 2017
+ *
+ * @brief  Benchmarks for writing converted documents.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Serialisation of the converted IVEO documents of a corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+
+  @Param({"samples/chemistry", "samples/physics", "samples/statistics",
+          "testing"})
+  private String corpus;
+
+  @Param({"0", "2"})
+  private int indent;
+
+  private List<SVGDocument> svgs;
+  private SvgWriter writer;
+
+
+  /**
+   * Converts the documents once.
+   *
+   * @throws Exception
+   *          If loading fails.
+   */
+  @Setup
+  public void setup() throws Exception {
+    final TactileConverter converter = new TactileConverter(
+        TactileOptions.builder().iveo(true).iveoButtons(true).build());
+    final Corpus files = new Corpus(this.corpus).convertible(
+        converter.getOptions());
+    this.svgs = files.loadSvgs();
+    final List<Document> xmls = files.loadXmls();
+    for (int i = 0; i < this.svgs.size(); i++) {
+      converter.convert(this.svgs.get(i), xmls.get(i));
+    }
+    this.writer = new SvgWriter(this.indent);
+  }
+
+
+  /**
+   * @throws IOException
+   *          Never, output is discarded.
+   */
+  @Benchmark
+  public void write() throws IOException {
+    for (final SVGDocument svg : this.svgs) {
+      this.writer.write(svg, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+  }
+
+}
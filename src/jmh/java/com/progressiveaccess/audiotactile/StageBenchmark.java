@@ -0,0 +1,275 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   StageBenchmark.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 24 11:20:36 2017
+ *
+ * @brief  Benchmarks for the stages of a conversion.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The stages of {@link Tactile#convert()} on all pairs of a corpus. Stages
+ * modify the documents, so every invocation works on freshly loaded
+ * documents with all earlier stages done in the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+
+  /**
+   * Freshly loaded documents.
+   */
+  @State(Scope.Thread)
+  public static class Loaded {
+
+    @Param({"samples/chemistry", "samples/physics", "samples/statistics",
+            "testing"})
+    private String corpus;
+
+    private Corpus files;
+    private List<SVGDocument> svgs;
+    private List<Document> xmls;
+
+    /**
+     * Collects the files of the corpus.
+     *
+     * @throws Exception
+     *          If the corpus is empty.
+     */
+    @Setup(Level.Trial)
+    public void collect() throws Exception {
+      this.files = new Corpus(this.corpus);
+    }
+
+    /**
+     * Loads the documents.
+     *
+     * @throws Exception
+     *          If loading fails.
+     */
+    @Setup(Level.Invocation)
+    public void load() throws Exception {
+      this.svgs = this.files.loadSvgs();
+      this.xmls = this.files.loadXmls();
+    }
+
+    /**
+     * @param options The conversion options.
+     *
+     * @return New converters for all pairs.
+     */
+    List<Tactile> tactiles(final TactileOptions options) {
+      final List<Tactile> result = new ArrayList<>(this.svgs.size());
+      for (int i = 0; i < this.svgs.size(); i++) {
+        result.add(new Tactile(this.svgs.get(i), this.xmls.get(i), options));
+      }
+      return result;
+    }
+  }
+
+
+  /**
+   * Documents with annotations and messages initialised, ready for
+   * enrichment with the options of the given profile.
+   */
+  @State(Scope.Thread)
+  public static class Annotated {
+
+    @Param({"samples/chemistry", "samples/physics", "samples/statistics",
+            "testing"})
+    private String corpus;
+
+    @Param({"plain", "iveo", "iveo-collision"})
+    private String profile;
+
+    private Corpus files;
+    private TactileOptions options;
+    private List<Tactile> tactiles;
+
+    /**
+     * Collects the files of the corpus.
+     *
+     * @throws Exception
+     *          If the corpus is empty.
+     */
+    @Setup(Level.Trial)
+    public void collect() throws Exception {
+      final TactileOptions.Builder builder = TactileOptions.builder();
+      if (this.profile.startsWith("iveo")) {
+        builder.iveo(true).iveoButtons(true);
+      }
+      if (this.profile.endsWith("collision")) {
+        builder.iveoCollision(true);
+      }
+      this.options = builder.build();
+      this.files = new Corpus(this.corpus).convertible(this.options);
+    }
+
+    /**
+     * Loads the documents and runs the stages before enrichment.
+     *
+     * @throws Exception
+     *          If loading fails.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception {
+      final List<SVGDocument> svgs = this.files.loadSvgs();
+      final List<Document> xmls = this.files.loadXmls();
+      this.tactiles = new ArrayList<>(svgs.size());
+      for (int i = 0; i < svgs.size(); i++) {
+        final Tactile tactile = new Tactile(svgs.get(i), xmls.get(i),
+                                            this.options);
+        tactile.annotations();
+        tactile.messages();
+        this.tactiles.add(tactile);
+      }
+    }
+  }
+
+
+  /**
+   * Documents enriched with the default options, ready for titles and
+   * descriptions.
+   */
+  @State(Scope.Thread)
+  public static class Enriched {
+
+    @Param({"samples/chemistry", "samples/physics", "samples/statistics",
+            "testing"})
+    private String corpus;
+
+    private Corpus files;
+    private List<Tactile> tactiles;
+
+    /**
+     * Collects the files of the corpus.
+     *
+     * @throws Exception
+     *          If the corpus is empty.
+     */
+    @Setup(Level.Trial)
+    public void collect() throws Exception {
+      this.files = new Corpus(this.corpus);
+    }
+
+    /**
+     * Loads the documents and runs the stages before titles.
+     *
+     * @throws Exception
+     *          If loading fails.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception {
+      final List<SVGDocument> svgs = this.files.loadSvgs();
+      final List<Document> xmls = this.files.loadXmls();
+      this.tactiles = new ArrayList<>(svgs.size());
+      for (int i = 0; i < svgs.size(); i++) {
+        final Tactile tactile = new Tactile(svgs.get(i), xmls.get(i),
+                                            TactileOptions.builder().build());
+        tactile.annotations();
+        tactile.messages();
+        tactile.enrich();
+        this.tactiles.add(tactile);
+      }
+    }
+  }
+
+
+  /**
+   * Parsing and linking of the annotations.
+   *
+   * @param state The loaded documents.
+   */
+  @Benchmark
+  public void annotations(final Loaded state) {
+    for (final Tactile tactile
+             : state.tactiles(TactileOptions.builder().build())) {
+      tactile.annotations();
+    }
+  }
+
+
+  /**
+   * Lookup of the localised messages.
+   *
+   * @param state The loaded documents.
+   */
+  @Benchmark
+  public void messages(final Loaded state) {
+    for (final Tactile tactile
+             : state.tactiles(TactileOptions.builder().build())) {
+      tactile.messages();
+    }
+  }
+
+
+  /**
+   * Base titles and, depending on the profile, IVEO annotations, buttons and
+   * collision avoidance.
+   *
+   * @param state The annotated documents.
+   */
+  @Benchmark
+  public void enrich(final Annotated state) {
+    for (final Tactile tactile : state.tactiles) {
+      tactile.enrich();
+    }
+  }
+
+
+  /**
+   * Titles and descriptions of all annotated elements.
+   *
+   * @param state The enriched documents.
+   */
+  @Benchmark
+  public void addTitlesAndDesc(final Enriched state) {
+    for (final Tactile tactile : state.tactiles) {
+      tactile.addTitlesAndDesc();
+    }
+  }
+
+}
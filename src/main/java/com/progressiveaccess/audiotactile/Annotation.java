@@ -0,0 +1,451 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Annotation.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 17 08:34:12 2017
+ *
+ * @brief  A single annotation of the annotation graph.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A single <code>sre:annotation</code> of an annotation file. Apart from its
+ * speech attributes an annotation knows the SVG element it annotates and
+ * references to its component, parent and neighbour annotations. The
+ * references are resolved to direct links once the annotation is added to an
+ * {@link AnnotationIndex}.
+ */
+public final class Annotation {
+
+  private final int position;
+  private final String kind;
+  private final String id;
+  private final String speech;
+  private final String speech2;
+  private final String plainSpeech;
+  private final String type;
+  private final boolean root;
+  private final Map<String, String> keys;
+  private final Reference componentRef;
+  private final Reference parentRef;
+  private final List<Reference> neighbourRefs;
+
+  private Annotation component = null;
+  private Annotation parent = null;
+  private List<Annotation> neighbours = Collections.emptyList();
+
+
+  /**
+   * Constructor.
+   *
+   * @param builder The builder with the annotation's values.
+   */
+  private Annotation(final Builder builder) {
+    this.position = builder.position;
+    this.kind = builder.kind;
+    this.id = builder.id;
+    this.speech = builder.speech;
+    this.speech2 = builder.speech2;
+    this.plainSpeech = builder.plainSpeech;
+    this.type = builder.type;
+    this.root = builder.root;
+    this.keys = builder.keys.isEmpty()
+        ? Collections.<String, String>emptyMap()
+        : Collections.unmodifiableMap(builder.keys);
+    this.componentRef = builder.componentRef;
+    this.parentRef = builder.parentRef;
+    this.neighbourRefs = builder.neighbourRefs.isEmpty()
+        ? Collections.<Reference>emptyList()
+        : Collections.unmodifiableList(builder.neighbourRefs);
+  }
+
+
+  /**
+   * @param position The position of the annotation in the document.
+   *
+   * @return A new builder.
+   */
+  public static Builder builder(final int position) {
+    return new Builder(position);
+  }
+
+
+  /**
+   * Resolves the references of this annotation.
+   *
+   * @param index The index containing all annotations of the document.
+   */
+  void link(final AnnotationIndex index) {
+    this.component = this.resolve(index, this.componentRef);
+    this.parent = this.resolve(index, this.parentRef);
+    if (!this.neighbourRefs.isEmpty()) {
+      final List<Annotation> resolved = new ArrayList<>();
+      for (final Reference ref : this.neighbourRefs) {
+        final Annotation neighbour = this.resolve(index, ref);
+        if (neighbour != null) {
+          resolved.add(neighbour);
+        }
+      }
+      this.neighbours = Collections.unmodifiableList(resolved);
+    }
+  }
+
+
+  /**
+   * @param index The annotation index.
+   * @param ref A reference or null.
+   *
+   * @return The referenced annotation or null.
+   */
+  private Annotation resolve(final AnnotationIndex index,
+                             final Reference ref) {
+    return ref == null ? null : index.lookup(ref.getKind(), ref.getId());
+  }
+
+
+  /**
+   * @return The position of the annotation in the document.
+   */
+  public int getPosition() {
+    return this.position;
+  }
+
+
+  /**
+   * @return The element name of the annotated element, e.g.,
+   *         <code>sre:active</code>, or null if there is none.
+   */
+  public String getKind() {
+    return this.kind;
+  }
+
+
+  /**
+   * @return The id of the annotated SVG element or null if there is none.
+   */
+  public String getId() {
+    return this.id;
+  }
+
+
+  /**
+   * @return The speech attribute, with or without sre prefix. Null if not
+   *         present.
+   */
+  public String getSpeech() {
+    return this.speech;
+  }
+
+
+  /**
+   * @return The speech2 attribute, with or without sre prefix. Null if not
+   *         present.
+   */
+  public String getSpeech2() {
+    return this.speech2;
+  }
+
+
+  /**
+   * @return The unprefixed speech attribute. Null if not present.
+   */
+  public String getPlainSpeech() {
+    return this.plainSpeech;
+  }
+
+
+  /**
+   * @return The unprefixed type attribute. Null if not present.
+   */
+  public String getType() {
+    return this.type;
+  }
+
+
+  /**
+   * @return True if the annotation has an empty parents element, i.e.,
+   *         annotates the entire diagram.
+   */
+  public boolean isRoot() {
+    return this.root;
+  }
+
+
+  /**
+   * @return Mapping of the names of leaf children to their text, which
+   *         identify this annotation in the index.
+   */
+  public Map<String, String> getKeys() {
+    return this.keys;
+  }
+
+
+  /**
+   * @return The first component annotation or null.
+   */
+  public Annotation getComponent() {
+    return this.component;
+  }
+
+
+  /**
+   * @return The first parent annotation or null.
+   */
+  public Annotation getParent() {
+    return this.parent;
+  }
+
+
+  /**
+   * @return The neighbour annotations.
+   */
+  public List<Annotation> getNeighbours() {
+    return this.neighbours;
+  }
+
+
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder("annotation ");
+    result.append(this.position).append(": ").append(this.kind).append('=')
+      .append(this.id).append(" speech=").append(this.speech)
+      .append(" speech2=").append(this.speech2);
+    if (this.componentRef != null) {
+      result.append(" component=").append(this.componentRef);
+    }
+    if (this.parentRef != null) {
+      result.append(" parent=").append(this.parentRef);
+    }
+    if (this.root) {
+      result.append(" root");
+    }
+    if (!this.neighbourRefs.isEmpty()) {
+      result.append(" neighbours=").append(this.neighbourRefs);
+    }
+    return result.toString();
+  }
+
+
+  /**
+   * Reference to another annotation by element name and id.
+   */
+  public static final class Reference {
+
+    private final String kind;
+    private final String id;
+
+    /**
+     * Constructor.
+     *
+     * @param kind The element name, e.g., <code>sre:atom</code>.
+     * @param id The id of the referenced element.
+     */
+    public Reference(final String kind, final String id) {
+      this.kind = kind;
+      this.id = id;
+    }
+
+    /**
+     * @return The element name.
+     */
+    public String getKind() {
+      return this.kind;
+    }
+
+    /**
+     * @return The id.
+     */
+    public String getId() {
+      return this.id;
+    }
+
+    @Override
+    public String toString() {
+      return this.kind + "=" + this.id;
+    }
+  }
+
+
+  /**
+   * Builder for annotations.
+   */
+  public static final class Builder {
+
+    private final int position;
+    private String kind = null;
+    private String id = null;
+    private String speech = null;
+    private String speech2 = null;
+    private String plainSpeech = null;
+    private String type = null;
+    private boolean root = false;
+    private final Map<String, String> keys = new LinkedHashMap<>();
+    private Reference componentRef = null;
+    private Reference parentRef = null;
+    private final List<Reference> neighbourRefs = new ArrayList<>();
+
+
+    /**
+     * Constructor.
+     *
+     * @param position The position of the annotation in the document.
+     */
+    private Builder(final int position) {
+      this.position = position;
+    }
+
+
+    /**
+     * Sets the annotated element.
+     *
+     * @param kind The element name.
+     * @param id The id of the SVG element.
+     *
+     * @return The builder.
+     */
+    public Builder element(final String kind, final String id) {
+      this.kind = kind;
+      this.id = id;
+      return this;
+    }
+
+
+    /**
+     * @param value The speech attribute.
+     *
+     * @return The builder.
+     */
+    public Builder speech(final String value) {
+      this.speech = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The speech2 attribute.
+     *
+     * @return The builder.
+     */
+    public Builder speech2(final String value) {
+      this.speech2 = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The unprefixed speech attribute.
+     *
+     * @return The builder.
+     */
+    public Builder plainSpeech(final String value) {
+      this.plainSpeech = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The unprefixed type attribute.
+     *
+     * @return The builder.
+     */
+    public Builder type(final String value) {
+      this.type = value;
+      return this;
+    }
+
+
+    /**
+     * @param value True if the annotation has an empty parents element.
+     *
+     * @return The builder.
+     */
+    public Builder root(final boolean value) {
+      this.root = value;
+      return this;
+    }
+
+
+    /**
+     * Adds a key for the index. Only the first key of each name is kept.
+     *
+     * @param name The name of a leaf child element.
+     * @param text The trimmed text of the element.
+     *
+     * @return The builder.
+     */
+    public Builder key(final String name, final String text) {
+      if (!this.keys.containsKey(name)) {
+        this.keys.put(name, text);
+      }
+      return this;
+    }
+
+
+    /**
+     * @param ref Reference to the first component.
+     *
+     * @return The builder.
+     */
+    public Builder component(final Reference ref) {
+      this.componentRef = ref;
+      return this;
+    }
+
+
+    /**
+     * @param ref Reference to the first parent.
+     *
+     * @return The builder.
+     */
+    public Builder parent(final Reference ref) {
+      this.parentRef = ref;
+      return this;
+    }
+
+
+    /**
+     * @param ref Reference to a neighbour.
+     *
+     * @return The builder.
+     */
+    public Builder neighbour(final Reference ref) {
+      this.neighbourRefs.add(ref);
+      return this;
+    }
+
+
+    /**
+     * @return The annotation.
+     */
+    public Annotation build() {
+      return new Annotation(this);
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   AnnotationFile.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Fri Jul 28 10:23:07 2017
+ *
+ * @brief  The content of an annotation file.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+
+
+/**
+ * Everything a conversion needs from an annotation file: the linked
+ * annotations and the localised messages. Streamed annotation files are
+ * never held as a DOM; see {@link FileHandler#loadAnnotations(String)}.
+ */
+public final class AnnotationFile {
+
+  private final AnnotationIndex index;
+  private final MessageCatalog catalog;
+
+
+  /**
+   * Constructor.
+   *
+   * @param index The annotations.
+   * @param catalog The messages of the file.
+   */
+  public AnnotationFile(final AnnotationIndex index,
+                        final MessageCatalog catalog) {
+    this.index = index;
+    this.catalog = catalog;
+  }
+
+
+  /**
+   * Extracts annotations and messages from an annotation document.
+   *
+   * @param xml The annotation document.
+   *
+   * @return The content of the document.
+   */
+  public static AnnotationFile fromDocument(final Document xml) {
+    return new AnnotationFile(AnnotationIndex.fromDocument(xml),
+                              MessageCatalog.fromDocument(xml));
+  }
+
+
+  /**
+   * @return The annotations.
+   */
+  public AnnotationIndex getIndex() {
+    return this.index;
+  }
+
+
+  /**
+   * @return The messages of the file, possibly empty.
+   */
+  public MessageCatalog getCatalog() {
+    return this.catalog;
+  }
+
+}
@@ -0,0 +1,260 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   AnnotationIndex.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 17 09:02:45 2017
+ *
+ * @brief  Indexed graph of the annotations of a diagram.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The annotations of a diagram, indexed by element name and id. Annotations
+ * are parsed once and their component, parent and neighbour references are
+ * resolved to direct links, so following them costs constant time.
+ */
+public final class AnnotationIndex {
+
+
+  private final List<Annotation> annotations;
+  private final Map<String, Map<String, Annotation>> index = new HashMap<>();
+
+
+  /**
+   * Constructor. Indexes and links the given annotations.
+   *
+   * @param annotations The annotations in document order.
+   */
+  public AnnotationIndex(final List<Annotation> annotations) {
+    this.annotations = Collections.unmodifiableList(
+        new ArrayList<>(annotations));
+    for (final Annotation annotation : this.annotations) {
+      for (final Map.Entry<String, String> key
+               : annotation.getKeys().entrySet()) {
+        Map<String, Annotation> ids = this.index.get(key.getKey());
+        if (ids == null) {
+          ids = new HashMap<>();
+          this.index.put(key.getKey(), ids);
+        }
+        // The first annotation in document order wins.
+        if (!ids.containsKey(key.getValue())) {
+          ids.put(key.getValue(), annotation);
+        }
+      }
+    }
+    for (final Annotation annotation : this.annotations) {
+      annotation.link(this);
+    }
+  }
+
+
+  /**
+   * Parses the annotations of an annotation document.
+   *
+   * @param xml The annotation document.
+   *
+   * @return The index of all annotations in the document.
+   */
+  public static AnnotationIndex fromDocument(final Document xml) {
+    final NodeList nodes = xml.getElementsByTagName("sre:annotation");
+    final List<Annotation> annotations = new ArrayList<>(nodes.getLength());
+    for (int i = 0; i < nodes.getLength(); i++) {
+      annotations.add(AnnotationIndex.parse((Element) nodes.item(i), i));
+    }
+    return new AnnotationIndex(annotations);
+  }
+
+
+  /**
+   * Parses a single annotation element.
+   *
+   * @param node The <code>sre:annotation</code> element.
+   * @param position The position of the annotation.
+   *
+   * @return The unlinked annotation.
+   */
+  private static Annotation parse(final Element node, final int position) {
+    final Annotation.Builder builder = Annotation.builder(position);
+    final NamedNodeMap attributes = node.getAttributes();
+    builder.speech(AnnotationIndex.getSreAttribute(attributes, "speech"))
+      .speech2(AnnotationIndex.getSreAttribute(attributes, "speech2"))
+      .plainSpeech(AnnotationIndex.getAttribute(attributes, "speech"))
+      .type(AnnotationIndex.getAttribute(attributes, "type"));
+    final Element first = AnnotationIndex.firstChildElement(node);
+    if (first != null) {
+      builder.element(first.getNodeName(), first.getTextContent().trim());
+    }
+    boolean parents = false;
+    boolean component = false;
+    boolean neighbours = false;
+    for (Node child = node.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (!(child instanceof Element)) {
+        continue;
+      }
+      final String name = child.getNodeName();
+      // Only the first element of each name is considered.
+      if (name.equals("sre:parents")) {
+        if (!parents) {
+          parents = true;
+          builder.root(!child.hasChildNodes());
+          builder.parent(AnnotationIndex.reference(child));
+        }
+      } else if (name.equals("sre:component")) {
+        if (!component) {
+          component = true;
+          builder.component(AnnotationIndex.reference(child));
+        }
+      } else if (name.equals("sre:neighbours")) {
+        if (!neighbours) {
+          neighbours = true;
+          AnnotationIndex.neighbours(child, builder);
+        }
+      } else if (AnnotationIndex.firstChildElement(child) == null) {
+        builder.key(name, child.getTextContent().trim());
+      }
+    }
+    return builder.build();
+  }
+
+
+  /**
+   * @param container A container element like <code>sre:parents</code>.
+   *
+   * @return A reference to the first element in the container or null.
+   */
+  private static Annotation.Reference reference(final Node container) {
+    final Element first = AnnotationIndex.firstChildElement(container);
+    return first == null ? null : new Annotation.Reference(
+        first.getNodeName(), first.getTextContent().trim());
+  }
+
+
+  /**
+   * Adds the neighbour references of a <code>sre:neighbours</code> element.
+   *
+   * @param container The neighbours element.
+   * @param builder The builder of the annotation.
+   */
+  private static void neighbours(final Node container,
+                                 final Annotation.Builder builder) {
+    for (Node child = container.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (!(child instanceof Element)) {
+        continue;
+      }
+      // Either a sre:neighbour wrapper or a direct reference.
+      final Element first = AnnotationIndex.firstChildElement(child);
+      final Node ref = first == null ? child : first;
+      builder.neighbour(new Annotation.Reference(
+          ref.getNodeName(), ref.getTextContent().trim()));
+    }
+  }
+
+
+  /**
+   * @param node A node.
+   *
+   * @return The first child element of the node or null.
+   */
+  private static Element firstChildElement(final Node node) {
+    for (Node child = node.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (child instanceof Element) {
+        return (Element) child;
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * @param attributes The attributes of an element.
+   * @param name The attribute name.
+   *
+   * @return The value of the attribute with or without sre prefix or null.
+   */
+  private static String getSreAttribute(final NamedNodeMap attributes,
+                                        final String name) {
+    final String value = AnnotationIndex.getAttribute(attributes, name);
+    return value != null ? value : AnnotationIndex.getAttribute(
+        attributes, XmlNames.SRE_PREFIX + name);
+  }
+
+
+  /**
+   * @param attributes The attributes of an element.
+   * @param name The attribute name.
+   *
+   * @return The value of the attribute or null.
+   */
+  private static String getAttribute(final NamedNodeMap attributes,
+                                     final String name) {
+    final Node attr = attributes.getNamedItem(name);
+    return attr == null ? null : attr.getNodeValue();
+  }
+
+
+  /**
+   * Finds the first annotation that has a leaf child of the given name with
+   * the given text.
+   *
+   * @param kind The element name, e.g., <code>sre:active</code>.
+   * @param id The text of the element.
+   *
+   * @return The annotation or null.
+   */
+  public Annotation lookup(final String kind, final String id) {
+    final Map<String, Annotation> ids = this.index.get(kind);
+    return ids == null ? null : ids.get(id);
+  }
+
+
+  /**
+   * @return All annotations in document order.
+   */
+  public List<Annotation> getAnnotations() {
+    return this.annotations;
+  }
+
+
+  /**
+   * @return The number of annotations.
+   */
+  public int size() {
+    return this.annotations.size();
+  }
+
+}
@@ -0,0 +1,427 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   AnnotationReader.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Fri Jul 28 10:41:52 2017
+ *
+ * @brief  Streaming reader for annotation files.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Reads annotation files with StAX, straight into annotations and message
+ * catalogs. Only the elements inside <code>sre:annotation</code> and
+ * <code>messages</code> elements are tracked, and only until they are
+ * closed; all other content is skipped.
+ *
+ * <p>
+ * The results are the same as those of {@link AnnotationIndex#fromDocument}
+ * and {@link MessageCatalog#fromDocument} on a DOM of the file. In particular
+ * elements are matched by their qualified names, as the DOM of annotation
+ * files is not namespace aware.
+ * </p>
+ */
+final class AnnotationReader {
+
+  private static final XMLInputFactory FACTORY = AnnotationReader.factory();
+
+  private static final String ANNOTATION = "sre:annotation";
+  private static final String PARENTS = "sre:parents";
+  private static final String COMPONENT = "sre:component";
+  private static final String NEIGHBOURS = "sre:neighbours";
+
+  /** The role of a child element of an annotation. */
+  private enum Role { NONE, PARENTS, COMPONENT, NEIGHBOURS, KEY }
+
+  private final List<Annotation.Builder> annotations = new ArrayList<>();
+  private final List<Frame> messages = new ArrayList<>();
+  private Frame top = null;
+
+
+  /**
+   * Constructor.
+   */
+  private AnnotationReader() {
+  }
+
+
+  /**
+   * Reads an annotation file from a stream.
+   *
+   * @param input The stream to read. It is not closed.
+   * @param systemId The URI of the file, against which references are
+   *          resolved, or null.
+   *
+   * @return The content of the file.
+   *
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  static AnnotationFile read(final InputStream input, final String systemId)
+      throws XMLStreamException {
+    final XMLStreamReader reader = systemId == null
+        ? AnnotationReader.FACTORY.createXMLStreamReader(input)
+        : AnnotationReader.FACTORY.createXMLStreamReader(systemId, input);
+    try {
+      return new AnnotationReader().parse(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+
+  /**
+   * @param reader The stream reader positioned at the start of the document.
+   *
+   * @return The content of the document.
+   *
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  private AnnotationFile parse(final XMLStreamReader reader)
+      throws XMLStreamException {
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          this.start(reader);
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          this.end();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          this.characters(reader.getText());
+          break;
+        case XMLStreamConstants.COMMENT:
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          if (this.top != null) {
+            this.top.children = true;
+            this.top.lastText = false;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    final List<Annotation> result = new ArrayList<>(this.annotations.size());
+    for (final Annotation.Builder builder : this.annotations) {
+      result.add(builder.build());
+    }
+    final Map<String, Map<String, String>> languages = new HashMap<>();
+    // In document order, so that later messages override earlier ones.
+    for (final Frame frame : this.messages) {
+      for (final String language : frame.languages) {
+        languages.computeIfAbsent(language, k -> new HashMap<>())
+          .putAll(frame.entries);
+      }
+    }
+    return new AnnotationFile(new AnnotationIndex(result),
+                              MessageCatalog.of(languages));
+  }
+
+
+  /**
+   * Opens an element.
+   *
+   * @param reader The reader positioned at the start tag.
+   */
+  private void start(final XMLStreamReader reader) {
+    final Frame parent = this.top;
+    final String name = XmlNames.qualifiedName(
+        reader.getPrefix(), reader.getLocalName());
+    final Frame frame = new Frame(name, parent);
+    this.top = frame;
+    if (parent != null) {
+      parent.children = true;
+      parent.lastText = false;
+      if (parent.first == null) {
+        parent.first = frame;
+      }
+    }
+    if (AnnotationReader.ANNOTATION.equals(name)) {
+      final Annotation.Builder builder =
+          Annotation.builder(this.annotations.size());
+      builder.speech(AnnotationReader.sreAttribute(reader, "speech"))
+        .speech2(AnnotationReader.sreAttribute(reader, "speech2"))
+        .plainSpeech(AnnotationReader.attribute(reader, "speech"))
+        .type(AnnotationReader.attribute(reader, "type"));
+      this.annotations.add(builder);
+      frame.annotation = builder;
+      frame.context = true;
+    }
+    final String local = XmlNames.localName(name);
+    if ("messages".equals(local)) {
+      frame.entries = new HashMap<>();
+      frame.languages = new ArrayList<>();
+      this.messages.add(frame);
+      frame.context = true;
+    }
+    if (parent == null) {
+      return;
+    }
+    if (parent.annotation != null) {
+      frame.role = parent.role(name);
+    }
+    if (parent.entries != null) {
+      if ("message".equals(local)) {
+        final String msg = AnnotationReader.sreAttribute(reader, "msg");
+        frame.msg = msg == null ? "" : msg;
+      } else if ("language".equals(local)) {
+        frame.texts = new ArrayList<>();
+      }
+    }
+  }
+
+
+  /**
+   * Closes the current element, handing its content to its parent.
+   */
+  private void end() {
+    final Frame frame = this.top;
+    final Frame parent = frame.parent;
+    this.top = parent;
+    if (frame.annotation != null && frame.first != null) {
+      frame.annotation.element(frame.first.name.intern(),
+                               frame.first.trimmedText());
+    }
+    if (parent == null) {
+      return;
+    }
+    if (parent.annotation != null) {
+      final Annotation.Builder builder = parent.annotation;
+      switch (frame.role) {
+        case PARENTS:
+          builder.root(!frame.children);
+          builder.parent(AnnotationReader.reference(frame.first));
+          break;
+        case COMPONENT:
+          builder.component(AnnotationReader.reference(frame.first));
+          break;
+        case KEY:
+          if (frame.first == null) {
+            builder.key(frame.name.intern(), frame.trimmedText());
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (parent.role == Role.NEIGHBOURS) {
+      // Either a sre:neighbour wrapper or a direct reference.
+      parent.parent.annotation.neighbour(AnnotationReader.reference(
+          frame.first == null ? frame : frame.first));
+    }
+    if (parent.entries != null) {
+      if (frame.msg != null) {
+        parent.entries.put(frame.msg.intern(),
+                           frame.text.toString().intern());
+      } else if (frame.texts != null) {
+        // Like text()='xx', any text child naming the language counts.
+        for (final StringBuilder text : frame.texts) {
+          parent.languages.add(text.toString().intern());
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Adds character data to the current element and, within annotations and
+   * messages, to the text of all enclosing elements.
+   *
+   * @param text The character data.
+   */
+  private void characters(final String text) {
+    final Frame frame = this.top;
+    if (frame == null) {
+      return;
+    }
+    frame.children = true;
+    if (frame.texts != null) {
+      if (frame.lastText) {
+        frame.texts.get(frame.texts.size() - 1).append(text);
+      } else {
+        frame.texts.add(new StringBuilder(text));
+      }
+    }
+    frame.lastText = true;
+    for (Frame current = frame; current != null && current.text != null;
+         current = current.parent) {
+      current.text.append(text);
+    }
+  }
+
+
+  /**
+   * @param element A closed element or null.
+   *
+   * @return A reference by the name and text of the element or null.
+   */
+  private static Annotation.Reference reference(final Frame element) {
+    return element == null ? null : new Annotation.Reference(
+        element.name.intern(), element.trimmedText());
+  }
+
+
+  /**
+   * @param reader The reader positioned at a start tag.
+   * @param name The qualified attribute name.
+   *
+   * @return The interned value of the attribute or null.
+   */
+  private static String attribute(final XMLStreamReader reader,
+                                  final String name) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      if (name.equals(XmlNames.qualifiedName(
+              reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))) {
+        return reader.getAttributeValue(i).intern();
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * @param reader The reader positioned at a start tag.
+   * @param name The attribute name.
+   *
+   * @return The value of the attribute with or without sre prefix or null.
+   */
+  private static String sreAttribute(final XMLStreamReader reader,
+                                     final String name) {
+    final String value = AnnotationReader.attribute(reader, name);
+    return value != null ? value : AnnotationReader.attribute(
+        reader, XmlNames.SRE_PREFIX + name);
+  }
+
+
+  /**
+   * @return The factory for annotation readers. Like the DOM of annotation
+   *         files it is not namespace aware. Annotation files come from
+   *         requests as well, so document type declarations are not
+   *         processed and external entities are never read.
+   */
+  private static XMLInputFactory factory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                        false);
+    return factory;
+  }
+
+
+  /**
+   * An open element and the part of its content that is still needed.
+   */
+  private static final class Frame {
+
+    private final String name;
+    private final Frame parent;
+    /** The text content, only kept within annotations and messages. */
+    private final StringBuilder text;
+    private boolean context;
+    private boolean children = false;
+    private boolean lastText = false;
+    private Frame first = null;
+    private Role role = Role.NONE;
+
+    // Of annotation elements.
+    private Annotation.Builder annotation = null;
+    private boolean parents = false;
+    private boolean component = false;
+    private boolean neighbours = false;
+
+    // Of messages, message and language elements.
+    private Map<String, String> entries = null;
+    private List<String> languages = null;
+    private String msg = null;
+    private List<StringBuilder> texts = null;
+
+    /**
+     * Constructor.
+     *
+     * @param name The qualified name of the element.
+     * @param parent The enclosing element or null.
+     */
+    private Frame(final String name, final Frame parent) {
+      this.name = name;
+      this.parent = parent;
+      this.context = parent != null && parent.context;
+      this.text = this.context ? new StringBuilder() : null;
+    }
+
+    /**
+     * Determines the role of a child of this annotation. Only the first
+     * element of each name is considered.
+     *
+     * @param child The name of the child.
+     *
+     * @return The role of the child.
+     */
+    private Role role(final String child) {
+      switch (child) {
+        case AnnotationReader.PARENTS:
+          if (this.parents) {
+            return Role.NONE;
+          }
+          this.parents = true;
+          return Role.PARENTS;
+        case AnnotationReader.COMPONENT:
+          if (this.component) {
+            return Role.NONE;
+          }
+          this.component = true;
+          return Role.COMPONENT;
+        case AnnotationReader.NEIGHBOURS:
+          if (this.neighbours) {
+            return Role.NONE;
+          }
+          this.neighbours = true;
+          return Role.NEIGHBOURS;
+        default:
+          return Role.KEY;
+      }
+    }
+
+    /**
+     * @return The interned, trimmed text content.
+     */
+    private String trimmedText() {
+      return this.text.toString().trim().intern();
+    }
+  }
+
+}
@@ -27,13 +27,29 @@
 
 package com.progressiveaccess.audiotactile;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Iterator;
 
 /**
  * The application class.
+ *
+ * <p>
+ * Batch conversions exit with {@link #EXIT_FAILED} if some pair could not be
+ * converted and with {@link #EXIT_INPUT} if the input files could not all be
+ * paired or a manifest could not be read.
+ * </p>
  */
 public final class App {
 
+  /** Exit code if a conversion failed. */
+  public static final int EXIT_FAILED = 1;
+
+  /** Exit code for missing or invalid inputs. */
+  public static final int EXIT_INPUT = 2;
+
   /** Dummy constructor. */
   private App() {
     throw new AssertionError("Instantiating utility class...");
@@ -52,16 +68,240 @@ public final class App {
   public static void main(final String[] args) throws Exception {
     Cli.init(args);
     Logger.start();
+    Metrics.start();
     Logger.logging("Running in verbose mode...");
     Logger.error("Running in debug mode...");
-    Iterator<String> iter = Cli.getFiles().iterator();
+    if (Cli.hasOption("serve")) {
+      App.serve();
+      return;
+    }
+    if (Cli.hasOption("watch")) {
+      App.watch();
+      return;
+    }
+    final OutputCache cache = Cli.hasOption("cache")
+        ? new OutputCache(new File(Cli.getOptionValue("cache")),
+                          Cli.getCacheSize())
+        : null;
+    final BatchReport report;
+    try {
+      report = Cli.hasOption("report")
+          ? new BatchReport(Cli.getOptionValue("report")) : new BatchReport();
+    } catch (final IOException e) {
+      System.err.println("Error: Can't write report to "
+          + Cli.getOptionValue("report") + ": " + e.getMessage());
+      App.finish();
+      System.exit(App.EXIT_INPUT);
+      return;
+    }
+    final TactileConverter converter =
+        new TactileConverter(Cli.getTactileOptions());
+    final BatchConverter batch = new BatchConverter(
+        converter, Cli.getThreads(), cache, report);
+    final boolean complete = App.addPairs(batch, converter);
+    final int failures;
+    try {
+      failures = batch.run();
+    } finally {
+      try {
+        report.close();
+      } catch (final IOException e) {
+        System.err.println("Error: Can't write report to "
+            + Cli.getOptionValue("report") + ": " + e.getMessage());
+      }
+      if (Logger.isVerbose()) {
+        System.err.println("Summary: " + report.summary());
+      }
+      App.finish();
+    }
+    if (!complete) {
+      System.exit(App.EXIT_INPUT);
+    }
+    if (failures > 0) {
+      System.exit(App.EXIT_FAILED);
+    }
+  }
+
+
+  /**
+   * Adds the pairs given on the command line, in a manifest and in a scanned
+   * directory to the batch.
+   *
+   * @param batch The batch.
+   * @param converter The converter for pairs without options of their own.
+   *
+   * @return True if all inputs could be paired.
+   */
+  private static boolean addPairs(final BatchConverter batch,
+                                  final TactileConverter converter) {
+    final Variants variants =
+        new Variants(Cli.getLanguages(), Cli.getProfiles());
+    boolean complete = true;
+    final Iterator<String> iter = Cli.getFiles().iterator();
     while (iter.hasNext()) {
       final String svg = iter.next();
       if (iter.hasNext()) {
         final String xml = iter.next();
-        new Tactile(svg, xml);
+        App.add(batch, variants, svg, xml, Cli.getOutput(svg), converter);
+      } else {
+        System.err.println("Error: File " + svg
+            + " has no annotation file. Ignored!");
+        complete = false;
+      }
+    }
+    if (Cli.hasOption("manifest")) {
+      final String file = Cli.getOptionValue("manifest");
+      try {
+        final Manifest manifest = Manifest.read(Paths.get(file), converter);
+        for (final String error : manifest.getErrors()) {
+          System.err.println("Error: Invalid manifest entry " + error);
+          complete = false;
+        }
+        for (final Manifest.Entry entry : manifest.getEntries()) {
+          App.add(batch, variants, entry.getSvg(), entry.getXml(),
+                  entry.getOutput() == null
+                  ? Cli.getOutput(entry.getSvg()) : entry.getOutput(),
+                  entry.getConverter());
+        }
+      } catch (final IOException e) {
+        System.err.println("Error: Can't read manifest " + file + ": "
+            + e.getMessage());
+        complete = false;
+      }
+    }
+    if (Cli.hasOption("scan")) {
+      final Path root = Paths.get(Cli.getOptionValue("scan"));
+      final File directory = Cli.hasOption("output_directory")
+          ? new File(Cli.getOptionValue("output_directory")) : null;
+      try {
+        final Manifest manifest = Manifest.scan(
+            root, directory == null ? null : directory.toPath(), converter);
+        for (final String error : manifest.getErrors()) {
+          System.err.println("Error: " + error + " Ignored!");
+          complete = false;
+        }
+        for (final Manifest.Entry entry : manifest.getEntries()) {
+          App.add(batch, variants, entry.getSvg(), entry.getXml(),
+                  App.scanOutput(root, directory, entry.getSvg()),
+                  converter);
+        }
+      } catch (final IOException e) {
+        System.err.println("Error: Can't scan directory " + root + ": "
+            + e.getMessage());
+        complete = false;
       }
     }
+    return complete;
+  }
+
+
+  /**
+   * Adds a pair to the batch, fanned out to all variants if any are given.
+   *
+   * @param batch The batch.
+   * @param variants The languages and profiles of the variants.
+   * @param svg The SVG file.
+   * @param xml The XML annotation file.
+   * @param output The output file or null for standard output.
+   * @param converter The converter of the pair.
+   */
+  private static void add(final BatchConverter batch, final Variants variants,
+                          final String svg, final String xml,
+                          final String output,
+                          final TactileConverter converter) {
+    if (variants.isEmpty()) {
+      batch.add(svg, xml, output, converter);
+    } else {
+      variants.add(batch, svg, xml, output, converter);
+    }
+  }
+
+
+  /**
+   * @param root The root of the scanned tree.
+   * @param directory The output directory or null.
+   * @param svg The SVG file of a pair.
+   *
+   * @return The output file of the pair, mirroring its place in the tree, or
+   *         the output given on the command line if there is no output
+   *         directory.
+   */
+  private static String scanOutput(final Path root, final File directory,
+                                   final String svg) {
+    if (directory == null) {
+      return Cli.getOutput(svg);
+    }
+    final File file = new File(directory, root.relativize(Paths.get(svg))
+                               .toString());
+    file.getParentFile().mkdirs();
+    return file.getPath();
+  }
+
+
+  /**
+   * Runs the HTTP conversion service until the JVM is terminated.
+   *
+   * @throws IOException
+   *          If the service address can not be bound.
+   */
+  private static void serve() throws IOException {
+    final ConversionServer server;
+    try {
+      server = new ConversionServer(
+          Cli.getTactileOptions(),
+          ConversionServer.parseAddress(Cli.getOptionValue("serve")),
+          Cli.getThreads(), Cli.getQueue());
+    } catch (final IOException | IllegalArgumentException e) {
+      Logger.stop();
+      throw e;
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        server.stop(5);
+        App.finish();
+      }, "tactile-shutdown"));
+    server.start();
+    System.err.println("Serving on " + server.getAddress());
+  }
+
+
+  /**
+   * Watches a directory tree until the JVM is terminated.
+   *
+   * @throws IOException
+   *          If the tree can not be watched.
+   */
+  private static void watch() throws IOException {
+    if (!Cli.hasOption("output_directory")) {
+      System.err.println("Error: Watching needs an output directory.");
+      App.finish();
+      System.exit(App.EXIT_INPUT);
+    }
+    final FolderWatcher watcher = new FolderWatcher(
+        new TactileConverter(Cli.getTactileOptions()),
+        Paths.get(Cli.getOptionValue("watch")),
+        new File(Cli.getOptionValue("output_directory")),
+        Cli.getThreads(), Cli.getDebounce());
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        watcher.stop(5);
+        App.finish();
+      }, "tactile-shutdown"));
+    System.err.println("Watching " + Cli.getOptionValue("watch"));
+    watcher.run();
+  }
 
+
+  /**
+   * Writes the metrics if requested and stops logging.
+   */
+  private static void finish() {
+    if (Cli.hasOption("metrics")) {
+      try {
+        Metrics.write(Cli.getOptionValue("metrics"));
+      } catch (final IOException e) {
+        System.err.println("Error: Can't write metrics to "
+            + Cli.getOptionValue("metrics") + ": " + e.getMessage());
+      }
+    }
+    Logger.stop();
   }
 }
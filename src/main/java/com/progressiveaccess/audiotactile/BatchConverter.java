@@ -0,0 +1,762 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   BatchConverter.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 10 09:12:31 2017
+ *
+ * @brief  Parallel conversion of SVG/XML pairs.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.w3c.dom.Document;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Converts a batch of SVG/XML pairs on a bounded pool of worker threads.
+ *
+ * <p>
+ * Pairs are scheduled largest first, so that a single big diagram does not
+ * end up running on its own after all other pairs are done. Every pair is
+ * converted in isolation: a failing pair is reported and does not stop the
+ * remaining conversions. The outcome of every pair is recorded in a
+ * {@link BatchReport}.
+ * </p>
+ *
+ * <p>
+ * A pair can be converted with several converters, e.g., for different
+ * languages and profiles. Its variants are scheduled as jobs of their own,
+ * but parse the inputs only once: the first variant loads them, every
+ * variant enriches its own clone of the SVG document.
+ * </p>
+ */
+public final class BatchConverter {
+
+  private final TactileConverter converter;
+  private final int threads;
+  private final OutputCache cache;
+  private final BatchReport report;
+  private final List<Job> jobs = new ArrayList<>();
+  /** The jobs writing to the same output file, by normalised path. */
+  private final Map<String, List<Job>> outputs = new LinkedHashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param converter The converter used for all pairs.
+   * @param threads The maximal number of concurrent conversions.
+   */
+  public BatchConverter(final TactileConverter converter, final int threads) {
+    this(converter, threads, null);
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param converter The converter used for all pairs.
+   * @param threads The maximal number of concurrent conversions.
+   * @param cache The cache of conversion results or null.
+   */
+  public BatchConverter(final TactileConverter converter, final int threads,
+                        final OutputCache cache) {
+    this(converter, threads, cache, new BatchReport());
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param converter The converter used for all pairs without a converter of
+   *        their own.
+   * @param threads The maximal number of concurrent conversions.
+   * @param cache The cache of conversion results or null.
+   * @param report The report recording the outcome of every pair.
+   */
+  public BatchConverter(final TactileConverter converter, final int threads,
+                        final OutputCache cache, final BatchReport report) {
+    this.converter = converter;
+    this.threads = Math.max(1, threads);
+    this.cache = cache;
+    this.report = report;
+  }
+
+
+  /**
+   * @return The report recording the outcome of every pair.
+   */
+  public BatchReport getReport() {
+    return this.report;
+  }
+
+
+  /**
+   * Adds a pair of files to the batch.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The output file. If null the result is printed to standard
+   *        output.
+   */
+  public void add(final String svgFile, final String xmlFile,
+                  final String output) {
+    this.add(svgFile, xmlFile, output, this.converter);
+  }
+
+
+  /**
+   * Adds a pair of files to the batch, which is converted with its own
+   * options.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The output file. If null the result is printed to standard
+   *        output.
+   * @param converter The converter for the pair.
+   */
+  public void add(final String svgFile, final String xmlFile,
+                  final String output, final TactileConverter converter) {
+    this.add(new Job(svgFile, xmlFile, output, converter, null));
+  }
+
+
+  /**
+   * Adds a pair of files to the batch, which is converted with several
+   * converters. The inputs are parsed only once for all of them.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param converters The converters of the variants.
+   * @param outputs The output file of each variant. Null entries are printed
+   *        to standard output.
+   */
+  public void add(final String svgFile, final String xmlFile,
+                  final List<TactileConverter> converters,
+                  final List<String> outputs) {
+    final Source source = new Source(converters.size());
+    for (int i = 0; i < converters.size(); i++) {
+      this.add(new Job(svgFile, xmlFile, outputs.get(i), converters.get(i),
+                       source));
+    }
+  }
+
+
+  /**
+   * Adds a job to the batch. Jobs writing to the same output file are
+   * converted one after the other in the order they were added, so that
+   * the last one wins as when converting sequentially.
+   *
+   * @param job The conversion job.
+   */
+  private void add(final Job job) {
+    this.jobs.add(job);
+    if (job.output == null) {
+      return;
+    }
+    final List<Job> same = this.outputs.computeIfAbsent(
+        Paths.get(job.output).toAbsolutePath().normalize().toString(),
+        k -> new ArrayList<>());
+    if (same.size() == 1) {
+      System.err.println("Warning: Several pairs are written to "
+                         + job.output + ", the last one wins.");
+    }
+    same.add(job);
+  }
+
+
+  /**
+   * Converts all pairs in the batch and waits for them to finish.
+   *
+   * @return The number of pairs that could not be converted.
+   *
+   * @throws InterruptedException
+   *          If interrupted while waiting for the workers.
+   */
+  public int run() throws InterruptedException {
+    final List<Job> scheduled = new ArrayList<>(this.jobs);
+    final int poolSize = Math.min(this.threads, scheduled.size());
+    if (poolSize <= 1) {
+      // Keep the given order when converting sequentially.
+      return this.convert(scheduled);
+    }
+    // Jobs sharing an output file form a single task, converting them in
+    // order, so that their writes never overlap.
+    final List<List<Job>> tasks = new ArrayList<>();
+    for (final Job job : scheduled) {
+      if (job.output == null) {
+        tasks.add(Collections.singletonList(job));
+      }
+    }
+    tasks.addAll(this.outputs.values());
+    Collections.sort(tasks, new Comparator<List<Job>>() {
+        @Override
+        public int compare(final List<Job> a, final List<Job> b) {
+          return Long.compare(BatchConverter.size(b), BatchConverter.size(a));
+        }
+      });
+    final ExecutorService pool = Executors.newFixedThreadPool(
+        Math.min(poolSize, tasks.size()), new WorkerFactory());
+    final List<Future<Integer>> results = new ArrayList<>();
+    for (final List<Job> task : tasks) {
+      results.add(pool.submit(() -> this.convert(task)));
+    }
+    pool.shutdown();
+    int failures = 0;
+    try {
+      for (final Future<Integer> result : results) {
+        try {
+          failures += result.get();
+        } catch (final ExecutionException e) {
+          failures++;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return failures;
+  }
+
+
+  /**
+   * @param task Jobs converted one after the other.
+   *
+   * @return The combined size of their inputs.
+   */
+  private static long size(final List<Job> task) {
+    long size = 0L;
+    for (final Job job : task) {
+      size += job.size;
+    }
+    return size;
+  }
+
+
+  /**
+   * Converts jobs one after the other.
+   *
+   * @param task The jobs.
+   *
+   * @return The number of jobs that could not be converted.
+   */
+  private int convert(final List<Job> task) {
+    int failures = 0;
+    for (final Job job : task) {
+      failures += this.convert(job) ? 0 : 1;
+    }
+    return failures;
+  }
+
+
+  /**
+   * Converts a single pair on the calling thread, outside of any batch.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The output file. If null the result is printed to standard
+   *        output.
+   *
+   * @return True if the conversion was successful.
+   */
+  boolean convert(final String svgFile, final String xmlFile,
+                  final String output) {
+    return this.convert(new Job(svgFile, xmlFile, output, this.converter,
+                                null));
+  }
+
+
+  /**
+   * Converts a single pair, isolating the batch from its failures.
+   *
+   * @param job The conversion job.
+   *
+   * @return True if the conversion was successful.
+   */
+  private boolean convert(final Job job) {
+    final long start = System.nanoTime();
+    String reason = null;
+    try {
+      BatchConverter.check(job.svgFile);
+      BatchConverter.check(job.xmlFile);
+      if (this.cache != null) {
+        this.convertCached(job);
+      } else if (job.source != null) {
+        BatchConverter.write(job, output -> BatchConverter.variant(job,
+                                                                  output));
+      } else if (job.converter.getOptions().isStream()) {
+        this.stream(job);
+      } else {
+        final TactileResult result =
+            job.converter.convert(job.svgFile, job.xmlFile);
+        final Metrics.Timer timer = Metrics.begin();
+        this.write(job, result);
+        timer.stop(Metrics.Stage.OUTPUT);
+      }
+    } catch (final Exception | StackOverflowError e) {
+      reason = e.toString();
+      BatchConverter.failure(job, reason);
+      Logger.error(e);
+    }
+    if (job.source != null) {
+      job.source.release();
+    }
+    Metrics.document(reason == null);
+    this.report.add(job.svgFile, job.xmlFile, job.output,
+                    reason != null ? BatchReport.Status.FAILED
+                    : job.cached ? BatchReport.Status.CACHED
+                    : BatchReport.Status.CONVERTED,
+                    System.nanoTime() - start, job.size, job.written, reason);
+    return reason == null;
+  }
+
+
+  /**
+   * Writes the result of a pair.
+   *
+   * @param job The conversion job.
+   * @param result The result of the conversion.
+   *
+   * @throws IOException
+   *          If the output can not be written.
+   */
+  private void write(final Job job, final TactileResult result)
+      throws IOException {
+    BatchConverter.write(job, output -> BatchConverter.serialise(
+        job, result, output));
+  }
+
+
+  /**
+   * Serialises the result of a pair.
+   *
+   * @param job The conversion job.
+   * @param result The result of the conversion.
+   * @param output The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If the output can not be written.
+   */
+  private static void serialise(final Job job, final TactileResult result,
+                                final OutputStream output)
+      throws IOException {
+    if (job.output == null) {
+      // Standard output does not declare the IVEO namespaces.
+      result.printSvg(output);
+    } else {
+      result.writeSvg(output);
+    }
+  }
+
+
+  /**
+   * Converts a variant of a pair from the inputs it shares with the other
+   * variants. Streaming variants only share the annotations.
+   *
+   * @param job The conversion job.
+   * @param output The stream to write the result to. It is not closed.
+   *
+   * @throws IOException
+   *          If the inputs can not be read or parsed or the output can not
+   *          be written.
+   */
+  private static void variant(final Job job, final OutputStream output)
+      throws IOException {
+    final AnnotationFile xml = job.source.annotations(job);
+    if (job.converter.getOptions().isStream()) {
+      job.converter.stream(job.svgFile, xml, output);
+      return;
+    }
+    final TactileResult result =
+        job.converter.convert(job.source.document(job), xml);
+    final Metrics.Timer timer = Metrics.begin();
+    BatchConverter.serialise(job, result, output);
+    timer.stop(Metrics.Stage.OUTPUT);
+  }
+
+
+  /**
+   * Converts a single pair by streaming the SVG file straight to the output.
+   *
+   * @param job The conversion job.
+   *
+   * @throws IOException
+   *          If the inputs can not be read or parsed or the output can not
+   *          be written.
+   */
+  private void stream(final Job job) throws IOException {
+    BatchConverter.write(job, output -> job.converter.stream(
+        job.svgFile, job.xmlFile, output));
+  }
+
+
+  /**
+   * Writes content to the output of a job, compressing it if requested, and
+   * records the number of bytes written.
+   *
+   * @param job The conversion job.
+   * @param content The content.
+   *
+   * @throws IOException
+   *          If the content can not be produced or written.
+   */
+  private static void write(final Job job, final Content content)
+      throws IOException {
+    if (job.output == null) {
+      // Lock standard output, so that concurrent conversions do not
+      // interleave.
+      synchronized (System.out) {
+        final CountingOutputStream output = new CountingOutputStream(
+            new CloseShieldOutputStream(System.out));
+        try (OutputStream encoded = BatchConverter.encode(job, output)) {
+          content.write(encoded);
+        }
+        System.out.flush();
+        job.written = output.getByteCount();
+      }
+      return;
+    }
+    final CountingOutputStream output = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(job.output)));
+    try (OutputStream encoded = BatchConverter.encode(job, output)) {
+      content.write(encoded);
+    }
+    job.written = output.getByteCount();
+  }
+
+
+  /**
+   * @param job The conversion job.
+   * @param output The output stream of the job.
+   *
+   * @return The stream to write the uncompressed content to. Closing it
+   *         closes the output stream.
+   *
+   * @throws IOException
+   *          If the output can not be written.
+   */
+  private static OutputStream encode(final Job job, final OutputStream output)
+      throws IOException {
+    return BatchConverter.compressed(job)
+        ? FileHandler.compress(
+            output, job.converter.getOptions().getCompressionLevel())
+        : output;
+  }
+
+
+  /**
+   * @param job The conversion job.
+   *
+   * @return True if the output of the job is compressed.
+   */
+  private static boolean compressed(final Job job) {
+    return job.converter.getOptions().isCompress()
+        || FileHandler.isCompressed(job.output);
+  }
+
+
+  /**
+   * Converts a single pair through the cache. On a hit the documents are not
+   * parsed at all and an output file with identical content is left alone.
+   *
+   * @param job The conversion job.
+   *
+   * @throws IOException
+   *          If the inputs can not be read or parsed or the output can not
+   *          be written.
+   */
+  private void convertCached(final Job job) throws IOException {
+    final byte[] svg = Files.readAllBytes(Paths.get(job.svgFile));
+    final byte[] xml = Files.readAllBytes(Paths.get(job.xmlFile));
+    // Standard output does not declare the IVEO namespaces.
+    final String key = this.cache.key(
+        svg, xml, job.converter.getOptions(),
+        (job.output == null ? "print" : "write")
+        + (BatchConverter.compressed(job) ? ",gzip" : ""));
+    byte[] output = this.cache.get(key);
+    if (output != null) {
+      Logger.logging("Cache hit for " + job.svgFile);
+      job.cached = true;
+    } else {
+      final ByteArrayOutputStream bytes =
+          new ByteArrayOutputStream(svg.length + svg.length / 2);
+      final String uri = new File(job.svgFile).toURI().toString();
+      try (OutputStream encoded = BatchConverter.encode(job, bytes)) {
+        if (job.source != null) {
+          BatchConverter.variant(job, encoded);
+        } else if (job.converter.getOptions().isStream()) {
+          job.converter.stream(ByteBuffer.wrap(svg), uri, ByteBuffer.wrap(xml),
+                               encoded);
+        } else {
+          final TactileResult result = job.converter.convert(svg, uri, xml);
+          final Metrics.Timer timer = Metrics.begin();
+          BatchConverter.serialise(job, result, encoded);
+          timer.stop(Metrics.Stage.OUTPUT);
+        }
+      }
+      output = bytes.toByteArray();
+      this.cache.put(key, output);
+    }
+    final Metrics.Timer timer = Metrics.begin();
+    BatchConverter.emit(output, job.output);
+    timer.stop(Metrics.Stage.OUTPUT);
+    job.written = output.length;
+  }
+
+
+  /**
+   * Writes a serialised result, unless the output file already has the same
+   * content.
+   *
+   * @param output The serialised result.
+   * @param fileName The output file or null for standard output.
+   *
+   * @throws IOException
+   *          If the output can not be written.
+   */
+  private static void emit(final byte[] output, final String fileName)
+      throws IOException {
+    if (fileName == null) {
+      synchronized (System.out) {
+        System.out.write(output);
+        System.out.flush();
+      }
+      return;
+    }
+    final Path file = Paths.get(fileName);
+    if (Files.isRegularFile(file) && Files.size(file) == output.length
+        && Arrays.equals(Files.readAllBytes(file), output)) {
+      Logger.logging("Unchanged " + fileName);
+      return;
+    }
+    Files.write(file, output);
+  }
+
+
+  /**
+   * Checks that an input file exists.
+   *
+   * @param fileName The input file.
+   *
+   * @throws FileNotFoundException
+   *          If the file does not exist.
+   */
+  private static void check(final String fileName)
+      throws FileNotFoundException {
+    if (!new File(fileName).isFile()) {
+      throw new FileNotFoundException("File " + fileName
+                                      + " does not exist");
+    }
+  }
+
+
+  /**
+   * Prints an error message for a failed conversion.
+   *
+   * @param job The failed job.
+   * @param reason The reason for the failure.
+   */
+  private static void failure(final Job job, final String reason) {
+    System.err.println("Error: Conversion of " + job.svgFile + " and "
+        + job.xmlFile + " failed: " + reason);
+  }
+
+
+  /**
+   * Producer of the content of an output.
+   */
+  private interface Content {
+
+    /**
+     * @param output The stream to write the content to. It is not closed.
+     *
+     * @throws IOException
+     *          If the content can not be produced or written.
+     */
+    void write(OutputStream output) throws IOException;
+  }
+
+
+  /**
+   * A single pair of input files with its output destination.
+   */
+  private static final class Job {
+
+    private final String svgFile;
+    private final String xmlFile;
+    private final String output;
+    private final TactileConverter converter;
+    private final Source source;
+    private final long size;
+    // Set by the worker converting the job.
+    private long written = 0L;
+    private boolean cached = false;
+
+    /**
+     * Constructor.
+     *
+     * @param svgFile The SVG file.
+     * @param xmlFile The XML annotation file.
+     * @param output The output file or null for standard output.
+     * @param converter The converter for the pair.
+     * @param source The inputs shared with other variants of the pair or
+     *        null.
+     */
+    private Job(final String svgFile, final String xmlFile,
+                final String output, final TactileConverter converter,
+                final Source source) {
+      this.svgFile = svgFile;
+      this.xmlFile = xmlFile;
+      this.output = output;
+      this.converter = converter;
+      this.source = source;
+      this.size = new File(svgFile).length() + new File(xmlFile).length();
+    }
+  }
+
+
+  /**
+   * The inputs of a pair shared by its variants. Each input is loaded by the
+   * first variant that needs it and dropped once all variants are done.
+   */
+  private static final class Source {
+
+    private Document svg = null;
+    private AnnotationFile xml = null;
+    private int pending;
+
+    /**
+     * Constructor.
+     *
+     * @param variants The number of variants sharing the inputs.
+     */
+    private Source(final int variants) {
+      this.pending = variants;
+    }
+
+    /**
+     * @param job A variant of the pair.
+     *
+     * @return A clone of the SVG document, which the variant can enrich.
+     *
+     * @throws IOException
+     *          If the SVG file can not be loaded.
+     */
+    private synchronized Document document(final Job job) throws IOException {
+      if (this.svg == null) {
+        this.svg = job.converter.loadSvg(job.svgFile);
+      }
+      // Cloned under the lock, since DOM implementations are not safe for
+      // concurrent reads.
+      final Metrics.Timer timer = Metrics.begin();
+      final Document clone = (Document) this.svg.cloneNode(true);
+      timer.stop(Metrics.Stage.CLONE);
+      return clone;
+    }
+
+    /**
+     * @param job A variant of the pair.
+     *
+     * @return The content of the annotation file, shared by all variants.
+     *
+     * @throws IOException
+     *          If the annotation file can not be loaded.
+     */
+    private synchronized AnnotationFile annotations(final Job job)
+        throws IOException {
+      if (this.xml == null) {
+        this.xml = job.converter.loadAnnotations(job.xmlFile);
+      }
+      return this.xml;
+    }
+
+    /**
+     * Marks a variant as done.
+     */
+    private synchronized void release() {
+      if (--this.pending == 0) {
+        this.svg = null;
+        this.xml = null;
+      }
+    }
+  }
+
+
+  /**
+   * Creates numbered daemon worker threads.
+   */
+  static final class WorkerFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final String prefix;
+
+    /**
+     * Constructor for batch workers.
+     */
+    WorkerFactory() {
+      this("tactile-worker-");
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param prefix The prefix of the thread names.
+     */
+    WorkerFactory(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(
+          runnable, this.prefix + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,263 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   BatchReport.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 31 11:02:36 2017
+ *
+ * @brief  Per pair results of a batch conversion.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+
+/**
+ * Report of a batch conversion as JSON lines. Every converted pair is written
+ * as soon as it is done, with its status, duration and byte counts. The last
+ * line summarises the throughput of the entire batch.
+ *
+ * <p>
+ * Results are accumulated even without a report file, so that the summary is
+ * available in any case. All methods are thread-safe.
+ * </p>
+ */
+public final class BatchReport {
+
+  /** Outcome of a single pair. */
+  public enum Status {
+    CONVERTED, CACHED, FAILED;
+
+    private final String label = this.name().toLowerCase(Locale.ROOT);
+  }
+
+  private static final double NANOS = 1e9;
+  private static final double MEGABYTE = 1 << 20;
+
+  private final Writer writer;
+  private final long start = System.nanoTime();
+  private final long[] counts = new long[Status.values().length];
+  private long inputBytes = 0L;
+  private long outputBytes = 0L;
+  private String error = null;
+
+
+  /**
+   * Constructor for a report that only accumulates results.
+   */
+  public BatchReport() {
+    this.writer = null;
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param fileName The file the report is written to.
+   *
+   * @throws IOException
+   *          If the file can not be opened.
+   */
+  public BatchReport(final String fileName) throws IOException {
+    this.writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(fileName), StandardCharsets.UTF_8));
+  }
+
+
+  /**
+   * Records the result of a pair.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The output file or null for standard output.
+   * @param status The outcome.
+   * @param nanos The duration of the conversion in nanoseconds.
+   * @param input The number of bytes read.
+   * @param written The number of bytes written.
+   * @param reason The reason of a failure or null.
+   */
+  public synchronized void add(final String svgFile, final String xmlFile,
+                               final String output, final Status status,
+                               final long nanos, final long input,
+                               final long written, final String reason) {
+    this.counts[status.ordinal()]++;
+    this.inputBytes += input;
+    this.outputBytes += written;
+    if (this.writer == null) {
+      return;
+    }
+    final StringBuilder line = new StringBuilder(256);
+    line.append("{\"svg\": ").append(BatchReport.quote(svgFile))
+      .append(", \"xml\": ").append(BatchReport.quote(xmlFile))
+      .append(", \"output\": ").append(BatchReport.quote(output))
+      .append(", \"status\": \"").append(status.label)
+      .append("\", \"millis\": ")
+      .append(String.format(Locale.ROOT, "%.3f", nanos / 1e6))
+      .append(", \"input_bytes\": ").append(input)
+      .append(", \"output_bytes\": ").append(written);
+    if (reason != null) {
+      line.append(", \"error\": ").append(BatchReport.quote(reason));
+    }
+    this.write(line.append("}\n").toString());
+  }
+
+
+  /**
+   * @param status An outcome.
+   *
+   * @return The number of pairs with this outcome so far.
+   */
+  public synchronized long getCount(final Status status) {
+    return this.counts[status.ordinal()];
+  }
+
+
+  /**
+   * @return The number of pairs recorded so far.
+   */
+  public synchronized long getTotal() {
+    long total = 0L;
+    for (final long count : this.counts) {
+      total += count;
+    }
+    return total;
+  }
+
+
+  /**
+   * @return The summary of all pairs recorded so far, as a single line.
+   */
+  public synchronized String summary() {
+    final double seconds = (System.nanoTime() - this.start) / BatchReport.NANOS;
+    final long total = this.getTotal();
+    return String.format(
+        Locale.ROOT, "%d pairs (%d converted, %d cached, %d failed) in %.3f s:"
+        + " %.1f pairs/s, %.2f MB/s read, %.2f MB/s written",
+        total, this.getCount(Status.CONVERTED), this.getCount(Status.CACHED),
+        this.getCount(Status.FAILED), seconds, total / seconds,
+        this.inputBytes / BatchReport.MEGABYTE / seconds,
+        this.outputBytes / BatchReport.MEGABYTE / seconds);
+  }
+
+
+  /**
+   * Writes the summary line and closes the report.
+   *
+   * @throws IOException
+   *          If the report could not be written.
+   */
+  public synchronized void close() throws IOException {
+    if (this.writer == null) {
+      return;
+    }
+    final double seconds = (System.nanoTime() - this.start) / BatchReport.NANOS;
+    final long total = this.getTotal();
+    final StringBuilder line = new StringBuilder(256);
+    line.append("{\"summary\": {\"pairs\": ").append(total);
+    for (final Status status : Status.values()) {
+      line.append(", \"").append(status.label).append("\": ")
+        .append(this.counts[status.ordinal()]);
+    }
+    line.append(", \"seconds\": ")
+      .append(String.format(Locale.ROOT, "%.3f", seconds))
+      .append(", \"input_bytes\": ").append(this.inputBytes)
+      .append(", \"output_bytes\": ").append(this.outputBytes)
+      .append(", \"pairs_per_second\": ")
+      .append(String.format(Locale.ROOT, "%.3f", total / seconds))
+      .append(", \"input_megabytes_per_second\": ")
+      .append(String.format(Locale.ROOT, "%.3f",
+                            this.inputBytes / BatchReport.MEGABYTE / seconds))
+      .append("}}\n");
+    this.write(line.toString());
+    this.writer.close();
+    if (this.error != null) {
+      throw new IOException(this.error);
+    }
+  }
+
+
+  /**
+   * Writes a line and flushes it, so that the report can be followed while
+   * the batch is running. Errors are kept until the report is closed.
+   *
+   * @param line The line.
+   */
+  private void write(final String line) {
+    if (this.error != null) {
+      return;
+    }
+    try {
+      this.writer.write(line);
+      this.writer.flush();
+    } catch (final IOException e) {
+      this.error = e.getMessage();
+    }
+  }
+
+
+  /**
+   * @param value A string or null.
+   *
+   * @return The value as JSON string literal or null.
+   */
+  private static String quote(final String value) {
+    if (value == null) {
+      return "null";
+    }
+    final StringBuilder result = new StringBuilder(value.length() + 2);
+    result.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          result.append("\\\"");
+          break;
+        case '\\':
+          result.append("\\\\");
+          break;
+        case '\n':
+          result.append("\\n");
+          break;
+        case '\r':
+          result.append("\\r");
+          break;
+        case '\t':
+          result.append("\\t");
+          break;
+        default:
+          if (c < ' ') {
+            result.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+          } else {
+            result.append(c);
+          }
+          break;
+      }
+    }
+    return result.append('"').toString();
+  }
+
+}
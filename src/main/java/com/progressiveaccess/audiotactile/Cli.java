@@ -36,6 +36,7 @@ import org.apache.commons.cli.ParseException;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,8 +45,8 @@ import java.util.List;
  */
 public final class Cli {
 
-  private static CommandLine cl;
-  private static List<String> files = new ArrayList<String>();
+  private static volatile CommandLine cl;
+  private static volatile List<String> files = new ArrayList<String>();
 
 
   /** Dummy constructor. */
@@ -77,12 +78,68 @@ public final class Cli {
     options.addOption("help", false, "Print this message");
     options.addOption("d", "debug", false, "Debug mode");
     options.addOption("v", "verbose", false, "Verbose mode");
+    options.addOption("al", "async_logging", false,
+        "Write debug and verbose output asynchronously.");
+    options.addOption("m", "metrics", true,
+        "Write per stage timing and allocation metrics to the given file. "
+        + "Prometheus text format for .prom files, JSON otherwise.");
     // File Handling
     options.addOption("o", "output", true, "Output file");
+    options.addOption("od", "output_directory", true,
+        "Output directory. Each SVG is written there under its own name.");
+    options.addOption("z", "compress", false,
+        "Compress all output with gzip. Output files ending in .svgz are "
+        + "always compressed.");
+    options.addOption("zl", "compression_level", true,
+        "Compression option: Level from 0 (none) to 9 (smallest). "
+        + "Default is " + TactileOptions.DEFAULT_COMPRESSION_LEVEL + ".");
+    options.addOption("cp", "compact", false,
+        "Write compact output without insignificant whitespace and unused "
+        + "namespace declarations, and with generated coordinates rounded.");
+    options.addOption("pr", "precision", true,
+        "Compact option: Number of decimals of generated coordinates from 0 "
+        + "to " + TactileOptions.MAX_PRECISION + ". Default is "
+        + TactileOptions.DEFAULT_PRECISION + ".");
+    options.addOption("c", "cache", true,
+        "Cache directory. Pairs whose inputs and options are unchanged are "
+        + "not converted again.");
+    options.addOption("cs", "cache_size", true,
+        "Cache option: Maximal size of the cache in megabytes. Default is "
+        + (OutputCache.DEFAULT_SIZE >> 20) + ".");
+    // Batch Processing
+    options.addOption("mf", "manifest", true,
+        "Manifest file listing the pairs to convert, one per line as CSV "
+        + "(svg,xml,output,options) or, for .jsonl files, as JSON objects.");
+    options.addOption("sc", "scan", true,
+        "Convert all pairs in the given directory tree, pairing SVG and XML "
+        + "files by their base name.");
+    options.addOption("r", "report", true,
+        "Write status, duration and byte counts of every pair and a "
+        + "throughput summary to the given file as JSON lines.");
+    options.addOption("t", "threads", true,
+        "Number of files converted in parallel. Default is number of cores.");
+    // Service
+    options.addOption("s", "serve", true,
+        "Run as HTTP conversion service on [host:]port. "
+        + "Without host only local connections are accepted.");
+    options.addOption("q", "queue", true,
+        "Service option: Number of requests waiting for a worker before "
+        + "further requests are rejected. Default is "
+        + ConversionServer.DEFAULT_QUEUE + ".");
+    options.addOption("w", "watch", true,
+        "Watch the given directory tree and convert pairs whenever they "
+        + "change. Results are written to the output directory.");
+    options.addOption("db", "debounce", true,
+        "Watch option: Milliseconds without changes before a pair is "
+        + "converted. Default is " + FolderWatcher.DEFAULT_DEBOUNCE + ".");
     // Processing Options
     // Not sure if we need this!
     // options.addOption("ath", "tactile_hydrogens", false,
     //     "Audio tactile option: include explicit hydrogens in atom sets.");
+    options.addOption("sd", "svg_dom", false,
+        "Load SVG files into Batik's SVG DOM instead of a plain DOM.");
+    options.addOption("st", "stream", false,
+        "Stream SVG files to the output without loading them. Not for IVEO.");
     options.addOption("p", "polygons", false,
         "Use polygons instead of bounding boxes.");
     // // Iveo
@@ -94,6 +151,17 @@ public final class Cli {
         "Iveo option: Move buttons by avoiding collisions.");
     // Internationalisation
     options.addOption("l", "language", true, "Which language to be chosen.");
+    options.addOption("mc", "message_catalog", true,
+        "File with messages for all languages, used where annotations do not "
+        + "contain their own.");
+    // Variants
+    options.addOption("ls", "languages", true,
+        "Comma separated languages. Every pair is converted to each of them, "
+        + "parsing its files only once.");
+    options.addOption("pf", "profiles", true,
+        "Comma separated profiles from plain, iveo, iveo_buttons and "
+        + "iveo_collision. Every pair is converted to each of them, parsing "
+        + "its files only once.");
 
     final CommandLineParser parser = new DefaultParser();
     try {
@@ -104,17 +172,14 @@ public final class Cli {
     if (Cli.cl.hasOption("help")) {
       usage(options, 0);
     }
-
-    for (int i = 0; i < Cli.cl.getArgList().size(); i++) {
-      final String fileName = Cli.cl.getArgList().get(i).toString();
-      final File file = new File(fileName);
-      if (file.exists() && !file.isDirectory()) {
-        Cli.files.add(fileName);
-      } else {
-        Cli.warning(fileName);
-      }
+    if (Cli.cl.hasOption("stream") && Cli.cl.hasOption("iveo")) {
+      System.err.println("Warning: IVEO output can not be streamed. "
+          + "Loading SVG files instead.");
     }
 
+    // Missing files are kept, so that the pairing of the remaining files is
+    // not shifted. Their conversion fails and is reported.
+    Cli.files = new ArrayList<String>(Cli.cl.getArgList());
   }
 
 
@@ -134,18 +199,6 @@ public final class Cli {
   }
 
 
-  /**
-   * Prints warnings for missing file names.
-   *
-   * @param fileName
-   *          The filename.
-   */
-  private static void warning(final String fileName) {
-    System.err.println("Warning: File " + fileName
-        + " does not exist. Ignored!");
-  }
-
-
   /**
    * Checks if the command line has a particular option.
    *
@@ -172,6 +225,244 @@ public final class Cli {
   }
 
 
+  /**
+   * Retrieves the number of worker threads for batch conversion.
+   *
+   * @return The value of the threads option if it is a positive integer. O/w
+   *         the number of available processors.
+   */
+  public static int getThreads() {
+    final int cores = Runtime.getRuntime().availableProcessors();
+    if (!Cli.cl.hasOption("threads")) {
+      return cores;
+    }
+    try {
+      final int threads = Integer.parseInt(Cli.cl.getOptionValue("threads"));
+      return threads > 0 ? threads : cores;
+    } catch (final NumberFormatException e) {
+      System.err.println("Warning: Illegal number of threads "
+          + Cli.cl.getOptionValue("threads") + ". Using " + cores + ".");
+      return cores;
+    }
+  }
+
+
+  /**
+   * Retrieves the number of requests the service queues.
+   *
+   * @return The value of the queue option if it is a non-negative integer.
+   *         O/w the default queue length.
+   */
+  public static int getQueue() {
+    if (!Cli.cl.hasOption("queue")) {
+      return ConversionServer.DEFAULT_QUEUE;
+    }
+    try {
+      final int queue = Integer.parseInt(Cli.cl.getOptionValue("queue"));
+      return queue >= 0 ? queue : ConversionServer.DEFAULT_QUEUE;
+    } catch (final NumberFormatException e) {
+      System.err.println("Warning: Illegal queue length "
+          + Cli.cl.getOptionValue("queue") + ". Using "
+          + ConversionServer.DEFAULT_QUEUE + ".");
+      return ConversionServer.DEFAULT_QUEUE;
+    }
+  }
+
+
+  /**
+   * Retrieves the quiet period of the folder watcher.
+   *
+   * @return The value of the debounce option if it is a non-negative integer.
+   *         O/w the default debounce delay.
+   */
+  public static long getDebounce() {
+    if (!Cli.cl.hasOption("debounce")) {
+      return FolderWatcher.DEFAULT_DEBOUNCE;
+    }
+    try {
+      final long debounce = Long.parseLong(Cli.cl.getOptionValue("debounce"));
+      return debounce >= 0 ? debounce : FolderWatcher.DEFAULT_DEBOUNCE;
+    } catch (final NumberFormatException e) {
+      System.err.println("Warning: Illegal debounce delay "
+          + Cli.cl.getOptionValue("debounce") + ". Using "
+          + FolderWatcher.DEFAULT_DEBOUNCE + ".");
+      return FolderWatcher.DEFAULT_DEBOUNCE;
+    }
+  }
+
+
+  /**
+   * Retrieves the size bound of the output cache.
+   *
+   * @return The value of the cache size option in bytes if it is a
+   *         non-negative integer. O/w the default size.
+   */
+  public static long getCacheSize() {
+    if (!Cli.cl.hasOption("cache_size")) {
+      return OutputCache.DEFAULT_SIZE;
+    }
+    try {
+      final long size = Long.parseLong(Cli.cl.getOptionValue("cache_size"));
+      return size >= 0 ? size << 20 : OutputCache.DEFAULT_SIZE;
+    } catch (final NumberFormatException e) {
+      System.err.println("Warning: Illegal cache size "
+          + Cli.cl.getOptionValue("cache_size") + ". Using "
+          + (OutputCache.DEFAULT_SIZE >> 20) + ".");
+      return OutputCache.DEFAULT_SIZE;
+    }
+  }
+
+
+  /**
+   * Retrieves the level of output compression.
+   *
+   * @return The value of the compression level option if it is between 0
+   *         and 9. O/w the default level.
+   */
+  public static int getCompressionLevel() {
+    if (!Cli.cl.hasOption("compression_level")) {
+      return TactileOptions.DEFAULT_COMPRESSION_LEVEL;
+    }
+    try {
+      final int level =
+          Integer.parseInt(Cli.cl.getOptionValue("compression_level"));
+      if (level >= 0 && level <= 9) {
+        return level;
+      }
+    } catch (final NumberFormatException e) {
+      // Warned below.
+    }
+    System.err.println("Warning: Illegal compression level "
+        + Cli.cl.getOptionValue("compression_level") + ". Using "
+        + TactileOptions.DEFAULT_COMPRESSION_LEVEL + ".");
+    return TactileOptions.DEFAULT_COMPRESSION_LEVEL;
+  }
+
+
+  /**
+   * Retrieves the precision of generated coordinates in compact output.
+   *
+   * @return The value of the precision option if it is between 0 and the
+   *         maximal precision. O/w the default precision.
+   */
+  public static int getPrecision() {
+    if (!Cli.cl.hasOption("precision")) {
+      return TactileOptions.DEFAULT_PRECISION;
+    }
+    try {
+      final int precision =
+          Integer.parseInt(Cli.cl.getOptionValue("precision"));
+      if (precision >= 0 && precision <= TactileOptions.MAX_PRECISION) {
+        return precision;
+      }
+    } catch (final NumberFormatException e) {
+      // Warned below.
+    }
+    System.err.println("Warning: Illegal precision "
+        + Cli.cl.getOptionValue("precision") + ". Using "
+        + TactileOptions.DEFAULT_PRECISION + ".");
+    return TactileOptions.DEFAULT_PRECISION;
+  }
+
+
+  /**
+   * @return The languages every pair is converted to, possibly empty.
+   */
+  public static List<String> getLanguages() {
+    final List<String> languages = new ArrayList<>();
+    if (Cli.cl.hasOption("languages")) {
+      for (final String language
+               : Cli.cl.getOptionValue("languages").split(",")) {
+        if (!language.trim().isEmpty()) {
+          languages.add(language.trim());
+        }
+      }
+    }
+    return languages;
+  }
+
+
+  /**
+   * @return The profiles every pair is converted to, possibly empty.
+   *         Unknown profiles are ignored.
+   */
+  public static List<Profile> getProfiles() {
+    final List<Profile> profiles = new ArrayList<>();
+    if (Cli.cl.hasOption("profiles")) {
+      for (final String name : Cli.cl.getOptionValue("profiles").split(",")) {
+        if (name.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          profiles.add(Profile.parse(name));
+        } catch (final IllegalArgumentException e) {
+          System.err.println("Warning: Unknown profile " + name
+              + ". Ignored!");
+        }
+      }
+    }
+    return profiles;
+  }
+
+
+  /**
+   * Assembles the conversion options given on the command line.
+   *
+   * @return The immutable conversion options.
+   */
+  public static TactileOptions getTactileOptions() {
+    return TactileOptions.builder()
+      .iveo(Cli.cl.hasOption("iveo"))
+      .iveoButtons(Cli.cl.hasOption("iveo_buttons"))
+      .iveoCollision(Cli.cl.hasOption("iveo_collision"))
+      .polygons(Cli.cl.hasOption("polygons"))
+      .svgDom(Cli.cl.hasOption("svg_dom"))
+      .stream(Cli.cl.hasOption("stream"))
+      .compress(Cli.cl.hasOption("compress"))
+      .compressionLevel(Cli.getCompressionLevel())
+      .compact(Cli.cl.hasOption("compact"))
+      .precision(Cli.getPrecision())
+      .language(Cli.cl.getOptionValue("language"))
+      .catalog(Cli.getCatalog())
+      .build();
+  }
+
+
+  /**
+   * Loads the message catalog given on the command line.
+   *
+   * @return The catalog or null if none is given or it can not be loaded.
+   */
+  private static MessageCatalog getCatalog() {
+    if (!Cli.cl.hasOption("message_catalog")) {
+      return null;
+    }
+    try {
+      return MessageCatalog.load(Cli.cl.getOptionValue("message_catalog"));
+    } catch (final IOException e) {
+      System.err.println("Warning: Can't load message catalog "
+          + Cli.cl.getOptionValue("message_catalog") + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+
+  /**
+   * Computes the output file for an SVG input file.
+   *
+   * @param svgFile The SVG input file.
+   *
+   * @return The output file name or null if output goes to standard output.
+   */
+  public static String getOutput(final String svgFile) {
+    if (Cli.cl.hasOption("output_directory")) {
+      return new File(Cli.cl.getOptionValue("output_directory"),
+                      new File(svgFile).getName()).getPath();
+    }
+    return Cli.cl.getOptionValue("output");
+  }
+
+
   /**
    * @return The file list given on the command line.
    */
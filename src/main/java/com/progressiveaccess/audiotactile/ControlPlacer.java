@@ -0,0 +1,164 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   ControlPlacer.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Fri Jul 21 14:38:02 2017
+ *
+ * @brief  Placement of interactive controls on free areas of a diagram.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.util.Arrays;
+
+
+/**
+ * Finds free places for interactive controls, like the IVEO drilldown and
+ * restore buttons, on the canvas of a diagram. Candidates are searched on a
+ * grid in rings of growing distance around the preferred position; each
+ * candidate costs one query of the {@link SpatialIndex}. Placed controls are
+ * reserved, so later controls avoid them. If no candidate is free the caller
+ * falls back to extending the page.
+ */
+public final class ControlPlacer {
+
+  private final SpatialIndex index;
+  private final double width;
+  private final double height;
+
+  private double[] reserved = new double[16];
+  private int reservations = 0;
+
+
+  /**
+   * Constructor.
+   *
+   * @param index The spatial index of the diagram.
+   * @param width The width of the canvas.
+   * @param height The height of the canvas.
+   */
+  public ControlPlacer(final SpatialIndex index, final double width,
+                       final double height) {
+    this.index = index;
+    this.width = width;
+    this.height = height;
+  }
+
+
+  /**
+   * Finds and reserves a free position for a control.
+   *
+   * @param boxWidth The width of the control including its margin.
+   * @param boxHeight The height of the control including its margin.
+   * @param preferredX The preferred minimal x of the control.
+   * @param preferredY The preferred minimal y of the control.
+   *
+   * @return The minimal x and y of the free position closest to the
+   *         preferred one, or null if the canvas has no room.
+   */
+  public double[] place(final double boxWidth, final double boxHeight,
+                        final double preferredX, final double preferredY) {
+    // The preferred position is taken if free, even if the margins of the
+    // control exceed the canvas.
+    if (this.isFree(preferredX, preferredY, preferredX + boxWidth,
+                    preferredY + boxHeight)) {
+      this.reserve(preferredX, preferredY, preferredX + boxWidth,
+                   preferredY + boxHeight);
+      return new double[] {preferredX, preferredY};
+    }
+    final double maxX = this.width - boxWidth;
+    final double maxY = this.height - boxHeight;
+    final double step = Math.min(boxWidth, boxHeight) / 2;
+    if (maxX < 0 || maxY < 0 || !(step > 0)) {
+      return null;
+    }
+    // Number of rings until the grid covers the canvas in all directions.
+    final int rings = (int) Math.ceil(Math.max(
+        Math.max(preferredX, this.width - preferredX),
+        Math.max(preferredY, this.height - preferredY)) / step);
+    for (int ring = 1; ring <= rings; ring++) {
+      for (int j = -ring; j <= ring; j++) {
+        final double y = preferredY + j * step;
+        if (y < 0 || y > maxY) {
+          continue;
+        }
+        // Inner rows only take the two cells on the boundary of the ring.
+        final int delta = j == -ring || j == ring ? 1 : 2 * ring;
+        for (int i = -ring; i <= ring; i += delta) {
+          final double x = preferredX + i * step;
+          if (x < 0 || x > maxX) {
+            continue;
+          }
+          if (this.isFree(x, y, x + boxWidth, y + boxHeight)) {
+            this.reserve(x, y, x + boxWidth, y + boxHeight);
+            return new double[] {x, y};
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Tests whether a box is free of diagram content and reserved controls.
+   *
+   * @param minX The minimal x of the box.
+   * @param minY The minimal y of the box.
+   * @param maxX The maximal x of the box.
+   * @param maxY The maximal y of the box.
+   *
+   * @return True if the box is free.
+   */
+  public boolean isFree(final double minX, final double minY,
+                        final double maxX, final double maxY) {
+    for (int i = 0; i < 4 * this.reservations; i += 4) {
+      if (this.reserved[i] <= maxX && this.reserved[i + 2] >= minX
+          && this.reserved[i + 1] <= maxY && this.reserved[i + 3] >= minY) {
+        return false;
+      }
+    }
+    return !this.index.intersects(minX, minY, maxX, maxY);
+  }
+
+
+  /**
+   * Reserves a box for a control.
+   *
+   * @param minX The minimal x of the box.
+   * @param minY The minimal y of the box.
+   * @param maxX The maximal x of the box.
+   * @param maxY The maximal y of the box.
+   */
+  public void reserve(final double minX, final double minY,
+                      final double maxX, final double maxY) {
+    final int offset = 4 * this.reservations;
+    if (offset == this.reserved.length) {
+      this.reserved = Arrays.copyOf(this.reserved, 2 * offset);
+    }
+    this.reserved[offset] = minX;
+    this.reserved[offset + 1] = minY;
+    this.reserved[offset + 2] = maxX;
+    this.reserved[offset + 3] = maxY;
+    this.reservations++;
+  }
+
+}
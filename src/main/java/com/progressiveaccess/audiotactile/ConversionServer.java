@@ -0,0 +1,711 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   ConversionServer.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Jul 25 14:36:08 2017
+ *
+ * @brief  Local HTTP conversion service.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Embedded HTTP server converting diagrams on a warm JVM. Endpoints:
+ *
+ * <ul>
+ * <li><code>POST /convert</code> takes a <code>multipart/form-data</code>
+ * body with the parts <code>svg</code> and <code>xml</code> and returns the
+ * enriched SVG. The query parameters <code>iveo</code>,
+ * <code>iveo_buttons</code>, <code>iveo_collision</code>,
+ * <code>polygons</code>, <code>compress</code>, <code>compact</code>,
+ * <code>precision</code> and <code>language</code> override the options the
+ * server was started with. Parts may be gzip compressed, up to a limit of
+ * their decompressed size. The result is gzip encoded if the client accepts
+ * it or the request asks for it with <code>compress</code>.</li>
+ * <li><code>GET /health</code> answers as long as the server runs.</li>
+ * <li><code>GET /stats</code> returns request counters and the stage
+ * {@link Metrics} as JSON, <code>GET /metrics</code> the latter in Prometheus
+ * text format.</li>
+ * </ul>
+ *
+ * <p>
+ * Requests are accepted on the single dispatcher thread of the server and
+ * converted on a fixed pool of workers. At most a given number of requests
+ * waits for a worker, further requests are rejected with status 503 right
+ * away, so that a burst can not exhaust memory.
+ * </p>
+ */
+public final class ConversionServer {
+
+  /** Default number of requests waiting for a worker. */
+  public static final int DEFAULT_QUEUE = 64;
+
+  /** Maximal size of a request body. */
+  private static final int MAX_BODY = 64 << 20;
+
+  /** Maximal size of a part once it is decompressed. */
+  private static final long MAX_CONTENT = 256L << 20;
+
+  private static final String SVG_TYPE = "image/svg+xml; charset=utf-8";
+  private static final String JSON_TYPE = "application/json; charset=utf-8";
+  private static final String TEXT_TYPE = "text/plain; charset=utf-8";
+
+  private final TactileOptions options;
+  private final HttpServer server;
+  private final ThreadPoolExecutor pool;
+  private final int queue;
+  private final long started = System.currentTimeMillis();
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+
+  /**
+   * Constructor. The server is bound, but does not accept requests before it
+   * is started.
+   *
+   * @param options The default options for conversions.
+   * @param address The address to listen on.
+   * @param threads The number of concurrent conversions.
+   * @param queue The maximal number of requests waiting for a worker.
+   *
+   * @throws IOException
+   *          If the address can not be bound.
+   */
+  public ConversionServer(final TactileOptions options,
+                          final InetSocketAddress address,
+                          final int threads, final int queue)
+      throws IOException {
+    // Responses are only gzip encoded if the client accepts it or the
+    // request asks for it, never by default.
+    this.options = options.toBuilder().compress(false).build();
+    this.queue = Math.max(0, queue);
+    final int workers = Math.max(1, threads);
+    this.pool = new ThreadPoolExecutor(
+        workers, workers, 0L, TimeUnit.MILLISECONDS,
+        this.queue == 0
+        ? new SynchronousQueue<Runnable>()
+        : new ArrayBlockingQueue<Runnable>(this.queue),
+        new BatchConverter.WorkerFactory("tactile-server-"),
+        new ThreadPoolExecutor.AbortPolicy());
+    this.server = HttpServer.create(address, 0);
+    this.server.createContext("/convert", this::convert);
+    this.server.createContext("/health", this::health);
+    this.server.createContext("/stats", this::stats);
+    this.server.createContext("/metrics", this::metrics);
+  }
+
+
+  /**
+   * Parses an address of the form <code>[host:]port</code>. Without host the
+   * server only listens on the loopback interface.
+   *
+   * @param value The address.
+   *
+   * @return The socket address.
+   *
+   * @throws IllegalArgumentException
+   *          If the port is not a number.
+   */
+  public static InetSocketAddress parseAddress(final String value) {
+    final int colon = value.lastIndexOf(':');
+    final int port = Integer.parseInt(value.substring(colon + 1).trim());
+    if (colon < 0) {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+    return new InetSocketAddress(value.substring(0, colon), port);
+  }
+
+
+  /**
+   * Starts accepting requests.
+   */
+  public void start() {
+    Metrics.enable();
+    this.server.start();
+    Logger.logging("Serving on " + this.getAddress());
+  }
+
+
+  /**
+   * Stops accepting requests and waits a moment for running conversions.
+   *
+   * @param delay Seconds to wait for running exchanges.
+   */
+  public void stop(final int delay) {
+    this.server.stop(delay);
+    this.pool.shutdown();
+    try {
+      this.pool.awaitTermination(delay, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.pool.shutdownNow();
+  }
+
+
+  /**
+   * @return The address the server listens on.
+   */
+  public InetSocketAddress getAddress() {
+    return this.server.getAddress();
+  }
+
+
+  /**
+   * Hands a conversion request to the workers or rejects it if the queue is
+   * full.
+   *
+   * @param exchange The request.
+   *
+   * @throws IOException
+   *          If the response can not be sent.
+   */
+  private void convert(final HttpExchange exchange) throws IOException {
+    this.requests.incrementAndGet();
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      ConversionServer.send(exchange, 405, TEXT_TYPE, "Use POST.\n");
+      return;
+    }
+    try {
+      this.pool.execute(() -> this.work(exchange));
+    } catch (final RejectedExecutionException e) {
+      this.rejected.incrementAndGet();
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      ConversionServer.send(exchange, 503, TEXT_TYPE,
+                            "Too many requests.\n");
+    }
+  }
+
+
+  /**
+   * Converts a request on a worker thread.
+   *
+   * @param exchange The request.
+   */
+  private void work(final HttpExchange exchange) {
+    try {
+      final Map<String, ByteBuffer> parts = ConversionServer.parts(exchange);
+      final ByteBuffer svg = parts.get("svg");
+      final ByteBuffer xml = parts.get("xml");
+      if (svg == null || xml == null) {
+        this.failed.incrementAndGet();
+        ConversionServer.send(exchange, 400, TEXT_TYPE,
+                              "Parts svg and xml are required.\n");
+        return;
+      }
+      final TactileOptions requested = this.requestOptions(exchange);
+      final TactileResult result;
+      try {
+        // No base URI, relative references must not reach server files.
+        result = new TactileConverter(requested).convert(
+            ConversionServer.limit(svg), null, ConversionServer.limit(xml));
+      } catch (final Exception | StackOverflowError e) {
+        this.failed.incrementAndGet();
+        Metrics.document(false);
+        if (ConversionServer.tooLarge(e)) {
+          ConversionServer.send(exchange, 413, TEXT_TYPE,
+                                "Decompressed part too large.\n");
+          return;
+        }
+        Logger.error(e);
+        ConversionServer.send(exchange, 422, TEXT_TYPE,
+                              "Conversion failed: " + e + "\n");
+        return;
+      }
+      final Metrics.Timer timer = Metrics.begin();
+      final ByteArrayOutputStream output =
+          new ByteArrayOutputStream(svg.remaining() + svg.remaining() / 2);
+      final boolean gzip = requested.isCompress()
+          || ConversionServer.acceptsGzip(exchange);
+      try (OutputStream encoded = gzip ? FileHandler.compress(
+          output, requested.getCompressionLevel()) : output) {
+        result.writeSvg(encoded);
+      }
+      timer.stop(Metrics.Stage.OUTPUT);
+      Metrics.document(true);
+      exchange.getResponseHeaders().set("Content-Type", SVG_TYPE);
+      exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+      if (gzip) {
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      }
+      exchange.sendResponseHeaders(200, output.size());
+      try (OutputStream body = exchange.getResponseBody()) {
+        output.writeTo(body);
+      }
+      this.completed.incrementAndGet();
+    } catch (final BodyException e) {
+      this.failed.incrementAndGet();
+      ConversionServer.trySend(exchange, e.status, e.getMessage() + "\n");
+    } catch (final IOException | RuntimeException e) {
+      this.failed.incrementAndGet();
+      Logger.error(e);
+      ConversionServer.trySend(exchange, 500, e + "\n");
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  /**
+   * Answers health checks.
+   *
+   * @param exchange The request.
+   *
+   * @throws IOException
+   *          If the response can not be sent.
+   */
+  private void health(final HttpExchange exchange) throws IOException {
+    ConversionServer.send(exchange, 200, JSON_TYPE, "{\"status\": \"ok\"}\n");
+  }
+
+
+  /**
+   * Answers with server statistics and stage metrics as JSON.
+   *
+   * @param exchange The request.
+   *
+   * @throws IOException
+   *          If the response can not be sent.
+   */
+  private void stats(final HttpExchange exchange) throws IOException {
+    final String metrics = Metrics.toJson().trim().replace("\n", "\n  ");
+    final String json = "{\n  \"uptime_ms\": "
+        + (System.currentTimeMillis() - this.started)
+        + ",\n  \"workers\": " + this.pool.getMaximumPoolSize()
+        + ",\n  \"queue_limit\": " + this.queue
+        + ",\n  \"active\": " + this.pool.getActiveCount()
+        + ",\n  \"queued\": " + this.pool.getQueue().size()
+        + ",\n  \"requests\": " + this.requests.get()
+        + ",\n  \"completed\": " + this.completed.get()
+        + ",\n  \"failed\": " + this.failed.get()
+        + ",\n  \"rejected\": " + this.rejected.get()
+        + ",\n  \"metrics\": " + metrics + "\n}\n";
+    ConversionServer.send(exchange, 200, JSON_TYPE, json);
+  }
+
+
+  /**
+   * Answers with the stage metrics in Prometheus format.
+   *
+   * @param exchange The request.
+   *
+   * @throws IOException
+   *          If the response can not be sent.
+   */
+  private void metrics(final HttpExchange exchange) throws IOException {
+    ConversionServer.send(exchange, 200,
+                          "text/plain; version=0.0.4; charset=utf-8",
+                          Metrics.toPrometheus());
+  }
+
+
+  /**
+   * Combines the server options with those given in the query.
+   *
+   * @param exchange The request.
+   *
+   * @return The options for the request.
+   *
+   * @throws BodyException
+   *          If the query is malformed.
+   */
+  private TactileOptions requestOptions(final HttpExchange exchange)
+      throws BodyException {
+    final String query = exchange.getRequestURI().getRawQuery();
+    if (query == null || query.isEmpty()) {
+      return this.options;
+    }
+    final TactileOptions.Builder builder = this.options.toBuilder();
+    for (final String parameter : query.split("&")) {
+      final int equals = parameter.indexOf('=');
+      final String key = ConversionServer.decode(
+          equals < 0 ? parameter : parameter.substring(0, equals));
+      final String value = equals < 0 ? "true"
+          : ConversionServer.decode(parameter.substring(equals + 1));
+      switch (key) {
+        case "iveo":
+          builder.iveo(ConversionServer.flag(value));
+          break;
+        case "iveo_buttons":
+          builder.iveoButtons(ConversionServer.flag(value));
+          break;
+        case "iveo_collision":
+          builder.iveoCollision(ConversionServer.flag(value));
+          break;
+        case "polygons":
+          builder.polygons(ConversionServer.flag(value));
+          break;
+        case "compress":
+          builder.compress(ConversionServer.flag(value));
+          break;
+        case "compact":
+          builder.compact(ConversionServer.flag(value));
+          break;
+        case "precision":
+          try {
+            builder.precision(Integer.parseInt(value));
+          } catch (final IllegalArgumentException e) {
+            throw new BodyException(400, "Illegal precision " + value);
+          }
+          break;
+        case "language":
+          builder.language(value);
+          break;
+        default:
+          throw new BodyException(400, "Unknown parameter " + key);
+      }
+    }
+    return builder.build();
+  }
+
+
+  /**
+   * @param part The content of a part.
+   *
+   * @return A stream of the part whose decompressed content is limited.
+   */
+  private static InputStream limit(final ByteBuffer part) {
+    return FileHandler.limit(FileHandler.stream(part),
+                             ConversionServer.MAX_CONTENT);
+  }
+
+
+  /**
+   * @param error An error of a conversion.
+   *
+   * @return True if it was caused by a part exceeding its limit.
+   */
+  private static boolean tooLarge(final Throwable error) {
+    for (Throwable cause = error; cause != null;
+         cause = cause.getCause()) {
+      if (cause instanceof FileHandler.ContentTooLargeException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * @param exchange The request.
+   *
+   * @return True if the client accepts gzip encoded responses.
+   */
+  private static boolean acceptsGzip(final HttpExchange exchange) {
+    final List<String> values =
+        exchange.getRequestHeaders().get("Accept-Encoding");
+    if (values == null) {
+      return false;
+    }
+    for (final String value : values) {
+      for (final String coding : value.split(",")) {
+        final String[] parts = coding.split(";");
+        // Not if explicitly refused with a zero quality.
+        if ("gzip".equalsIgnoreCase(parts[0].trim()) && (parts.length == 1
+            || !parts[1].replace(" ", "").matches("q=0(\\.0*)?"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * @param value A query value.
+   *
+   * @return True unless the value is <code>false</code>, <code>0</code> or
+   *         <code>no</code>.
+   */
+  private static boolean flag(final String value) {
+    final String lower = value.toLowerCase(Locale.ROOT);
+    return !("false".equals(lower) || "0".equals(lower)
+             || "no".equals(lower));
+  }
+
+
+  /**
+   * @param value A URL encoded string.
+   *
+   * @return The decoded string.
+   */
+  private static String decode(final String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+
+  /**
+   * Reads the parts of a multipart request body.
+   *
+   * @param exchange The request.
+   *
+   * @return The content of the parts by name, as views of the body.
+   *
+   * @throws IOException
+   *          If the body can not be read.
+   * @throws BodyException
+   *          If the body is not well formed multipart data.
+   */
+  private static Map<String, ByteBuffer> parts(final HttpExchange exchange)
+      throws IOException, BodyException {
+    final String type = exchange.getRequestHeaders().getFirst("Content-Type");
+    final int start = type == null ? -1 : type.indexOf("boundary=");
+    if (start < 0 || !type.toLowerCase(Locale.ROOT)
+        .startsWith("multipart/form-data")) {
+      throw new BodyException(415, "Expecting multipart/form-data.");
+    }
+    String boundary = type.substring(start + 9);
+    final int semicolon = boundary.indexOf(';');
+    if (semicolon >= 0) {
+      boundary = boundary.substring(0, semicolon);
+    }
+    boundary = boundary.trim();
+    if (boundary.length() > 1 && boundary.startsWith("\"")
+        && boundary.endsWith("\"")) {
+      boundary = boundary.substring(1, boundary.length() - 1);
+    }
+    final byte[] body = ConversionServer.read(exchange.getRequestBody());
+    final byte[] delimiter = ("--" + boundary)
+        .getBytes(StandardCharsets.ISO_8859_1);
+    final Map<String, ByteBuffer> result = new HashMap<>();
+    int position = ConversionServer.indexOf(body, delimiter, 0);
+    if (position < 0) {
+      throw new BodyException(400, "Missing multipart boundary.");
+    }
+    while (true) {
+      position += delimiter.length;
+      if (position + 1 < body.length && body[position] == '-'
+          && body[position + 1] == '-') {
+        return result;
+      }
+      final int headers = ConversionServer.skipLine(body, position);
+      final int content = ConversionServer.indexOf(
+          body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), headers);
+      final int next = ConversionServer.indexOf(body, delimiter, content);
+      if (headers < 0 || content < 0 || next < 0) {
+        throw new BodyException(400, "Truncated multipart body.");
+      }
+      final String name = ConversionServer.partName(
+          new String(body, headers, content - headers,
+                     StandardCharsets.ISO_8859_1));
+      // Content ends with the line break before the next delimiter.
+      int end = next;
+      if (end >= 2 && body[end - 2] == '\r' && body[end - 1] == '\n') {
+        end -= 2;
+      }
+      if (name != null) {
+        result.put(name, ByteBuffer.wrap(
+            body, content + 4, Math.max(0, end - content - 4)).slice());
+      }
+      position = next;
+    }
+  }
+
+
+  /**
+   * @param headers The headers of a part.
+   *
+   * @return The form field name of the part or null.
+   */
+  private static String partName(final String headers) {
+    for (final String header : headers.split("\r\n")) {
+      if (!header.toLowerCase(Locale.ROOT).startsWith("content-disposition")) {
+        continue;
+      }
+      final int name = header.indexOf("name=\"");
+      if (name < 0) {
+        return null;
+      }
+      final int end = header.indexOf('"', name + 6);
+      return end < 0 ? null : header.substring(name + 6, end);
+    }
+    return null;
+  }
+
+
+  /**
+   * @param data The data.
+   * @param position A position in the data.
+   *
+   * @return The position after the next line break or -1.
+   */
+  private static int skipLine(final byte[] data, final int position) {
+    for (int i = position; i + 1 < data.length; i++) {
+      if (data[i] == '\r' && data[i + 1] == '\n') {
+        return i + 2;
+      }
+    }
+    return -1;
+  }
+
+
+  /**
+   * @param data The data to search.
+   * @param pattern The pattern to find.
+   * @param from The start position.
+   *
+   * @return The first position of the pattern not before start or -1.
+   */
+  private static int indexOf(final byte[] data, final byte[] pattern,
+                             final int from) {
+    if (from < 0) {
+      return -1;
+    }
+    final int last = data.length - pattern.length;
+    outer:
+    for (int i = from; i <= last; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Reads a request body completely.
+   *
+   * @param input The body.
+   *
+   * @return The content.
+   *
+   * @throws IOException
+   *          If the body can not be read.
+   * @throws BodyException
+   *          If the body is too large.
+   */
+  private static byte[] read(final InputStream input)
+      throws IOException, BodyException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 16);
+    final byte[] buffer = new byte[1 << 16];
+    int count;
+    while ((count = input.read(buffer)) >= 0) {
+      if (output.size() + count > MAX_BODY) {
+        throw new BodyException(413, "Request body too large.");
+      }
+      output.write(buffer, 0, count);
+    }
+    return output.toByteArray();
+  }
+
+
+  /**
+   * Sends a complete response and closes the exchange.
+   *
+   * @param exchange The request.
+   * @param status The status code.
+   * @param type The content type.
+   * @param text The response body.
+   *
+   * @throws IOException
+   *          If the response can not be sent.
+   */
+  private static void send(final HttpExchange exchange, final int status,
+                           final String type, final String text)
+      throws IOException {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", type);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(bytes);
+    } finally {
+      exchange.close();
+    }
+  }
+
+
+  /**
+   * Sends an error response, if no response has been started yet.
+   *
+   * @param exchange The request.
+   * @param status The status code.
+   * @param text The message.
+   */
+  private static void trySend(final HttpExchange exchange, final int status,
+                              final String text) {
+    if (exchange.getResponseCode() >= 0) {
+      return;
+    }
+    try {
+      ConversionServer.send(exchange, status, TEXT_TYPE, text);
+    } catch (final IOException e) {
+      Logger.error(e);
+    }
+  }
+
+
+  /**
+   * A malformed request, answered with a client error status.
+   */
+  private static final class BodyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /**
+     * Constructor.
+     *
+     * @param status The status code of the response.
+     * @param message The message.
+     */
+    private BodyException(final int status, final String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Decimals.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  1 10:12:47 2017
+ *
+ * @brief  Fixed precision formatting of coordinates.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+
+/**
+ * Writes numbers with a fixed maximal number of decimals into a string
+ * builder. The value is scaled and rounded to a long, whose digits are
+ * appended directly, so that nothing but the builder is allocated. Trailing
+ * zeros and the decimal point are omitted, negative zero is written as
+ * <code>0</code> and there is never an exponent. Lengths that must not shrink,
+ * like page dimensions, can be rounded away from zero instead of to the
+ * nearest value.
+ */
+final class Decimals {
+
+  private static final long[] POWERS = Decimals.powers();
+
+  /** Magnitude up to which scaled values are exact as long. */
+  private static final double LIMIT = 1e15;
+
+
+  /** Dummy constructor. */
+  private Decimals() {
+    throw new AssertionError("Instantiating utility class...");
+  }
+
+
+  /**
+   * Appends a number.
+   *
+   * @param buffer The builder to append to.
+   * @param value The number.
+   * @param precision The maximal number of decimals, from 0 to
+   *        {@link TactileOptions#MAX_PRECISION}.
+   *
+   * @return The builder.
+   */
+  static StringBuilder append(final StringBuilder buffer, final double value,
+                              final int precision) {
+    return Decimals.append(buffer, value, precision, false);
+  }
+
+
+  /**
+   * Appends a number, rounded away from zero, so that the written value is
+   * never smaller in magnitude than the number.
+   *
+   * @param buffer The builder to append to.
+   * @param value The number.
+   * @param precision The maximal number of decimals, from 0 to
+   *        {@link TactileOptions#MAX_PRECISION}.
+   *
+   * @return The builder.
+   */
+  static StringBuilder appendUp(final StringBuilder buffer, final double value,
+                                final int precision) {
+    return Decimals.append(buffer, value, precision, true);
+  }
+
+
+  /**
+   * Appends a number.
+   *
+   * @param buffer The builder to append to.
+   * @param value The number.
+   * @param precision The maximal number of decimals.
+   * @param up Round away from zero instead of to the nearest value.
+   *
+   * @return The builder.
+   */
+  private static StringBuilder append(final StringBuilder buffer,
+                                      final double value, final int precision,
+                                      final boolean up) {
+    final double scaled = Math.abs(value) * Decimals.POWERS[precision];
+    if (Double.isNaN(scaled) || scaled >= Decimals.LIMIT) {
+      // Rare enough to fall back to the shortest representation.
+      return buffer.append(value);
+    }
+    long units = Math.round(scaled);
+    // Comparing the written value rather than taking the ceiling of the
+    // scaled one keeps values like 190.1 that scale inexactly.
+    if (up && units / (double) Decimals.POWERS[precision] < Math.abs(value)) {
+      units++;
+    }
+    if (units == 0) {
+      return buffer.append('0');
+    }
+    if (value < 0) {
+      buffer.append('-');
+    }
+    buffer.append(units / Decimals.POWERS[precision]);
+    long fraction = units % Decimals.POWERS[precision];
+    if (fraction == 0) {
+      return buffer;
+    }
+    int digits = precision;
+    while (fraction % 10 == 0) {
+      fraction /= 10;
+      digits--;
+    }
+    buffer.append('.');
+    for (long bound = Decimals.POWERS[digits - 1]; fraction < bound;
+         bound /= 10) {
+      buffer.append('0');
+    }
+    return buffer.append(fraction);
+  }
+
+
+  /**
+   * @return The powers of ten up to the maximal precision.
+   */
+  private static long[] powers() {
+    final long[] powers = new long[TactileOptions.MAX_PRECISION + 1];
+    powers[0] = 1L;
+    for (int i = 1; i < powers.length; i++) {
+      powers[i] = powers[i - 1] * 10;
+    }
+    return powers;
+  }
+
+}
@@ -30,32 +30,40 @@ package com.progressiveaccess.audiotactile;
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
 import org.apache.batik.util.XMLResourceDescriptor;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.w3c.dom.svg.SVGDocument;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.net.URI;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.w3c.dom.Document;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * Utility class for handling CML files and other chem file formats.
@@ -63,6 +71,29 @@ import org.w3c.dom.Element;
 
 public final class FileHandler {
 
+  // Factories are shared, the objects they create are kept per thread. None of
+  // them are thread-safe, but all can be reused once reset.
+  private static final DocumentBuilderFactory BUILDER_FACTORY =
+      FileHandler.secure(DocumentBuilderFactory.newInstance());
+  private static final DocumentBuilderFactory PLAIN_SVG_FACTORY =
+      FileHandler.plainSvgFactory();
+  private static final String SVG_PARSER =
+      XMLResourceDescriptor.getXMLParserClassName();
+
+  private static final SvgWriter WRITER = new SvgWriter(2);
+  private static final SvgWriter COMPACT_WRITER = new SvgWriter(0, true);
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** Files of at least this size are read into a buffer in one go. */
+  static final long READ_THRESHOLD = 1L << 20;
+
+  private static final ThreadLocal<DocumentBuilder> BUILDER =
+      new ThreadLocal<>();
+  private static final ThreadLocal<DocumentBuilder> PLAIN_SVG_BUILDER =
+      new ThreadLocal<>();
+  private static final ThreadLocal<SvgDocumentFactory> SVG_FACTORY =
+      new ThreadLocal<>();
+
   /** Dummy constructor. */
   private FileHandler() {
     throw new AssertionError("Instantiating utility class...");
@@ -85,10 +116,10 @@ public final class FileHandler {
    */
   public static Document loadXml(final String fileName)
       throws IOException, ParserConfigurationException, SAXException {
-    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-    final DocumentBuilder db = dbf.newDocumentBuilder();
-    Document doc = db.parse(new File(fileName));
-    return doc;
+    final File file = new File(fileName);
+    try (InputStream input = FileHandler.open(file)) {
+      return FileHandler.loadXml(input, file.toURI().toString());
+    }
   }
 
 
@@ -105,11 +136,493 @@ public final class FileHandler {
    */
   public static SVGDocument loadSvg(final String fileName) throws IOException {
     final File file = new File(fileName);
-    final URI uri = file.toURI();
-    String parser = XMLResourceDescriptor.getXMLParserClassName();
-    SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(parser);
-    SVGDocument doc = factory.createSVGDocument(uri.toString());
-    return doc;
+    try (InputStream input = FileHandler.open(file)) {
+      return FileHandler.loadSvg(input, file.toURI().toString());
+    }
+  }
+
+
+  /**
+   * Loads an XML document from a stream.
+   *
+   * @param input
+   *          The stream to read. It is not closed.
+   *
+   * @return The XML document.
+   *
+   * @throws IOException
+   *           Problems reading the stream.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  public static Document loadXml(final InputStream input)
+      throws IOException, ParserConfigurationException, SAXException {
+    return FileHandler.loadXml(input, null);
+  }
+
+
+  /**
+   * Loads an XML document from a buffer.
+   *
+   * @param input
+   *          The buffer holding the document. Its position is not changed.
+   *
+   * @return The XML document.
+   *
+   * @throws IOException
+   *           Problems reading the buffer.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  public static Document loadXml(final ByteBuffer input)
+      throws IOException, ParserConfigurationException, SAXException {
+    return FileHandler.loadXml(FileHandler.stream(input), null);
+  }
+
+
+  /**
+   * @param input
+   *          The stream to read. It is not closed.
+   * @param uri
+   *          The URI of the document or null.
+   *
+   * @return The XML document.
+   *
+   * @throws IOException
+   *           Problems reading the stream.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  private static Document loadXml(final InputStream input, final String uri)
+      throws IOException, ParserConfigurationException, SAXException {
+    final DocumentBuilder db = FileHandler.getBuilder();
+    try (InputStream content = FileHandler.decompress(input)) {
+      return uri == null ? db.parse(content) : db.parse(content, uri);
+    } finally {
+      db.reset();
+    }
+  }
+
+
+  /**
+   * Streams an annotation file into its annotations and messages, without
+   * building a DOM.
+   *
+   * @param fileName
+   *          The annotation file to be loaded.
+   *
+   * @return The content of the annotation file.
+   *
+   * @throws IOException
+   *           Problems reading the file.
+   * @throws XMLStreamException
+   *           Problems with the input format.
+   */
+  public static AnnotationFile loadAnnotations(final String fileName)
+      throws IOException, XMLStreamException {
+    final File file = new File(fileName);
+    try (InputStream input = FileHandler.decompress(FileHandler.open(file))) {
+      return AnnotationReader.read(input, file.toURI().toString());
+    }
+  }
+
+
+  /**
+   * Streams an annotation file from a stream into its annotations and
+   * messages, without building a DOM.
+   *
+   * @param input
+   *          The stream to read. It is not closed.
+   *
+   * @return The content of the annotation file.
+   *
+   * @throws XMLStreamException
+   *           Problems with the input format.
+   */
+  public static AnnotationFile loadAnnotations(final InputStream input)
+      throws IOException, XMLStreamException {
+    try (InputStream content = FileHandler.decompress(input)) {
+      return AnnotationReader.read(content, null);
+    }
+  }
+
+
+  /**
+   * Streams an annotation file from a buffer into its annotations and
+   * messages, without building a DOM.
+   *
+   * @param input
+   *          The buffer holding the file. Its position is not changed.
+   *
+   * @return The content of the annotation file.
+   *
+   * @throws XMLStreamException
+   *           Problems with the input format.
+   */
+  public static AnnotationFile loadAnnotations(final ByteBuffer input)
+      throws IOException, XMLStreamException {
+    return FileHandler.loadAnnotations(FileHandler.stream(input));
+  }
+
+
+  /**
+   * Loads an SVG image from a stream.
+   *
+   * @param input
+   *          The stream to read. It is not closed.
+   * @param uri
+   *          The URI of the document, against which references are resolved,
+   *          or null.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *           Problems reading the stream.
+   */
+  public static SVGDocument loadSvg(final InputStream input, final String uri)
+      throws IOException {
+    final SvgDocumentFactory factory = FileHandler.getSvgFactory();
+    try (InputStream content = FileHandler.decompress(input)) {
+      return factory.createSVGDocument(uri, content);
+    } catch (final IOException | RuntimeException e) {
+      // Do not reuse a factory that failed mid-parse.
+      FileHandler.SVG_FACTORY.remove();
+      throw e;
+    }
+  }
+
+
+  /**
+   * Loads an SVG image from a buffer.
+   *
+   * @param input
+   *          The buffer holding the image. Its position is not changed.
+   * @param uri
+   *          The URI of the document, against which references are resolved,
+   *          or null.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *           Problems reading the buffer.
+   */
+  public static SVGDocument loadSvg(final ByteBuffer input, final String uri)
+      throws IOException {
+    return FileHandler.loadSvg(FileHandler.stream(input), uri);
+  }
+
+
+  /**
+   * Loads an SVG image from file into a plain namespace aware DOM, without
+   * Batik's SVG DOM, CSS engine and animation support. Enough for everything
+   * but the SVG DOM interfaces, e.g., adding titles and descriptions.
+   *
+   * @param fileName
+   *          The SVG file to be loaded.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *           Problems reading the file.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  public static Document loadPlainSvg(final String fileName)
+      throws IOException, ParserConfigurationException, SAXException {
+    final File file = new File(fileName);
+    try (InputStream input = FileHandler.open(file)) {
+      return FileHandler.loadPlainSvg(input, file.toURI().toString());
+    }
+  }
+
+
+  /**
+   * Loads an SVG image from a stream into a plain namespace aware DOM.
+   *
+   * @param input
+   *          The stream to read. It is not closed.
+   * @param uri
+   *          The URI of the document, against which references are resolved,
+   *          or null.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *           Problems reading the stream.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  public static Document loadPlainSvg(final InputStream input,
+                                      final String uri)
+      throws IOException, ParserConfigurationException, SAXException {
+    final DocumentBuilder db = FileHandler.getPlainSvgBuilder();
+    try (InputStream content = FileHandler.decompress(input)) {
+      return uri == null ? db.parse(content) : db.parse(content, uri);
+    } finally {
+      db.reset();
+    }
+  }
+
+
+  /**
+   * Loads an SVG image from a buffer into a plain namespace aware DOM.
+   *
+   * @param input
+   *          The buffer holding the image. Its position is not changed.
+   * @param uri
+   *          The URI of the document, against which references are resolved,
+   *          or null.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *           Problems reading the buffer.
+   * @throws ParserConfigurationException
+   *           If no parser can be created.
+   * @throws SAXException
+   *           Problems with the input format.
+   */
+  public static Document loadPlainSvg(final ByteBuffer input,
+                                      final String uri)
+      throws IOException, ParserConfigurationException, SAXException {
+    return FileHandler.loadPlainSvg(FileHandler.stream(input), uri);
+  }
+
+
+  /**
+   * Opens a file for reading. Large files are read into a buffer of their
+   * size through a channel that is closed before returning, instead of being
+   * copied through a small intermediate buffer. They are not memory mapped:
+   * a mapping lives until it is garbage collected, and on Windows it keeps
+   * the file from being saved while the watcher or server is running.
+   *
+   * @param file
+   *          The file.
+   *
+   * @return A buffered stream of the file content.
+   *
+   * @throws IOException
+   *           If the file can not be opened.
+   */
+  static InputStream open(final File file) throws IOException {
+    final long length = file.length();
+    if (length < FileHandler.READ_THRESHOLD || length > Integer.MAX_VALUE) {
+      return new BufferedInputStream(new FileInputStream(file));
+    }
+    try (FileChannel channel =
+         FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        continue;
+      }
+      buffer.flip();
+      return FileHandler.stream(buffer);
+    }
+  }
+
+
+  /**
+   * Wraps an input stream that may be compressed with gzip. Compressed
+   * content is detected by its magic number and inflated on the fly.
+   *
+   * @param input
+   *          The stream. Closing the result does not close it.
+   *
+   * @return The stream of the uncompressed content.
+   *
+   * @throws IOException
+   *           If the stream can not be read.
+   */
+  static InputStream decompress(final InputStream input) throws IOException {
+    final InputStream buffered = input.markSupported() ? input
+        : new BufferedInputStream(input, FileHandler.BUFFER_SIZE);
+    buffered.mark(2);
+    final int first = buffered.read();
+    final int second = buffered.read();
+    buffered.reset();
+    final InputStream shielded = new CloseShieldInputStream(buffered);
+    if (first != (GZIPInputStream.GZIP_MAGIC & 0xFF)
+        || second != (GZIPInputStream.GZIP_MAGIC >> 8)) {
+      return shielded;
+    }
+    final InputStream inflated =
+        new GZIPInputStream(shielded, FileHandler.BUFFER_SIZE);
+    // A limit applies to the inflated content, not the compressed bytes.
+    return input instanceof LimitedInputStream
+        ? new LimitedInputStream(inflated, ((LimitedInputStream) input).limit)
+        : inflated;
+  }
+
+
+  /**
+   * Limits the content that can be read from an untrusted stream. The limit
+   * also applies to the content of the stream once it is decompressed by
+   * the loaders, so that a small compressed input can not inflate without
+   * bound.
+   *
+   * @param input
+   *          The stream. Closing the result closes it.
+   * @param limit
+   *          The maximal number of bytes to read.
+   *
+   * @return The limited stream. Reading beyond the limit throws a
+   *         {@link ContentTooLargeException}.
+   */
+  public static InputStream limit(final InputStream input, final long limit) {
+    return new LimitedInputStream(input, limit);
+  }
+
+
+  /**
+   * Compresses an output stream with gzip.
+   *
+   * @param output
+   *          The stream receiving the compressed content. It is closed with
+   *          the result.
+   * @param level
+   *          The compression level from 0 to 9.
+   *
+   * @return The stream to write the uncompressed content to. It has to be
+   *         closed to complete the compressed content.
+   *
+   * @throws IOException
+   *           If the gzip header can not be written.
+   */
+  public static OutputStream compress(final OutputStream output,
+                                      final int level) throws IOException {
+    return new LevelGzipOutputStream(output, level);
+  }
+
+
+  /**
+   * @param fileName
+   *          A file name or null.
+   *
+   * @return True if the file name has the extension of compressed SVG.
+   */
+  public static boolean isCompressed(final String fileName) {
+    return fileName != null
+        && fileName.toLowerCase(Locale.ROOT).endsWith(".svgz");
+  }
+
+
+  /**
+   * @param buffer
+   *          A buffer.
+   *
+   * @return A stream of the remaining content of the buffer. The position of
+   *         the buffer is not changed.
+   */
+  static InputStream stream(final ByteBuffer buffer) {
+    return new BufferInputStream(buffer.duplicate());
+  }
+
+
+  /**
+   * @return The factory for plain SVG documents. It neither fetches external
+   *         DTDs, which only the SVG DOM would need, nor resolves external
+   *         entities.
+   */
+  private static DocumentBuilderFactory plainSvgFactory() {
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setValidating(false);
+    return FileHandler.secure(factory);
+  }
+
+
+  /**
+   * Restricts a factory to the content of the document itself. Internal
+   * entities are still expanded, within the limits of secure processing, but
+   * external entities and DTDs are never read, so that a document can not
+   * pull local files or remote content into the output.
+   *
+   * @param factory
+   *          The factory.
+   *
+   * @return The factory.
+   */
+  private static DocumentBuilderFactory secure(
+      final DocumentBuilderFactory factory) {
+    factory.setXIncludeAware(false);
+    factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+    factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+    try {
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setFeature(
+          "http://xml.org/sax/features/external-general-entities", false);
+      factory.setFeature(
+          "http://xml.org/sax/features/external-parameter-entities", false);
+      factory.setFeature(
+          "http://apache.org/xml/features/nonvalidating/load-external-dtd",
+          false);
+    } catch (final ParserConfigurationException e) {
+      // Not being able to restrict the parser is not an option.
+      throw new IllegalStateException(
+          "Can't disable external entities: " + e.getMessage(), e);
+    }
+    return factory;
+  }
+
+
+  /**
+   * @return The plain SVG document builder of the current thread.
+   *
+   * @throws ParserConfigurationException
+   *           If no builder can be created.
+   */
+  private static DocumentBuilder getPlainSvgBuilder()
+      throws ParserConfigurationException {
+    DocumentBuilder builder = FileHandler.PLAIN_SVG_BUILDER.get();
+    if (builder == null) {
+      synchronized (FileHandler.PLAIN_SVG_FACTORY) {
+        builder = FileHandler.PLAIN_SVG_FACTORY.newDocumentBuilder();
+      }
+      FileHandler.PLAIN_SVG_BUILDER.set(builder);
+    }
+    return builder;
+  }
+
+
+  /**
+   * @return The document builder of the current thread, ready for parsing.
+   *
+   * @throws ParserConfigurationException
+   *           If no builder can be created.
+   */
+  private static DocumentBuilder getBuilder()
+      throws ParserConfigurationException {
+    DocumentBuilder builder = FileHandler.BUILDER.get();
+    if (builder == null) {
+      synchronized (FileHandler.BUILDER_FACTORY) {
+        builder = FileHandler.BUILDER_FACTORY.newDocumentBuilder();
+      }
+      FileHandler.BUILDER.set(builder);
+    }
+    return builder;
+  }
+
+
+  /**
+   * @return The SVG document factory of the current thread.
+   */
+  private static SvgDocumentFactory getSvgFactory() {
+    SvgDocumentFactory factory = FileHandler.SVG_FACTORY.get();
+    if (factory == null) {
+      factory = new SvgDocumentFactory(FileHandler.SVG_PARSER);
+      FileHandler.SVG_FACTORY.set(factory);
+    }
+    return factory;
   }
 
 
@@ -119,10 +632,19 @@ public final class FileHandler {
    *          The output document.
    * @param path
    *          The output path.
+   * @param writer
+   *          The serialiser.
    * @return True if successful. O/w false.
    */
-  private static Boolean toFile(final Document document, final String file) {
-    return FileHandler.toStream(document, new StreamResult(new File(file)));
+  private static Boolean toFile(final Document document, final String file,
+                                final SvgWriter writer) {
+    try (OutputStream out = new FileOutputStream(file)) {
+      writer.write(document, out);
+      return true;
+    } catch (final IOException ex) {
+      Logger.error("Can't write XML document: " + ex.getMessage() + "\n");
+    }
+    return false;
   }
 
   /**
@@ -133,69 +655,40 @@ public final class FileHandler {
    * @return The XML document as a string.
    */
   public static String toString(final Document document) {
-    final StreamResult result = new StreamResult(new StringWriter());
-    return FileHandler.toStream(document, result) ?
-      result.getWriter().toString() : "";
+    return FileHandler.toString((Node) document);
   }
 
-  public static String toString(final Element document) {
-    final StreamResult result = new StreamResult(new StringWriter());
-    return FileHandler.toStream(document, result) ?
-      result.getWriter().toString() : "";
+
+  /**
+   * @param element
+   *          The output element.
+   *
+   * @return The XML element as a string.
+   */
+  public static String toString(final Element element) {
+    return FileHandler.toString((Node) element);
   }
 
-  private static Boolean toStream(final Document document,
-                                  final StreamResult stream) {
-    //
-    // prepare the transformer
-    final DOMSource domSource = new DOMSource(document);
-    final TransformerFactory transformerFactory = TransformerFactory
-        .newInstance();
-    try {
-      final Transformer transformer = transformerFactory.newTransformer();
-      // set the output configuration
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-      transformer.setOutputProperty(
-          "{http://xml.apache.org/xslt}indent-amount", "2");
-      // write the XML to the file
-      transformer.transform(domSource, stream);
 
-      return true;
-    } catch (final TransformerConfigurationException ex) {
-      Logger.error("Can't configure XML transformation: " + ex.getMessage() + "\n");
-    } catch (final TransformerException ex) {
-      Logger.error("Can't transform XML document: " + ex.getMessage() + "\n");
-    }
-    return false;
-  }
-  
-  private static Boolean toStream(final Element document,
-                                  final StreamResult stream) {
-    //
-    // prepare the transformer
-    final DOMSource domSource = new DOMSource(document);
-    final TransformerFactory transformerFactory = TransformerFactory
-        .newInstance();
+  /**
+   * @param node
+   *          A document or element.
+   *
+   * @return The pretty printed node, the empty string if it can not be
+   *         serialised.
+   */
+  private static String toString(final Node node) {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
     try {
-      final Transformer transformer = transformerFactory.newTransformer();
-      // set the output configuration
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-      transformer.setOutputProperty(
-          "{http://xml.apache.org/xslt}indent-amount", "2");
-      // write the XML to the file
-      transformer.transform(domSource, stream);
-
-      return true;
-    } catch (final TransformerConfigurationException ex) {
-      Logger.error("Can't configure XML transformation: " + ex.getMessage() + "\n");
-    } catch (final TransformerException ex) {
-      Logger.error("Can't transform XML document: " + ex.getMessage() + "\n");
+      FileHandler.WRITER.write(node, output);
+    } catch (final IOException ex) {
+      Logger.error("Can't write XML document: " + ex.getMessage() + "\n");
+      return "";
     }
-    return false;
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
   }
-  
+
+
   /**
    * Writes a document to a XML type file.
    *
@@ -205,7 +698,7 @@ public final class FileHandler {
    *          The base filename.
    */
   public static void writeXml(final Document doc, final String fileName) {
-    FileHandler.toFile(doc, fileName);
+    FileHandler.toFile(doc, fileName, FileHandler.WRITER);
   }
 
   /**
@@ -217,7 +710,100 @@ public final class FileHandler {
    *          The base filename.
    */
   public static void writeSvg(final Document svg, final String fileName) {
-    FileHandler.toFile(svg, fileName);
+    FileHandler.writeSvg(svg, fileName, false);
+  }
+
+
+  /**
+   * Writes a document to a SVG file.
+   *
+   * @param svg
+   *          The SVG document.
+   * @param fileName
+   *          The base filename.
+   * @param compact
+   *          True for compact instead of pretty printed output.
+   */
+  public static void writeSvg(final Document svg, final String fileName,
+                              final boolean compact) {
+    FileHandler.toFile(svg, fileName, FileHandler.writer(compact));
+  }
+
+
+  /**
+   * Writes a document to a stream.
+   *
+   * @param doc
+   *          The output document.
+   * @param output
+   *          The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *           Problems writing the stream.
+   */
+  public static void writeXml(final Document doc, final OutputStream output)
+      throws IOException {
+    FileHandler.writeXml(doc, output, false);
+  }
+
+
+  /**
+   * Writes a document to a stream.
+   *
+   * @param doc
+   *          The output document.
+   * @param output
+   *          The stream to write to. It is not closed.
+   * @param compact
+   *          True for compact instead of pretty printed output.
+   *
+   * @throws IOException
+   *           Problems writing the stream.
+   */
+  public static void writeXml(final Document doc, final OutputStream output,
+                              final boolean compact)
+      throws IOException {
+    FileHandler.writer(compact).write(doc, output);
+  }
+
+
+  /**
+   * Writes a document to a channel.
+   *
+   * @param doc
+   *          The output document.
+   * @param output
+   *          The channel to write to. It is not closed.
+   *
+   * @throws IOException
+   *           Problems writing the channel.
+   */
+  public static void writeXml(final Document doc,
+                              final WritableByteChannel output)
+      throws IOException {
+    FileHandler.writeXml(doc, output, false);
+  }
+
+
+  /**
+   * Writes a document to a channel.
+   *
+   * @param doc
+   *          The output document.
+   * @param output
+   *          The channel to write to. It is not closed.
+   * @param compact
+   *          True for compact instead of pretty printed output.
+   *
+   * @throws IOException
+   *           Problems writing the channel.
+   */
+  public static void writeXml(final Document doc,
+                              final WritableByteChannel output,
+                              final boolean compact)
+      throws IOException {
+    // The writer buffers, so the unbuffered channel stream is fine.
+    FileHandler.writer(compact).write(doc, Channels.newOutputStream(output));
   }
 
 
@@ -230,11 +816,269 @@ public final class FileHandler {
    *          The base filename.
    */
   public static void printXml(final Document doc) {
-    System.out.println(FileHandler.toString(doc));
+    FileHandler.printXml(doc, false);
   }
 
+
+  /**
+   * Writes a document to standard output.
+   *
+   * @param doc
+   *          The output document.
+   * @param compact
+   *          True for compact instead of pretty printed output.
+   */
+  public static void printXml(final Document doc, final boolean compact) {
+    FileHandler.print(doc, FileHandler.writer(compact));
+  }
+
+
+  /**
+   * Writes an element to standard output.
+   *
+   * @param doc
+   *          The output element.
+   */
   public static void printXml(final Element doc) {
-    System.out.println(FileHandler.toString(doc));
+    FileHandler.print(doc, FileHandler.WRITER);
+  }
+
+
+  /**
+   * Serialises a node directly into standard output.
+   *
+   * @param node
+   *          A document or element.
+   * @param writer
+   *          The serialiser.
+   */
+  private static void print(final Node node, final SvgWriter writer) {
+    // Lock stdout so that documents written by concurrent conversions do not
+    // interleave.
+    synchronized (System.out) {
+      try {
+        writer.write(node, System.out);
+      } catch (final IOException ex) {
+        Logger.error("Can't write XML document: " + ex.getMessage() + "\n");
+      }
+      System.out.flush();
+    }
+  }
+
+
+  /**
+   * @param compact
+   *          True for the compact serialiser.
+   * @return The serialiser.
+   */
+  private static SvgWriter writer(final boolean compact) {
+    return compact ? FileHandler.COMPACT_WRITER : FileHandler.WRITER;
+  }
+
+
+
+  /**
+   * SVG document factory that only reads the SVG DTDs shipped with Batik.
+   * Any other external entity or DTD resolves to empty content, so that a
+   * document can not pull local files or remote content into the output.
+   */
+  private static final class SvgDocumentFactory
+      extends SAXSVGDocumentFactory {
+
+    /**
+     * Constructor.
+     *
+     * @param parser The class name of the XML parser.
+     */
+    private SvgDocumentFactory(final String parser) {
+      super(parser);
+    }
+
+    @Override
+    public InputSource resolveEntity(final String publicId,
+                                     final String systemId)
+        throws SAXException {
+      final InputSource dtd = super.resolveEntity(publicId, systemId);
+      return dtd != null ? dtd : new InputSource(new StringReader(""));
+    }
+  }
+
+
+  /**
+   * Gzip output stream with a given compression level.
+   */
+  private static final class LevelGzipOutputStream extends GZIPOutputStream {
+
+    /**
+     * Constructor.
+     *
+     * @param output The stream receiving the compressed content.
+     * @param level The compression level.
+     *
+     * @throws IOException
+     *          If the gzip header can not be written.
+     */
+    private LevelGzipOutputStream(final OutputStream output, final int level)
+        throws IOException {
+      super(output, FileHandler.BUFFER_SIZE);
+      // Only the header is written so far, which does not use the deflater.
+      this.def.setLevel(level);
+    }
+  }
+
+
+  /**
+   * Signals that the content of a stream exceeds its limit.
+   */
+  public static final class ContentTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param limit The limit that was exceeded.
+     */
+    private ContentTooLargeException(final long limit) {
+      super("Content exceeds " + limit + " bytes");
+    }
+  }
+
+
+  /**
+   * Input stream failing once more than a given number of bytes is read.
+   */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private long count = 0;
+    private long mark = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param input The stream.
+     * @param limit The maximal number of bytes to read.
+     */
+    private LimitedInputStream(final InputStream input, final long limit) {
+      super(input);
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int result = super.read();
+      if (result >= 0) {
+        this.count(1);
+      }
+      return result;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length)
+        throws IOException {
+      final int result = super.read(bytes, offset, length);
+      if (result > 0) {
+        this.count(result);
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(final long length) throws IOException {
+      final long result = super.skip(length);
+      this.count(result);
+      return result;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+      super.mark(readLimit);
+      this.mark = this.count;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      super.reset();
+      this.count = this.mark;
+    }
+
+    /**
+     * @param bytes The number of bytes read.
+     *
+     * @throws ContentTooLargeException
+     *          If the limit is exceeded.
+     */
+    private void count(final long bytes) throws ContentTooLargeException {
+      this.count += bytes;
+      if (this.count > this.limit) {
+        throw new ContentTooLargeException(this.limit);
+      }
+    }
+  }
+
+
+  /**
+   * Input stream reading the remaining content of a byte buffer.
+   */
+  private static final class BufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer The buffer. It is consumed by the stream.
+     */
+    private BufferInputStream(final ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      final int count = Math.min(length, this.buffer.remaining());
+      this.buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public long skip(final long count) {
+      final int skipped = (int) Math.max(
+          0L, Math.min(count, this.buffer.remaining()));
+      this.buffer.position(this.buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public void mark(final int limit) {
+      this.buffer.mark();
+    }
+
+    @Override
+    public void reset() {
+      this.buffer.reset();
+    }
   }
 
 }
@@ -0,0 +1,358 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   FolderWatcher.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Jul 26 10:12:44 2017
+ *
+ * @brief  Watches a directory tree and reconverts changed pairs.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Daemon converting the SVG/XML pairs of a directory tree whenever their
+ * inputs change.
+ *
+ * <p>
+ * An SVG file is paired with the XML, or failing that the CML, annotation file
+ * of the same base name in the same directory. On start every pair whose
+ * output is missing or older than one of its inputs is converted. Afterwards
+ * file system events mark pairs as changed. A pair is converted once no event
+ * has touched it for the debounce delay, so that a burst of saves results in
+ * a single conversion. Conversions run on a pool of background workers and a
+ * pair is never converted twice at the same time: changes during a conversion
+ * schedule another one after it.
+ * </p>
+ */
+public final class FolderWatcher {
+
+  /** Default quiet period before a changed pair is converted. */
+  public static final long DEFAULT_DEBOUNCE = 300;
+
+  private final BatchConverter converter;
+  private final Path root;
+  private final File output;
+  private final long debounce;
+  private final WatchService watcher;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService workers;
+  private final AtomicInteger conversions = new AtomicInteger();
+
+  // Guarded by this.
+  private final Map<Path, ScheduledFuture<?>> pending = new HashMap<>();
+  private final Set<Path> running = new HashSet<>();
+  private final Set<Path> dirty = new HashSet<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param converter The converter for all pairs.
+   * @param root The root of the directory tree to watch.
+   * @param output The directory the results are written to.
+   * @param threads The number of concurrent conversions.
+   * @param debounce The quiet period in milliseconds.
+   *
+   * @throws IOException
+   *          If the file system can not be watched.
+   */
+  public FolderWatcher(final TactileConverter converter, final Path root,
+                       final File output, final int threads,
+                       final long debounce) throws IOException {
+    this.converter = new BatchConverter(converter, 1);
+    this.root = root.toAbsolutePath().normalize();
+    this.output = output;
+    this.debounce = Math.max(0, debounce);
+    this.watcher = FileSystems.getDefault().newWatchService();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new BatchConverter.WorkerFactory("tactile-debounce-"));
+    this.workers = Executors.newFixedThreadPool(
+        Math.max(1, threads), new BatchConverter.WorkerFactory());
+  }
+
+
+  /**
+   * Converts all outdated pairs and then processes file system events until
+   * the watcher is closed.
+   *
+   * @throws IOException
+   *          If the tree can not be registered.
+   */
+  public void run() throws IOException {
+    if (!this.output.isDirectory() && !this.output.mkdirs()) {
+      throw new IOException("Can't create output directory " + this.output);
+    }
+    if (this.root.startsWith(this.output.toPath().toAbsolutePath()
+                             .normalize())) {
+      throw new IOException("Output directory " + this.output
+                            + " must not contain " + this.root);
+    }
+    this.register(this.root);
+    try {
+      while (true) {
+        final WatchKey key = this.watcher.take();
+        final Path dir = this.directories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            Logger.logging("Watch events lost, rescanning " + this.root);
+            this.register(this.root);
+            continue;
+          }
+          if (dir == null) {
+            continue;
+          }
+          final Path path = dir.resolve((Path) event.context());
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+              && Files.isDirectory(path)) {
+            this.register(path);
+          } else {
+            this.changed(path);
+          }
+        }
+        if (!key.reset()) {
+          this.directories.remove(key);
+        }
+      }
+    } catch (final InterruptedException | ClosedWatchServiceException e) {
+      Logger.logging("Stopped watching " + this.root);
+    }
+  }
+
+
+  /**
+   * Stops watching and waits a moment for running conversions.
+   *
+   * @param delay Seconds to wait for running conversions.
+   */
+  public void stop(final int delay) {
+    try {
+      this.watcher.close();
+    } catch (final IOException e) {
+      Logger.error(e);
+    }
+    this.scheduler.shutdownNow();
+    this.workers.shutdown();
+    try {
+      this.workers.awaitTermination(delay, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.workers.shutdownNow();
+  }
+
+
+  /**
+   * Registers a directory tree with the watch service and converts its
+   * outdated pairs.
+   *
+   * @param start The root of the tree.
+   *
+   * @throws IOException
+   *          If the tree can not be registered.
+   */
+  private void register(final Path start) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(
+            final Path dir, final BasicFileAttributes attributes)
+            throws IOException {
+          if (dir.toAbsolutePath().normalize().startsWith(
+                  FolderWatcher.this.output.toPath().toAbsolutePath()
+                  .normalize())) {
+            // Results are never inputs.
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          FolderWatcher.this.directories.put(
+              dir.register(FolderWatcher.this.watcher,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY,
+                           StandardWatchEventKinds.ENTRY_DELETE),
+              dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(
+            final Path file, final BasicFileAttributes attributes) {
+          if (Pairs.isSvg(file)
+              && FolderWatcher.this.outdated(file)) {
+            FolderWatcher.this.schedule(file, 0);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+  }
+
+
+  /**
+   * Marks the pair of a changed file as changed.
+   *
+   * @param path The changed file.
+   */
+  private void changed(final Path path) {
+    final String name = path.toString();
+    final int dot = name.lastIndexOf('.');
+    if (dot < 0) {
+      return;
+    }
+    final String extension = name.substring(dot).toLowerCase(Locale.ROOT);
+    if (".svg".equals(extension) || ".svgz".equals(extension)) {
+      this.schedule(path, this.debounce);
+      return;
+    }
+    for (final String annotation : Pairs.ANNOTATIONS) {
+      if (annotation.equals(extension)) {
+        final Path compressed = Pairs.sibling(path, ".svgz");
+        this.schedule(Files.isRegularFile(compressed) ? compressed
+                      : Pairs.sibling(path, ".svg"), this.debounce);
+        return;
+      }
+    }
+  }
+
+
+  /**
+   * Schedules the conversion of a pair, replacing a conversion scheduled
+   * earlier.
+   *
+   * @param svg The SVG file of the pair.
+   * @param delay The delay in milliseconds.
+   */
+  private synchronized void schedule(final Path svg, final long delay) {
+    final ScheduledFuture<?> previous = this.pending.get(svg);
+    if (previous != null) {
+      previous.cancel(false);
+    }
+    this.pending.put(svg, this.scheduler.schedule(
+        () -> this.submit(svg), delay, TimeUnit.MILLISECONDS));
+  }
+
+
+  /**
+   * Hands a pair to the workers, unless it is being converted already.
+   *
+   * @param svg The SVG file of the pair.
+   */
+  private synchronized void submit(final Path svg) {
+    this.pending.remove(svg);
+    if (!this.running.add(svg)) {
+      this.dirty.add(svg);
+      return;
+    }
+    this.workers.execute(() -> this.convert(svg));
+  }
+
+
+  /**
+   * Converts a pair if it is complete and outdated.
+   *
+   * @param svg The SVG file of the pair.
+   */
+  private void convert(final Path svg) {
+    try {
+      final Path xml = Pairs.annotation(svg);
+      if (xml != null && this.outdated(svg)) {
+        final File file = this.outputFile(svg);
+        final File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+          Logger.error("Can't create output directory " + parent + "\n");
+          return;
+        }
+        Logger.logging("Converting " + svg);
+        this.conversions.incrementAndGet();
+        this.converter.convert(svg.toString(), xml.toString(),
+                               file.getPath());
+      }
+    } finally {
+      synchronized (this) {
+        this.running.remove(svg);
+        if (this.dirty.remove(svg)) {
+          this.schedule(svg, 0);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * @param svg The SVG file of a pair.
+   *
+   * @return True if the pair is complete and its output is missing or older
+   *         than one of its inputs.
+   */
+  private boolean outdated(final Path svg) {
+    final Path xml = Pairs.annotation(svg);
+    if (xml == null || !Files.isRegularFile(svg)) {
+      return false;
+    }
+    final long converted = this.outputFile(svg).lastModified();
+    return converted == 0L || converted < svg.toFile().lastModified()
+        || converted < xml.toFile().lastModified();
+  }
+
+
+  /**
+   * @param svg The SVG file of a pair.
+   *
+   * @return The output file of the pair, mirroring its place in the tree.
+   */
+  private File outputFile(final Path svg) {
+    final Path relative = this.root.relativize(svg.toAbsolutePath()
+                                               .normalize());
+    return new File(this.output, relative.toString());
+  }
+
+
+  /**
+   * @return The number of conversions started so far.
+   */
+  int getConversions() {
+    return this.conversions.get();
+  }
+
+}
@@ -0,0 +1,567 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Geometry.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Jul 19 14:27:08 2017
+ *
+ * @brief  Cache of the drawable geometry of an SVG document.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.apache.batik.parser.DefaultLengthHandler;
+import org.apache.batik.parser.DefaultPointsHandler;
+import org.apache.batik.parser.LengthParser;
+import org.apache.batik.parser.ParseException;
+import org.apache.batik.parser.PointsParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.svg.SVGAnimatedLength;
+import org.w3c.dom.svg.SVGLength;
+import org.w3c.dom.svg.SVGLineElement;
+import org.w3c.dom.svg.SVGPoint;
+import org.w3c.dom.svg.SVGPointList;
+import org.w3c.dom.svg.SVGPolygonElement;
+import org.w3c.dom.svg.SVGRectElement;
+
+import java.util.Arrays;
+
+
+/**
+ * The points of all drawable elements of an SVG document, extracted in a
+ * single traversal into primitive arrays. Points are stored element by
+ * element; for every element its type, the range of its points and its
+ * bounding box are recorded. All geometric computations on a document read
+ * from one instance instead of walking the DOM again.
+ *
+ * <p>
+ * Coordinates are taken from Batik's SVG DOM if the document has one. In a
+ * plain DOM they are parsed from the raw attributes, with the same precision.
+ * </p>
+ */
+public final class Geometry {
+
+  /** Type of line elements. */
+  public static final byte LINE = 0;
+  /** Type of rectangle elements. */
+  public static final byte RECT = 1;
+  /** Type of polygon elements. */
+  public static final byte POLYGON = 2;
+  /** Type of path elements, flattened into points. */
+  public static final byte PATH = 3;
+
+  private double[] xs = new double[64];
+  private double[] ys = new double[64];
+  private int points = 0;
+
+  private Element[] elements = new Element[16];
+  private byte[] types = new byte[16];
+  private int[] starts = new int[17];
+  private double[] bounds = new double[64];
+  private int size = 0;
+
+  /** Size of a user unit in millimeters, as assumed by the SVG DOM. */
+  private static final float PIXEL_TO_MILLIMETER = 0.26458333333333333333f;
+
+  private final PathFlattener flattener;
+
+
+  /**
+   * Constructor.
+   *
+   * @param tolerance The flattening tolerance for paths.
+   */
+  private Geometry(final double tolerance) {
+    this.flattener = new PathFlattener(tolerance);
+  }
+
+
+  /**
+   * Extracts the geometry of all lines, rectangles, polygons and paths, with
+   * the default flattening tolerance for paths.
+   *
+   * @param svg The SVG document.
+   * @param uri The namespace of the SVG elements.
+   *
+   * @return The geometry of the document.
+   */
+  public static Geometry extract(final Document svg, final String uri) {
+    return Geometry.extract(svg, uri, PathFlattener.DEFAULT_TOLERANCE);
+  }
+
+
+  /**
+   * Extracts the geometry of all lines, rectangles, polygons and paths.
+   *
+   * @param svg The SVG document.
+   * @param uri The namespace of the SVG elements.
+   * @param tolerance The flattening tolerance for curves in paths.
+   *
+   * @return The geometry of the document.
+   */
+  public static Geometry extract(final Document svg, final String uri,
+                                 final double tolerance) {
+    final Geometry geometry = new Geometry(tolerance);
+    final Element root = svg.getDocumentElement();
+    if (root != null) {
+      geometry.walk(root, uri == null ? "" : uri);
+    }
+    geometry.trim();
+    return geometry;
+  }
+
+
+  /**
+   * Traverses the tree in document order without recursion.
+   *
+   * @param root The root element.
+   * @param uri The SVG namespace.
+   */
+  private void walk(final Element root, final String uri) {
+    Node node = root;
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        this.visit((Element) node, uri);
+      }
+      Node next = node.getFirstChild();
+      while (next == null && node != root) {
+        next = node.getNextSibling();
+        if (next == null) {
+          node = node.getParentNode();
+        }
+      }
+      node = next;
+    }
+  }
+
+
+  /**
+   * Records a drawable element.
+   *
+   * @param element The element.
+   * @param uri The SVG namespace.
+   */
+  private void visit(final Element element, final String uri) {
+    final String ns = element.getNamespaceURI();
+    if (!uri.equals(ns == null ? "" : ns)) {
+      return;
+    }
+    final String name = element.getLocalName();
+    if ("line".equals(name)) {
+      this.begin(element, Geometry.LINE);
+      if (element instanceof SVGLineElement) {
+        final SVGLineElement line = (SVGLineElement) element;
+        this.add(Geometry.getValue(line.getX1()),
+                 Geometry.getValue(line.getY1()));
+        this.add(Geometry.getValue(line.getX2()),
+                 Geometry.getValue(line.getY2()));
+      } else {
+        this.add(Geometry.getLength(element, "x1"),
+                 Geometry.getLength(element, "y1"));
+        this.add(Geometry.getLength(element, "x2"),
+                 Geometry.getLength(element, "y2"));
+      }
+      this.end();
+    } else if ("rect".equals(name)) {
+      final double x;
+      final double y;
+      final double w;
+      final double h;
+      if (element instanceof SVGRectElement) {
+        final SVGRectElement rectangle = (SVGRectElement) element;
+        x = Geometry.getValue(rectangle.getX());
+        y = Geometry.getValue(rectangle.getY());
+        w = Geometry.getValue(rectangle.getWidth());
+        h = Geometry.getValue(rectangle.getHeight());
+      } else {
+        x = Geometry.getLength(element, "x");
+        y = Geometry.getLength(element, "y");
+        w = Geometry.getLength(element, "width");
+        h = Geometry.getLength(element, "height");
+      }
+      this.begin(element, Geometry.RECT);
+      this.add(x + w, y + h);
+      this.add(x + w, y);
+      this.add(x, y + h);
+      this.add(x, y);
+      this.end();
+    } else if ("polygon".equals(name)) {
+      this.begin(element, Geometry.POLYGON);
+      if (element instanceof SVGPolygonElement) {
+        final SVGPointList list = ((SVGPolygonElement) element).getPoints();
+        for (int j = 0; j < list.getNumberOfItems(); j++) {
+          final SVGPoint point = list.getItem(j);
+          this.add(Geometry.getValue(point.getX()),
+                   Geometry.getValue(point.getY()));
+        }
+      } else {
+        this.addPoints(element.getAttribute("points"));
+      }
+      this.end();
+    } else if ("path".equals(name)) {
+      // Read the raw path data; Batik's segment lists are not needed.
+      final String data = element.getAttribute("d");
+      if (data.isEmpty()) {
+        return;
+      }
+      this.begin(element, Geometry.PATH);
+      if (!this.flattener.flatten(data, this::add)) {
+        Logger.logging(() -> "Error in path data of element "
+                       + element.getAttribute("id") + "\n");
+      }
+      this.end();
+    }
+  }
+
+
+  /**
+   * Starts a new element.
+   *
+   * @param element The element.
+   * @param type Its type.
+   */
+  private void begin(final Element element, final byte type) {
+    if (this.size == this.types.length) {
+      final int capacity = this.size * 2;
+      this.elements = Arrays.copyOf(this.elements, capacity);
+      this.types = Arrays.copyOf(this.types, capacity);
+      this.starts = Arrays.copyOf(this.starts, capacity + 1);
+      this.bounds = Arrays.copyOf(this.bounds, 4 * capacity);
+    }
+    this.elements[this.size] = element;
+    this.types[this.size] = type;
+    this.starts[this.size] = this.points;
+  }
+
+
+  /**
+   * Finishes the current element and computes its bounding box.
+   */
+  private void end() {
+    final int start = this.starts[this.size];
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = start; i < this.points; i++) {
+      minX = Math.min(minX, this.xs[i]);
+      minY = Math.min(minY, this.ys[i]);
+      maxX = Math.max(maxX, this.xs[i]);
+      maxY = Math.max(maxY, this.ys[i]);
+    }
+    final int offset = 4 * this.size;
+    this.bounds[offset] = minX;
+    this.bounds[offset + 1] = minY;
+    this.bounds[offset + 2] = maxX;
+    this.bounds[offset + 3] = maxY;
+    this.size++;
+    this.starts[this.size] = this.points;
+  }
+
+
+  /**
+   * Adds a point to the current element.
+   *
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   */
+  private void add(final double x, final double y) {
+    if (this.points == this.xs.length) {
+      this.xs = Arrays.copyOf(this.xs, this.points * 2);
+      this.ys = Arrays.copyOf(this.ys, this.points * 2);
+    }
+    this.xs[this.points] = x;
+    this.ys[this.points] = y;
+    this.points++;
+  }
+
+
+  /**
+   * Shrinks the arrays to their final size.
+   */
+  private void trim() {
+    this.xs = Arrays.copyOf(this.xs, this.points);
+    this.ys = Arrays.copyOf(this.ys, this.points);
+    this.elements = Arrays.copyOf(this.elements, this.size);
+    this.types = Arrays.copyOf(this.types, this.size);
+    this.starts = Arrays.copyOf(this.starts, this.size + 1);
+    this.bounds = Arrays.copyOf(this.bounds, 4 * this.size);
+  }
+
+
+  /**
+   * Adds the points of a raw points attribute. Like the SVG DOM, parsing stops
+   * at the first error.
+   *
+   * @param points The value of the points attribute.
+   */
+  private void addPoints(final String points) {
+    final PointsParser parser = new PointsParser();
+    parser.setPointsHandler(new DefaultPointsHandler() {
+        @Override
+        public void point(final float x, final float y) {
+          Geometry.this.add(Geometry.getValue(x), Geometry.getValue(y));
+        }
+      });
+    try {
+      parser.parse(points);
+    } catch (final ParseException e) {
+      // Keep the points before the error.
+    }
+  }
+
+
+  /**
+   * Reads a length from a raw attribute, the way the SVG DOM computes its base
+   * value without a rendering context: absolute units are converted to user
+   * units at 96 dpi, relative units are taken as user units.
+   *
+   * @param element The element.
+   * @param attribute The attribute name.
+   *
+   * @return The length in user units, 0 if the attribute is missing or
+   *         malformed.
+   */
+  private static double getLength(final Element element,
+                                  final String attribute) {
+    final String value = element.getAttribute(attribute);
+    if (value.isEmpty()) {
+      return 0;
+    }
+    final float[] length = new float[1];
+    final short[] unit = {SVGLength.SVG_LENGTHTYPE_NUMBER};
+    final LengthParser parser = new LengthParser();
+    parser.setLengthHandler(new DefaultLengthHandler() {
+        @Override
+        public void lengthValue(final float v) {
+          length[0] = v;
+        }
+
+        @Override
+        public void in() {
+          unit[0] = SVGLength.SVG_LENGTHTYPE_IN;
+        }
+
+        @Override
+        public void cm() {
+          unit[0] = SVGLength.SVG_LENGTHTYPE_CM;
+        }
+
+        @Override
+        public void mm() {
+          unit[0] = SVGLength.SVG_LENGTHTYPE_MM;
+        }
+
+        @Override
+        public void pt() {
+          unit[0] = SVGLength.SVG_LENGTHTYPE_PT;
+        }
+
+        @Override
+        public void pc() {
+          unit[0] = SVGLength.SVG_LENGTHTYPE_PC;
+        }
+      });
+    try {
+      parser.parse(value);
+    } catch (final ParseException e) {
+      return 0;
+    }
+    return Geometry.getValue(Geometry.toUserUnits(length[0], unit[0]));
+  }
+
+
+  /**
+   * Converts an absolute length to user units, with the arithmetic of the SVG
+   * DOM so that the results agree to the last bit.
+   *
+   * @param length The length.
+   * @param unit The SVG length type.
+   *
+   * @return The length in user units.
+   */
+  private static float toUserUnits(final float length, final short unit) {
+    final float millimeter = Geometry.PIXEL_TO_MILLIMETER;
+    switch (unit) {
+      case SVGLength.SVG_LENGTHTYPE_IN:
+        return length * 25.4f / millimeter;
+      case SVGLength.SVG_LENGTHTYPE_CM:
+        return length * 10f / millimeter;
+      case SVGLength.SVG_LENGTHTYPE_MM:
+        return length / millimeter;
+      case SVGLength.SVG_LENGTHTYPE_PT:
+        return length * 25.4f / (72f * millimeter);
+      case SVGLength.SVG_LENGTHTYPE_PC:
+        return length * 25.4f / (6f * millimeter);
+      default:
+        return length;
+    }
+  }
+
+
+  /**
+   * Converts a length to double, going through its float value as printed.
+   *
+   * @param length The animated length.
+   *
+   * @return The base value.
+   */
+  private static double getValue(final SVGAnimatedLength length) {
+    return Geometry.getValue(length.getBaseVal().getValue());
+  }
+
+
+  /**
+   * @param value A float value.
+   *
+   * @return The double with the same decimal representation.
+   */
+  private static double getValue(final float value) {
+    return Double.parseDouble(Float.toString(value));
+  }
+
+
+  /**
+   * @return The number of points.
+   */
+  public int getPointCount() {
+    return this.points;
+  }
+
+
+  /**
+   * @return The number of elements.
+   */
+  public int getElementCount() {
+    return this.size;
+  }
+
+
+  /**
+   * @return The x coordinates of all points. The array must not be modified.
+   */
+  public double[] getXs() {
+    return this.xs;
+  }
+
+
+  /**
+   * @return The y coordinates of all points. The array must not be modified.
+   */
+  public double[] getYs() {
+    return this.ys;
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The element.
+   */
+  public Element getElement(final int index) {
+    return this.elements[index];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The type of the element.
+   */
+  public byte getType(final int index) {
+    return this.types[index];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The index of the first point of the element.
+   */
+  public int getStart(final int index) {
+    return this.starts[index];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The index after the last point of the element.
+   */
+  public int getEnd(final int index) {
+    return this.starts[index + 1];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The bounding box of the element as minimal x, minimal y, maximal
+   *         x, maximal y.
+   */
+  public double[] getBounds(final int index) {
+    final int offset = 4 * index;
+    return new double[] {this.bounds[offset], this.bounds[offset + 1],
+                         this.bounds[offset + 2], this.bounds[offset + 3]};
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The minimal x coordinate of the element.
+   */
+  public double getMinX(final int index) {
+    return this.bounds[4 * index];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The minimal y coordinate of the element.
+   */
+  public double getMinY(final int index) {
+    return this.bounds[4 * index + 1];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The maximal x coordinate of the element.
+   */
+  public double getMaxX(final int index) {
+    return this.bounds[4 * index + 2];
+  }
+
+
+  /**
+   * @param index An element index.
+   *
+   * @return The maximal y coordinate of the element.
+   */
+  public double getMaxY(final int index) {
+    return this.bounds[4 * index + 3];
+  }
+
+}
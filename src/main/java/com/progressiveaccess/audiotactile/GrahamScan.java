@@ -26,49 +26,43 @@
 package com.progressiveaccess.audiotactile;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.Stack;
-import java.util.TreeSet;
 import javax.vecmath.Point2d;
 
 
 /**
- * Compute close bounding polygon using Graham Scan algorithm.
+ * Compute close bounding polygon of a set of points.
+ *
+ * <p>
+ * The primitive entry points work on coordinate arrays using Andrew's
+ * monotone chain algorithm: O(n log n) with an in-place primitive sort and no
+ * allocation apart from the result. Degenerate inputs yield degenerate hulls
+ * instead of exceptions. The <code>Point2d</code> based entry points are kept
+ * as wrappers with their original contract.
+ * </p>
+ *
+ * <p>
+ * All entry points return the corners of the hull only: points that lie on
+ * an edge between two corners are omitted, as they were by the angular scan
+ * these entry points replace.
+ * </p>
  */
 public final class GrahamScan {
 
-  /**
-   * An enum denoting a directional-turn between 3 points (vectors).
-   */
-  protected static enum Turn { CLOCKWISE, COUNTER_CLOCKWISE, COLLINEAR }
+  private static final int INSERTION_SORT = 16;
 
-  /**
-   * Returns true iff all points in <code>points</code> are collinear.
-   *
-   * @param points the list of points.
-   * @return       true iff all points in <code>points</code> are collinear.
-   */
-  protected static boolean areAllCollinear(List<Point2d> points) {
-    if (points.size() < 2) {
-      return true;
-    }
-    final Point2d a = points.get(0);
-    final Point2d b = points.get(1);
-    for (int i = 2; i < points.size(); i++) {
-      Point2d c = points.get(i);
-      if (getTurn(a, b, c) != Turn.COLLINEAR) {
-        return false;
-      }
-    }
-    return true;
+  /** Dummy constructor. */
+  private GrahamScan() {
+    throw new AssertionError("Instantiating utility class...");
   }
 
   /**
    * Returns the convex hull of the points created from <code>xs</code>
    * and <code>ys</code>. Note that the first and last point in the returned
-   * <code>List&lt;java.awt.Point2d&gt;</code> are the same point.
+   * <code>List&lt;java.awt.Point2d&gt;</code> are the same point. Points on
+   * the edges of the hull are omitted.
    *
    * @param xs the x coordinates.
    * @param ys the y coordinates.
@@ -84,18 +78,20 @@ public final class GrahamScan {
     if (xs.length != ys.length) {
       throw new IllegalArgumentException("xs and ys don't have the same size");
     }
-    List<Point2d> points = new ArrayList<Point2d>();
+    final double[] x = new double[xs.length];
+    final double[] y = new double[ys.length];
     for (int i = 0; i < xs.length; i++) {
-      points.add(new Point2d(xs[i], ys[i]));
+      x[i] = xs[i];
+      y[i] = ys[i];
     }
-    return getConvexHull(points);
+    return GrahamScan.toPoints(x, y);
   }
 
   /**
    * Returns the convex hull of the points created from the list
    * <code>points</code>. Note that the first and last point in the
    * returned <code>List&lt;java.awt.Point2d&gt;</code> are the same
-   * point.
+   * point. Points on the edges of the hull are omitted.
    *
    * @param points the list of points.
    * @return       the convex hull of the points created from the list
@@ -105,125 +101,364 @@ public final class GrahamScan {
    */
   public static List<Point2d> getConvexHull(List<Point2d> points) throws
     IllegalArgumentException {
-    List<Point2d> sorted = new ArrayList<Point2d>(getSortedPoint2dSet(points));
-    if (sorted.size() < 3) {
-      throw new IllegalArgumentException("can only create a convex" +
-                                         "hull of 3 or more unique points");
+    final double[] x = new double[points.size()];
+    final double[] y = new double[points.size()];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = points.get(i).x;
+      y[i] = points.get(i).y;
     }
-    if (areAllCollinear(sorted)) {
+    return GrahamScan.toPoints(x, y);
+  }
+
+  /**
+   * Computes the hull for the wrappers, enforcing their contract.
+   *
+   * @param xs the x coordinates. Reordered by the computation.
+   * @param ys the y coordinates. Reordered by the computation.
+   * @return   the closed hull as list of points.
+   * @throws IllegalArgumentException if all points are collinear or if there
+   *                                  are less than 3 unique points present.
+   */
+  private static List<Point2d> toPoints(double[] xs, double[] ys) throws
+    IllegalArgumentException {
+    final double[] hull = new double[4 * xs.length + 2];
+    final int size = GrahamScan.convexHull(xs, ys, xs.length, hull);
+    if (size < 3) {
+      final HashSet<Point2d> unique = new HashSet<Point2d>();
+      for (int i = 0; i < xs.length && unique.size() < 3; i++) {
+        unique.add(new Point2d(xs[i], ys[i]));
+      }
+      if (unique.size() < 3) {
+        throw new IllegalArgumentException("can only create a convex" +
+                                           "hull of 3 or more unique points");
+      }
       throw new IllegalArgumentException("cannot create a convex hull " +
                                          "from collinear points");
     }
-    Stack<Point2d> stack = new Stack<Point2d>();
-    stack.push(sorted.get(0));
-    stack.push(sorted.get(1));
-    for (int i = 2; i < sorted.size(); i++) {
-      Point2d head = sorted.get(i);
-      Point2d middle = stack.pop();
-      Point2d tail = stack.peek();
-      Turn turn = getTurn(tail, middle, head);
-      switch(turn) {
-        case COUNTER_CLOCKWISE:
-          stack.push(middle);
-          stack.push(head);
-          break;
-        case CLOCKWISE:
-          i--;
-          break;
-        case COLLINEAR:
-          stack.push(head);
-          break;
-      }
+    final List<Point2d> result = new ArrayList<Point2d>(size + 1);
+    for (int i = 0; i < size; i++) {
+      result.add(new Point2d(hull[2 * i], hull[2 * i + 1]));
     }
     // close the hull
-    stack.push(sorted.get(0));
-    return new ArrayList<Point2d>(stack);
+    result.add(new Point2d(hull[0], hull[1]));
+    return result;
   }
 
   /**
-   * Returns the points with the lowest y coordinate. In case more than 1 such
-   * point exists, the one with the lowest x coordinate is returned.
+   * Returns the convex hull of the points given by <code>xs</code> and
+   * <code>ys</code>. The input arrays are not modified. From
+   * {@link ParallelHull#THRESHOLD} points on the hull is computed in
+   * parallel.
    *
-   * @param points the list of points to return the lowest point from.
-   * @return       the points with the lowest y coordinate. In case more than
-   *               1 such point exists, the one with the lowest x coordinate
-   *               is returned.
+   * @param xs the x coordinates.
+   * @param ys the y coordinates.
+   * @return   the hull vertices as interleaved x and y coordinates, see
+   *           {@link #convexHull(double[], double[], int, double[])}.
+   * @throws IllegalArgumentException if <code>xs</code> and <code>ys</code>
+   *                                  don't have the same size.
    */
-  protected static Point2d getLowestPoint2d(List<Point2d> points) {
-    Point2d lowest = points.get(0);
-    for (int i = 1; i < points.size(); i++) {
-      Point2d temp = points.get(i);
-      if (temp.y < lowest.y || (temp.y == lowest.y && temp.x < lowest.x)) {
-        lowest = temp;
+  public static double[] convexHull(double[] xs, double[] ys) throws
+    IllegalArgumentException {
+    if (xs.length != ys.length) {
+      throw new IllegalArgumentException("xs and ys don't have the same size");
+    }
+    if (xs.length >= ParallelHull.THRESHOLD) {
+      return ParallelHull.convexHull(xs, ys);
+    }
+    final double[] hull = new double[4 * xs.length + 2];
+    final int size = GrahamScan.convexHull(
+        xs.clone(), ys.clone(), xs.length, hull);
+    return Arrays.copyOf(hull, 2 * size);
+  }
+
+  /**
+   * Computes the convex hull of the first <code>n</code> points given by
+   * <code>xs</code> and <code>ys</code> without allocating. The input arrays
+   * are sorted in place.
+   *
+   * <p>
+   * The hull vertices are written to <code>hull</code> as interleaved x and y
+   * coordinates, counter-clockwise with respect to a y-axis pointing up,
+   * starting with the point of lowest y (and lowest x among those). The hull
+   * is not closed and collinear points on its edges are omitted. Degenerate
+   * inputs give degenerate hulls: no vertex for no points, a single vertex if
+   * all points coincide and the two extreme points if all are collinear.
+   * </p>
+   *
+   * @param xs   the x coordinates.
+   * @param ys   the y coordinates.
+   * @param n    the number of points to consider.
+   * @param hull the output buffer, of length at least <code>4 * n + 2</code>.
+   * @return     the number of hull vertices.
+   */
+  public static int convexHull(double[] xs, double[] ys, int n,
+                               double[] hull) {
+    if (n == 0) {
+      return 0;
+    }
+    GrahamScan.sort(xs, ys, 0, n - 1);
+    return GrahamScan.chain(xs, ys, n, hull);
+  }
+
+  /**
+   * The monotone chain over points that are already sorted lexicographically
+   * by x and y, see {@link #convexHull(double[], double[], int, double[])}.
+   *
+   * @param xs   the sorted x coordinates.
+   * @param ys   the y coordinates in the same order.
+   * @param n    the number of points to consider, at least one.
+   * @param hull the output buffer, of length at least <code>4 * n + 2</code>.
+   * @return     the number of hull vertices.
+   */
+  static int chain(double[] xs, double[] ys, int n, double[] hull) {
+    int k = 0;
+    // Lower hull from left to right.
+    for (int i = 0; i < n; i++) {
+      if (i > 0 && xs[i] == xs[i - 1] && ys[i] == ys[i - 1]) {
+        continue;
       }
+      while (k >= 2 && GrahamScan.cross(hull, k, xs[i], ys[i]) <= 0) {
+        k--;
+      }
+      hull[2 * k] = xs[i];
+      hull[2 * k + 1] = ys[i];
+      k++;
+    }
+    if (k == 1) {
+      return 1;
     }
-    return lowest;
+    // Upper hull from right to left.
+    final int lower = k + 1;
+    for (int i = n - 2; i >= 0; i--) {
+      if (xs[i] == xs[i + 1] && ys[i] == ys[i + 1]) {
+        continue;
+      }
+      while (k >= lower && GrahamScan.cross(hull, k, xs[i], ys[i]) <= 0) {
+        k--;
+      }
+      hull[2 * k] = xs[i];
+      hull[2 * k + 1] = ys[i];
+      k++;
+    }
+    // The last point is the first one again.
+    k--;
+    GrahamScan.rotate(hull, k);
+    return k;
   }
 
   /**
-   * Returns a sorted set of points from the list <code>points</code>. The
-   * set of points are sorted in increasing order of the angle they and the
-   * lowest point <tt>P</tt> make with the x-axis. If tow (or more) points
-   * form the same angle towards <tt>P</tt>, the one closest to <tt>P</tt>
-   * comes first.
+   * Cross product of the last two hull points and a new point. Positive for
+   * a counter-clockwise turn.
    *
-   * @param points the list of points to sort.
-   * @return       a sorted set of points from the list <code>points</code>.
-   * @see GrahamScan#getLowestPoint2d(java.util.List)
-   */
-  protected static Set<Point2d> getSortedPoint2dSet(List<Point2d> points) {
-    final Point2d lowest = getLowestPoint2d(points);
-    TreeSet<Point2d> set = new TreeSet<Point2d>(new Comparator<Point2d>() {
-        @Override
-        public int compare(Point2d a, Point2d b) {
-          if (a == b || a.equals(b)) {
-            return 0;
-          }
-          Double thetaA = Math.atan2(a.y - lowest.y, a.x - lowest.x);
-          Double thetaB = Math.atan2(b.y - lowest.y, b.x - lowest.x);
-          if (thetaA < thetaB) {
-            return -1;
-          }
-          if (thetaA > thetaB) {
-            return 1;
-          }
-          // collinear with the 'lowest' point, let the point closest to it come
-          // first
-          Double distanceA = Math.sqrt(((lowest.x - a.x) * (lowest.x - a.x)) +
-                                       ((lowest.y - a.y) * (lowest.y - a.y)));
-          Double distanceB = Math.sqrt(((lowest.x - b.x) * (lowest.x - b.x)) +
-                                       ((lowest.y - b.y) * (lowest.y - b.y)));
-          return distanceA < distanceB ? -1 : 1;
-        }
-      });
-    set.addAll(points);
-    return set;
+   * @param hull the hull buffer.
+   * @param k    the number of points in the buffer.
+   * @param x    the x coordinate of the new point.
+   * @param y    the y coordinate of the new point.
+   * @return     the cross product.
+   */
+  private static double cross(double[] hull, int k, double x, double y) {
+    final double ax = hull[2 * k - 4];
+    final double ay = hull[2 * k - 3];
+    return (hull[2 * k - 2] - ax) * (y - ay)
+      - (hull[2 * k - 1] - ay) * (x - ax);
+  }
+
+  /**
+   * Rotates the hull in place so that it starts with the point of lowest y
+   * and lowest x.
+   *
+   * @param hull the hull buffer.
+   * @param k    the number of hull vertices.
+   */
+  private static void rotate(double[] hull, int k) {
+    int start = 0;
+    for (int i = 1; i < k; i++) {
+      final double y = hull[2 * i + 1];
+      final double lowest = hull[2 * start + 1];
+      if (y < lowest || (y == lowest && hull[2 * i] < hull[2 * start])) {
+        start = i;
+      }
+    }
+    if (start == 0) {
+      return;
+    }
+    // Rotation by three reversals, pairwise on the interleaved array.
+    GrahamScan.reverse(hull, 0, start - 1);
+    GrahamScan.reverse(hull, start, k - 1);
+    GrahamScan.reverse(hull, 0, k - 1);
+  }
+
+  /**
+   * Reverses the order of the points between two indices.
+   *
+   * @param hull the hull buffer.
+   * @param from the first point index.
+   * @param to   the last point index.
+   */
+  private static void reverse(double[] hull, int from, int to) {
+    for (int i = from, j = to; i < j; i++, j--) {
+      GrahamScan.swap(hull, 2 * i, 2 * j);
+      GrahamScan.swap(hull, 2 * i + 1, 2 * j + 1);
+    }
   }
 
   /**
-   * Returns the GrahamScan#Turn formed by traversing through the
-   * ordered points <code>a</code>, <code>b</code> and <code>c</code>.
-   * More specifically, the cross product <tt>C</tt> between the
-   * 3 points (vectors) is calculated:
+   * Sorts points lexicographically by x and y. Introsort: quicksort with
+   * median of three, insertion sort for short ranges and heapsort once the
+   * recursion gets too deep.
    *
-   * <tt>(b.x-a.x * c.y-a.y) - (b.y-a.y * c.x-a.x)</tt>
+   * @param xs   the x coordinates.
+   * @param ys   the y coordinates.
+   * @param from the first index.
+   * @param to   the last index.
+   */
+  static void sort(double[] xs, double[] ys, int from, int to) {
+    final int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from + 1));
+    GrahamScan.sort(xs, ys, from, to, depth);
+  }
+
+  /**
+   * Introsort on a range.
    *
-   * and if <tt>C</tt> is less than 0, the turn is CLOCKWISE, if
-   * <tt>C</tt> is more than 0, the turn is COUNTER_CLOCKWISE, else
-   * the three points are COLLINEAR.
+   * @param xs    the x coordinates.
+   * @param ys    the y coordinates.
+   * @param from  the first index.
+   * @param to    the last index.
+   * @param depth the remaining recursion depth.
+   */
+  private static void sort(double[] xs, double[] ys, int from, int to,
+                           int depth) {
+    while (to - from >= GrahamScan.INSERTION_SORT) {
+      if (depth-- == 0) {
+        GrahamScan.heapSort(xs, ys, from, to);
+        return;
+      }
+      final int mid = (from + to) >>> 1;
+      // Median of three ends up at mid.
+      if (GrahamScan.less(xs, ys, mid, from)) {
+        GrahamScan.swap(xs, ys, mid, from);
+      }
+      if (GrahamScan.less(xs, ys, to, from)) {
+        GrahamScan.swap(xs, ys, to, from);
+      }
+      if (GrahamScan.less(xs, ys, to, mid)) {
+        GrahamScan.swap(xs, ys, to, mid);
+      }
+      final double px = xs[mid];
+      final double py = ys[mid];
+      int i = from;
+      int j = to;
+      while (i <= j) {
+        while (GrahamScan.less(xs[i], ys[i], px, py)) {
+          i++;
+        }
+        while (GrahamScan.less(px, py, xs[j], ys[j])) {
+          j--;
+        }
+        if (i <= j) {
+          GrahamScan.swap(xs, ys, i, j);
+          i++;
+          j--;
+        }
+      }
+      // Recurse into the smaller part, loop on the larger one.
+      if (j - from < to - i) {
+        GrahamScan.sort(xs, ys, from, j, depth);
+        from = i;
+      } else {
+        GrahamScan.sort(xs, ys, i, to, depth);
+        to = j;
+      }
+    }
+    for (int i = from + 1; i <= to; i++) {
+      final double x = xs[i];
+      final double y = ys[i];
+      int j = i - 1;
+      while (j >= from && GrahamScan.less(x, y, xs[j], ys[j])) {
+        xs[j + 1] = xs[j];
+        ys[j + 1] = ys[j];
+        j--;
+      }
+      xs[j + 1] = x;
+      ys[j + 1] = y;
+    }
+  }
+
+  /**
+   * Heapsort on a range.
    *
-   * @param a the starting point.
-   * @param b the second point.
-   * @param c the end point.
-   * @return the GrahamScan#Turn formed by traversing through the
-   *         ordered points <code>a</code>, <code>b</code> and
-   *         <code>c</code>.
-   */
-  protected static Turn getTurn(Point2d a, Point2d b, Point2d c) {
-    Double crossProduct = ((b.x - a.x) * (c.y - a.y)) -
-        ((b.y - a.y) * (c.x - a.x));
-    return crossProduct > 0 ? Turn.COUNTER_CLOCKWISE :
-      (crossProduct < 0 ? Turn.CLOCKWISE : Turn.COLLINEAR);
+   * @param xs   the x coordinates.
+   * @param ys   the y coordinates.
+   * @param from the first index.
+   * @param to   the last index.
+   */
+  private static void heapSort(double[] xs, double[] ys, int from, int to) {
+    final int n = to - from + 1;
+    for (int i = n / 2 - 1; i >= 0; i--) {
+      GrahamScan.siftDown(xs, ys, from, i, n);
+    }
+    for (int end = n - 1; end > 0; end--) {
+      GrahamScan.swap(xs, ys, from, from + end);
+      GrahamScan.siftDown(xs, ys, from, 0, end);
+    }
+  }
+
+  /**
+   * Restores the heap property below a node.
+   *
+   * @param xs     the x coordinates.
+   * @param ys     the y coordinates.
+   * @param offset the start of the heap in the arrays.
+   * @param node   the node.
+   * @param n      the size of the heap.
+   */
+  private static void siftDown(double[] xs, double[] ys, int offset,
+                               int node, int n) {
+    while (2 * node + 1 < n) {
+      int child = 2 * node + 1;
+      if (child + 1 < n
+          && GrahamScan.less(xs, ys, offset + child, offset + child + 1)) {
+        child++;
+      }
+      if (!GrahamScan.less(xs, ys, offset + node, offset + child)) {
+        return;
+      }
+      GrahamScan.swap(xs, ys, offset + node, offset + child);
+      node = child;
+    }
+  }
+
+  /**
+   * @return true if point <code>i</code> is lexicographically smaller than
+   *         point <code>j</code>.
+   */
+  private static boolean less(double[] xs, double[] ys, int i, int j) {
+    return GrahamScan.less(xs[i], ys[i], xs[j], ys[j]);
+  }
+
+  /**
+   * @return true if point <code>(ax, ay)</code> is lexicographically smaller
+   *         than point <code>(bx, by)</code>.
+   */
+  static boolean less(double ax, double ay, double bx, double by) {
+    return ax < bx || (ax == bx && ay < by);
+  }
+
+  /**
+   * Swaps two points.
+   */
+  private static void swap(double[] xs, double[] ys, int i, int j) {
+    GrahamScan.swap(xs, i, j);
+    GrahamScan.swap(ys, i, j);
+  }
+
+  /**
+   * Swaps two array entries.
+   */
+  private static void swap(double[] values, int i, int j) {
+    final double value = values[i];
+    values[i] = values[j];
+    values[j] = value;
   }
 
 }
@@ -28,6 +28,9 @@
 package com.progressiveaccess.audiotactile;
 
 import java.io.PrintWriter;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Logger facilities:
@@ -37,12 +40,24 @@ import java.io.PrintWriter;
  * or stdout.
  * </p>
  *
+ * <p>
+ * The facilities are shared by all conversions of a run and can be used from
+ * concurrent worker threads. Messages that are expensive to compute should be
+ * passed as a {@link Supplier}, which is only evaluated if the respective
+ * level is enabled. In asynchronous mode, messages are handed to a bounded
+ * ring buffer and written by a single background thread, so that workers do
+ * not contend for the output streams.
+ * </p>
+ *
  */
 public final class Logger {
-  private static Boolean debug = false;
-  private static Boolean verbose = false;
-  private static PrintWriter logFile = new PrintWriter(System.out);
-  private static PrintWriter errFile = new PrintWriter(System.err);
+  private static final int BUFFER_SIZE = 4096;
+
+  private static volatile boolean debug = false;
+  private static volatile boolean verbose = false;
+  private static final PrintWriter logFile = new PrintWriter(System.out);
+  private static final PrintWriter errFile = new PrintWriter(System.err);
+  private static volatile Appender appender = null;
 
 
   /** Dummy constructor. */
@@ -55,6 +70,54 @@ public final class Logger {
   public static void start() {
     Logger.debug = Cli.hasOption("d");
     Logger.verbose = Cli.hasOption("v");
+    if (Cli.hasOption("async_logging") && (Logger.debug || Logger.verbose)) {
+      Logger.startAsync(Logger.BUFFER_SIZE);
+    }
+  }
+
+
+  /**
+   * Switches to asynchronous output via a ring buffer.
+   *
+   * @param capacity
+   *          The number of messages the buffer can hold. Loggers block when
+   *          the buffer is full, messages are never dropped.
+   */
+  public static synchronized void startAsync(final int capacity) {
+    if (Logger.appender == null) {
+      Logger.appender = new Appender(capacity);
+      Logger.appender.start();
+    }
+  }
+
+
+  /**
+   * Stops the asynchronous output, if running, after writing all pending
+   * messages. Output is synchronous again afterwards.
+   */
+  public static synchronized void stop() {
+    final Appender current = Logger.appender;
+    if (current == null) {
+      return;
+    }
+    Logger.appender = null;
+    current.shutdown();
+  }
+
+
+  /**
+   * @return True if debug information is printed.
+   */
+  public static boolean isDebug() {
+    return Logger.debug;
+  }
+
+
+  /**
+   * @return True if verbose information is printed.
+   */
+  public static boolean isVerbose() {
+    return Logger.verbose;
   }
 
 
@@ -66,8 +129,21 @@ public final class Logger {
    */
   public static void error(final Object str) {
     if (Logger.debug) {
-      Logger.errFile.println(str);
-      Logger.errFile.flush();
+      Logger.print(Logger.errFile, str);
+    }
+  }
+
+
+  /**
+   * Prints debug information if option is set. The message is only computed
+   * if it is printed.
+   *
+   * @param str
+   *          Supplier of the information to print.
+   */
+  public static void error(final Supplier<?> str) {
+    if (Logger.debug) {
+      Logger.print(Logger.errFile, str.get());
     }
   }
 
@@ -80,8 +156,178 @@ public final class Logger {
    */
   public static void logging(final Object str) {
     if (Logger.verbose) {
-      Logger.logFile.println(str);
+      Logger.print(Logger.logFile, str);
+    }
+  }
+
+
+  /**
+   * Prints verbose information if option is set. The message is only computed
+   * if it is printed.
+   *
+   * @param str
+   *          Supplier of the information to print.
+   */
+  public static void logging(final Supplier<?> str) {
+    if (Logger.verbose) {
+      Logger.print(Logger.logFile, str.get());
+    }
+  }
+
+
+  /**
+   * Prints a message either directly or via the asynchronous appender.
+   *
+   * @param file
+   *          The output.
+   * @param str
+   *          The message.
+   */
+  private static void print(final PrintWriter file, final Object str) {
+    final Appender current = Logger.appender;
+    // Render on the calling thread, the object may change afterwards.
+    if (current != null && current.offer(file, String.valueOf(str))) {
+      return;
+    }
+    synchronized (file) {
+      file.println(str);
+      file.flush();
+    }
+  }
+
+
+  /**
+   * Background writer draining a bounded ring buffer of messages. Output is
+   * only flushed once the buffer runs empty.
+   */
+  private static final class Appender extends Thread {
+
+    private final Object[] messages;
+    private final PrintWriter[] files;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *          The size of the ring buffer.
+     */
+    private Appender(final int capacity) {
+      super("tactile-logger");
+      this.messages = new Object[Math.max(1, capacity)];
+      this.files = new PrintWriter[this.messages.length];
+      this.setDaemon(true);
+    }
+
+    /**
+     * Adds a message to the buffer, waiting if it is full.
+     *
+     * @param file
+     *          The output for the message.
+     * @param str
+     *          The message.
+     *
+     * @return False if the appender is shut down and did not take the
+     *         message.
+     */
+    private boolean offer(final PrintWriter file, final Object str) {
+      this.lock.lock();
+      try {
+        while (this.count == this.messages.length && !this.closed) {
+          this.notFull.awaitUninterruptibly();
+        }
+        if (this.closed) {
+          return false;
+        }
+        final int tail = (this.head + this.count) % this.messages.length;
+        this.messages[tail] = str;
+        this.files[tail] = file;
+        this.count++;
+        this.notEmpty.signal();
+        return true;
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    @Override
+    public void run() {
+      final Object[] batchMessages = new Object[this.messages.length];
+      final PrintWriter[] batchFiles = new PrintWriter[this.messages.length];
+      while (true) {
+        int size = 0;
+        this.lock.lock();
+        try {
+          while (this.count == 0 && !this.closed) {
+            this.notEmpty.awaitUninterruptibly();
+          }
+          if (this.count == 0) {
+            return;
+          }
+          // Take everything that is there in one go.
+          for (; this.count > 0; this.count--, size++) {
+            batchMessages[size] = this.messages[this.head];
+            batchFiles[size] = this.files[this.head];
+            this.messages[this.head] = null;
+            this.files[this.head] = null;
+            this.head = (this.head + 1) % this.messages.length;
+          }
+          this.notFull.signalAll();
+        } finally {
+          this.lock.unlock();
+        }
+        for (int i = 0; i < size; i++) {
+          synchronized (batchFiles[i]) {
+            batchFiles[i].println(batchMessages[i]);
+          }
+          batchMessages[i] = null;
+        }
+        Logger.flush();
+      }
+    }
+
+    /**
+     * Closes the buffer and waits until all pending messages are written.
+     */
+    private void shutdown() {
+      this.lock.lock();
+      try {
+        this.closed = true;
+        this.notEmpty.signalAll();
+        this.notFull.signalAll();
+      } finally {
+        this.lock.unlock();
+      }
+      boolean interrupted = false;
+      while (this.isAlive()) {
+        try {
+          this.join();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      Logger.flush();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+
+  /**
+   * Flushes both outputs.
+   */
+  private static void flush() {
+    synchronized (Logger.logFile) {
       Logger.logFile.flush();
     }
+    synchronized (Logger.errFile) {
+      Logger.errFile.flush();
+    }
   }
 }
@@ -0,0 +1,640 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Manifest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Jul 31 09:18:27 2017
+ *
+ * @brief  Job lists for batch conversions.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Lists of conversion jobs, read from a manifest file or collected by
+ * scanning a directory tree.
+ *
+ * <p>
+ * A manifest has one job per line, either as comma separated values or, for
+ * files ending in <code>.jsonl</code> or <code>.json</code>, as JSON objects.
+ * The fields of a job are <code>svg</code>, <code>xml</code>,
+ * <code>output</code> and <code>options</code>. CSV lines give them in this
+ * order, unless the first line is a header naming the columns. Only
+ * <code>svg</code> and <code>xml</code> are required. Relative paths are
+ * resolved against the directory of the manifest. Empty lines and lines
+ * starting with <code>#</code> are ignored.
+ * </p>
+ *
+ * <p>
+ * The options of a job are the long names of command line options, separated
+ * by spaces, which are applied on top of the options given on the command
+ * line. E.g., <code>iveo iveo_buttons language=de</code>. Boolean options
+ * can be switched off with <code>=false</code>.
+ * </p>
+ */
+final class Manifest {
+
+  private static final String[] FIELDS = {"svg", "xml", "output", "options"};
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final List<String> errors = new ArrayList<>();
+  private final TactileConverter converter;
+  private final Map<String, TactileConverter> converters = new HashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param converter The converter for jobs without options of their own.
+   */
+  private Manifest(final TactileConverter converter) {
+    this.converter = converter;
+  }
+
+
+  /**
+   * Reads a manifest file.
+   *
+   * @param file The manifest file.
+   * @param converter The converter for jobs without options of their own.
+   *
+   * @return The manifest.
+   *
+   * @throws IOException
+   *          If the file can not be read.
+   */
+  static Manifest read(final Path file, final TactileConverter converter)
+      throws IOException {
+    final Manifest manifest = new Manifest(converter);
+    final Path base = file.toAbsolutePath().getParent();
+    final boolean json = file.getFileName().toString()
+        .toLowerCase(Locale.ROOT).matches(".*\\.jsonl?");
+    String[] header = null;
+    try (BufferedReader reader =
+         Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      int number = 0;
+      for (String line = reader.readLine(); line != null;
+           line = reader.readLine()) {
+        number++;
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+          continue;
+        }
+        try {
+          final Map<String, String> fields;
+          if (json) {
+            fields = new JsonLine(trimmed).parse();
+          } else {
+            final List<String> values = Manifest.csv(line);
+            if (header == null && manifest.entries.isEmpty()
+                && manifest.errors.isEmpty()
+                && Manifest.FIELDS[0].equalsIgnoreCase(values.get(0).trim())) {
+              header = values.toArray(new String[values.size()]);
+              continue;
+            }
+            fields = Manifest.fields(
+                header == null ? Manifest.FIELDS : header, values);
+          }
+          manifest.add(base, fields);
+        } catch (final IllegalArgumentException e) {
+          manifest.errors.add(file + ":" + number + ": " + e.getMessage());
+        }
+      }
+    }
+    return manifest;
+  }
+
+
+  /**
+   * Collects the SVG files, plain or compressed, of a directory tree with
+   * their annotation files, as paired by {@link Pairs}. SVG files without
+   * annotation file are recorded as errors.
+   *
+   * @param root The root of the tree.
+   * @param skip A directory whose subtree is not scanned or null.
+   * @param converter The converter for all jobs.
+   *
+   * @return The manifest of all pairs in the tree, in order of their path.
+   *
+   * @throws IOException
+   *          If the tree can not be read.
+   */
+  static Manifest scan(final Path root, final Path skip,
+                       final TactileConverter converter) throws IOException {
+    final Manifest manifest = new Manifest(converter);
+    final Path excluded = skip == null ? null
+        : skip.toAbsolutePath().normalize();
+    final List<Path> svgs = new ArrayList<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(
+            final Path dir, final BasicFileAttributes attributes) {
+          return excluded != null
+              && dir.toAbsolutePath().normalize().startsWith(excluded)
+              ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(
+            final Path file, final BasicFileAttributes attributes) {
+          if (Pairs.isSvg(file)) {
+            svgs.add(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    Collections.sort(svgs);
+    for (final Path svg : svgs) {
+      final Path xml = Pairs.annotation(svg);
+      if (xml == null) {
+        manifest.errors.add("File " + svg + " has no annotation file.");
+      } else {
+        manifest.entries.add(new Entry(svg.toString(), xml.toString(), null,
+                                       converter));
+      }
+    }
+    return manifest;
+  }
+
+
+  /**
+   * @return The jobs of the manifest, in order.
+   */
+  List<Entry> getEntries() {
+    return this.entries;
+  }
+
+
+  /**
+   * @return The lines of the manifest that could not be read, with their
+   *         location and the reason, or the SVG files of a scanned tree that
+   *         could not be paired.
+   */
+  List<String> getErrors() {
+    return this.errors;
+  }
+
+
+  /**
+   * Adds a job.
+   *
+   * @param base The directory against which relative paths are resolved.
+   * @param fields The fields of the job.
+   */
+  private void add(final Path base, final Map<String, String> fields) {
+    final String svg = Manifest.path(base, fields.get("svg"));
+    final String xml = Manifest.path(base, fields.get("xml"));
+    if (svg == null || xml == null) {
+      throw new IllegalArgumentException("Missing svg or xml field.");
+    }
+    this.entries.add(new Entry(svg, xml,
+                               Manifest.path(base, fields.get("output")),
+                               this.converter(fields.get("options"))));
+  }
+
+
+  /**
+   * @param options The options of a job or null.
+   *
+   * @return The converter for these options. Jobs with the same options
+   *         share a converter.
+   */
+  private TactileConverter converter(final String options) {
+    final String key = options == null ? "" : options.trim();
+    if (key.isEmpty()) {
+      return this.converter;
+    }
+    TactileConverter converter = this.converters.get(key);
+    if (converter == null) {
+      converter = new TactileConverter(
+          Manifest.options(this.converter.getOptions(), key));
+      this.converters.put(key, converter);
+    }
+    return converter;
+  }
+
+
+  /**
+   * Applies the options of a job.
+   *
+   * @param base The options given on the command line.
+   * @param options The options of the job.
+   *
+   * @return The options for the job.
+   */
+  private static TactileOptions options(final TactileOptions base,
+                                        final String options) {
+    final TactileOptions.Builder builder = base.toBuilder();
+    for (final String option : options.split("[\\s;]+")) {
+      final int equal = option.indexOf('=');
+      final String name = (equal < 0 ? option : option.substring(0, equal))
+          .replaceFirst("^-+", "");
+      final String value = equal < 0 ? null : option.substring(equal + 1);
+      if ("language".equals(name)) {
+        if (value == null || value.isEmpty()) {
+          throw new IllegalArgumentException("Missing language.");
+        }
+        builder.language(value);
+        continue;
+      }
+      if ("compression_level".equals(name)) {
+        try {
+          builder.compressionLevel(Integer.parseInt(String.valueOf(value)));
+        } catch (final NumberFormatException e) {
+          throw new IllegalArgumentException(
+              "Illegal compression level " + value);
+        }
+        continue;
+      }
+      if ("precision".equals(name)) {
+        try {
+          builder.precision(Integer.parseInt(String.valueOf(value)));
+        } catch (final NumberFormatException e) {
+          throw new IllegalArgumentException("Illegal precision " + value);
+        }
+        continue;
+      }
+      final boolean flag;
+      if (value == null || "true".equals(value)) {
+        flag = true;
+      } else if ("false".equals(value)) {
+        flag = false;
+      } else {
+        throw new IllegalArgumentException(
+            "Illegal value for option " + name + ": " + value);
+      }
+      switch (name) {
+        case "iveo":
+          builder.iveo(flag);
+          break;
+        case "iveo_buttons":
+          builder.iveoButtons(flag);
+          break;
+        case "iveo_collision":
+          builder.iveoCollision(flag);
+          break;
+        case "polygons":
+          builder.polygons(flag);
+          break;
+        case "svg_dom":
+          builder.svgDom(flag);
+          break;
+        case "stream":
+          builder.stream(flag);
+          break;
+        case "compress":
+          builder.compress(flag);
+          break;
+        case "compact":
+          builder.compact(flag);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + name);
+      }
+    }
+    return builder.build();
+  }
+
+
+  /**
+   * @param base The directory against which relative paths are resolved.
+   * @param path A path or null.
+   *
+   * @return The resolved path or null if none is given.
+   */
+  private static String path(final Path base, final String path) {
+    if (path == null || path.trim().isEmpty()) {
+      return null;
+    }
+    return base.resolve(path.trim()).toString();
+  }
+
+
+  /**
+   * @param names The field names by column.
+   * @param values The values of a line.
+   *
+   * @return The fields of the line.
+   */
+  private static Map<String, String> fields(final String[] names,
+                                            final List<String> values) {
+    if (values.size() > names.length) {
+      throw new IllegalArgumentException("Too many columns.");
+    }
+    final Map<String, String> fields = new HashMap<>();
+    for (int i = 0; i < values.size(); i++) {
+      fields.put(names[i].trim().toLowerCase(Locale.ROOT), values.get(i));
+    }
+    return fields;
+  }
+
+
+  /**
+   * Splits a line of comma separated values. Values can be quoted with
+   * double quotes, which are doubled within quoted values.
+   *
+   * @param line The line.
+   *
+   * @return The values of the line.
+   */
+  private static List<String> csv(final String line) {
+    final List<String> values = new ArrayList<>();
+    final StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          value.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append(c);
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("Unterminated quote.");
+    }
+    values.add(value.toString());
+    return values;
+  }
+
+
+  /**
+   * A single job of the manifest.
+   */
+  static final class Entry {
+
+    private final String svg;
+    private final String xml;
+    private final String output;
+    private final TactileConverter converter;
+
+    /**
+     * Constructor.
+     *
+     * @param svg The SVG file.
+     * @param xml The XML annotation file.
+     * @param output The output file or null if none is given.
+     * @param converter The converter for the job.
+     */
+    private Entry(final String svg, final String xml, final String output,
+                  final TactileConverter converter) {
+      this.svg = svg;
+      this.xml = xml;
+      this.output = output;
+      this.converter = converter;
+    }
+
+    /**
+     * @return The SVG file.
+     */
+    String getSvg() {
+      return this.svg;
+    }
+
+    /**
+     * @return The XML annotation file.
+     */
+    String getXml() {
+      return this.xml;
+    }
+
+    /**
+     * @return The output file or null if none is given.
+     */
+    String getOutput() {
+      return this.output;
+    }
+
+    /**
+     * @return The converter for the job.
+     */
+    TactileConverter getConverter() {
+      return this.converter;
+    }
+  }
+
+
+  /**
+   * Parser for a line holding a flat JSON object, whose values are strings,
+   * null or arrays of strings. Arrays are joined with spaces.
+   */
+  private static final class JsonLine {
+
+    private final String line;
+    private int position = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param line The line.
+     */
+    private JsonLine(final String line) {
+      this.line = line;
+    }
+
+    /**
+     * @return The fields of the object.
+     */
+    private Map<String, String> parse() {
+      final Map<String, String> fields = new HashMap<>();
+      this.expect('{');
+      if (this.peek() == '}') {
+        this.position++;
+      } else {
+        do {
+          final String name = this.string();
+          this.expect(':');
+          fields.put(name, this.value());
+        } while (this.separator('}'));
+      }
+      if (this.peek() != 0) {
+        throw this.error();
+      }
+      return fields;
+    }
+
+    /**
+     * @return The value of a field.
+     */
+    private String value() {
+      final char c = this.peek();
+      if (c == '"') {
+        return this.string();
+      }
+      if (c == '[') {
+        this.position++;
+        final StringBuilder values = new StringBuilder();
+        if (this.peek() == ']') {
+          this.position++;
+          return values.toString();
+        }
+        do {
+          if (values.length() > 0) {
+            values.append(' ');
+          }
+          values.append(this.string());
+        } while (this.separator(']'));
+        return values.toString();
+      }
+      if (this.line.startsWith("null", this.position)) {
+        this.position += "null".length();
+        return null;
+      }
+      throw this.error();
+    }
+
+    /**
+     * @return The content of a string.
+     */
+    private String string() {
+      this.expect('"');
+      final StringBuilder value = new StringBuilder();
+      while (this.position < this.line.length()) {
+        final char c = this.line.charAt(this.position++);
+        if (c == '"') {
+          return value.toString();
+        }
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        if (this.position >= this.line.length()) {
+          break;
+        }
+        final char escaped = this.line.charAt(this.position++);
+        switch (escaped) {
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'u':
+            if (this.position + 4 > this.line.length()) {
+              throw this.error();
+            }
+            try {
+              value.append((char) Integer.parseInt(
+                  this.line.substring(this.position, this.position + 4), 16));
+            } catch (final NumberFormatException e) {
+              throw this.error();
+            }
+            this.position += 4;
+            break;
+          default:
+            value.append(escaped);
+            break;
+        }
+      }
+      throw new IllegalArgumentException("Unterminated string.");
+    }
+
+    /**
+     * Consumes a comma or the closing bracket.
+     *
+     * @param close The closing bracket.
+     *
+     * @return True for a comma.
+     */
+    private boolean separator(final char close) {
+      final char c = this.peek();
+      this.position++;
+      if (c == ',') {
+        return true;
+      }
+      if (c == close) {
+        return false;
+      }
+      this.position--;
+      throw this.error();
+    }
+
+    /**
+     * Consumes a character.
+     *
+     * @param c The expected character.
+     */
+    private void expect(final char c) {
+      if (this.peek() != c) {
+        throw this.error();
+      }
+      this.position++;
+    }
+
+    /**
+     * Skips white space.
+     *
+     * @return The next character or 0 at the end of the line.
+     */
+    private char peek() {
+      while (this.position < this.line.length()
+             && Character.isWhitespace(this.line.charAt(this.position))) {
+        this.position++;
+      }
+      return this.position < this.line.length()
+          ? this.line.charAt(this.position) : 0;
+    }
+
+    /**
+     * @return The error for unexpected input at the current position.
+     */
+    private IllegalArgumentException error() {
+      return new IllegalArgumentException(
+          "Invalid JSON at column " + (this.position + 1) + ".");
+    }
+  }
+
+}
@@ -0,0 +1,304 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   MessageCatalog.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Jul 27 09:41:15 2017
+ *
+ * @brief  Immutable catalog of localised messages.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLStreamException;
+
+
+/**
+ * The localised messages of all languages, extracted in one pass over the
+ * <code>messages</code> elements of a document. A messages element contains a
+ * <code>language</code> element naming its language and
+ * <code>message</code> elements, whose <code>msg</code> attribute is the key
+ * used by speech annotations.
+ *
+ * <p>
+ * Catalogs are immutable and their strings are interned. Equal catalogs
+ * extracted from different documents are shared, and catalog files are
+ * loaded only once per process.
+ * </p>
+ */
+public final class MessageCatalog {
+
+  /** The catalog without any messages. */
+  public static final MessageCatalog EMPTY =
+      new MessageCatalog(Collections.emptyMap());
+
+  private static final String MSG_ATTR = "msg";
+
+  /** Catalogs of documents, to share equal ones. */
+  private static final Map<Map<String, Map<String, String>>, MessageCatalog>
+      SHARED = new ConcurrentHashMap<>();
+  private static final int MAX_SHARED = 256;
+
+  /** Catalogs of files by canonical path. */
+  private static final Map<String, MessageCatalog> FILES =
+      new ConcurrentHashMap<>();
+
+  private final Map<String, Map<String, String>> languages;
+  private volatile byte[] digest = null;
+
+
+  /**
+   * Constructor.
+   *
+   * @param languages The unmodifiable messages by language.
+   */
+  private MessageCatalog(final Map<String, Map<String, String>> languages) {
+    this.languages = languages;
+  }
+
+
+  /**
+   * Extracts the catalog of a document. An equal catalog extracted earlier is
+   * returned instead of a new one.
+   *
+   * @param xml The document.
+   *
+   * @return The catalog, possibly empty.
+   */
+  public static MessageCatalog fromDocument(final Document xml) {
+    final Map<String, Map<String, String>> languages = new HashMap<>();
+    MessageCatalog.collect(xml, languages);
+    return MessageCatalog.of(languages);
+  }
+
+
+  /**
+   * Creates the catalog of extracted messages. An equal catalog created
+   * earlier is returned instead of a new one.
+   *
+   * @param languages The interned messages by language. The map is taken
+   *          over by the catalog.
+   *
+   * @return The catalog, possibly empty.
+   */
+  static MessageCatalog of(final Map<String, Map<String, String>> languages) {
+    if (languages.isEmpty()) {
+      return MessageCatalog.EMPTY;
+    }
+    for (final Map.Entry<String, Map<String, String>> entry
+             : languages.entrySet()) {
+      entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+    }
+    final Map<String, Map<String, String>> key =
+        Collections.unmodifiableMap(languages);
+    final MessageCatalog shared = MessageCatalog.SHARED.get(key);
+    if (shared != null) {
+      return shared;
+    }
+    if (MessageCatalog.SHARED.size() >= MessageCatalog.MAX_SHARED) {
+      MessageCatalog.SHARED.clear();
+    }
+    final MessageCatalog catalog = new MessageCatalog(key);
+    final MessageCatalog previous =
+        MessageCatalog.SHARED.putIfAbsent(key, catalog);
+    return previous == null ? catalog : previous;
+  }
+
+
+  /**
+   * Loads a catalog file. Every file is loaded once per process.
+   *
+   * @param fileName The file containing messages elements.
+   *
+   * @return The catalog.
+   *
+   * @throws IOException
+   *          If the file can not be loaded.
+   */
+  public static MessageCatalog load(final String fileName)
+      throws IOException {
+    final String path = new File(fileName).getCanonicalPath();
+    final MessageCatalog loaded = MessageCatalog.FILES.get(path);
+    if (loaded != null) {
+      return loaded;
+    }
+    final MessageCatalog catalog;
+    try {
+      catalog = FileHandler.loadAnnotations(path).getCatalog();
+    } catch (final XMLStreamException e) {
+      throw new IOException("Can't load message catalog " + fileName, e);
+    }
+    final MessageCatalog previous =
+        MessageCatalog.FILES.putIfAbsent(path, catalog);
+    return previous == null ? catalog : previous;
+  }
+
+
+  /**
+   * @param language An ISO language code.
+   *
+   * @return The messages of the language by key or null if there are none.
+   */
+  public Map<String, String> get(final String language) {
+    return this.languages.get(language);
+  }
+
+
+  /**
+   * @return True if the catalog contains no messages.
+   */
+  public boolean isEmpty() {
+    return this.languages.isEmpty();
+  }
+
+
+  /**
+   * @return A SHA-256 digest of all messages, taken in sorted order, so that
+   *         equal catalogs have equal digests in every run.
+   */
+  byte[] digest() {
+    byte[] result = this.digest;
+    if (result == null) {
+      final MessageDigest digest = OutputCache.sha256();
+      for (final Map.Entry<String, Map<String, String>> language
+               : new TreeMap<>(this.languages).entrySet()) {
+        final Map<String, String> messages =
+            new TreeMap<>(language.getValue());
+        MessageCatalog.update(digest, language.getKey());
+        MessageCatalog.update(digest, Integer.toString(messages.size()));
+        for (final Map.Entry<String, String> message : messages.entrySet()) {
+          MessageCatalog.update(digest, message.getKey());
+          MessageCatalog.update(digest, message.getValue());
+        }
+      }
+      result = digest.digest();
+      this.digest = result;
+    }
+    return result;
+  }
+
+
+  /**
+   * @param digest The digest.
+   * @param value A string or null.
+   */
+  private static void update(final MessageDigest digest, final String value) {
+    OutputCache.update(digest, String.valueOf(value)
+                       .getBytes(StandardCharsets.UTF_8));
+  }
+
+
+  @Override
+  public String toString() {
+    // Stable across runs, as it only depends on string hashes.
+    return "catalog:" + this.languages.size() + ":"
+      + Integer.toHexString(this.languages.hashCode());
+  }
+
+
+  /**
+   * Collects the messages below a node.
+   *
+   * @param node The node.
+   * @param languages The messages collected so far.
+   */
+  private static void collect(
+      final Node node, final Map<String, Map<String, String>> languages) {
+    for (Node child = node.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      if ("messages".equals(XmlNames.localName(child))) {
+        MessageCatalog.messages((Element) child, languages);
+      }
+      MessageCatalog.collect(child, languages);
+    }
+  }
+
+
+  /**
+   * Adds the messages of a messages element to all of its languages.
+   *
+   * @param messages The messages element.
+   * @param languages The messages collected so far.
+   */
+  private static void messages(
+      final Element messages,
+      final Map<String, Map<String, String>> languages) {
+    final Map<String, String> entries = new HashMap<>();
+    for (Node child = messages.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE
+          && "message".equals(XmlNames.localName(child))) {
+        entries.put(MessageCatalog.msg((Element) child).intern(),
+                    child.getTextContent().intern());
+      }
+    }
+    for (Node child = messages.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.ELEMENT_NODE
+          || !"language".equals(XmlNames.localName(child))) {
+        continue;
+      }
+      // Like text()='xx', any text child naming the language counts.
+      for (Node text = child.getFirstChild(); text != null;
+           text = text.getNextSibling()) {
+        if (text.getNodeType() == Node.TEXT_NODE
+            || text.getNodeType() == Node.CDATA_SECTION_NODE) {
+          languages.computeIfAbsent(text.getNodeValue().intern(),
+                                    k -> new HashMap<>())
+            .putAll(entries);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * @param message A message element.
+   *
+   * @return The value of its msg attribute or the empty string.
+   */
+  private static String msg(final Element message) {
+    final NamedNodeMap attributes = message.getAttributes();
+    Node attribute = attributes.getNamedItem(MessageCatalog.MSG_ATTR);
+    if (attribute == null) {
+      attribute = attributes.getNamedItem(
+          XmlNames.SRE_PREFIX + MessageCatalog.MSG_ATTR);
+    }
+    return attribute == null ? "" : attribute.getNodeValue();
+  }
+
+}
@@ -0,0 +1,511 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Metrics.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Jul 25 09:14:52 2017
+ *
+ * @brief  Per stage timing, allocation and size metrics.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics facilities:
+ *
+ * <p>
+ * Records wall time, CPU time and allocated bytes of every conversion stage of
+ * every document, together with document size counters. Values are
+ * aggregated into striped counters and fixed bucket histograms, so concurrent
+ * workers do not contend. Metrics are off unless enabled. While they are off
+ * {@link #begin()} returns a shared no-op timer. At the end of a run the
+ * metrics are exported as JSON or in the Prometheus text format.
+ * </p>
+ */
+public final class Metrics {
+
+  /** Conversion stages. */
+  public enum Stage {
+    LOAD_SVG, LOAD_XML, CLONE, ANNOTATIONS, MESSAGES, ENRICH, TITLES, STREAM,
+    OUTPUT;
+
+    private final String label = this.name().toLowerCase(Locale.ROOT);
+  }
+
+  /** Per document size counters. */
+  public enum Size {
+    ANNOTATIONS, MESSAGES, SVG_ELEMENTS;
+
+    private final String label = this.name().toLowerCase(Locale.ROOT);
+  }
+
+  /** Upper bounds of the time buckets in nanoseconds. */
+  private static final long[] TIME_BOUNDS = {
+    100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L,
+    10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L,
+    500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+    10_000_000_000L
+  };
+
+  /** Upper bounds of the size buckets. */
+  private static final long[] SIZE_BOUNDS = {
+    1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L
+  };
+
+  private static final ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean();
+
+  private static final Histogram[] WALL = new Histogram[Stage.values().length];
+  private static final LongAdder[] CPU_TIME =
+      new LongAdder[Stage.values().length];
+  private static final LongAdder[] ALLOCATED =
+      new LongAdder[Stage.values().length];
+  private static final Histogram[] SIZES = new Histogram[Size.values().length];
+  private static final LongAdder DOCUMENTS = new LongAdder();
+  private static final LongAdder FAILURES = new LongAdder();
+
+  static {
+    for (int i = 0; i < Metrics.WALL.length; i++) {
+      Metrics.WALL[i] = new Histogram(Metrics.TIME_BOUNDS);
+      Metrics.CPU_TIME[i] = new LongAdder();
+      Metrics.ALLOCATED[i] = new LongAdder();
+    }
+    for (int i = 0; i < Metrics.SIZES.length; i++) {
+      Metrics.SIZES[i] = new Histogram(Metrics.SIZE_BOUNDS);
+    }
+  }
+
+  private static final Timer NONE = new Timer();
+  private static volatile boolean enabled = false;
+  // Set before enabled, so timers see them.
+  private static boolean cpu = false;
+  private static boolean allocation = false;
+
+
+  /** Dummy constructor. */
+  private Metrics() {
+    throw new AssertionError("Instantiating utility class...");
+  }
+
+
+  /** Starts metrics facilities if requested on the command line. */
+  public static void start() {
+    if (Cli.hasOption("metrics")) {
+      Metrics.enable();
+    }
+  }
+
+
+  /**
+   * Enables recording, and with it the measurement of thread CPU time and
+   * allocation where the JVM supports them.
+   */
+  public static synchronized void enable() {
+    if (!Metrics.enabled) {
+      Metrics.cpu = Metrics.enableCpu();
+      Metrics.allocation = Metrics.enableAllocation();
+      Metrics.enabled = true;
+    }
+  }
+
+
+  /**
+   * @return True if metrics are recorded.
+   */
+  public static boolean isEnabled() {
+    return Metrics.enabled;
+  }
+
+
+  /**
+   * Starts measuring a stage on the current thread.
+   *
+   * @return The timer to be stopped at the end of the stage.
+   */
+  public static Timer begin() {
+    return Metrics.enabled ? new Timer(true) : Metrics.NONE;
+  }
+
+
+  /**
+   * Records a document size.
+   *
+   * @param size The counter.
+   * @param value The size of the current document.
+   */
+  public static void size(final Size size, final long value) {
+    if (Metrics.enabled) {
+      Metrics.SIZES[size.ordinal()].record(value);
+    }
+  }
+
+
+  /**
+   * Counts a converted document.
+   *
+   * @param success True if the conversion was successful.
+   */
+  public static void document(final boolean success) {
+    if (Metrics.enabled) {
+      Metrics.DOCUMENTS.increment();
+      if (!success) {
+        Metrics.FAILURES.increment();
+      }
+    }
+  }
+
+
+  /**
+   * Writes the metrics to a file, in Prometheus text format if the file name
+   * ends in <code>.prom</code> or <code>.txt</code> and as JSON otherwise.
+   *
+   * @param fileName The file name.
+   *
+   * @throws IOException
+   *          If the file can not be written.
+   */
+  public static void write(final String fileName) throws IOException {
+    final String lower = fileName.toLowerCase(Locale.ROOT);
+    final String text = lower.endsWith(".prom") || lower.endsWith(".txt")
+        ? Metrics.toPrometheus() : Metrics.toJson();
+    try (Writer writer = new OutputStreamWriter(
+             new FileOutputStream(fileName), StandardCharsets.UTF_8)) {
+      writer.write(text);
+    }
+  }
+
+
+  /**
+   * @return The metrics as JSON.
+   */
+  public static String toJson() {
+    final StringBuilder json = new StringBuilder(4096);
+    json.append("{\n  \"documents\": ").append(Metrics.DOCUMENTS.sum())
+      .append(",\n  \"failures\": ").append(Metrics.FAILURES.sum())
+      .append(",\n  \"stages\": {");
+    for (final Stage stage : Stage.values()) {
+      final int i = stage.ordinal();
+      json.append(i == 0 ? "\n" : ",\n").append("    \"").append(stage.label)
+        .append("\": {\"count\": ").append(Metrics.WALL[i].count())
+        .append(", \"wall_ns\": ").append(Metrics.WALL[i].sum())
+        .append(", \"wall_max_ns\": ").append(Metrics.WALL[i].max())
+        .append(", \"cpu_ns\": ").append(Metrics.CPU_TIME[i].sum())
+        .append(", \"allocated_bytes\": ").append(Metrics.ALLOCATED[i].sum())
+        .append(", \"wall_ns_buckets\": ");
+      Metrics.WALL[i].json(json);
+      json.append('}');
+    }
+    json.append("\n  },\n  \"sizes\": {");
+    for (final Size size : Size.values()) {
+      final int i = size.ordinal();
+      json.append(i == 0 ? "\n" : ",\n").append("    \"").append(size.label)
+        .append("\": {\"count\": ").append(Metrics.SIZES[i].count())
+        .append(", \"sum\": ").append(Metrics.SIZES[i].sum())
+        .append(", \"max\": ").append(Metrics.SIZES[i].max())
+        .append(", \"buckets\": ");
+      Metrics.SIZES[i].json(json);
+      json.append('}');
+    }
+    json.append("\n  }\n}\n");
+    return json.toString();
+  }
+
+
+  /**
+   * @return The metrics in Prometheus text exposition format.
+   */
+  public static String toPrometheus() {
+    final StringBuilder text = new StringBuilder(8192);
+    text.append("# HELP audiotactile_documents_total Converted documents.\n")
+      .append("# TYPE audiotactile_documents_total counter\n")
+      .append("audiotactile_documents_total ")
+      .append(Metrics.DOCUMENTS.sum()).append('\n')
+      .append("# HELP audiotactile_failures_total Failed conversions.\n")
+      .append("# TYPE audiotactile_failures_total counter\n")
+      .append("audiotactile_failures_total ")
+      .append(Metrics.FAILURES.sum()).append('\n');
+    final String wall = "audiotactile_stage_seconds";
+    text.append("# HELP ").append(wall)
+      .append(" Wall time per stage and document.\n")
+      .append("# TYPE ").append(wall).append(" histogram\n");
+    for (final Stage stage : Stage.values()) {
+      Metrics.WALL[stage.ordinal()].prometheus(
+          text, wall, "stage=\"" + stage.label + "\"", 1e-9);
+    }
+    text.append("# HELP audiotactile_stage_cpu_seconds_total CPU time per ")
+      .append("stage.\n")
+      .append("# TYPE audiotactile_stage_cpu_seconds_total counter\n");
+    for (final Stage stage : Stage.values()) {
+      text.append("audiotactile_stage_cpu_seconds_total{stage=\"")
+        .append(stage.label).append("\"} ")
+        .append(Metrics.CPU_TIME[stage.ordinal()].sum() * 1e-9).append('\n');
+    }
+    text.append("# HELP audiotactile_stage_allocated_bytes_total Bytes ")
+      .append("allocated per stage.\n")
+      .append("# TYPE audiotactile_stage_allocated_bytes_total counter\n");
+    for (final Stage stage : Stage.values()) {
+      text.append("audiotactile_stage_allocated_bytes_total{stage=\"")
+        .append(stage.label).append("\"} ")
+        .append(Metrics.ALLOCATED[stage.ordinal()].sum()).append('\n');
+    }
+    for (final Size size : Size.values()) {
+      final String name = "audiotactile_document_" + size.label;
+      text.append("# HELP ").append(name).append(" Number of ")
+        .append(size.label.replace('_', ' ')).append(" per document.\n")
+        .append("# TYPE ").append(name).append(" histogram\n");
+      Metrics.SIZES[size.ordinal()].prometheus(text, name, null, 1);
+    }
+    return text.toString();
+  }
+
+
+  /**
+   * @return True if thread CPU time can be measured.
+   */
+  private static boolean enableCpu() {
+    try {
+      if (Metrics.THREADS.isCurrentThreadCpuTimeSupported()) {
+        Metrics.THREADS.setThreadCpuTimeEnabled(true);
+        return true;
+      }
+    } catch (final UnsupportedOperationException | SecurityException e) {
+      // Fall through.
+    }
+    return false;
+  }
+
+
+  /**
+   * @return True if thread allocation can be measured.
+   */
+  private static boolean enableAllocation() {
+    if (!(Metrics.THREADS instanceof com.sun.management.ThreadMXBean)) {
+      return false;
+    }
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) Metrics.THREADS;
+    try {
+      if (threads.isThreadAllocatedMemorySupported()) {
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return true;
+      }
+    } catch (final UnsupportedOperationException | SecurityException e) {
+      // Fall through.
+    }
+    return false;
+  }
+
+
+  /**
+   * @return CPU time of the current thread in nanoseconds or 0.
+   */
+  private static long cpuTime() {
+    return Metrics.cpu ? Metrics.THREADS.getCurrentThreadCpuTime() : 0;
+  }
+
+
+  /**
+   * @return Bytes allocated by the current thread or 0.
+   */
+  private static long allocated() {
+    return Metrics.allocation
+        ? ((com.sun.management.ThreadMXBean) Metrics.THREADS)
+        .getThreadAllocatedBytes(Thread.currentThread().getId())
+        : 0;
+  }
+
+
+  /**
+   * Measurement of a single stage on a single thread.
+   */
+  public static final class Timer {
+
+    private final boolean active;
+    private final long wall;
+    private final long cpu;
+    private final long bytes;
+
+    /** Constructor of the no-op timer. */
+    private Timer() {
+      this.active = false;
+      this.wall = 0;
+      this.cpu = 0;
+      this.bytes = 0;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param active Dummy to distinguish from the no-op constructor.
+     */
+    private Timer(final boolean active) {
+      this.active = active;
+      this.bytes = Metrics.allocated();
+      this.cpu = Metrics.cpuTime();
+      this.wall = System.nanoTime();
+    }
+
+    /**
+     * Records the stage. Must be called on the thread that began it.
+     *
+     * @param stage The stage measured.
+     */
+    public void stop(final Stage stage) {
+      if (!this.active) {
+        return;
+      }
+      final long elapsed = System.nanoTime() - this.wall;
+      final int i = stage.ordinal();
+      Metrics.CPU_TIME[i].add(Metrics.cpuTime() - this.cpu);
+      Metrics.ALLOCATED[i].add(Metrics.allocated() - this.bytes);
+      Metrics.WALL[i].record(elapsed);
+    }
+  }
+
+
+  /**
+   * Histogram with fixed upper bounds and striped counters.
+   */
+  private static final class Histogram {
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructor.
+     *
+     * @param bounds The ascending upper bounds, excluding infinity.
+     */
+    private Histogram(final long[] bounds) {
+      this.bounds = bounds;
+      this.buckets = new LongAdder[bounds.length + 1];
+      for (int i = 0; i < this.buckets.length; i++) {
+        this.buckets[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * @param value A value to record.
+     */
+    private void record(final long value) {
+      int i = 0;
+      while (i < this.bounds.length && value > this.bounds[i]) {
+        i++;
+      }
+      this.buckets[i].increment();
+      this.sum.add(value);
+      this.max.accumulate(value);
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    private long count() {
+      long count = 0;
+      for (final LongAdder bucket : this.buckets) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    /**
+     * @return The sum of recorded values.
+     */
+    private long sum() {
+      return this.sum.sum();
+    }
+
+    /**
+     * @return The maximal recorded value.
+     */
+    private long max() {
+      return this.max.get();
+    }
+
+    /**
+     * Appends the non-cumulative buckets as a JSON object.
+     *
+     * @param json The output.
+     */
+    private void json(final StringBuilder json) {
+      json.append('{');
+      for (int i = 0; i < this.buckets.length; i++) {
+        json.append(i == 0 ? "\"" : ", \"")
+          .append(i < this.bounds.length ? Long.toString(this.bounds[i])
+                  : "+Inf")
+          .append("\": ").append(this.buckets[i].sum());
+      }
+      json.append('}');
+    }
+
+    /**
+     * Appends the histogram in Prometheus format with cumulative buckets.
+     *
+     * @param text The output.
+     * @param name The metric name.
+     * @param labels Additional labels or null.
+     * @param scale Factor converting values to the unit of the metric.
+     */
+    private void prometheus(final StringBuilder text, final String name,
+                            final String labels, final double scale) {
+      final String prefix = labels == null ? "" : labels + ",";
+      long cumulative = 0;
+      for (int i = 0; i < this.buckets.length; i++) {
+        cumulative += this.buckets[i].sum();
+        text.append(name).append("_bucket{").append(prefix).append("le=\"")
+          .append(i < this.bounds.length ? Metrics.format(
+                      this.bounds[i] * scale) : "+Inf")
+          .append("\"} ").append(cumulative).append('\n');
+      }
+      final String suffix = labels == null ? " " : "{" + labels + "} ";
+      text.append(name).append("_sum").append(suffix)
+        .append(Metrics.format(this.sum() * scale)).append('\n')
+        .append(name).append("_count").append(suffix).append(cumulative)
+        .append('\n');
+    }
+  }
+
+
+  /**
+   * @param value A value.
+   *
+   * @return The value without trailing zeros.
+   */
+  private static String format(final double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+}
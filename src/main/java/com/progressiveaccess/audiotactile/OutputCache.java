@@ -0,0 +1,394 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   OutputCache.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Jul 26 15:02:31 2017
+ *
+ * @brief  Content addressed cache of conversion results.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+
+/**
+ * On-disk cache of enriched SVG documents, keyed by a SHA-256 hash of the
+ * input bytes, the effective options including the content of the shared
+ * message catalog, and the version and build of the converter.
+ *
+ * <p>
+ * Entries are plain files named by their key in a two level directory
+ * structure. The cache is bounded in size: once the entries exceed the bound,
+ * the least recently used ones are deleted. Recency survives restarts as the
+ * modification time of the entry files, which is updated on every hit. The
+ * cache can be shared by concurrent conversions, within one process.
+ * </p>
+ *
+ * <p>
+ * Snapshot builds all carry the same version, so the build time recorded in
+ * the jar manifest is part of the key. Unpacked classes, as in development,
+ * use the latest modification of a class file instead.
+ * </p>
+ */
+public final class OutputCache {
+
+  /** Default bound of the cache size in bytes. */
+  public static final long DEFAULT_SIZE = 1L << 30;
+
+  /** Changes whenever the layout of keys or entries changes. */
+  private static final String FORMAT = "2";
+
+  private static final String SUFFIX = ".svg";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final File directory;
+  private final long maxSize;
+  private final String version;
+
+  // Guarded by this. Entries in access order with their sizes.
+  private final LinkedHashMap<String, Long> entries =
+      new LinkedHashMap<>(1024, 0.75f, true);
+  private long size = 0;
+
+
+  /**
+   * Constructor. Existing entries are indexed in order of their last use.
+   *
+   * @param directory The cache directory.
+   * @param maxSize The bound of the cache size in bytes.
+   *
+   * @throws IOException
+   *          If the directory can not be created.
+   */
+  public OutputCache(final File directory, final long maxSize)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create cache directory " + directory);
+    }
+    this.directory = directory;
+    this.maxSize = Math.max(0, maxSize);
+    this.version = OutputCache.version();
+    this.index();
+    this.delete(this.trim(null));
+  }
+
+
+  /**
+   * @return The version of the converter with the time of its build.
+   */
+  private static String version() {
+    final String implementation =
+        OutputCache.class.getPackage().getImplementationVersion();
+    return (implementation == null ? "development" : implementation) + "/"
+        + OutputCache.build();
+  }
+
+
+  /**
+   * @return The build time from the manifest of the jar holding the
+   *         converter, or the latest modification time of the jar or class
+   *         files if it is not recorded.
+   */
+  private static String build() {
+    final CodeSource source =
+        OutputCache.class.getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null) {
+      return "unknown";
+    }
+    try {
+      final Path location = Paths.get(source.getLocation().toURI());
+      if (Files.isDirectory(location)) {
+        try (Stream<Path> files = Files.walk(location)) {
+          return Long.toString(files.mapToLong(
+              file -> file.toFile().lastModified()).max().orElse(0L));
+        }
+      }
+      try (JarFile jar = new JarFile(location.toFile())) {
+        final java.util.jar.Manifest manifest = jar.getManifest();
+        final String build = manifest == null ? null
+            : manifest.getMainAttributes().getValue("Implementation-Build");
+        return build == null
+            ? Long.toString(location.toFile().lastModified()) : build;
+      }
+    } catch (final IOException | URISyntaxException
+             | IllegalArgumentException e) {
+      return "unknown";
+    }
+  }
+
+
+  /**
+   * Computes the key of a conversion.
+   *
+   * @param svg The SVG input.
+   * @param xml The XML annotation input.
+   * @param options The conversion options.
+   * @param variant Any further property the output depends on.
+   *
+   * @return The key.
+   */
+  public String key(final byte[] svg, final byte[] xml,
+                    final TactileOptions options, final String variant) {
+    final MessageDigest digest = OutputCache.sha256();
+    OutputCache.update(digest, OutputCache.FORMAT
+                       .getBytes(StandardCharsets.UTF_8));
+    OutputCache.update(digest, this.version.getBytes(StandardCharsets.UTF_8));
+    OutputCache.update(digest, options.toString()
+                       .getBytes(StandardCharsets.UTF_8));
+    // The options only name the catalog by a short hash.
+    OutputCache.update(digest, options.getCatalog().digest());
+    OutputCache.update(digest, variant.getBytes(StandardCharsets.UTF_8));
+    OutputCache.update(digest, svg);
+    OutputCache.update(digest, xml);
+    final byte[] hash = digest.digest();
+    final char[] hex = new char[2 * hash.length];
+    for (int i = 0; i < hash.length; i++) {
+      hex[2 * i] = OutputCache.HEX[(hash[i] >> 4) & 0xF];
+      hex[2 * i + 1] = OutputCache.HEX[hash[i] & 0xF];
+    }
+    return new String(hex);
+  }
+
+
+  /**
+   * Looks up an entry and marks it as recently used.
+   *
+   * @param key The key.
+   *
+   * @return The cached output or null.
+   */
+  public byte[] get(final String key) {
+    synchronized (this) {
+      if (this.entries.get(key) == null) {
+        return null;
+      }
+    }
+    final File file = this.file(key);
+    try {
+      final byte[] result = Files.readAllBytes(file.toPath());
+      file.setLastModified(System.currentTimeMillis());
+      return result;
+    } catch (final IOException e) {
+      // Removed behind our back.
+      this.forget(key);
+      return null;
+    }
+  }
+
+
+  /**
+   * Stores an entry, evicting the least recently used entries if the cache
+   * grows beyond its bound. Failures are logged, a broken cache never fails
+   * a conversion.
+   *
+   * @param key The key.
+   * @param output The output to cache.
+   */
+  public void put(final String key, final byte[] output) {
+    if (output.length > this.maxSize) {
+      return;
+    }
+    final File file = this.file(key);
+    try {
+      final File parent = file.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Can't create " + parent);
+      }
+      // Write under a temporary name, so that readers never see a partial
+      // entry.
+      final File temporary = File.createTempFile(key, ".tmp", parent);
+      Files.write(temporary.toPath(), output);
+      Files.move(temporary.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException e) {
+      Logger.error("Can't write cache entry " + file + ": " + e.getMessage()
+                   + "\n");
+      return;
+    }
+    final List<String> evicted;
+    synchronized (this) {
+      final Long previous = this.entries.put(key, (long) output.length);
+      this.size += output.length - (previous == null ? 0 : previous);
+      evicted = this.trim(key);
+    }
+    this.delete(evicted);
+  }
+
+
+  /**
+   * Removes least recently used entries from the index until the cache is
+   * within its bound.
+   *
+   * @param keep A key that must not be removed or null.
+   *
+   * @return The removed keys, whose files are to be deleted.
+   */
+  private synchronized List<String> trim(final String keep) {
+    final List<String> evicted = new ArrayList<>();
+    final Iterator<Map.Entry<String, Long>> iterator =
+        this.entries.entrySet().iterator();
+    while (this.size > this.maxSize && iterator.hasNext()) {
+      final Map.Entry<String, Long> eldest = iterator.next();
+      if (eldest.getKey().equals(keep)) {
+        continue;
+      }
+      this.size -= eldest.getValue();
+      evicted.add(eldest.getKey());
+      iterator.remove();
+    }
+    return evicted;
+  }
+
+
+  /**
+   * @param keys Keys of entries whose files are deleted.
+   */
+  private void delete(final List<String> keys) {
+    for (final String key : keys) {
+      this.file(key).delete();
+    }
+  }
+
+
+  /**
+   * @return The total size of the cached entries in bytes.
+   */
+  public synchronized long getSize() {
+    return this.size;
+  }
+
+
+  /**
+   * Drops an entry from the index.
+   *
+   * @param key The key.
+   */
+  private synchronized void forget(final String key) {
+    final Long length = this.entries.remove(key);
+    if (length != null) {
+      this.size -= length;
+    }
+  }
+
+
+  /**
+   * Indexes the existing entries, least recently used first, and removes
+   * leftovers of interrupted writes.
+   */
+  private void index() {
+    final List<File> files = new ArrayList<>();
+    final File[] buckets = this.directory.listFiles();
+    if (buckets == null) {
+      return;
+    }
+    for (final File bucket : buckets) {
+      final File[] children = bucket.listFiles();
+      if (children == null) {
+        continue;
+      }
+      for (final File child : children) {
+        if (child.getName().endsWith(OutputCache.SUFFIX)) {
+          files.add(child);
+        } else if (child.getName().endsWith(".tmp")) {
+          child.delete();
+        }
+      }
+    }
+    final long[] modified = new long[files.size()];
+    final Integer[] order = new Integer[files.size()];
+    for (int i = 0; i < order.length; i++) {
+      modified[i] = files.get(i).lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+    for (final Integer i : order) {
+      final File file = files.get(i);
+      final String name = file.getName();
+      final long length = file.length();
+      this.entries.put(name.substring(0, name.length()
+                                      - OutputCache.SUFFIX.length()),
+                       length);
+      this.size += length;
+    }
+  }
+
+
+  /**
+   * @param key A key.
+   *
+   * @return The file of the entry.
+   */
+  private File file(final String key) {
+    return new File(new File(this.directory, key.substring(0, 2)),
+                    key + OutputCache.SUFFIX);
+  }
+
+
+  /**
+   * Adds a length prefixed block of data to a digest, so that the boundaries
+   * between the parts of the key are unambiguous.
+   *
+   * @param digest The digest.
+   * @param data The data.
+   */
+  static void update(final MessageDigest digest, final byte[] data) {
+    final long length = data.length;
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      digest.update((byte) (length >>> shift));
+    }
+    digest.update(data);
+  }
+
+
+  /**
+   * @return A new SHA-256 digest.
+   */
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new AssertionError(e);
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   Pairs.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 11:36:52 2017
+ *
+ * @brief  Pairing of SVG files with their annotation files.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+
+/**
+ * Pairs SVG files in a directory tree with their annotation files. An SVG
+ * file, plain or compressed, is paired with the XML, or failing that the CML,
+ * file of the same base name in the same directory.
+ */
+final class Pairs {
+
+  /** Extensions of annotation files, in order of preference. */
+  static final String[] ANNOTATIONS = {".xml", ".cml"};
+
+
+  /** Dummy constructor. */
+  private Pairs() {
+    throw new AssertionError("Instantiating utility class...");
+  }
+
+
+  /**
+   * @param file A file.
+   *
+   * @return True if the file is an SVG file, plain or compressed.
+   */
+  static boolean isSvg(final Path file) {
+    final String name = file.toString().toLowerCase(Locale.ROOT);
+    return name.endsWith(".svg") || name.endsWith(".svgz");
+  }
+
+
+  /**
+   * @param svg An SVG file.
+   *
+   * @return The annotation file of the same base name or null.
+   */
+  static Path annotation(final Path svg) {
+    for (final String extension : Pairs.ANNOTATIONS) {
+      final Path candidate = Pairs.sibling(svg, extension);
+      if (Files.isRegularFile(candidate)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * @param file A file.
+   * @param extension The extension, including the dot.
+   *
+   * @return The file of the same base name with the given extension.
+   */
+  static Path sibling(final Path file, final String extension) {
+    final String name = file.getFileName().toString();
+    final int dot = name.lastIndexOf('.');
+    return file.resolveSibling(
+        (dot < 0 ? name : name.substring(0, dot)) + extension);
+  }
+
+}
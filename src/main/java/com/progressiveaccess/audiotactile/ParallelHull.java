@@ -0,0 +1,480 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   ParallelHull.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Aug  3 09:52:18 2017
+ *
+ * @brief  Fork-join convex hull for large point sets.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Convex hull of large point sets on the common fork-join pool.
+ *
+ * <p>
+ * First the extreme points in eight directions are found in parallel. Points
+ * strictly inside the octagon they span can not be on the hull and are
+ * discarded before any sorting (Akl-Toussaint heuristic). For points spread
+ * over an area that is most of them. The remaining points are split into
+ * chunks whose hulls are computed in parallel with
+ * {@link GrahamScan#convexHull(double[], double[], int, double[])}. Their
+ * vertices are put into lexicographic order and merged pairwise in linear
+ * time, so that the hull of all of them is chained without sorting again.
+ * </p>
+ *
+ * <p>
+ * If the common pool has a single worker, the points are only filtered, on
+ * the calling thread, and the remaining ones are hulled sequentially.
+ * </p>
+ *
+ * <p>
+ * The result is the same as that of the sequential computation.
+ * {@link GrahamScan#convexHull(double[], double[])} switches to it from
+ * {@link #THRESHOLD} points on.
+ * </p>
+ */
+final class ParallelHull {
+
+  /** Number of points from which the parallel computation pays off. */
+  static final int THRESHOLD = 1 << 16;
+
+  /** Number of points a single task works on. */
+  private static final int CHUNK = 1 << 14;
+
+  /** Relative margin by which a point has to be inside the octagon. */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * The directions of the extreme points as coefficients of x and y of the
+   * value that is minimised, in counter-clockwise order of the octagon
+   * starting at the bottom: lowest y, highest x - y, highest x, and so on.
+   */
+  private static final double[] DX = {0, -1, -1, -1, 0, 1, 1, 1};
+  private static final double[] DY = {1, 1, 0, -1, -1, -1, 0, 1};
+  private static final int DIRECTIONS = ParallelHull.DX.length;
+
+
+  /** Dummy constructor. */
+  private ParallelHull() {
+    throw new AssertionError("Instantiating utility class...");
+  }
+
+
+  /**
+   * Returns the convex hull of the points given by <code>xs</code> and
+   * <code>ys</code>, see
+   * {@link GrahamScan#convexHull(double[], double[], int, double[])}. The
+   * input arrays are not modified.
+   *
+   * @param xs the x coordinates.
+   * @param ys the y coordinates. Of the same size as <code>xs</code>.
+   * @return   the hull vertices as interleaved x and y coordinates.
+   */
+  static double[] convexHull(final double[] xs, final double[] ys) {
+    return ParallelHull.convexHull(
+        xs, ys, ForkJoinPool.getCommonPoolParallelism() > 1);
+  }
+
+
+  /**
+   * Returns the convex hull of the points given by <code>xs</code> and
+   * <code>ys</code>.
+   *
+   * @param xs the x coordinates.
+   * @param ys the y coordinates. Of the same size as <code>xs</code>.
+   * @param parallel true to split the points between the workers of the
+   *        common pool, false to filter them on the calling thread.
+   * @return   the hull vertices as interleaved x and y coordinates.
+   */
+  static double[] convexHull(final double[] xs, final double[] ys,
+                             final boolean parallel) {
+    if (xs.length == 0) {
+      return new double[0];
+    }
+    if (!parallel) {
+      // Without workers to share the chunks, splitting and merging only
+      // costs. Filtering still pays off.
+      final double[] octagon = ParallelHull.octagon(
+          xs, ys, ParallelHull.extremes(xs, ys, 0, xs.length));
+      return ParallelHull.filtered(xs, ys, octagon, 0, xs.length);
+    }
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    final double[] octagon = ParallelHull.octagon(
+        xs, ys, pool.invoke(new Extremes(xs, ys, 0, xs.length)));
+    return ParallelHull.chain(
+        pool.invoke(new Hull(xs, ys, octagon, 0, xs.length)));
+  }
+
+
+  /**
+   * @param xs The x coordinates.
+   * @param ys The y coordinates.
+   * @param extremes The indices of the extreme points.
+   *
+   * @return The vertices of the octagon as interleaved coordinates.
+   */
+  private static double[] octagon(final double[] xs, final double[] ys,
+                                  final int[] extremes) {
+    final double[] octagon = new double[2 * ParallelHull.DIRECTIONS];
+    for (int i = 0; i < ParallelHull.DIRECTIONS; i++) {
+      octagon[2 * i] = xs[extremes[i]];
+      octagon[2 * i + 1] = ys[extremes[i]];
+    }
+    return octagon;
+  }
+
+
+  /**
+   * @param x The x coordinate of a point.
+   * @param y The y coordinate of a point.
+   * @param direction A direction.
+   *
+   * @return The value the extreme point of the direction minimises.
+   */
+  private static double value(final double x, final double y,
+                              final int direction) {
+    return ParallelHull.DX[direction] * x + ParallelHull.DY[direction] * y;
+  }
+
+
+  /**
+   * @param octagon The vertices of the octagon as interleaved coordinates.
+   * @param x The x coordinate of a point.
+   * @param y The y coordinate of a point.
+   *
+   * @return True if the point lies strictly inside the octagon, with a
+   *         margin for rounding errors. Never for degenerate octagons.
+   */
+  private static boolean inside(final double[] octagon, final double x,
+                                final double y) {
+    boolean edge = false;
+    for (int i = 0; i < ParallelHull.DIRECTIONS; i++) {
+      final int j = (i + 1) % ParallelHull.DIRECTIONS;
+      final double ax = octagon[2 * i];
+      final double ay = octagon[2 * i + 1];
+      final double dx = octagon[2 * j] - ax;
+      final double dy = octagon[2 * j + 1] - ay;
+      if (dx == 0 && dy == 0) {
+        continue;
+      }
+      final double left = dx * (y - ay);
+      final double right = dy * (x - ax);
+      // Written as negation, so that undefined values never discard.
+      if (!(left - right > ParallelHull.EPSILON
+            * (Math.abs(left) + Math.abs(right)))) {
+        return false;
+      }
+      edge = true;
+    }
+    return edge;
+  }
+
+
+  /**
+   * Finds the indices of the extreme points of a range.
+   */
+  private static final class Extremes extends RecursiveTask<int[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor.
+     *
+     * @param xs The x coordinates.
+     * @param ys The y coordinates.
+     * @param from The first index.
+     * @param to The index after the last one.
+     */
+    private Extremes(final double[] xs, final double[] ys, final int from,
+                     final int to) {
+      this.xs = xs;
+      this.ys = ys;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected int[] compute() {
+      if (this.to - this.from <= ParallelHull.CHUNK) {
+        return ParallelHull.extremes(this.xs, this.ys, this.from, this.to);
+      }
+      final int mid = (this.from + this.to) >>> 1;
+      final Extremes left = new Extremes(this.xs, this.ys, this.from, mid);
+      left.fork();
+      final int[] result =
+          new Extremes(this.xs, this.ys, mid, this.to).compute();
+      for (final int i : left.join()) {
+        ParallelHull.update(this.xs, this.ys, result, i);
+      }
+      return result;
+    }
+  }
+
+
+  /**
+   * @param xs The x coordinates.
+   * @param ys The y coordinates.
+   * @param from The first index.
+   * @param to The index after the last one, after the first.
+   *
+   * @return The indices of the extreme points of the range.
+   */
+  private static int[] extremes(final double[] xs, final double[] ys,
+                                final int from, final int to) {
+    final int[] result = new int[ParallelHull.DIRECTIONS];
+    Arrays.fill(result, from);
+    for (int i = from + 1; i < to; i++) {
+      ParallelHull.update(xs, ys, result, i);
+    }
+    return result;
+  }
+
+
+  /**
+   * Replaces the extreme points that a point beats.
+   *
+   * @param xs The x coordinates.
+   * @param ys The y coordinates.
+   * @param result The indices of the extreme points.
+   * @param i The index of the point.
+   */
+  private static void update(final double[] xs, final double[] ys,
+                             final int[] result, final int i) {
+    for (int d = 0; d < ParallelHull.DIRECTIONS; d++) {
+      final double current =
+          ParallelHull.value(xs[result[d]], ys[result[d]], d);
+      if (ParallelHull.value(xs[i], ys[i], d) < current
+          || Double.isNaN(current)) {
+        result[d] = i;
+      }
+    }
+  }
+
+
+  /**
+   * Computes the hull of the points of a range outside the octagon.
+   *
+   * @param xs The x coordinates.
+   * @param ys The y coordinates.
+   * @param octagon The vertices of the octagon.
+   * @param from The first index.
+   * @param to The index after the last one.
+   *
+   * @return The hull as interleaved coordinates, in the order of
+   *         {@link GrahamScan#convexHull(double[], double[], int, double[])}.
+   */
+  private static double[] filtered(final double[] xs, final double[] ys,
+                                   final double[] octagon, final int from,
+                                   final int to) {
+    final double[] x = new double[to - from];
+    final double[] y = new double[to - from];
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      if (!ParallelHull.inside(octagon, xs[i], ys[i])) {
+        x[n] = xs[i];
+        y[n] = ys[i];
+        n++;
+      }
+    }
+    if (n == 0) {
+      return new double[0];
+    }
+    final double[] hull = new double[4 * n + 2];
+    return Arrays.copyOf(hull, 2 * GrahamScan.convexHull(x, y, n, hull));
+  }
+
+
+  /**
+   * Runs the monotone chain over sorted points.
+   *
+   * @param sorted Points as interleaved coordinates, sorted
+   *        lexicographically.
+   *
+   * @return The hull as interleaved coordinates, in the order of
+   *         {@link GrahamScan#convexHull(double[], double[], int, double[])}.
+   */
+  private static double[] chain(final double[] sorted) {
+    final int n = sorted.length / 2;
+    if (n == 0) {
+      return sorted;
+    }
+    final double[] x = new double[n];
+    final double[] y = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = sorted[2 * i];
+      y[i] = sorted[2 * i + 1];
+    }
+    final double[] hull = new double[4 * n + 2];
+    return Arrays.copyOf(hull, 2 * GrahamScan.chain(x, y, n, hull));
+  }
+
+
+  /**
+   * Brings the vertices of a hull into lexicographic order in linear time.
+   * From the lexicographically smallest vertex, the counter-clockwise hull
+   * ascends along the lower chain to the largest and descends back along the
+   * upper chain; both chains are merged.
+   *
+   * @param hull A hull as interleaved coordinates.
+   *
+   * @return The vertices as interleaved coordinates, sorted
+   *         lexicographically.
+   */
+  private static double[] sorted(final double[] hull) {
+    final int k = hull.length / 2;
+    if (k <= 2) {
+      return k == 2 && ParallelHull.less(hull, 1, 0)
+          ? new double[] {hull[2], hull[3], hull[0], hull[1]} : hull;
+    }
+    int low = 0;
+    int high = 0;
+    for (int i = 1; i < k; i++) {
+      if (ParallelHull.less(hull, i, low)) {
+        low = i;
+      }
+      if (ParallelHull.less(hull, high, i)) {
+        high = i;
+      }
+    }
+    final double[] result = new double[hull.length];
+    // Lower chain forwards from low, upper chain backwards from low.
+    int lower = low;
+    int upper = (low + k - 1) % k;
+    int end = (high + 1) % k;
+    result[0] = hull[2 * low];
+    result[1] = hull[2 * low + 1];
+    lower = (lower + 1) % k;
+    for (int i = 1; i < k; i++) {
+      final boolean fromLower = upper == high
+          || lower != end && ParallelHull.less(hull, lower, upper);
+      final int next = fromLower ? lower : upper;
+      result[2 * i] = hull[2 * next];
+      result[2 * i + 1] = hull[2 * next + 1];
+      if (fromLower) {
+        lower = (lower + 1) % k;
+      } else {
+        upper = (upper + k - 1) % k;
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * @param points Points as interleaved coordinates.
+   * @param i The index of a point.
+   * @param j The index of another point.
+   *
+   * @return True if point <code>i</code> is lexicographically smaller than
+   *         point <code>j</code>.
+   */
+  private static boolean less(final double[] points, final int i,
+                              final int j) {
+    return GrahamScan.less(points[2 * i], points[2 * i + 1],
+                           points[2 * j], points[2 * j + 1]);
+  }
+
+
+  /**
+   * Collects the hull vertices of the chunks of a range, for the points
+   * outside the octagon, sorted lexicographically.
+   */
+  private static final class Hull extends RecursiveTask<double[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] octagon;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor.
+     *
+     * @param xs The x coordinates.
+     * @param ys The y coordinates.
+     * @param octagon The vertices of the octagon.
+     * @param from The first index.
+     * @param to The index after the last one.
+     */
+    private Hull(final double[] xs, final double[] ys, final double[] octagon,
+                 final int from, final int to) {
+      this.xs = xs;
+      this.ys = ys;
+      this.octagon = octagon;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (this.to - this.from <= ParallelHull.CHUNK) {
+        return ParallelHull.sorted(ParallelHull.filtered(
+            this.xs, this.ys, this.octagon, this.from, this.to));
+      }
+      final int mid = (this.from + this.to) >>> 1;
+      final Hull left =
+          new Hull(this.xs, this.ys, this.octagon, this.from, mid);
+      left.fork();
+      final double[] right =
+          new Hull(this.xs, this.ys, this.octagon, mid, this.to).compute();
+      return Hull.merge(left.join(), right);
+    }
+
+    /**
+     * @param first Points sorted lexicographically.
+     * @param second Other points sorted lexicographically.
+     *
+     * @return All points sorted lexicographically.
+     */
+    private static double[] merge(final double[] first,
+                                  final double[] second) {
+      final double[] result = new double[first.length + second.length];
+      int i = 0;
+      int j = 0;
+      for (int k = 0; k < result.length; k += 2) {
+        if (j == second.length || i < first.length
+            && !GrahamScan.less(second[j], second[j + 1],
+                                first[i], first[i + 1])) {
+          result[k] = first[i++];
+          result[k + 1] = first[i++];
+        } else {
+          result[k] = second[j++];
+          result[k + 1] = second[j++];
+        }
+      }
+      return result;
+    }
+  }
+
+}
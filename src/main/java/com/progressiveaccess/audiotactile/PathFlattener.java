@@ -0,0 +1,549 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   PathFlattener.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Jul 20 10:12:31 2017
+ *
+ * @brief  Streaming parser flattening SVG path data into points.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+
+/**
+ * Parses the <code>d</code> attribute of SVG paths in a single pass and
+ * flattens it into a stream of points. Curves are approximated by line
+ * segments whose number adapts to the curvature, such that the polyline stays
+ * within the given tolerance of the curve. No GVT tree or path segment list
+ * is built. As required by the SVG specification parsing stops at the first
+ * error, keeping the points up to that error.
+ */
+public final class PathFlattener {
+
+  /** Default flattening tolerance in user units. */
+  public static final double DEFAULT_TOLERANCE = 0.25;
+
+  /** Upper bound for the number of segments of a single curve. */
+  private static final int MAX_SEGMENTS = 256;
+
+  private static final double[] POWERS = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+    1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * Receiver of the flattened points.
+   */
+  @FunctionalInterface
+  public interface Sink {
+
+    /**
+     * Receives a point.
+     *
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     */
+    void point(double x, double y);
+  }
+
+  private final double tolerance;
+
+  // Parser state, only valid during a call to flatten.
+  private String data;
+  private int pos;
+  private int length;
+  private Sink sink;
+  private double x;
+  private double y;
+  private double startX;
+  private double startY;
+  private double controlX;
+  private double controlY;
+
+
+  /**
+   * Constructor with default tolerance.
+   */
+  public PathFlattener() {
+    this(PathFlattener.DEFAULT_TOLERANCE);
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param tolerance The maximal distance between curve and polyline.
+   */
+  public PathFlattener(final double tolerance) {
+    if (!(tolerance > 0)) {
+      throw new IllegalArgumentException("Tolerance must be positive");
+    }
+    this.tolerance = tolerance;
+  }
+
+
+  /**
+   * @return The flattening tolerance.
+   */
+  public double getTolerance() {
+    return this.tolerance;
+  }
+
+
+  /**
+   * Flattens path data. Not thread-safe; use one flattener per thread.
+   *
+   * @param path The content of a <code>d</code> attribute.
+   * @param output The receiver of the points.
+   *
+   * @return True if the path data was parsed completely, false if parsing
+   *         stopped at an error.
+   */
+  public boolean flatten(final String path, final Sink output) {
+    this.data = path;
+    this.pos = 0;
+    this.length = path.length();
+    this.sink = output;
+    this.x = 0;
+    this.y = 0;
+    this.startX = 0;
+    this.startY = 0;
+    this.controlX = 0;
+    this.controlY = 0;
+    try {
+      return this.parse();
+    } catch (NumberFormatException e) {
+      return false;
+    } finally {
+      this.data = null;
+      this.sink = null;
+    }
+  }
+
+
+  /**
+   * Parses the path data command by command.
+   *
+   * @return True if all data was consumed.
+   */
+  private boolean parse() {
+    char previous = 0;
+    this.skipSpace();
+    while (this.pos < this.length) {
+      char command = this.data.charAt(this.pos);
+      if (PathFlattener.isCommand(command)) {
+        this.pos++;
+      } else if (previous != 0 && previous != 'Z' && previous != 'z'
+                 && PathFlattener.startsNumber(command)) {
+        // Implicit repetition; moveto continues as lineto.
+        command = previous == 'M' ? 'L' : previous == 'm' ? 'l' : previous;
+      } else {
+        return false;
+      }
+      if (previous == 0 && command != 'M' && command != 'm') {
+        return false;
+      }
+      this.command(command, previous);
+      previous = command;
+      this.skipSpace();
+    }
+    return true;
+  }
+
+
+  /**
+   * Executes a single command including its parameters.
+   *
+   * @param command The command letter.
+   * @param previous The previous command letter.
+   */
+  private void command(final char command, final char previous) {
+    final boolean relative = Character.isLowerCase(command);
+    final double ox = relative ? this.x : 0;
+    final double oy = relative ? this.y : 0;
+    switch (Character.toUpperCase(command)) {
+      case 'M':
+        this.x = ox + this.number();
+        this.y = oy + this.number();
+        this.startX = this.x;
+        this.startY = this.y;
+        this.emit(this.x, this.y);
+        this.controlX = this.x;
+        this.controlY = this.y;
+        return;
+      case 'L':
+        this.lineTo(ox + this.number(), oy + this.number());
+        return;
+      case 'H':
+        this.lineTo(ox + this.number(), this.y);
+        return;
+      case 'V':
+        this.lineTo(this.x, oy + this.number());
+        return;
+      case 'Z':
+        this.lineTo(this.startX, this.startY);
+        return;
+      case 'C':
+        this.cubic(ox + this.number(), oy + this.number(),
+                   ox + this.number(), oy + this.number(),
+                   ox + this.number(), oy + this.number());
+        return;
+      case 'S': {
+        final boolean smooth = "CcSs".indexOf(previous) >= 0;
+        final double x1 = smooth ? 2 * this.x - this.controlX : this.x;
+        final double y1 = smooth ? 2 * this.y - this.controlY : this.y;
+        this.cubic(x1, y1, ox + this.number(), oy + this.number(),
+                   ox + this.number(), oy + this.number());
+        return;
+      }
+      case 'Q':
+        this.quadratic(ox + this.number(), oy + this.number(),
+                       ox + this.number(), oy + this.number());
+        return;
+      case 'T': {
+        final boolean smooth = "QqTt".indexOf(previous) >= 0;
+        final double x1 = smooth ? 2 * this.x - this.controlX : this.x;
+        final double y1 = smooth ? 2 * this.y - this.controlY : this.y;
+        this.quadratic(x1, y1, ox + this.number(), oy + this.number());
+        return;
+      }
+      case 'A': {
+        final double rx = Math.abs(this.number());
+        final double ry = Math.abs(this.number());
+        final double angle = this.number();
+        final boolean large = this.flag();
+        final boolean sweep = this.flag();
+        this.arc(rx, ry, angle, large, sweep,
+                 ox + this.number(), oy + this.number());
+        return;
+      }
+      default:
+        throw new NumberFormatException("Unknown command " + command);
+    }
+  }
+
+
+  /**
+   * Emits a straight line to a point.
+   *
+   * @param px The x coordinate.
+   * @param py The y coordinate.
+   */
+  private void lineTo(final double px, final double py) {
+    this.emit(px, py);
+    this.x = px;
+    this.y = py;
+    this.controlX = px;
+    this.controlY = py;
+  }
+
+
+  /**
+   * Flattens a cubic Bezier curve from the current point. The number of
+   * segments follows Wang's formula for the given tolerance.
+   */
+  private void cubic(final double x1, final double y1,
+                     final double x2, final double y2,
+                     final double x3, final double y3) {
+    final double dd = Math.max(
+        Math.hypot(this.x - 2 * x1 + x2, this.y - 2 * y1 + y2),
+        Math.hypot(x1 - 2 * x2 + x3, y1 - 2 * y2 + y3));
+    final int n = this.segments(0.75 * dd);
+    final double x0 = this.x;
+    final double y0 = this.y;
+    for (int i = 1; i < n; i++) {
+      final double t = (double) i / n;
+      final double s = 1 - t;
+      final double a = s * s * s;
+      final double b = 3 * s * s * t;
+      final double c = 3 * s * t * t;
+      final double d = t * t * t;
+      this.emit(a * x0 + b * x1 + c * x2 + d * x3,
+                a * y0 + b * y1 + c * y2 + d * y3);
+    }
+    this.emit(x3, y3);
+    this.x = x3;
+    this.y = y3;
+    this.controlX = x2;
+    this.controlY = y2;
+  }
+
+
+  /**
+   * Flattens a quadratic Bezier curve from the current point.
+   */
+  private void quadratic(final double x1, final double y1,
+                         final double x2, final double y2) {
+    final double dd = Math.hypot(this.x - 2 * x1 + x2, this.y - 2 * y1 + y2);
+    final int n = this.segments(0.25 * dd);
+    final double x0 = this.x;
+    final double y0 = this.y;
+    for (int i = 1; i < n; i++) {
+      final double t = (double) i / n;
+      final double s = 1 - t;
+      final double a = s * s;
+      final double b = 2 * s * t;
+      final double c = t * t;
+      this.emit(a * x0 + b * x1 + c * x2, a * y0 + b * y1 + c * y2);
+    }
+    this.emit(x2, y2);
+    this.x = x2;
+    this.y = y2;
+    this.controlX = x1;
+    this.controlY = y1;
+  }
+
+
+  /**
+   * Flattens an elliptical arc from the current point, following the
+   * endpoint to center conversion of the SVG specification.
+   */
+  private void arc(double rx, double ry, final double angle,
+                   final boolean large, final boolean sweep,
+                   final double x2, final double y2) {
+    final double x1 = this.x;
+    final double y1 = this.y;
+    if (x1 == x2 && y1 == y2) {
+      return;
+    }
+    if (rx == 0 || ry == 0) {
+      this.lineTo(x2, y2);
+      return;
+    }
+    final double phi = Math.toRadians(angle % 360);
+    final double cos = Math.cos(phi);
+    final double sin = Math.sin(phi);
+    final double dx = (x1 - x2) / 2;
+    final double dy = (y1 - y2) / 2;
+    final double x1p = cos * dx + sin * dy;
+    final double y1p = -sin * dx + cos * dy;
+    // Scale up radii that are too small.
+    final double lambda = (x1p * x1p) / (rx * rx) + (y1p * y1p) / (ry * ry);
+    if (lambda > 1) {
+      final double scale = Math.sqrt(lambda);
+      rx *= scale;
+      ry *= scale;
+    }
+    final double rxx = rx * rx;
+    final double ryy = ry * ry;
+    final double num = rxx * ryy - rxx * y1p * y1p - ryy * x1p * x1p;
+    final double den = rxx * y1p * y1p + ryy * x1p * x1p;
+    double coef = num <= 0 ? 0 : Math.sqrt(num / den);
+    if (large == sweep) {
+      coef = -coef;
+    }
+    final double cxp = coef * rx * y1p / ry;
+    final double cyp = -coef * ry * x1p / rx;
+    final double cx = cos * cxp - sin * cyp + (x1 + x2) / 2;
+    final double cy = sin * cxp + cos * cyp + (y1 + y2) / 2;
+    final double theta = Math.atan2((y1p - cyp) / ry, (x1p - cxp) / rx);
+    double delta = Math.atan2((-y1p - cyp) / ry, (-x1p - cxp) / rx) - theta;
+    if (sweep && delta < 0) {
+      delta += 2 * Math.PI;
+    } else if (!sweep && delta > 0) {
+      delta -= 2 * Math.PI;
+    }
+    // Angular step keeping the chord within tolerance of the larger radius.
+    final double r = Math.max(rx, ry);
+    final double step = r <= this.tolerance ? Math.PI
+        : 2 * Math.acos(1 - this.tolerance / r);
+    final int n = Math.min(
+        PathFlattener.MAX_SEGMENTS,
+        Math.max(1, (int) Math.ceil(Math.abs(delta) / step)));
+    for (int i = 1; i < n; i++) {
+      final double t = theta + delta * i / n;
+      final double ex = rx * Math.cos(t);
+      final double ey = ry * Math.sin(t);
+      this.emit(cos * ex - sin * ey + cx, sin * ex + cos * ey + cy);
+    }
+    this.lineTo(x2, y2);
+  }
+
+
+  /**
+   * @param bound Bound on the deviation of the curve, Wang's constant times
+   *        the maximal second difference of the control points.
+   *
+   * @return The number of segments.
+   */
+  private int segments(final double bound) {
+    final double n = Math.ceil(Math.sqrt(bound / this.tolerance));
+    return n < 1 ? 1 : n > PathFlattener.MAX_SEGMENTS
+        ? PathFlattener.MAX_SEGMENTS : (int) n;
+  }
+
+
+  /**
+   * Hands a point to the sink.
+   *
+   * @param px The x coordinate.
+   * @param py The y coordinate.
+   */
+  private void emit(final double px, final double py) {
+    this.sink.point(px, py);
+  }
+
+
+  /**
+   * Skips white space and at most one comma.
+   */
+  private void skipSpace() {
+    boolean comma = false;
+    while (this.pos < this.length) {
+      final char c = this.data.charAt(this.pos);
+      if (c == ',' && !comma) {
+        comma = true;
+      } else if (c != ' ' && c != '\t' && c != '\n' && c != '\r'
+                 && c != '\f') {
+        return;
+      }
+      this.pos++;
+    }
+  }
+
+
+  /**
+   * Reads an arc flag, which need not be separated from what follows.
+   *
+   * @return The flag.
+   */
+  private boolean flag() {
+    this.skipSpace();
+    if (this.pos < this.length) {
+      final char c = this.data.charAt(this.pos);
+      if (c == '0' || c == '1') {
+        this.pos++;
+        return c == '1';
+      }
+    }
+    throw new NumberFormatException("Flag expected at " + this.pos);
+  }
+
+
+  /**
+   * Reads a number without creating intermediate strings in the common
+   * case.
+   *
+   * @return The number.
+   */
+  private double number() {
+    this.skipSpace();
+    final int start = this.pos;
+    boolean negative = false;
+    if (this.pos < this.length) {
+      final char c = this.data.charAt(this.pos);
+      if (c == '-' || c == '+') {
+        negative = c == '-';
+        this.pos++;
+      }
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean any = false;
+    while (this.pos < this.length
+           && PathFlattener.isDigit(this.data.charAt(this.pos))) {
+      if (digits < 16) {
+        mantissa = mantissa * 10 + (this.data.charAt(this.pos) - '0');
+        digits += mantissa == 0 ? 0 : 1;
+      } else {
+        digits++;
+      }
+      this.pos++;
+      any = true;
+    }
+    if (this.pos < this.length && this.data.charAt(this.pos) == '.') {
+      this.pos++;
+      while (this.pos < this.length
+             && PathFlattener.isDigit(this.data.charAt(this.pos))) {
+        if (digits < 16) {
+          mantissa = mantissa * 10 + (this.data.charAt(this.pos) - '0');
+          digits += mantissa == 0 ? 0 : 1;
+          scale++;
+        }
+        this.pos++;
+        any = true;
+      }
+    }
+    if (!any) {
+      throw new NumberFormatException("Number expected at " + start);
+    }
+    int exponent = 0;
+    if (this.pos + 1 < this.length
+        && (this.data.charAt(this.pos) == 'e'
+            || this.data.charAt(this.pos) == 'E')) {
+      int p = this.pos + 1;
+      boolean negExp = false;
+      final char s = this.data.charAt(p);
+      if (s == '-' || s == '+') {
+        negExp = s == '-';
+        p++;
+      }
+      if (p < this.length && PathFlattener.isDigit(this.data.charAt(p))) {
+        while (p < this.length && PathFlattener.isDigit(this.data.charAt(p))) {
+          exponent = Math.min(exponent * 10 + (this.data.charAt(p++) - '0'),
+                              1000);
+        }
+        exponent = negExp ? -exponent : exponent;
+        this.pos = p;
+      }
+    }
+    final int power = exponent - scale;
+    if (digits > 15 || Math.abs(power) >= PathFlattener.POWERS.length) {
+      return Double.parseDouble(this.data.substring(start, this.pos));
+    }
+    // Exact operands give a correctly rounded result.
+    final double value = power < 0 ? mantissa / PathFlattener.POWERS[-power]
+        : mantissa * PathFlattener.POWERS[power];
+    return negative ? -value : value;
+  }
+
+
+  /**
+   * @param c A character.
+   *
+   * @return True if it is a decimal digit.
+   */
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+
+  /**
+   * @param c A character.
+   *
+   * @return True if it can start a number.
+   */
+  private static boolean startsNumber(final char c) {
+    return PathFlattener.isDigit(c) || c == '-' || c == '+' || c == '.';
+  }
+
+
+  /**
+   * @param c A character.
+   *
+   * @return True if it is a path command.
+   */
+  private static boolean isCommand(final char c) {
+    return "MmLlHhVvCcSsQqTtAaZz".indexOf(c) >= 0;
+  }
+
+}
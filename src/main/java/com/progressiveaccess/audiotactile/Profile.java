@@ -0,0 +1,110 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Profile.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  2 09:36:20 2017
+ *
+ * @brief  Output profiles of a diagram.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.util.Locale;
+
+
+/**
+ * The variants in which a diagram is published. A profile fixes the IVEO
+ * options and leaves all other options alone.
+ */
+public enum Profile {
+
+  /** Enriched SVG without IVEO annotations. */
+  PLAIN(false, false, false),
+
+  /** SVG for IVEO. */
+  IVEO(true, false, false),
+
+  /** SVG for IVEO with exploration buttons. */
+  IVEO_BUTTONS(true, true, false),
+
+  /** SVG for IVEO with exploration buttons placed to avoid collisions. */
+  IVEO_COLLISION(true, true, true);
+
+  private final boolean iveo;
+  private final boolean iveoButtons;
+  private final boolean iveoCollision;
+
+
+  /**
+   * Constructor.
+   *
+   * @param iveo Generate SVG suitable for IVEO.
+   * @param iveoButtons Add IVEO exploration buttons.
+   * @param iveoCollision Move IVEO buttons by avoiding collisions.
+   */
+  Profile(final boolean iveo, final boolean iveoButtons,
+          final boolean iveoCollision) {
+    this.iveo = iveo;
+    this.iveoButtons = iveoButtons;
+    this.iveoCollision = iveoCollision;
+  }
+
+
+  /**
+   * @return The name of the profile as used on the command line and in
+   *         output file names.
+   */
+  public String getName() {
+    return this.name().toLowerCase(Locale.ROOT);
+  }
+
+
+  /**
+   * Sets the IVEO options of the profile.
+   *
+   * @param builder The builder of the options.
+   *
+   * @return The builder.
+   */
+  public TactileOptions.Builder apply(final TactileOptions.Builder builder) {
+    return builder.iveo(this.iveo).iveoButtons(this.iveoButtons)
+      .iveoCollision(this.iveoCollision);
+  }
+
+
+  /**
+   * @param name The name of a profile.
+   *
+   * @return The profile.
+   *
+   * @throws IllegalArgumentException
+   *          If there is no profile of that name.
+   */
+  public static Profile parse(final String name) {
+    for (final Profile profile : Profile.values()) {
+      if (profile.getName().equals(name.trim())) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException("Unknown profile " + name);
+  }
+
+}
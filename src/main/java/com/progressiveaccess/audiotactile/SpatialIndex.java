@@ -0,0 +1,405 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   SpatialIndex.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Fri Jul 21 11:05:19 2017
+ *
+ * @brief  R-tree over the drawable elements of a document.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.util.Arrays;
+
+
+/**
+ * Static R-tree over the bounding boxes of the elements of a {@link Geometry},
+ * bulk loaded with the Sort-Tile-Recursive method. Nodes are kept in flat
+ * arrays. Queries descend only into nodes overlapping the query, so they take
+ * logarithmic time plus the size of the answer.
+ */
+public final class SpatialIndex {
+
+  /** Maximal number of children of a node. */
+  private static final int FANOUT = 16;
+
+  private final Geometry geometry;
+
+  // Bounding boxes of the nodes as minimal x, minimal y, maximal x, maximal
+  // y. Children of node i are children[first[i]] to children[first[i] +
+  // count[i] - 1], element indices for leaves and node indices otherwise.
+  private double[] boxes = new double[0];
+  private int[] first = new int[0];
+  private int[] count = new int[0];
+  private int[] children = new int[0];
+  private int leaves = 0;
+  private int nodes = 0;
+  private int root = -1;
+
+
+  /**
+   * Constructor. Builds the tree.
+   *
+   * @param geometry The geometry of a document.
+   */
+  public SpatialIndex(final Geometry geometry) {
+    this.geometry = geometry;
+    final int size = geometry.getElementCount();
+    int[] level = new int[size];
+    double[] levelBoxes = new double[4 * size];
+    int entries = 0;
+    for (int i = 0; i < size; i++) {
+      if (geometry.getStart(i) == geometry.getEnd(i)) {
+        continue;
+      }
+      levelBoxes[4 * entries] = geometry.getMinX(i);
+      levelBoxes[4 * entries + 1] = geometry.getMinY(i);
+      levelBoxes[4 * entries + 2] = geometry.getMaxX(i);
+      levelBoxes[4 * entries + 3] = geometry.getMaxY(i);
+      level[entries++] = i;
+    }
+    if (entries == 0) {
+      return;
+    }
+    final int capacity = entries / SpatialIndex.FANOUT + 1;
+    this.boxes = new double[4 * capacity];
+    this.first = new int[capacity];
+    this.count = new int[capacity];
+    this.children = new int[entries + capacity];
+    boolean leaf = true;
+    while (true) {
+      final int start = this.nodes;
+      this.pack(level, levelBoxes, entries);
+      if (leaf) {
+        this.leaves = this.nodes;
+        leaf = false;
+      }
+      entries = this.nodes - start;
+      if (entries == 1) {
+        this.root = start;
+        return;
+      }
+      level = new int[entries];
+      levelBoxes = Arrays.copyOfRange(this.boxes, 4 * start, 4 * this.nodes);
+      for (int i = 0; i < entries; i++) {
+        level[i] = start + i;
+      }
+    }
+  }
+
+
+  /**
+   * Packs one level of entries into nodes, sorting them into vertical slices
+   * by x and within slices by y.
+   *
+   * @param entries The entry indices.
+   * @param bounds The boxes of the entries, in the same order.
+   * @param size The number of entries.
+   */
+  private void pack(final int[] entries, final double[] bounds,
+                    final int size) {
+    final int pages = (size + SpatialIndex.FANOUT - 1) / SpatialIndex.FANOUT;
+    final int slices = (int) Math.ceil(Math.sqrt(pages));
+    final int sliceSize = slices * SpatialIndex.FANOUT;
+    final long[] order = new long[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = SpatialIndex.key(
+          bounds[4 * i] + bounds[4 * i + 2], i);
+    }
+    Arrays.sort(order);
+    for (int s = 0; s < size; s += sliceSize) {
+      final int end = Math.min(size, s + sliceSize);
+      for (int i = s; i < end; i++) {
+        final int entry = (int) order[i];
+        order[i] = SpatialIndex.key(
+            bounds[4 * entry + 1] + bounds[4 * entry + 3], entry);
+      }
+      Arrays.sort(order, s, end);
+      for (int i = s; i < end; i += SpatialIndex.FANOUT) {
+        this.node(entries, bounds, order, i,
+                  Math.min(end, i + SpatialIndex.FANOUT));
+      }
+    }
+  }
+
+
+  /**
+   * Creates a node over a range of sorted entries.
+   *
+   * @param entries The entry indices.
+   * @param bounds The boxes of the entries.
+   * @param order The sorted keys, referring to positions in entries.
+   * @param from The first position in order.
+   * @param to The position after the last one.
+   */
+  private void node(final int[] entries, final double[] bounds,
+                    final long[] order, final int from, final int to) {
+    final int node = this.nodes++;
+    final int offset = node == 0 ? 0 : this.first[node - 1]
+        + this.count[node - 1];
+    if (node == this.first.length) {
+      final int capacity = 2 * node;
+      this.boxes = Arrays.copyOf(this.boxes, 4 * capacity);
+      this.first = Arrays.copyOf(this.first, capacity);
+      this.count = Arrays.copyOf(this.count, capacity);
+    }
+    if (offset + to - from > this.children.length) {
+      this.children = Arrays.copyOf(
+          this.children, 2 * this.children.length + to - from);
+    }
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      final int entry = (int) order[i];
+      this.children[offset + i - from] = entries[entry];
+      minX = Math.min(minX, bounds[4 * entry]);
+      minY = Math.min(minY, bounds[4 * entry + 1]);
+      maxX = Math.max(maxX, bounds[4 * entry + 2]);
+      maxY = Math.max(maxY, bounds[4 * entry + 3]);
+    }
+    this.first[node] = offset;
+    this.count[node] = to - from;
+    this.boxes[4 * node] = minX;
+    this.boxes[4 * node + 1] = minY;
+    this.boxes[4 * node + 2] = maxX;
+    this.boxes[4 * node + 3] = maxY;
+  }
+
+
+  /**
+   * Combines a sort value and an index into a key whose natural order is the
+   * order of the values.
+   *
+   * @param value The value.
+   * @param index A non-negative index.
+   *
+   * @return The key.
+   */
+  private static long key(final double value, final int index) {
+    int bits = Float.floatToIntBits((float) value);
+    bits ^= (bits >> 31) & 0x7fffffff;
+    return ((long) bits << 32) | index;
+  }
+
+
+  /**
+   * @return The indexed geometry.
+   */
+  public Geometry getGeometry() {
+    return this.geometry;
+  }
+
+
+  /**
+   * Tests whether the outline of any element intersects a box.
+   *
+   * @param minX The minimal x of the box.
+   * @param minY The minimal y of the box.
+   * @param maxX The maximal x of the box.
+   * @param maxY The maximal y of the box.
+   *
+   * @return True if some line, edge or point lies in the box.
+   */
+  public boolean intersects(final double minX, final double minY,
+                            final double maxX, final double maxY) {
+    return this.root >= 0
+        && this.intersects(this.root, minX, minY, maxX, maxY);
+  }
+
+
+  /**
+   * Recursive intersection test.
+   *
+   * @param node The node.
+   * @param minX The minimal x of the box.
+   * @param minY The minimal y of the box.
+   * @param maxX The maximal x of the box.
+   * @param maxY The maximal y of the box.
+   *
+   * @return True if an element below the node intersects the box.
+   */
+  private boolean intersects(final int node, final double minX,
+                             final double minY, final double maxX,
+                             final double maxY) {
+    if (!this.overlaps(this.boxes, node, minX, minY, maxX, maxY)) {
+      return false;
+    }
+    final int end = this.first[node] + this.count[node];
+    for (int i = this.first[node]; i < end; i++) {
+      final int child = this.children[i];
+      if (node < this.leaves
+          ? this.hits(child, minX, minY, maxX, maxY)
+          : this.intersects(child, minX, minY, maxX, maxY)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Tests an element against a box. Lines and paths are tested segment by
+   * segment, rectangles and polygons edge by edge.
+   *
+   * @param element The element index.
+   * @param minX The minimal x of the box.
+   * @param minY The minimal y of the box.
+   * @param maxX The maximal x of the box.
+   * @param maxY The maximal y of the box.
+   *
+   * @return True if the element outline intersects the box.
+   */
+  private boolean hits(final int element, final double minX,
+                       final double minY, final double maxX,
+                       final double maxY) {
+    final Geometry g = this.geometry;
+    if (g.getMinX(element) > maxX || g.getMaxX(element) < minX
+        || g.getMinY(element) > maxY || g.getMaxY(element) < minY) {
+      return false;
+    }
+    final double[] xs = this.geometry.getXs();
+    final double[] ys = this.geometry.getYs();
+    final int start = this.geometry.getStart(element);
+    final int end = this.geometry.getEnd(element);
+    if (end - start == 1) {
+      return true;
+    }
+    switch (this.geometry.getType(element)) {
+      case Geometry.RECT:
+        // Bounds of a rectangle are exact; a box inside is no hit.
+        return !(g.getMinX(element) < minX && g.getMinY(element) < minY
+                 && g.getMaxX(element) > maxX && g.getMaxY(element) > maxY);
+      case Geometry.POLYGON:
+        if (SpatialIndex.crosses(xs[end - 1], ys[end - 1], xs[start],
+                                 ys[start], minX, minY, maxX, maxY)) {
+          return true;
+        }
+        break;
+      default:
+        break;
+    }
+    for (int i = start + 1; i < end; i++) {
+      if (SpatialIndex.crosses(xs[i - 1], ys[i - 1], xs[i], ys[i],
+                               minX, minY, maxX, maxY)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Tests a segment against a box by separating axes: the coordinate axes
+   * and the normal of the segment.
+   *
+   * @return True if the segment intersects the box.
+   */
+  private static boolean crosses(final double x0, final double y0,
+                                 final double x1, final double y1,
+                                 final double minX, final double minY,
+                                 final double maxX, final double maxY) {
+    if (Math.max(x0, x1) < minX || Math.min(x0, x1) > maxX
+        || Math.max(y0, y1) < minY || Math.min(y0, y1) > maxY) {
+      return false;
+    }
+    final double dx = x1 - x0;
+    final double dy = y1 - y0;
+    final double a = dx * (minY - y0) - dy * (minX - x0);
+    final double b = dx * (minY - y0) - dy * (maxX - x0);
+    final double c = dx * (maxY - y0) - dy * (minX - x0);
+    final double d = dx * (maxY - y0) - dy * (maxX - x0);
+    return !(a > 0 && b > 0 && c > 0 && d > 0)
+        && !(a < 0 && b < 0 && c < 0 && d < 0);
+  }
+
+
+  /**
+   * Finds the lowest point, i.e., the one with maximal y, right of and below
+   * a corner.
+   *
+   * @param minX The minimal x of the region.
+   * @param minY The minimal y of the region.
+   *
+   * @return The maximal y of all points with x and y not less than the
+   *         corner or NaN if there is none.
+   */
+  public double maxY(final double minX, final double minY) {
+    return this.root < 0 ? Double.NaN
+        : this.maxY(this.root, minX, minY, Double.NaN);
+  }
+
+
+  /**
+   * Branch and bound search for the lowest point in a region.
+   *
+   * @param node The node.
+   * @param minX The minimal x of the region.
+   * @param minY The minimal y of the region.
+   * @param best The best value so far or NaN.
+   *
+   * @return The improved best value.
+   */
+  private double maxY(final int node, final double minX, final double minY,
+                      double best) {
+    if (!this.overlaps(this.boxes, node, minX, minY, Double.POSITIVE_INFINITY,
+                       Double.POSITIVE_INFINITY)
+        || this.boxes[4 * node + 3] <= best) {
+      return best;
+    }
+    final int end = this.first[node] + this.count[node];
+    for (int i = this.first[node]; i < end; i++) {
+      final int child = this.children[i];
+      if (node >= this.leaves) {
+        best = this.maxY(child, minX, minY, best);
+        continue;
+      }
+      final Geometry g = this.geometry;
+      if (g.getMaxX(child) < minX || g.getMaxY(child) < minY
+          || g.getMaxY(child) <= best) {
+        continue;
+      }
+      final double[] xs = this.geometry.getXs();
+      final double[] ys = this.geometry.getYs();
+      for (int j = this.geometry.getStart(child);
+           j < this.geometry.getEnd(child); j++) {
+        if (xs[j] >= minX && ys[j] >= minY && !(ys[j] <= best)) {
+          best = ys[j];
+        }
+      }
+    }
+    return best;
+  }
+
+
+  /**
+   * @return True if the box of the node overlaps the given box.
+   */
+  private boolean overlaps(final double[] bounds, final int node,
+                           final double minX, final double minY,
+                           final double maxX, final double maxY) {
+    final int offset = 4 * node;
+    return bounds[offset] <= maxX && bounds[offset + 2] >= minX
+        && bounds[offset + 1] <= maxY && bounds[offset + 3] >= minY;
+  }
+
+}
@@ -0,0 +1,568 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   SvgStreamer.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Sat Jul 29 11:05:36 2017
+ *
+ * @brief  Streams an SVG document while adding titles and descriptions.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Copies an SVG document from a stream to a stream in a single pass, adding
+ * the titles and descriptions it collects from a {@link Tactile} conversion.
+ * Only the descriptions and the open elements are kept in memory, never the
+ * document.
+ *
+ * <p>
+ * The result is the document the DOM conversion produces, with the
+ * whitespace of the input kept as it is instead of being indented anew. Like
+ * in the DOM conversion, the first element with a given id receives its
+ * title and description. An existing <code>title</code> or <code>desc</code>
+ * child has its content replaced, missing ones are appended in the order in
+ * which they were first requested.
+ * </p>
+ */
+final class SvgStreamer implements Tactile.Descriptions {
+
+  private static final String SVG_URI = "http://www.w3.org/2000/svg";
+  private static final String[] TAGS = {"title", "desc"};
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final String PROPERTIES =
+      "http://java.sun.com/xml/stream/properties/";
+  private static final XMLInputFactory FACTORY = SvgStreamer.factory();
+
+  /** Marks the open elements that do not receive anything. */
+  private static final Open PLAIN = new Open(null, null);
+
+  private final boolean compact;
+  private final Map<String, Description> descriptions = new HashMap<>();
+  private Description root = null;
+  private long sequence = 0;
+  private int elements = 0;
+
+  // State of a single write.
+  private Writer out;
+  private final Deque<Open> open = new ArrayDeque<>();
+  private final Deque<Boolean> preserve = new ArrayDeque<>();
+  private boolean pending = false;
+
+
+  /**
+   * Constructor.
+   *
+   * @param compact True if whitespace between elements is dropped as by the
+   *        compact {@link SvgWriter}. Namespace declarations are copied in
+   *        any case, as they have to be written before their use is known.
+   */
+  SvgStreamer(final boolean compact) {
+    this.compact = compact;
+  }
+
+
+  @Override
+  public void title(final String id, final String title) {
+    if (!title.isEmpty()) {
+      this.description(id).set(0, title, this.sequence++);
+    }
+  }
+
+
+  @Override
+  public void description(final String id, final String description) {
+    if (!description.isEmpty()) {
+      this.description(id).set(1, description, this.sequence++);
+    }
+  }
+
+
+  @Override
+  public void root(final String title, final String description) {
+    if (this.root == null) {
+      this.root = new Description();
+    }
+    this.root.set(0, title, this.sequence++);
+    this.root.set(1, description, this.sequence++);
+  }
+
+
+  /**
+   * @return The number of elements in the last document written.
+   */
+  int getElementCount() {
+    return this.elements;
+  }
+
+
+  /**
+   * Copies a document, adding the collected titles and descriptions.
+   *
+   * @param input The SVG document. It is not closed.
+   * @param systemId The URI of the document or null.
+   * @param output The stream to write to. It is flushed but not closed.
+   *
+   * @throws IOException
+   *          If writing fails.
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  void write(final InputStream input, final String systemId,
+             final OutputStream output)
+      throws IOException, XMLStreamException {
+    final XMLStreamReader reader = systemId == null
+        ? SvgStreamer.FACTORY.createXMLStreamReader(input)
+        : SvgStreamer.FACTORY.createXMLStreamReader(systemId, input);
+    this.out = new BufferedWriter(
+        new OutputStreamWriter(output, StandardCharsets.UTF_8),
+        SvgStreamer.BUFFER_SIZE);
+    this.open.clear();
+    this.preserve.clear();
+    this.pending = false;
+    this.elements = 0;
+    try {
+      this.out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+      while (reader.hasNext()) {
+        this.copy(reader, reader.next());
+      }
+      this.out.flush();
+    } finally {
+      reader.close();
+    }
+  }
+
+
+  /**
+   * Copies a single event.
+   *
+   * @param reader The reader positioned at the event.
+   * @param event The type of the event.
+   *
+   * @throws IOException
+   *          If writing fails.
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  private void copy(final XMLStreamReader reader, final int event)
+      throws IOException, XMLStreamException {
+    final boolean top = this.open.isEmpty();
+    switch (event) {
+      case XMLStreamConstants.START_ELEMENT:
+        this.start(reader);
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        this.end(reader);
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.SPACE:
+        if (!top && !(this.compact && reader.isWhiteSpace()
+                      && !this.preserve.peek())) {
+          this.close();
+          SvgWriter.escape(this.out, reader.getText(), false);
+        }
+        break;
+      case XMLStreamConstants.CDATA:
+        this.close();
+        this.out.write("<![CDATA[");
+        this.out.write(reader.getText());
+        this.out.write("]]>");
+        break;
+      case XMLStreamConstants.COMMENT:
+        this.close();
+        this.out.write("<!--");
+        this.out.write(reader.getText());
+        this.out.write("-->");
+        this.newline(top);
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        this.close();
+        this.out.write("<?");
+        this.out.write(reader.getPITarget());
+        final String data = reader.getPIData();
+        if (data != null && !data.isEmpty()) {
+          this.out.write(' ');
+          this.out.write(data);
+        }
+        this.out.write("?>");
+        this.newline(top);
+        break;
+      default:
+        // Document type declarations are dropped as by the DOM writer.
+        break;
+    }
+  }
+
+
+  /**
+   * Opens an element, or replaces it if it is a title or description due for
+   * replacement.
+   *
+   * @param reader The reader positioned at the start tag.
+   *
+   * @throws IOException
+   *          If writing fails.
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  private void start(final XMLStreamReader reader)
+      throws IOException, XMLStreamException {
+    this.close();
+    this.elements++;
+    final String name = XmlNames.qualifiedName(reader.getPrefix(),
+                                               reader.getLocalName());
+    final Open parent = this.open.peek();
+    if (parent != null && parent.description != null) {
+      for (int i = 0; i < SvgStreamer.TAGS.length; i++) {
+        if (SvgStreamer.TAGS[i].equals(name) && !parent.done[i]
+            && parent.description.content[i] != null) {
+          parent.done[i] = true;
+          this.replace(reader, name, parent.description.content[i]);
+          return;
+        }
+      }
+    }
+    this.startTag(reader, name);
+    this.pending = true;
+    if (this.compact) {
+      final String space = reader.getAttributeValue(XMLConstants.XML_NS_URI,
+                                                    "space");
+      this.preserve.push(space == null
+          ? parent != null && this.preserve.peek()
+            || SvgWriter.TEXT_CONTENT.contains(reader.getLocalName())
+          : "preserve".equals(space));
+    }
+    Description description = null;
+    if (parent == null) {
+      description = this.root;
+    }
+    final String id = reader.getAttributeValue(null, "id");
+    if (id != null && !id.isEmpty()) {
+      // Only the first element with an id receives its description.
+      description = Description.merge(description,
+                                      this.descriptions.remove(id));
+    }
+    this.open.push(description == null ? SvgStreamer.PLAIN
+                   : new Open(description, reader.getNamespaceURI("")));
+  }
+
+
+  /**
+   * Closes an element, appending the titles and descriptions it is still
+   * missing.
+   *
+   * @param reader The reader positioned at the end tag.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void end(final XMLStreamReader reader) throws IOException {
+    final Open element = this.open.pop();
+    if (this.compact) {
+      this.preserve.pop();
+    }
+    if (element.description != null) {
+      final Description description = element.description;
+      final int first = description.first[0] <= description.first[1] ? 0 : 1;
+      for (final int i : new int[] {first, 1 - first}) {
+        if (!element.done[i] && description.content[i] != null) {
+          this.close();
+          this.out.write('<');
+          this.out.write(SvgStreamer.TAGS[i]);
+          if (!SvgStreamer.SVG_URI.equals(element.namespace)) {
+            this.out.write(" xmlns=\"");
+            SvgWriter.escape(this.out, SvgStreamer.SVG_URI, true);
+            this.out.write('"');
+          }
+          this.content(SvgStreamer.TAGS[i], description.content[i]);
+        }
+      }
+    }
+    if (this.pending) {
+      this.out.write("/>");
+      this.pending = false;
+    } else {
+      this.out.write("</");
+      this.out.write(XmlNames.qualifiedName(reader.getPrefix(),
+                                            reader.getLocalName()));
+      this.out.write('>');
+    }
+    this.newline(this.open.isEmpty());
+  }
+
+
+  /**
+   * Writes an existing title or description with new content, skipping its
+   * old content.
+   *
+   * @param reader The reader positioned at the start tag.
+   * @param name The name of the element.
+   * @param content The new content.
+   *
+   * @throws IOException
+   *          If writing fails.
+   * @throws XMLStreamException
+   *          Problems with the input format.
+   */
+  private void replace(final XMLStreamReader reader, final String name,
+                       final String content)
+      throws IOException, XMLStreamException {
+    this.startTag(reader, name);
+    this.content(name, content);
+    for (int depth = 1; depth > 0;) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        this.elements++;
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+
+  /**
+   * Writes a start tag without its closing bracket.
+   *
+   * @param reader The reader positioned at the start tag.
+   * @param name The name of the element.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void startTag(final XMLStreamReader reader, final String name)
+      throws IOException {
+    this.out.write('<');
+    this.out.write(name);
+    // Namespace declarations go first.
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      final String prefix = reader.getNamespacePrefix(i);
+      this.attribute(prefix == null || prefix.isEmpty() ? "xmlns"
+                     : "xmlns:" + prefix, reader.getNamespaceURI(i));
+    }
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      this.attribute(XmlNames.qualifiedName(reader.getAttributePrefix(i),
+                                            reader.getAttributeLocalName(i)),
+                     reader.getAttributeValue(i));
+    }
+  }
+
+
+  /**
+   * Finishes an open start tag with the given text content and the end tag.
+   *
+   * @param name The name of the element.
+   * @param content The text content.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void content(final String name, final String content)
+      throws IOException {
+    if (content.isEmpty()) {
+      this.out.write("/>");
+      return;
+    }
+    this.out.write('>');
+    SvgWriter.escape(this.out, content, false);
+    this.out.write("</");
+    this.out.write(name);
+    this.out.write('>');
+  }
+
+
+  /**
+   * Writes a single attribute.
+   *
+   * @param name The qualified name.
+   * @param value The value.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void attribute(final String name, final String value)
+      throws IOException {
+    this.out.write(' ');
+    this.out.write(name);
+    this.out.write("=\"");
+    SvgWriter.escape(this.out, value, true);
+    this.out.write('"');
+  }
+
+
+  /**
+   * Closes a pending start tag, as the element turns out to have content.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void close() throws IOException {
+    if (this.pending) {
+      this.out.write('>');
+      this.pending = false;
+    }
+  }
+
+
+  /**
+   * Ends a line after a node at the top level of the document.
+   *
+   * @param top True if the node is at the top level.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void newline(final boolean top) throws IOException {
+    if (top) {
+      this.out.write('\n');
+    }
+  }
+
+
+  /**
+   * @param id An element id.
+   *
+   * @return The description of the element, created on first use.
+   */
+  private Description description(final String id) {
+    return this.descriptions.computeIfAbsent(id, k -> new Description());
+  }
+
+
+  /**
+   * @return The factory for SVG readers. Like the plain SVG DOM it is
+   *         namespace aware and never fetches external DTDs.
+   */
+  private static XMLInputFactory factory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                        false);
+    SvgStreamer.setProperty(
+        factory, SvgStreamer.PROPERTIES + "ignore-external-dtd");
+    SvgStreamer.setProperty(
+        factory, SvgStreamer.PROPERTIES + "report-cdata-event");
+    return factory;
+  }
+
+
+  /**
+   * Enables an implementation specific property if it is supported.
+   *
+   * @param factory The factory.
+   * @param property The name of the property.
+   */
+  private static void setProperty(final XMLInputFactory factory,
+                                  final String property) {
+    if (factory.isPropertySupported(property)) {
+      factory.setProperty(property, true);
+    }
+  }
+
+
+  /**
+   * The title and description of an element. Both remember when they were
+   * first requested, which determines the order in which missing ones are
+   * appended, and when they were last set, which determines the content
+   * if the element is requested under different names.
+   */
+  private static final class Description {
+
+    private final String[] content = new String[2];
+    private final long[] first = {Long.MAX_VALUE, Long.MAX_VALUE};
+    private final long[] last = {-1, -1};
+
+    /**
+     * @param index 0 for the title, 1 for the description.
+     * @param text The content.
+     * @param sequence The number of the request.
+     */
+    private void set(final int index, final String text,
+                     final long sequence) {
+      this.content[index] = text;
+      this.first[index] = Math.min(this.first[index], sequence);
+      this.last[index] = sequence;
+    }
+
+    /**
+     * @param a A description or null.
+     * @param b A description or null.
+     *
+     * @return The combination of both, as if all their requests had been
+     *         made on one element.
+     */
+    private static Description merge(final Description a,
+                                     final Description b) {
+      if (a == null || b == null) {
+        return a == null ? b : a;
+      }
+      final Description result = new Description();
+      for (int i = 0; i < 2; i++) {
+        final Description later = a.last[i] >= b.last[i] ? a : b;
+        result.content[i] = later.content[i];
+        result.last[i] = later.last[i];
+        result.first[i] = Math.min(a.first[i], b.first[i]);
+      }
+      return result;
+    }
+  }
+
+
+  /**
+   * An open element that receives a title or description.
+   */
+  private static final class Open {
+
+    private final Description description;
+    private final String namespace;
+    private final boolean[] done = new boolean[2];
+
+    /**
+     * Constructor.
+     *
+     * @param description The description of the element.
+     * @param namespace The default namespace in scope of the element.
+     */
+    private Open(final Description description, final String namespace) {
+      this.description = description;
+      this.namespace = namespace;
+    }
+  }
+
+}
@@ -0,0 +1,593 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   SvgWriter.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Jul 13 10:21:55 2017
+ *
+ * @brief  Streaming serialiser for SVG and XML documents.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.XMLConstants;
+
+
+/**
+ * Serialises a DOM tree by walking it and writing UTF-8 directly to an output
+ * stream. No intermediate string of the document is built. Namespace
+ * declarations missing from the tree, e.g. for elements created with
+ * <code>createElementNS</code>, are added where they are first needed.
+ *
+ * <p>
+ * A pretty printing writer indents elements that only hold other elements. A
+ * compact writer drops whitespace between elements and namespace
+ * declarations that are redundant or whose prefix is not used by any element
+ * or attribute. Both keep whitespace in text content elements and wherever
+ * <code>xml:space</code> asks to preserve it, so that the rendered document
+ * does not change.
+ * </p>
+ *
+ * <p>
+ * Instances only hold the configuration and can be shared between threads.
+ * </p>
+ */
+public final class SvgWriter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** Elements whose whitespace content is significant. */
+  static final Set<String> TEXT_CONTENT = new HashSet<>(Arrays.asList(
+      "altGlyph", "desc", "foreignObject", "metadata", "script", "style",
+      "text", "textPath", "title", "tref", "tspan"));
+
+  private final int indent;
+  private final boolean compact;
+
+
+  /**
+   * Constructor.
+   *
+   * @param indent Number of spaces per level for pretty printing. With 0 the
+   *        document is written as is, without adding or removing whitespace.
+   */
+  public SvgWriter(final int indent) {
+    this(indent, false);
+  }
+
+
+  /**
+   * Constructor.
+   *
+   * @param indent Number of spaces per level for pretty printing. Ignored for
+   *        compact output.
+   * @param compact True if insignificant whitespace and unused namespace
+   *        declarations are dropped.
+   */
+  public SvgWriter(final int indent, final boolean compact) {
+    this.indent = compact ? 0 : Math.max(0, indent);
+    this.compact = compact;
+  }
+
+
+  /**
+   * Writes a document or element to the stream. The stream is flushed but
+   * not closed.
+   *
+   * @param node The document or element.
+   * @param stream The output stream.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  public void write(final Node node, final OutputStream stream)
+      throws IOException {
+    final Writer out = new BufferedWriter(
+        new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+        SvgWriter.BUFFER_SIZE);
+    final Context context = new Context(out);
+    if (this.compact) {
+      SvgWriter.collectPrefixes(node, context.used);
+    }
+    if (node.getNodeType() == Node.DOCUMENT_NODE) {
+      out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+      for (Node child = node.getFirstChild(); child != null;
+           child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.DOCUMENT_TYPE_NODE
+            || SvgWriter.isWhitespace(child)) {
+          continue;
+        }
+        this.writeNode(child, context, 0);
+        out.write('\n');
+      }
+    } else {
+      this.writeNode(node, context, 0);
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+
+  /**
+   * Writes a node and its subtree.
+   *
+   * @param node The node.
+   * @param context The output and namespace state.
+   * @param depth The depth of the node for indentation.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void writeNode(final Node node, final Context context,
+                         final int depth) throws IOException {
+    final Writer out = context.out;
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        this.writeElement(node, context, depth);
+        break;
+      case Node.TEXT_NODE:
+        SvgWriter.escape(out, node.getNodeValue(), false);
+        break;
+      case Node.CDATA_SECTION_NODE:
+        out.write("<![CDATA[");
+        out.write(node.getNodeValue());
+        out.write("]]>");
+        break;
+      case Node.COMMENT_NODE:
+        out.write("<!--");
+        out.write(node.getNodeValue());
+        out.write("-->");
+        break;
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        out.write("<?");
+        out.write(node.getNodeName());
+        final String data = node.getNodeValue();
+        if (data != null && !data.isEmpty()) {
+          out.write(' ');
+          out.write(data);
+        }
+        out.write("?>");
+        break;
+      case Node.ENTITY_REFERENCE_NODE:
+        for (Node child = node.getFirstChild(); child != null;
+             child = child.getNextSibling()) {
+          this.writeNode(child, context, depth);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+
+  /**
+   * Writes an element with its attributes and children.
+   *
+   * @param element The element.
+   * @param context The output and namespace state.
+   * @param depth The depth of the element for indentation.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void writeElement(final Node element, final Context context,
+                            final int depth) throws IOException {
+    final Writer out = context.out;
+    final int mark = context.mark();
+    final String name = element.getNodeName();
+    out.write('<');
+    out.write(name);
+    final NamedNodeMap attributes = element.getAttributes();
+    final int length = attributes.getLength();
+    // Namespace declarations present in the tree go first.
+    for (int i = 0; i < length; i++) {
+      final Attr attr = (Attr) attributes.item(i);
+      if (SvgWriter.isDeclaration(attr)) {
+        final String prefix = SvgWriter.declaredPrefix(attr.getName());
+        if (this.compact && (!context.used.contains(prefix)
+            || attr.getValue().equals(context.lookup(prefix)))) {
+          continue;
+        }
+        context.declare(prefix, attr.getValue());
+        SvgWriter.writeAttribute(out, attr);
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      final Attr attr = (Attr) attributes.item(i);
+      if (!SvgWriter.isDeclaration(attr)) {
+        SvgWriter.writeAttribute(out, attr);
+      }
+    }
+    // Add declarations that are missing. Nodes without local name come from
+    // namespace unaware parsing and are written as they are.
+    if (element.getLocalName() != null) {
+      this.fixNamespace(context, element.getPrefix(),
+                        element.getNamespaceURI(), true);
+      for (int i = 0; i < length; i++) {
+        final Attr attr = (Attr) attributes.item(i);
+        if (attr.getPrefix() != null && attr.getNamespaceURI() != null
+            && !SvgWriter.isDeclaration(attr)) {
+          this.fixNamespace(context, attr.getPrefix(),
+                            attr.getNamespaceURI(), false);
+        }
+      }
+    }
+    final Node first = element.getFirstChild();
+    if (first == null) {
+      out.write("/>");
+      context.reset(mark);
+      return;
+    }
+    out.write('>');
+    final boolean preserve = context.preserve;
+    final String space = ((Element) element).getAttribute("xml:space");
+    context.preserve = space.isEmpty()
+        ? preserve || SvgWriter.TEXT_CONTENT.contains(SvgWriter.localName(name))
+        : "preserve".equals(space);
+    // Whitespace in text content and preserved elements is rendered, so it
+    // is neither indented nor dropped.
+    final boolean structural = !context.preserve
+        && SvgWriter.isStructural(element);
+    final boolean pretty = this.indent > 0 && structural;
+    final boolean strip = pretty || this.compact && structural;
+    for (Node child = first; child != null; child = child.getNextSibling()) {
+      if (strip && SvgWriter.isWhitespace(child)) {
+        continue;
+      }
+      if (pretty) {
+        this.newline(out, depth + 1);
+      }
+      this.writeNode(child, context, depth + 1);
+    }
+    context.preserve = preserve;
+    if (pretty) {
+      this.newline(out, depth);
+    }
+    out.write("</");
+    out.write(name);
+    out.write('>');
+    context.reset(mark);
+  }
+
+
+  /**
+   * Collects the prefixes used by the names of elements and attributes in a
+   * subtree, the empty string for unprefixed elements.
+   *
+   * @param top The root of the subtree.
+   * @param used The set the prefixes are added to.
+   */
+  private static void collectPrefixes(final Node top, final Set<String> used) {
+    Node node = top;
+    while (node != null) {
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        used.add(SvgWriter.prefix(node.getNodeName()));
+        final NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+          final Attr attr = (Attr) attributes.item(i);
+          final String prefix = SvgWriter.prefix(attr.getName());
+          if (!prefix.isEmpty() && !SvgWriter.isDeclaration(attr)) {
+            used.add(prefix);
+          }
+        }
+      }
+      Node next = node.getFirstChild();
+      while (next == null && node != top) {
+        next = node.getNextSibling();
+        if (next == null) {
+          node = node.getParentNode();
+        }
+      }
+      node = next;
+    }
+  }
+
+
+  /**
+   * @param name A qualified name.
+   *
+   * @return The prefix of the name, the empty string if it has none.
+   */
+  private static String prefix(final String name) {
+    final int colon = name.indexOf(':');
+    return colon < 0 ? "" : name.substring(0, colon);
+  }
+
+
+  /**
+   * @param name A qualified name.
+   *
+   * @return The name without its prefix.
+   */
+  private static String localName(final String name) {
+    return name.substring(name.indexOf(':') + 1);
+  }
+
+
+  /**
+   * Writes a namespace declaration if the prefix is not yet bound to the URI.
+   *
+   * @param context The output and namespace state.
+   * @param prefix The prefix or null.
+   * @param uri The namespace URI or null.
+   * @param element True for element names, which can use the default
+   *        namespace.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void fixNamespace(final Context context, final String prefix,
+                            final String uri, final boolean element)
+      throws IOException {
+    final String pre = prefix == null ? "" : prefix;
+    final String ns = uri == null ? "" : uri;
+    if (!element && pre.isEmpty()) {
+      return;
+    }
+    if ("xml".equals(pre) || ns.equals(context.lookup(pre))) {
+      return;
+    }
+    context.declare(pre, ns);
+    final Writer out = context.out;
+    out.write(pre.isEmpty() ? " xmlns" : " xmlns:");
+    out.write(pre);
+    out.write("=\"");
+    SvgWriter.escape(out, ns, true);
+    out.write('"');
+  }
+
+
+  /**
+   * Starts a new indented line.
+   *
+   * @param out The output.
+   * @param depth The indentation level.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private void newline(final Writer out, final int depth) throws IOException {
+    out.write('\n');
+    for (int i = depth * this.indent; i > 0; i--) {
+      out.write(' ');
+    }
+  }
+
+
+  /**
+   * @param node A node.
+   *
+   * @return True if the node only contains element children and whitespace,
+   *         so that its content can be indented without changing text.
+   */
+  private static boolean isStructural(final Node node) {
+    boolean element = false;
+    for (Node child = node.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      final short type = child.getNodeType();
+      if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE
+          || type == Node.ENTITY_REFERENCE_NODE) {
+        if (!SvgWriter.isWhitespace(child)) {
+          return false;
+        }
+      } else {
+        element = true;
+      }
+    }
+    return element;
+  }
+
+
+  /**
+   * @param node A node.
+   *
+   * @return True if the node is a text node consisting only of whitespace.
+   */
+  private static boolean isWhitespace(final Node node) {
+    if (node.getNodeType() != Node.TEXT_NODE) {
+      return false;
+    }
+    final String text = node.getNodeValue();
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * @param attr An attribute.
+   *
+   * @return True if the attribute is a namespace declaration.
+   */
+  private static boolean isDeclaration(final Attr attr) {
+    final String name = attr.getName();
+    return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+      || name.equals("xmlns") || name.startsWith("xmlns:");
+  }
+
+
+  /**
+   * Writes a single attribute.
+   *
+   * @param out The output.
+   * @param attr The attribute.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  private static void writeAttribute(final Writer out, final Attr attr)
+      throws IOException {
+    out.write(' ');
+    out.write(attr.getName());
+    out.write("=\"");
+    SvgWriter.escape(out, attr.getValue(), true);
+    out.write('"');
+  }
+
+
+  /**
+   * @param name The name of a namespace declaration attribute.
+   *
+   * @return The declared prefix, the empty string for the default namespace.
+   */
+  private static String declaredPrefix(final String name) {
+    return name.length() > 6 ? name.substring(6) : "";
+  }
+
+
+  /**
+   * Writes character data with markup characters escaped.
+   *
+   * @param out The output.
+   * @param text The text to write.
+   * @param attribute True if the text is an attribute value.
+   *
+   * @throws IOException
+   *          If writing fails.
+   */
+  static void escape(final Writer out, final String text,
+                     final boolean attribute) throws IOException {
+    final int length = text.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      final String entity;
+      switch (text.charAt(i)) {
+        case '&':
+          entity = "&amp;";
+          break;
+        case '<':
+          entity = "&lt;";
+          break;
+        case '>':
+          entity = "&gt;";
+          break;
+        case '"':
+          entity = attribute ? "&quot;" : null;
+          break;
+        case '\n':
+          entity = attribute ? "&#10;" : null;
+          break;
+        case '\r':
+          entity = "&#13;";
+          break;
+        case '\t':
+          entity = attribute ? "&#9;" : null;
+          break;
+        default:
+          entity = null;
+          break;
+      }
+      if (entity != null) {
+        out.write(text, start, i - start);
+        out.write(entity);
+        start = i + 1;
+      }
+    }
+    out.write(text, start, length - start);
+  }
+
+
+  /**
+   * Output and in-scope namespace bindings of a single write.
+   */
+  private static final class Context {
+
+    private final Writer out;
+    private final Set<String> used = new HashSet<>();
+    private boolean preserve = false;
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<String> uris = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param out The output.
+     */
+    private Context(final Writer out) {
+      this.out = out;
+    }
+
+    /**
+     * @return The current depth of the binding stack.
+     */
+    private int mark() {
+      return this.prefixes.size();
+    }
+
+    /**
+     * Removes all bindings made since the mark.
+     *
+     * @param mark A previous mark.
+     */
+    private void reset(final int mark) {
+      for (int i = this.prefixes.size() - 1; i >= mark; i--) {
+        this.prefixes.remove(i);
+        this.uris.remove(i);
+      }
+    }
+
+    /**
+     * Binds a prefix.
+     *
+     * @param prefix The prefix, empty for the default namespace.
+     * @param uri The namespace URI.
+     */
+    private void declare(final String prefix, final String uri) {
+      this.prefixes.add(prefix);
+      this.uris.add(uri);
+    }
+
+    /**
+     * @param prefix A prefix.
+     *
+     * @return The URI currently bound to the prefix. The empty string if the
+     *         prefix is unbound.
+     */
+    private String lookup(final String prefix) {
+      for (int i = this.prefixes.size() - 1; i >= 0; i--) {
+        if (this.prefixes.get(i).equals(prefix)) {
+          return this.uris.get(i);
+        }
+      }
+      return "";
+    }
+  }
+
+}
@@ -28,32 +28,19 @@
 
 package com.progressiveaccess.audiotactile;
 
-import com.google.common.base.Joiner;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.svg.SVGAnimatedLength;
-import org.w3c.dom.svg.SVGDocument;
-import org.w3c.dom.svg.SVGLineElement;
-import org.w3c.dom.svg.SVGPoint;
-import org.w3c.dom.svg.SVGPointList;
-import org.w3c.dom.svg.SVGPolygonElement;
-import org.w3c.dom.svg.SVGRectElement;
-import org.w3c.dom.svg.SVGSVGElement;
-
-import java.util.ArrayList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import javax.vecmath.Point2d;
-import javax.xml.XMLConstants;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import org.w3c.dom.NamedNodeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
 
 
 /**
@@ -62,58 +49,135 @@ import org.w3c.dom.NamedNodeMap;
 
 public final class Tactile {
 
-  private static String daisyUri = "http://www.daisy.org/z3986/2005/";
-  private static String iveoUri = "http://viewplus.com/iveo";
+  static final String DAISY_URI = "http://www.daisy.org/z3986/2005/";
+  static final String IVEO_URI = "http://viewplus.com/iveo";
   private static String sreUri = "http://www.chemaccess.org/sre-schema";
   private static String svgUri = "http://www.w3.org/2000/svg";
   // Magic numbers should be parameterisable.
   private static final Double MIN_DIFF = 5.0;
   private static final Double INV_ATOM_SIZE = 10.0;
-  private static final String SRE_PREFIX = "sre:";
   private static final String TITLE_ATTR = "speech";
   private static final String DESCR_ATTR = "speech2";
-  private static final String MSG_ATTR = "msg";
-
-  private SVGDocument svg = null;
-  private Document xml = null;
-  private SVGSVGElement root = null;
+  /** An SVG length with an absolute or font relative unit. */
+  private static final Pattern LENGTH = Pattern.compile(
+      "\\s*([+-]?(?:\\d+\\.?\\d*|\\.\\d+)(?:[eE][+-]?\\d+)?)"
+      + "(?:px|pt|pc|mm|cm|in|em|ex)?\\s*");
+
+  private final TactileOptions options;
+  private final Document svg;
+  private final Document xml;
+  private final AnnotationFile file;
+  private Element root = null;
   private String uri = null;
-  private boolean useSpeechAttr = false;
-  private final List<Element> annotations = new ArrayList<>();
-  private final Map<String, String> messages = new HashMap<>();
-  private final XPath xpath = XPathFactory.newInstance().newXPath();
+  private AnnotationIndex annotations = null;
+  private Geometry geometry = null;
+  private SpatialIndex spatialIndex = null;
+  private Map<String, Element> ids = null;
+  private Map<String, String> messages = Collections.emptyMap();
+  private final StringBuilder numbers = new StringBuilder();
 
   /**
    * Constructor.
    *
-   * @param svgFile The SVG file.
-   * @param xmlFile The XML annotation file.
+   * @param svg The SVG document. It is enriched in place.
+   * @param xml The XML annotation document.
+   * @param options The conversion options.
    */
-  public Tactile(final String svgFile, final String xmlFile) {
-    try {
-      this.svg = FileHandler.loadSvg(svgFile);
-    } catch (Exception e) {
-      Logger.error("Can't load SVG file " + svgFile + "\n");
-      return;
-    }
-    try {
-      this.xml = FileHandler.loadXml(xmlFile);
-    } catch (Exception e) {
-      Logger.error("Can't load XML file " + xmlFile + "\n");
-      return;
-    }
+  public Tactile(final Document svg, final Document xml,
+                 final TactileOptions options) {
+    this.svg = svg;
+    this.xml = xml;
+    this.file = null;
+    this.options = options;
+  }
+
+  /**
+   * Constructor for streamed annotation files.
+   *
+   * @param svg The SVG document. It is enriched in place.
+   * @param file The content of the XML annotation file.
+   * @param options The conversion options.
+   */
+  public Tactile(final Document svg, final AnnotationFile file,
+                 final TactileOptions options) {
+    this.svg = svg;
+    this.xml = null;
+    this.file = file;
+    this.options = options;
+  }
+
+  /**
+   * Constructor for streaming conversions, see {@link #stream}.
+   *
+   * @param file The content of the XML annotation file.
+   * @param options The conversion options.
+   */
+  public Tactile(final AnnotationFile file, final TactileOptions options) {
+    this(null, file, options);
+  }
+
+  /**
+   * Folds the annotations into the SVG document. A Tactile object holds the
+   * state of a single conversion and should be used only once.
+   */
+  public void convert() {
+    Metrics.Timer timer = Metrics.begin();
     this.annotations();
+    timer.stop(Metrics.Stage.ANNOTATIONS);
+    timer = Metrics.begin();
     this.messages();
+    timer.stop(Metrics.Stage.MESSAGES);
+    timer = Metrics.begin();
     this.enrich();
+    timer.stop(Metrics.Stage.ENRICH);
 
     // cherden, add all missing <title> and <desc> nodes to tactile elements
+    timer = Metrics.begin();
     this.addTitlesAndDesc();
+    timer.stop(Metrics.Stage.TITLES);
 
-    // Output
-    if (Cli.hasOption("o")) {
-      this.writeSvg(Cli.getOptionValue("o"));
-    } else {
-      FileHandler.printXml(this.svg);
+    if (Metrics.isEnabled()) {
+      Metrics.size(Metrics.Size.ANNOTATIONS, this.annotations.size());
+      Metrics.size(Metrics.Size.MESSAGES, this.messages.size());
+      Metrics.size(Metrics.Size.SVG_ELEMENTS,
+                   this.svg.getElementsByTagName("*").getLength());
+    }
+  }
+
+  /**
+   * Streams an SVG document to the output, adding titles and descriptions on
+   * the way. The document is never held in memory. This covers all of
+   * {@link #convert} except the IVEO annotations, which need the entire
+   * document.
+   *
+   * @param input The SVG document. It is not closed.
+   * @param systemId The URI of the SVG document or null.
+   * @param output The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If writing fails.
+   * @throws XMLStreamException
+   *          If the SVG document can not be parsed.
+   */
+  public void stream(final InputStream input, final String systemId,
+                     final OutputStream output)
+      throws IOException, XMLStreamException {
+    Metrics.Timer timer = Metrics.begin();
+    this.annotations();
+    timer.stop(Metrics.Stage.ANNOTATIONS);
+    timer = Metrics.begin();
+    this.messages();
+    timer.stop(Metrics.Stage.MESSAGES);
+    timer = Metrics.begin();
+    final SvgStreamer streamer = new SvgStreamer(this.options.isCompact());
+    this.describe(streamer);
+    streamer.write(input, systemId, output);
+    timer.stop(Metrics.Stage.STREAM);
+
+    if (Metrics.isEnabled()) {
+      Metrics.size(Metrics.Size.ANNOTATIONS, this.annotations.size());
+      Metrics.size(Metrics.Size.MESSAGES, this.messages.size());
+      Metrics.size(Metrics.Size.SVG_ELEMENTS, streamer.getElementCount());
     }
   }
 
@@ -121,148 +185,80 @@ public final class Tactile {
    * Initialises the list of annotation elements.
    */
   public void annotations() {
-    final NodeList annotations =
-        this.xml.getElementsByTagName("sre:annotation");
-    for (Integer i = 0; i < annotations.getLength(); i++) {
-      final Element item = (Element) annotations.item(i);
-      Logger.logging(FileHandler.toString(item));
-      this.annotations.add(item);
+    this.annotations = this.xml == null ? this.file.getIndex()
+        : AnnotationIndex.fromDocument(this.xml);
+    if (Logger.isVerbose()) {
+      for (final Annotation annotation : this.annotations.getAnnotations()) {
+        Logger.logging(annotation.toString());
+      }
     }
-    //System.out.println(this.annotations.size());
   }
 
   /**
    * Initialises the mapping of messages for the given language. Default is
-   * English.
+   * English. Messages of the document take precedence over those of the
+   * shared catalog.
    */
   public void messages() {
-    NodeList messages = null;
-    boolean hasLang = Cli.hasOption("language");
-    String lang = "en";
+    final MessageCatalog document = this.xml == null ? this.file.getCatalog()
+        : MessageCatalog.fromDocument(this.xml);
+    final MessageCatalog shared = this.options.getCatalog();
+    Map<String, String> messages = null;
+    boolean hasLang = this.options.getLanguage() != null;
+    String lang = TactileOptions.DEFAULT_LANGUAGE;
     if (hasLang) {
-      lang = Cli.getOptionValue("language");
-      messages = this.getMessages(lang);
+      lang = this.options.getLanguage();
+      messages = Tactile.getMessages(lang, document, shared);
     }
-    if (messages == null || messages.getLength() == 0) {
+    if (messages == null) {
       if (hasLang) {
         Logger.error("Language " + lang + " does not exist. " +
                      "Attempting English as default." );
       }
-      messages = this.getMessages("en");
+      messages = Tactile.getMessages(TactileOptions.DEFAULT_LANGUAGE,
+                                     document, shared);
     }
-    if (messages == null || messages.getLength() == 0) {
+    if (messages == null) {
       Logger.error("No localisation found. Using attribute values directly.");
-      this.useSpeechAttr = true;
       return;
     }
-    for (Integer i = 0; i < messages.getLength(); i++) {
-      final Element item = (Element) messages.item(i);
-      Logger.logging(FileHandler.toString(item));
-      this.messages.put(getSreAttributeValue(item, MSG_ATTR), item.getTextContent());
-    }
+    final Map<String, String> result = messages;
+    Logger.logging(() -> result);
+    this.messages = result;
   }
 
   /**
-   * Retrievs the message element in the annotations.
+   * Retrieves the messages of a language.
    *
    * @param language A ISO indicator for the language.
+   * @param catalogs The catalogs in order of precedence.
    *
-   * @return The message element, if it exists. O/w null.
+   * @return The messages of the first catalog that has any for the language.
+   *         O/w null.
    */
-  private NodeList getMessages(String language) {
-    NodeList messages = null;
-    try {
-      final XPathExpression expr =
-          this.xpath.compile(// 1. Pick all message elements.
-                             "//*[local-name()='messages']/" +
-                             // 2. Get the contained language element.
-                             "*[local-name()='language'" +
-                             // 3. Check if it is the language we want.
-                             " and text()='" + language + "']/" +
-                             // 4. Then backup and take all message elements.
-                             "../*[local-name()='message']");
-      messages = (NodeList) expr.evaluate(this.xml, XPathConstants.NODESET);
-    }
-    catch (XPathExpressionException e) {
-      Logger.error("Illegal Xpath Expression " + e.getMessage());
-      return null;
+  private static Map<String, String> getMessages(
+      final String language, final MessageCatalog... catalogs) {
+    for (final MessageCatalog catalog : catalogs) {
+      final Map<String, String> messages = catalog.get(language);
+      if (messages != null && !messages.isEmpty()) {
+        return messages;
+      }
     }
-    return messages;
+    return null;
   }
 
   /**
    * Folds the XML annotations into the SVG.
    */
   public void enrich() {
-    this.root = this.svg.getRootElement();
+    this.root = this.svg.getDocumentElement();
     this.uri = this.root.getNamespaceURI();
-    this.addBaseTitles();
-    if (Cli.hasOption("iveo")) {
+    if (this.options.isIveo()) {
       this.addIveoAnnotations();
     };
     // Tactile.maxPolygon();
   }
 
-  /**
-   * Converts and writes the SVG to a file.
-   */
-  private void writeSvg(String fileName) {
-    if (!Cli.hasOption("iveo")) {
-      FileHandler.writeSvg(this.svg, fileName);
-      return;
-    }
-    this.root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
-                             "xmlns:iveo", Tactile.iveoUri);
-    this.root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
-                             "xmlns:daisy", Tactile.daisyUri);
-    FileHandler.writeSvg(this.svg, fileName);
-  }
-
-  /**
-   * Gets the title element for an annotation.
-   *
-   * @param annotation The XML element.
-   *
-   * @return The speech attribute for the title.
-   */
-  private String getTitle(Element annotation) {
-    return this.getSpeech(annotation, Tactile.TITLE_ATTR);
-  }
-
-  /**
-   * Gets the description element for an annotation.
-   *
-   * @param annotation The XML element.
-   *
-   * @return The speech attribute for the description.
-   */
-  private String getDescr(Element annotation) {
-    return this.getSpeech(annotation, Tactile.DESCR_ATTR);
-  }
-
-  /**
-   * Gets the attibute value for a speech annotation.
-   *
-   * @param annotation The XML element.
-   * @param attribute The attribute name.
-   *
-   * @return The speech attribute for the annotation element.
-   */
-  private String getSpeech(Element annotation, String attribute) {
-    String speech = annotation.getAttributeNS(sreUri, attribute);
-    return this.useSpeechAttr ? speech : this.messages.get(speech);
-  }
-
-  /**
-   * Adds titles and descriptions to the annotation elements.
-   */
-  private void addBaseTitles() {
-    for (final Element element : this.annotations) {
-      //System.out.println(this.getTitle(element));
-      //System.out.println(this.getDescr(element));
-    }
-  }
-
   // private static void addBaseTitles() {
   //   Language.reset("en");
   //   for (final RichBond bond : RichStructureHelper.getBonds()) {
@@ -727,14 +723,6 @@ public final class Tactile {
   //   point2.scale(1.0 / number);
   // }
 
-  private static Double getValue(SVGAnimatedLength length) {
-    return Double.parseDouble("" + length.getBaseVal().getValue());
-  }
-
-  private static Double getValue(Float length) {
-    return Double.parseDouble("" + length);
-  }
-
   // private static Node getTitleRoot(Element element) {
   //   return Tactile.getTitleRoot(element, "rect");
   // }
@@ -750,13 +738,11 @@ public final class Tactile {
 
 
   private void addIveoAnnotations() {
-    if (Cli.hasOption("iveo_buttons")) {
+    if (this.options.isIveoButtons()) {
       this.addIveoButtons();
     }
-    String width = this.root.getAttribute("width");
-    String height = this.root.getAttribute("height");
-    Double widthValue = Double.parseDouble(width.replaceAll("[^\\d.]", ""));
-    Double heightValue = Double.parseDouble(height.replaceAll("[^\\d.]", ""));
+    Double widthValue = this.rootLength("width", 2);
+    Double heightValue = this.rootLength("height", 3);
     Double finalWidth = widthValue;
     Double finalHeight = heightValue;
     // If true portrait mode.
@@ -776,9 +762,13 @@ public final class Tactile {
       swap = true;
     }
 
-    this.root.setAttribute("width", finalWidth.toString());
-    this.root.setAttribute("height", finalHeight.toString());
-    Element paper = svg.createElementNS(Tactile.iveoUri, "iveo:paper");
+    if (widthValue.isNaN() || heightValue.isNaN()) {
+      Logger.error("Size of the drawing unknown. IVEO page size not set.");
+    } else {
+      this.root.setAttribute("width", this.dimension(finalWidth));
+      this.root.setAttribute("height", this.dimension(finalHeight));
+    }
+    Element paper = svg.createElementNS(Tactile.IVEO_URI, "iveo:paper");
     paper.setAttribute("top-margin", "1.0 inch");
     paper.setAttribute("width", "8.5 inch");
     paper.setAttribute("right-margin", swap ? "0.5 inch" : "0.6 inch");
@@ -789,7 +779,7 @@ public final class Tactile {
     paper.setAttribute("name", "Custom paper size");
     root.appendChild(paper);
 
-    Element layers = svg.createElementNS(Tactile.daisyUri, "daisy:layers");
+    Element layers = svg.createElementNS(Tactile.DAISY_URI, "daisy:layers");
     this.addLayerItem(layers, "on", "on", "on", "off", "on", "on", "Default");
     this.addLayerItem(layers, "on", "on", "on", "off", "on", "off", "Print");
     this.addLayerItem(layers, "off", "on", "on", "off", "on", "on", "Emboss");
@@ -802,7 +792,7 @@ public final class Tactile {
   private void addLayerItem(Element layers, String print, String display,
                                    String enabledInViewer, String lock, String speak,
                                    String emboss, String name) {
-    Element layerItem = svg.createElementNS(Tactile.daisyUri, "daisy:layerItem");
+    Element layerItem = svg.createElementNS(Tactile.DAISY_URI, "daisy:layerItem");
     layerItem.setAttribute("print", print);
     layerItem.setAttribute("display", display);
     layerItem.setAttribute("enabledInViewer", enabledInViewer);
@@ -814,40 +804,61 @@ public final class Tactile {
   }
 
   private void addIveoButtons() {
-    Double width = Double.parseDouble(this.root.getAttribute("width"));
-    Double height = Double.parseDouble(this.root.getAttribute("height"));
+    Double width = this.rootLength("width", 2);
+    Double height = this.rootLength("height", 3);
+    if (width.isNaN() || height.isNaN()) {
+      Logger.error("Size of the drawing unknown. No IVEO buttons added.");
+      return;
+    }
     // Double radius = height < 0.7 * width ? 0.035 * width : 0.035 * height;
     Double radius = 0.035 * width;
     Double whiteX = .8 * width;
     Double silverX = .9 * width;
     Double buttonY = .9 * height;
-    if (Cli.hasOption("iveo_collision")) {
-      buttonY = this.avoidIveoCollision(whiteX, buttonY, radius, height);
+    if (this.options.isIveoCollision()) {
+      final double margin = radius + 10;
+      final double offset = silverX - whiteX;
+      final ControlPlacer placer = new ControlPlacer(
+          this.getSpatialIndex(), width, height);
+      final double left = whiteX - margin;
+      final double top = buttonY - margin;
+      final double[] position = placer.place(
+          offset + 2 * margin, 2 * margin, left, top);
+      if (position == null) {
+        buttonY = this.avoidIveoCollision(whiteX, buttonY, radius, height);
+      } else if (position[0] != left || position[1] != top) {
+        whiteX = position[0] + margin;
+        silverX = whiteX + offset;
+        buttonY = position[1] + margin;
+      }
     };
     // Add buttons.
     this.addCircle(whiteX, buttonY, radius, "white", "remove", "drilldown");
     this.addCircle(silverX, buttonY, radius, "silver", "restore", "restore");
   }
 
+  /**
+   * Moves the buttons below all content right of and below them, extending
+   * the page. Fallback if there is no free place on the canvas.
+   */
   private Double avoidIveoCollision(Double whiteX, Double buttonY, Double radius, Double height) {
-    this.topX = whiteX - (radius + 10);
-    this.topY = buttonY - (radius + 10);
-    this.collisionY = null;
-    this.collisionDetection();
-    if (this.collisionY  != null) {
-      Double delta = this.collisionY - this.topY;
+    final double topX = whiteX - (radius + 10);
+    final double topY = buttonY - (radius + 10);
+    final double collisionY = this.getSpatialIndex().maxY(topX, topY);
+    if (!Double.isNaN(collisionY)) {
+      Double delta = collisionY - topY;
       buttonY += delta;
       Double newHeight = height + delta;
-      this.root.setAttribute("height", newHeight.toString());
+      this.root.setAttribute("height", this.dimension(newHeight));
     }
     return buttonY;
   }
 
   private void addCircle(Double x, Double y, Double r, String fill, String name, String id) {
     Element circle = svg.createElementNS(this.uri, "circle");
-    circle.setAttribute("cx", x.toString());
-    circle.setAttribute("cy", y.toString());
-    circle.setAttribute("r", r.toString());
+    circle.setAttribute("cx", this.number(x));
+    circle.setAttribute("cy", this.number(y));
+    circle.setAttribute("r", this.number(r));
     circle.setAttribute("fill", fill);
     circle.setAttribute("id", id);
     circle.setAttribute("stroke", "rgb(0, 0, 0)");
@@ -860,102 +871,143 @@ public final class Tactile {
     this.root.appendChild(circle);
   }
 
-  // Collision detection algorithm
-  private Double topX = null;
-  private Double topY = null;
-  private Double collisionY = null;
-
-  private void updateCollision(Double x, Double y) {
-    if (x < this.topX || y < this.topY) {
-      return;
-    }
-    if (this.collisionY == null || y > this.collisionY) {
-      this.collisionY = y;
-    }
+  /**
+   * @param value A generated coordinate or length.
+   *
+   * @return The value as attribute string, rounded to the precision for
+   *         compact output.
+   */
+  private String number(final double value) {
+    this.numbers.setLength(0);
+    return this.appendNumber(this.numbers, value).toString();
   }
 
-  private void collisionDetection() {
-    //
-    // For all points from lines, rectangles, polygons
-    // Remove point if less than (left of) min x value
-    // Remove point if less than (above from) min y value
-    // Retain point with max y value
-    //
-    // If no point is found, we are good.
-    // O/w extend the height by max y - min y.
-    //
-    NodeList lines = this.svg.getElementsByTagNameNS(this.uri, "line");
-    NodeList rectangles = this.svg.getElementsByTagNameNS(this.uri, "rect");
-    NodeList polygons = this.svg.getElementsByTagNameNS(this.uri, "polygon");
-    // TODO (sorge): Integrate Paths.
-    // NodeList paths = this.svg.getElementsByTagNameNS(this.uri, "path");
-    for (Integer i = 0; i < lines.getLength(); i++) {
-      SVGLineElement line = (SVGLineElement)lines.item(i);
-      this.updateCollision(Tactile.getValue(line.getX1()),
-                              Tactile.getValue(line.getY1()));
-      this.updateCollision(Tactile.getValue(line.getX2()),
-                              Tactile.getValue(line.getY2()));
-    }
-    for (Integer i = 0; i < rectangles.getLength(); i++) {
-      SVGRectElement rectangle = (SVGRectElement)rectangles.item(i);
-      Double x = Tactile.getValue(rectangle.getX());
-      Double y = Tactile.getValue(rectangle.getY());
-      Double w = Tactile.getValue(rectangle.getWidth());
-      Double h = Tactile.getValue(rectangle.getHeight());
-      this.updateCollision(x + w, y + h);
+  /**
+   * Reads a dimension of the drawing. The number of a length is taken in the
+   * units of the drawing, whatever its unit. Percentages and missing or
+   * malformed values fall back to the view box.
+   *
+   * @param attribute The attribute of the root element.
+   * @param index The position of the dimension in the view box.
+   *
+   * @return The dimension or NaN if it is unknown.
+   */
+  private double rootLength(final String attribute, final int index) {
+    final Matcher length =
+        Tactile.LENGTH.matcher(this.root.getAttribute(attribute));
+    if (length.matches()) {
+      return Double.parseDouble(length.group(1));
     }
-    for (Integer i = 0; i < polygons.getLength(); i++) {
-      SVGPolygonElement polygon = (SVGPolygonElement)polygons.item(i);
-      SVGPointList points = polygon.getPoints();
-      for (Integer j = 0; j < points.getNumberOfItems(); j++) {
-        SVGPoint point = points.getItem(j);
-        this.updateCollision(Tactile.getValue(point.getX()),
-                                Tactile.getValue(point.getY()));
+    final String[] box =
+        this.root.getAttribute("viewBox").trim().split("[\\s,]+");
+    if (box.length == 4) {
+      try {
+        return Double.parseDouble(box[index]);
+      } catch (final NumberFormatException e) {
+        // Fall through to unknown.
       }
     }
+    return Double.NaN;
   }
 
-  private void getCoordinates (SVGLineElement line,
-                               List<Double> xs, List<Double> ys) {
-    xs.add(Tactile.getValue(line.getX1()));
-    ys.add(Tactile.getValue(line.getY1()));
-    xs.add(Tactile.getValue(line.getX2()));
-    ys.add(Tactile.getValue(line.getY2()));
+  /**
+   * @param value A generated page dimension.
+   *
+   * @return The value as attribute string, rounded up to the precision for
+   *         compact output, so that the page never shrinks below the drawing.
+   */
+  private String dimension(final double value) {
+    this.numbers.setLength(0);
+    return (this.options.isCompact()
+            ? Decimals.appendUp(this.numbers, value,
+                                this.options.getPrecision())
+            : this.numbers.append(value)).toString();
   }
 
-  private void getCoordinates(SVGRectElement rectangle,
-                              List<Double> xs, List<Double> ys) {
-    Double x = Tactile.getValue(rectangle.getX());
-    Double y = Tactile.getValue(rectangle.getY());
-    Double h = Tactile.getValue(rectangle.getHeight());
-    Double w = Tactile.getValue(rectangle.getWidth());
-    xs.add(x + w); ys.add(y + h);
-    xs.add(x + w); ys.add(y);
-    xs.add(x); ys.add(y + h);
-    xs.add(x); ys.add(y);
+  /**
+   * Appends a generated coordinate or length to a builder.
+   *
+   * @param buffer The builder.
+   * @param value The value.
+   *
+   * @return The builder.
+   */
+  private StringBuilder appendNumber(final StringBuilder buffer,
+                                     final double value) {
+    return this.options.isCompact()
+        ? Decimals.append(buffer, value, this.options.getPrecision())
+        : buffer.append(value);
+  }
+
+  /**
+   * @return The geometry of the SVG, extracted on first use.
+   */
+  private Geometry getGeometry() {
+    if (this.geometry == null) {
+      this.geometry = Geometry.extract(this.svg, this.uri);
+    }
+    return this.geometry;
   }
 
-  private void getCoordinates(SVGPolygonElement polygon,
-                                      List<Double> xs, List<Double> ys) {
-    SVGPointList points = polygon.getPoints();
-    for (Integer j = 0; j < points.getNumberOfItems(); j++) {
-      SVGPoint point = points.getItem(j);
-      Double x = Tactile.getValue(point.getX());
-      Double y = Tactile.getValue(point.getY());
-      xs.add(x); ys.add(y);
+  /**
+   * @return The spatial index over the geometry, built on first use.
+   */
+  private SpatialIndex getSpatialIndex() {
+    if (this.spatialIndex == null) {
+      this.spatialIndex = new SpatialIndex(this.getGeometry());
     }
+    return this.spatialIndex;
   }
 
-  private Element polygonFromCoordinates(List<Double> xs, List<Double> ys) {
-    List<Point2d> convexHull = GrahamScan.getConvexHull
-        (xs.toArray(new Double[xs.size()]), ys.toArray(new Double[ys.size()]));
+  /**
+   * Looks up an element of the SVG by its id. Plain DOMs do not know which
+   * attributes are ids, so the ids are indexed on first use, keeping the first
+   * element in document order for duplicates.
+   *
+   * @param id The id.
+   *
+   * @return The element or null.
+   */
+  private Element getElementById(final String id) {
+    if (this.ids == null) {
+      this.ids = new HashMap<>();
+      final Element top = this.svg.getDocumentElement();
+      Node node = top;
+      while (node != null) {
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+          final String value = ((Element) node).getAttribute("id");
+          if (!value.isEmpty()) {
+            this.ids.putIfAbsent(value, (Element) node);
+          }
+        }
+        Node next = node.getFirstChild();
+        while (next == null && node != top) {
+          next = node.getNextSibling();
+          if (next == null) {
+            node = node.getParentNode();
+          }
+        }
+        node = next;
+      }
+    }
+    return this.ids.get(id);
+  }
+
+  private Element polygonFromCoordinates(double[] xs, double[] ys) {
+    final double[] hull = GrahamScan.convexHull(xs, ys);
     Element poly = svg.createElementNS(this.uri, "polygon");
-    List<String> points = new ArrayList<>();
-    for (Point2d p : convexHull) {
-      points.add(p.x + "," + p.y);
+    final StringBuilder points = this.numbers;
+    points.setLength(0);
+    for (int i = 0; i < hull.length; i += 2) {
+      this.appendNumber(points, hull[i]).append(',');
+      this.appendNumber(points, hull[i + 1]).append(' ');
     }
-    final Joiner joiner = Joiner.on(" ");
-    poly.setAttribute("points", joiner.join(points));
+    // Close the polygon.
+    if (hull.length > 0) {
+      this.appendNumber(points, hull[0]).append(',');
+      this.appendNumber(points, hull[1]);
+    }
+    poly.setAttribute("points", points.toString());
     poly.setAttribute("opacity", "0.0");
     return poly;
   }
@@ -966,23 +1018,9 @@ public final class Tactile {
    */
   private void maxPolygon() {
     // TODO : Add additional drawn SVG elements.
-    NodeList lines = this.svg.getElementsByTagNameNS(this.uri, "line");
-    NodeList rectangles = this.svg.getElementsByTagNameNS(this.uri, "rect");
-    NodeList polygons = this.svg.getElementsByTagNameNS(this.uri, "polygon");
-    // TODO (sorge): Integrate Paths.
-    // NodeList paths = this.svg.getElementsByTagNameNS(this.uri, "path");
-    List<Double> xs = new ArrayList<>();
-    List<Double> ys = new ArrayList<>();
-    for (Integer i = 0; i < lines.getLength(); i++) {
-      this.getCoordinates((SVGLineElement) lines.item(i), xs, ys);
-    }
-    for (Integer i = 0; i < rectangles.getLength(); i++) {
-      this.getCoordinates((SVGRectElement) rectangles.item(i), xs, ys);
-    }
-    for (Integer i = 0; i < polygons.getLength(); i++) {
-      this.getCoordinates((SVGPolygonElement) polygons.item(i), xs, ys);
-    }
-    this.root.appendChild(this.polygonFromCoordinates(xs, ys));
+    final Geometry geometry = this.getGeometry();
+    this.root.appendChild(this.polygonFromCoordinates(
+        geometry.getXs(), geometry.getYs()));
   }
 
   private static Element getDirectChild( Element parent, String name) {
@@ -1005,12 +1043,11 @@ public final class Tactile {
    * functions for adding all <title/> and <desc/> elements for tactile objects.
    *
    *****************/
-  private void addTitle(SVGDocument svg, Node elem, String innertitle) {
+  private void addTitle(Document svg, String id, String innertitle) {
     if( innertitle.length() == 0 ) {
       return;
     }
-    String id = elem.getTextContent().trim();
-    Element noddy = svg.getElementById( id );
+    Element noddy = this.getElementById( id );
 
     if (noddy == null) {
       return;
@@ -1018,14 +1055,12 @@ public final class Tactile {
     addOrReplaceElement(noddy, "title", innertitle);
   }
 
-  private void addDescription(SVGDocument svg, Node elem, String innertitle) {
+  private void addDescription(Document svg, String id, String innertitle) {
     if ( innertitle.length() == 0 ) {
       return;
     }
 
-    String id = elem.getTextContent().trim();
-
-    Element noddy = svg.getElementById( id );
+    Element noddy = this.getElementById( id );
 
     if (noddy == null) {
       return;
@@ -1034,148 +1069,106 @@ public final class Tactile {
     addOrReplaceElement(noddy, "desc", innertitle);
   }
 
-  private Element findFirstChildElement( Node node ) {
-    NodeList children = node.getChildNodes();
-    for( int i = 0; i < children.getLength(); i++ ) {
-      if ( children.item(i).getNodeType() != 1 ) {
-        continue;
-      }
-      return (Element)children.item(i);
-    }
-
-    return null;
-  }
-
-  private Node findAnnotationByName( String group, String name ) {
-
-    for( int i = 0; i < this.annotations.size(); i++) {
-      Element node = this.annotations.get(i);
-      Element fairchild = getDirectChild( node, group );
-
-      if ( fairchild == null ) {
-        continue;
-      }
-
-      if (fairchild != null && fairchild.getTextContent().trim().equals(name)) {
-        return node;
-      }
-
-    }
+  /**
+   * Adds titles and descriptions to all annotated elements of the SVG
+   * document.
+   */
+  public void addTitlesAndDesc() {
+    this.describe(new Descriptions() {
+        @Override
+        public void title(final String id, final String title) {
+          Tactile.this.addTitle(Tactile.this.svg, id, title);
+        }
 
-    return null;
-  }
+        @Override
+        public void description(final String id, final String description) {
+          Tactile.this.addDescription(Tactile.this.svg, id, description);
+        }
 
-  private String getSreAttributeValue(Element element, String attribute) {
-    String attr = getSreAttribute(element, attribute);
-    return (attr != null) ? attr : "";
-  }
-  
-  private String getSreAttribute(Element element, String attribute) {
-    NamedNodeMap attrs = element.getAttributes();
-    Node attr = attrs.getNamedItem(attribute);
-    if (attr == null) {
-      attr = attrs.getNamedItem(SRE_PREFIX + attribute);
-    }
-    return (attr != null) ? attr.getNodeValue() : null;
+        @Override
+        public void root(final String title, final String description) {
+          final Element root = Tactile.this.svg.getDocumentElement();
+          Tactile.this.addOrReplaceElement(root, "title", title);
+          Tactile.this.addOrReplaceElement(root, "desc", description);
+        }
+      });
   }
 
-  private void addTitlesAndDesc() {
-    for (int i = 0; i < this.annotations.size(); i++) {
-      Element node = this.annotations.get(i);
-
-      if ( node.hasChildNodes() ) {
-        Element elem = findFirstChildElement( node );
-        String name = elem.getTextContent().trim();
-
-        String attrTitle = getSreAttribute(node, TITLE_ATTR);
-        String attrDesc = getSreAttribute(node, DESCR_ATTR);
+  /**
+   * Computes the titles and descriptions of all annotated elements.
+   * Annotations without speech borrow it from their first component and
+   * parent, which are direct links in the annotation index.
+   *
+   * @param target Receives titles and descriptions in annotation order.
+   */
+  private void describe(final Descriptions target) {
+    for (final Annotation node : this.annotations.getAnnotations()) {
+      final String name = node.getId();
 
+      if (name != null) {
         String title = "";
         String desc = "";
 
         // if no speech attribute exists go and fetch the next
         // speech from its components.
-        if (attrTitle == null) {
-          Logger.logging( name + " annotation has no sre:speech attribute" );
-
-          Node component = getDirectChild( node, "sre:component" );
-
-          if ( component != null && component.hasChildNodes() ) {
-            Logger.logging( "<sre:component/> has children" );
-
-            Node fairchild = findFirstChildElement( component );
-            String componentName = fairchild.getTextContent().trim();
-
-            Node annotation = findAnnotationByName( fairchild.getNodeName(), componentName );
-            if (annotation != null) {
-              Node localattr = annotation.getAttributes().getNamedItem( TITLE_ATTR );
-
-              if (localattr != null) {
-                title += localattr.getNodeValue();
-                Logger.logging( "found useful speech in <"
-                                + fairchild.getNodeName() + ">"
-                                + title + "</" + fairchild.getNodeName() + ">" );
-              }
+        if (node.getSpeech() == null) {
+          Logger.logging(() -> name + " annotation has no sre:speech attribute" );
+
+          final Annotation component = node.getComponent();
+          if (component != null && component.getPlainSpeech() != null) {
+            title += component.getPlainSpeech();
+            if (Logger.isVerbose()) {
+              Logger.logging( "found useful speech in <"
+                              + component.getKind() + ">"
+                              + title + "</" + component.getKind() + ">" );
             }
           }
 
-          component = getDirectChild( node, "sre:parents" );
-
-          if ( component != null && component.hasChildNodes() ) {
-            Logger.logging( "<sre:parent/> has children" );
-
-            Node lonelyparent = findFirstChildElement( component );
-            String parentName = lonelyparent.getTextContent().trim();
-
-            Node annotation = findAnnotationByName( lonelyparent.getNodeName(), parentName );
-            if (annotation != null) {
-              Node localattr = annotation.getAttributes().getNamedItem( TITLE_ATTR );
-
-              if (localattr != null) {
-                title += localattr.getNodeValue();
+          final Annotation parent = node.getParent();
+          if (parent != null) {
+            if (parent.getPlainSpeech() != null) {
+              title += parent.getPlainSpeech();
+              if (Logger.isVerbose()) {
                 Logger.logging( "found useful title in <"
-                                + lonelyparent.getNodeName()
+                                + parent.getKind()
                                 + ">" + title + "</"
-                                + lonelyparent.getNodeName() + ">" );
-              } else {
-                localattr = annotation.getAttributes().getNamedItem( "type" );
-
-                if (localattr != null) {
-                  desc += "Type " + localattr.getNodeValue();
-                  Logger.logging( "found useful desc in <"
-                                  + lonelyparent.getNodeName() + ">"
-                                  + desc + "</"
-                                  + lonelyparent.getNodeName() + ">" );
-                }
+                                + parent.getKind() + ">" );
+              }
+            } else if (parent.getType() != null) {
+              desc += "Type " + parent.getType();
+              if (Logger.isVerbose()) {
+                Logger.logging( "found useful desc in <"
+                                + parent.getKind() + ">"
+                                + desc + "</"
+                                + parent.getKind() + ">" );
               }
             }
           }
         } else {
-          title = attrTitle;
-          if (attrDesc != null) {
-            desc = attrDesc;
+          title = node.getSpeech();
+          if (node.getSpeech2() != null) {
+            desc = node.getSpeech2();
           }
 
-          Logger.logging( name + " adding annotation <title>"
-                          + title + "</title>" );
-          Logger.logging( name + " adding annotation <desc>"
-                          + desc + "</desc>" );
+          if (Logger.isVerbose()) {
+            Logger.logging( name + " adding annotation <title>"
+                            + title + "</title>" );
+            Logger.logging( name + " adding annotation <desc>"
+                            + desc + "</desc>" );
+          }
         }
 
-        addTitle(svg, elem, title);
-        addDescription(svg, elem, desc);
+        target.title(name, title);
+        target.description(name, desc);
       }
 
-      Node parent = getDirectChild( node, "sre:parents");
-      if ( parent != null && !parent.hasChildNodes() ) {
+      if (node.isRoot()) {
         Logger.logging( "found the SVG root element, adding" );
-        SVGSVGElement root = svg.getRootElement();
-        String title = getSreAttributeValue(node, TITLE_ATTR);
-        String desc = getSreAttributeValue(node, DESCR_ATTR);
-        Logger.logging( "   <title>" + title + "</title>" );
-        Logger.logging( "   <desc>" + desc + "</desc>" );
-        addOrReplaceElement(root, "title", title);
-        addOrReplaceElement(root, "desc", desc);
+        final String title = node.getSpeech() == null ? "" : node.getSpeech();
+        final String desc = node.getSpeech2() == null ? "" : node.getSpeech2();
+        Logger.logging(() -> "   <title>" + title + "</title>" );
+        Logger.logging(() -> "   <desc>" + desc + "</desc>" );
+        target.root(title, desc);
       }
     }
   }
@@ -1200,4 +1193,31 @@ public final class Tactile {
    *
    * functions for adding all <title> and <desc> elements for tactile objects
    *****************/
+
+
+  /**
+   * Receives the titles and descriptions of annotated elements.
+   */
+  interface Descriptions {
+
+    /**
+     * @param id The id of an SVG element.
+     * @param title Its title, possibly empty.
+     */
+    void title(String id, String title);
+
+    /**
+     * @param id The id of an SVG element.
+     * @param description Its description, possibly empty.
+     */
+    void description(String id, String description);
+
+    /**
+     * @param title The title of the entire diagram, possibly empty.
+     * @param description The description of the entire diagram, possibly
+     *        empty.
+     */
+    void root(String title, String description);
+  }
+
 }
@@ -0,0 +1,356 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   TactileConverter.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Jul 11 19:15:44 2017
+ *
+ * @brief  Reusable conversion engine for audio tactile SVG.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.xml.stream.XMLStreamException;
+
+
+/**
+ * Reusable and thread-safe conversion engine. A converter is configured once
+ * with immutable options and can then be used for any number of conversions,
+ * also concurrently from several threads.
+ */
+public final class TactileConverter {
+
+  private final TactileOptions options;
+
+
+  /**
+   * Constructor.
+   *
+   * @param options The options for all conversions of this converter.
+   */
+  public TactileConverter(final TactileOptions options) {
+    this.options = options;
+  }
+
+
+  /**
+   * @return The options of this converter.
+   */
+  public TactileOptions getOptions() {
+    return this.options;
+  }
+
+
+  /**
+   * Converts an SVG file with its XML annotations.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   *
+   * @return The result containing the enriched SVG.
+   *
+   * @throws IOException
+   *          If one of the input files can not be loaded.
+   */
+  public TactileResult convert(final String svgFile, final String xmlFile)
+      throws IOException {
+    final Document svg = this.loadSvg(svgFile);
+    return this.convert(svg, this.loadAnnotations(xmlFile));
+  }
+
+
+  /**
+   * Loads an SVG file into the DOM the options ask for.
+   *
+   * @param svgFile The SVG file.
+   *
+   * @return The SVG document.
+   *
+   * @throws IOException
+   *          If the file can not be loaded.
+   */
+  Document loadSvg(final String svgFile) throws IOException {
+    final Document svg;
+    final Metrics.Timer timer = Metrics.begin();
+    try {
+      svg = this.options.isSvgDom() ? FileHandler.loadSvg(svgFile)
+          : FileHandler.loadPlainSvg(svgFile);
+    } catch (Exception e) {
+      Logger.error("Can't load SVG file " + svgFile + "\n");
+      throw new IOException("Can't load SVG file " + svgFile, e);
+    }
+    timer.stop(Metrics.Stage.LOAD_SVG);
+    return svg;
+  }
+
+
+  /**
+   * Converts an SVG file with its XML annotations by streaming it to the
+   * output, without loading the SVG. Only for options that allow streaming.
+   *
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The stream to write the enriched SVG to. It is not closed.
+   *
+   * @throws IOException
+   *          If one of the input files can not be loaded or the output can
+   *          not be written.
+   */
+  public void stream(final String svgFile, final String xmlFile,
+                     final OutputStream output) throws IOException {
+    this.stream(svgFile, this.loadAnnotations(xmlFile), output);
+  }
+
+
+  /**
+   * Streams an SVG file with annotations that are already loaded to the
+   * output. Only for options that allow streaming.
+   *
+   * @param svgFile The SVG file.
+   * @param xml The content of the XML annotation file.
+   * @param output The stream to write the enriched SVG to. It is not closed.
+   *
+   * @throws IOException
+   *          If the SVG file can not be parsed or the output can not be
+   *          written.
+   */
+  void stream(final String svgFile, final AnnotationFile xml,
+              final OutputStream output) throws IOException {
+    try (InputStream svg = FileHandler.open(new File(svgFile))) {
+      this.stream(svg, new File(svgFile).toURI().toString(), xml, output);
+    }
+  }
+
+
+  /**
+   * Converts an SVG stream with its XML annotations by streaming it to the
+   * output. Only for options that allow streaming.
+   *
+   * @param svgInput The SVG stream. It is not closed.
+   * @param uri The URI of the SVG document.
+   * @param xmlInput The XML annotation stream. It is not closed.
+   * @param output The stream to write the enriched SVG to. It is not closed.
+   *
+   * @throws IOException
+   *          If one of the inputs can not be parsed or the output can not be
+   *          written.
+   */
+  public void stream(final InputStream svgInput, final String uri,
+                     final InputStream xmlInput, final OutputStream output)
+      throws IOException {
+    final AnnotationFile xml;
+    final Metrics.Timer timer = Metrics.begin();
+    try {
+      xml = FileHandler.loadAnnotations(xmlInput);
+    } catch (Exception e) {
+      throw new IOException("Can't load XML annotations for " + uri, e);
+    }
+    timer.stop(Metrics.Stage.LOAD_XML);
+    this.stream(svgInput, uri, xml, output);
+  }
+
+
+  /**
+   * Converts an SVG document held in memory with its XML annotations by
+   * streaming it to the output. Only for options that allow streaming.
+   *
+   * @param svgInput The buffer holding the SVG document. Its position is not
+   *        changed.
+   * @param uri The URI of the SVG document.
+   * @param xmlInput The buffer holding the XML annotations. Its position is
+   *        not changed.
+   * @param output The stream to write the enriched SVG to. It is not closed.
+   *
+   * @throws IOException
+   *          If one of the inputs can not be parsed or the output can not be
+   *          written.
+   */
+  public void stream(final ByteBuffer svgInput, final String uri,
+                     final ByteBuffer xmlInput, final OutputStream output)
+      throws IOException {
+    this.stream(FileHandler.stream(svgInput), uri,
+                FileHandler.stream(xmlInput), output);
+  }
+
+
+  /**
+   * Streams an SVG document with the given annotations to the output.
+   *
+   * @param svg The SVG stream. It is not closed.
+   * @param uri The URI of the SVG document.
+   * @param xml The content of the XML annotation file.
+   * @param output The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If the SVG can not be parsed or the output can not be written.
+   */
+  private void stream(final InputStream svg, final String uri,
+                      final AnnotationFile xml, final OutputStream output)
+      throws IOException {
+    try (InputStream content = FileHandler.decompress(svg)) {
+      new Tactile(xml, this.options).stream(content, uri, output);
+    } catch (final XMLStreamException e) {
+      throw new IOException("Can't stream SVG " + uri, e);
+    }
+  }
+
+
+  /**
+   * Loads an annotation file.
+   *
+   * @param xmlFile The XML annotation file.
+   *
+   * @return The content of the file.
+   *
+   * @throws IOException
+   *          If the file can not be loaded.
+   */
+  AnnotationFile loadAnnotations(final String xmlFile)
+      throws IOException {
+    final Metrics.Timer timer = Metrics.begin();
+    try {
+      final AnnotationFile xml = FileHandler.loadAnnotations(xmlFile);
+      timer.stop(Metrics.Stage.LOAD_XML);
+      return xml;
+    } catch (Exception e) {
+      Logger.error("Can't load XML file " + xmlFile + "\n");
+      throw new IOException("Can't load XML file " + xmlFile, e);
+    }
+  }
+
+
+  /**
+   * Converts an SVG stream with its XML annotations.
+   *
+   * @param svgInput The SVG stream. It is not closed.
+   * @param uri The URI of the SVG document, against which references are
+   *        resolved, or null.
+   * @param xmlInput The XML annotation stream. It is not closed.
+   *
+   * @return The result containing the enriched SVG.
+   *
+   * @throws IOException
+   *          If one of the inputs can not be parsed.
+   */
+  public TactileResult convert(final InputStream svgInput, final String uri,
+                               final InputStream xmlInput)
+      throws IOException {
+    final Document svg;
+    Metrics.Timer timer = Metrics.begin();
+    try {
+      svg = this.options.isSvgDom() ? FileHandler.loadSvg(svgInput, uri)
+          : FileHandler.loadPlainSvg(svgInput, uri);
+    } catch (Exception e) {
+      throw new IOException("Can't load SVG " + uri, e);
+    }
+    timer.stop(Metrics.Stage.LOAD_SVG);
+    final AnnotationFile xml;
+    timer = Metrics.begin();
+    try {
+      xml = FileHandler.loadAnnotations(xmlInput);
+    } catch (Exception e) {
+      throw new IOException("Can't load XML annotations for " + uri, e);
+    }
+    timer.stop(Metrics.Stage.LOAD_XML);
+    return this.convert(svg, xml);
+  }
+
+
+  /**
+   * Converts an SVG document with its XML annotations, both held in memory.
+   *
+   * @param svgInput The buffer holding the SVG document. Its position is not
+   *        changed.
+   * @param uri The URI of the SVG document, against which references are
+   *        resolved, or null.
+   * @param xmlInput The buffer holding the XML annotations. Its position is
+   *        not changed.
+   *
+   * @return The result containing the enriched SVG.
+   *
+   * @throws IOException
+   *          If one of the inputs can not be parsed.
+   */
+  public TactileResult convert(final ByteBuffer svgInput, final String uri,
+                               final ByteBuffer xmlInput)
+      throws IOException {
+    return this.convert(FileHandler.stream(svgInput), uri,
+                        FileHandler.stream(xmlInput));
+  }
+
+
+  /**
+   * Converts an SVG document with its XML annotations, both held in memory.
+   *
+   * @param svgInput The SVG document.
+   * @param uri The URI of the SVG document, against which references are
+   *        resolved, or null.
+   * @param xmlInput The XML annotations.
+   *
+   * @return The result containing the enriched SVG.
+   *
+   * @throws IOException
+   *          If one of the inputs can not be parsed.
+   */
+  public TactileResult convert(final byte[] svgInput, final String uri,
+                               final byte[] xmlInput)
+      throws IOException {
+    return this.convert(ByteBuffer.wrap(svgInput), uri,
+                        ByteBuffer.wrap(xmlInput));
+  }
+
+
+  /**
+   * Converts an SVG document with its XML annotations. The SVG document is
+   * enriched in place.
+   *
+   * @param svg The SVG document.
+   * @param xml The XML annotation document.
+   *
+   * @return The result containing the enriched SVG.
+   */
+  public TactileResult convert(final Document svg, final Document xml) {
+    new Tactile(svg, xml, this.options).convert();
+    return new TactileResult(svg, this.options);
+  }
+
+
+  /**
+   * Converts an SVG document with its streamed XML annotations. The SVG
+   * document is enriched in place.
+   *
+   * @param svg The SVG document.
+   * @param xml The content of the XML annotation file.
+   *
+   * @return The result containing the enriched SVG.
+   */
+  public TactileResult convert(final Document svg, final AnnotationFile xml) {
+    new Tactile(svg, xml, this.options).convert();
+    return new TactileResult(svg, this.options);
+  }
+
+}
@@ -0,0 +1,407 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   TactileOptions.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Jul 11 18:40:02 2017
+ *
+ * @brief  Immutable options for the audio tactile conversion.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+
+/**
+ * Immutable set of options for a conversion. Instances are created with a
+ * {@link TactileOptions.Builder} and can be shared freely between threads.
+ */
+public final class TactileOptions {
+
+  /** The default language of the localisation. */
+  public static final String DEFAULT_LANGUAGE = "en";
+
+  /** The default level of output compression. */
+  public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+  /** The default number of decimals of coordinates in compact output. */
+  public static final int DEFAULT_PRECISION = 2;
+
+  /** The largest number of decimals of coordinates in compact output. */
+  public static final int MAX_PRECISION = 9;
+
+  private final boolean iveo;
+  private final boolean iveoButtons;
+  private final boolean iveoCollision;
+  private final boolean polygons;
+  private final boolean svgDom;
+  private final boolean stream;
+  private final boolean compress;
+  private final int compressionLevel;
+  private final boolean compact;
+  private final int precision;
+  private final String language;
+  private final MessageCatalog catalog;
+
+
+  /**
+   * Constructor.
+   *
+   * @param builder The builder holding the option values.
+   */
+  private TactileOptions(final Builder builder) {
+    this.iveo = builder.iveo;
+    this.iveoButtons = builder.iveoButtons;
+    this.iveoCollision = builder.iveoCollision;
+    this.polygons = builder.polygons;
+    this.svgDom = builder.svgDom;
+    this.stream = builder.stream;
+    this.compress = builder.compress;
+    this.compressionLevel = builder.compressionLevel;
+    this.compact = builder.compact;
+    this.precision = builder.precision;
+    this.language = builder.language;
+    this.catalog = builder.catalog;
+  }
+
+
+  /**
+   * @return A new builder with default values.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+
+  /**
+   * @return A new builder initialised with the values of these options.
+   */
+  public Builder toBuilder() {
+    return new Builder()
+      .iveo(this.iveo)
+      .iveoButtons(this.iveoButtons)
+      .iveoCollision(this.iveoCollision)
+      .polygons(this.polygons)
+      .svgDom(this.svgDom)
+      .stream(this.stream)
+      .compress(this.compress)
+      .compressionLevel(this.compressionLevel)
+      .compact(this.compact)
+      .precision(this.precision)
+      .language(this.language)
+      .catalog(this.catalog);
+  }
+
+
+  /**
+   * @return True if SVG suitable for IVEO is generated.
+   */
+  public boolean isIveo() {
+    return this.iveo;
+  }
+
+
+  /**
+   * @return True if IVEO exploration buttons are added.
+   */
+  public boolean isIveoButtons() {
+    return this.iveoButtons;
+  }
+
+
+  /**
+   * @return True if IVEO buttons are moved to avoid collisions.
+   */
+  public boolean isIveoCollision() {
+    return this.iveoCollision;
+  }
+
+
+  /**
+   * @return True if polygons are used instead of bounding boxes.
+   */
+  public boolean isPolygons() {
+    return this.polygons;
+  }
+
+
+  /**
+   * @return True if SVG files are loaded into Batik's SVG DOM instead of a
+   *         plain DOM.
+   */
+  public boolean isSvgDom() {
+    return this.svgDom;
+  }
+
+
+  /**
+   * @return True if SVG files are streamed to the output instead of being
+   *         loaded. Never for IVEO output, which needs the entire document.
+   */
+  public boolean isStream() {
+    return this.stream && !this.iveo;
+  }
+
+
+  /**
+   * @return True if all output is compressed with gzip, not only output
+   *         files ending in <code>.svgz</code>.
+   */
+  public boolean isCompress() {
+    return this.compress;
+  }
+
+
+  /**
+   * @return The level of gzip compression, from 0 for none to 9 for the
+   *         smallest output.
+   */
+  public int getCompressionLevel() {
+    return this.compressionLevel;
+  }
+
+
+  /**
+   * @return True if the output is written without insignificant whitespace
+   *         and unused namespace declarations, and generated coordinates are
+   *         rounded to the precision.
+   */
+  public boolean isCompact() {
+    return this.compact;
+  }
+
+
+  /**
+   * @return The number of decimals of generated coordinates in compact
+   *         output.
+   */
+  public int getPrecision() {
+    return this.precision;
+  }
+
+
+  /**
+   * @return The requested language or null if none was given.
+   */
+  public String getLanguage() {
+    return this.language;
+  }
+
+
+  /**
+   * @return The shared message catalog used where a document has no messages
+   *         of its own.
+   */
+  public MessageCatalog getCatalog() {
+    return this.catalog;
+  }
+
+
+  @Override
+  public String toString() {
+    return "iveo=" + this.iveo + ",iveo_buttons=" + this.iveoButtons
+      + ",iveo_collision=" + this.iveoCollision + ",polygons=" + this.polygons
+      + ",svg_dom=" + this.svgDom + ",stream=" + this.isStream()
+      + ",compress=" + this.compress
+      + ",compression_level=" + this.compressionLevel
+      + ",compact=" + this.compact + ",precision=" + this.precision
+      + ",language=" + this.language
+      + ",catalog=" + this.catalog;
+  }
+
+
+  /**
+   * Builder for the immutable option set.
+   */
+  public static final class Builder {
+
+    private boolean iveo = false;
+    private boolean iveoButtons = false;
+    private boolean iveoCollision = false;
+    private boolean polygons = false;
+    private boolean svgDom = false;
+    private boolean stream = false;
+    private boolean compress = false;
+    private int compressionLevel = TactileOptions.DEFAULT_COMPRESSION_LEVEL;
+    private boolean compact = false;
+    private int precision = TactileOptions.DEFAULT_PRECISION;
+    private String language = null;
+    private MessageCatalog catalog = MessageCatalog.EMPTY;
+
+
+    /** Constructor. */
+    private Builder() {
+    }
+
+
+    /**
+     * @param value Generate SVG suitable for IVEO.
+     *
+     * @return The builder.
+     */
+    public Builder iveo(final boolean value) {
+      this.iveo = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Add IVEO exploration buttons.
+     *
+     * @return The builder.
+     */
+    public Builder iveoButtons(final boolean value) {
+      this.iveoButtons = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Move IVEO buttons by avoiding collisions.
+     *
+     * @return The builder.
+     */
+    public Builder iveoCollision(final boolean value) {
+      this.iveoCollision = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Use polygons instead of bounding boxes.
+     *
+     * @return The builder.
+     */
+    public Builder polygons(final boolean value) {
+      this.polygons = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Load SVG files into Batik's SVG DOM.
+     *
+     * @return The builder.
+     */
+    public Builder svgDom(final boolean value) {
+      this.svgDom = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Stream SVG files to the output.
+     *
+     * @return The builder.
+     */
+    public Builder stream(final boolean value) {
+      this.stream = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Compress all output with gzip.
+     *
+     * @return The builder.
+     */
+    public Builder compress(final boolean value) {
+      this.compress = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The level of gzip compression from 0 to 9.
+     *
+     * @return The builder.
+     *
+     * @throws IllegalArgumentException
+     *          If the level is out of range.
+     */
+    public Builder compressionLevel(final int value) {
+      if (value < 0 || value > 9) {
+        throw new IllegalArgumentException(
+            "Illegal compression level " + value);
+      }
+      this.compressionLevel = value;
+      return this;
+    }
+
+
+    /**
+     * @param value Write compact output.
+     *
+     * @return The builder.
+     */
+    public Builder compact(final boolean value) {
+      this.compact = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The number of decimals of generated coordinates in compact
+     *        output, from 0 to {@link TactileOptions#MAX_PRECISION}.
+     *
+     * @return The builder.
+     *
+     * @throws IllegalArgumentException
+     *          If the precision is out of range.
+     */
+    public Builder precision(final int value) {
+      if (value < 0 || value > TactileOptions.MAX_PRECISION) {
+        throw new IllegalArgumentException("Illegal precision " + value);
+      }
+      this.precision = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The language of the localisation. Null for default.
+     *
+     * @return The builder.
+     */
+    public Builder language(final String value) {
+      this.language = value;
+      return this;
+    }
+
+
+    /**
+     * @param value The shared message catalog. Null for none.
+     *
+     * @return The builder.
+     */
+    public Builder catalog(final MessageCatalog value) {
+      this.catalog = value == null ? MessageCatalog.EMPTY : value;
+      return this;
+    }
+
+
+    /**
+     * @return The immutable options.
+     */
+    public TactileOptions build() {
+      return new TactileOptions(this);
+    }
+  }
+
+}
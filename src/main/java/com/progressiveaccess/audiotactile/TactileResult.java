@@ -0,0 +1,163 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   TactileResult.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Jul 11 19:02:17 2017
+ *
+ * @brief  Result of an audio tactile conversion.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import javax.xml.XMLConstants;
+
+
+/**
+ * The enriched SVG document of a single conversion.
+ */
+public final class TactileResult {
+
+  private final Document svg;
+  private final TactileOptions options;
+
+
+  /**
+   * Constructor.
+   *
+   * @param svg The enriched SVG document.
+   * @param options The options the document was converted with.
+   */
+  public TactileResult(final Document svg, final TactileOptions options) {
+    this.svg = svg;
+    this.options = options;
+  }
+
+
+  /**
+   * @return The enriched SVG document.
+   */
+  public Document getDocument() {
+    return this.svg;
+  }
+
+
+  /**
+   * @return The options the document was converted with.
+   */
+  public TactileOptions getOptions() {
+    return this.options;
+  }
+
+
+  /**
+   * Writes the SVG to a file. It is compressed with gzip if the options ask
+   * for compressed output or the file name ends in <code>.svgz</code>.
+   *
+   * @param fileName The output file.
+   *
+   * @throws IOException
+   *          If the file can not be written.
+   */
+  public void writeSvg(final String fileName) throws IOException {
+    final boolean compress = this.options.isCompress()
+        || FileHandler.isCompressed(fileName);
+    try (OutputStream file = new FileOutputStream(fileName);
+         OutputStream output = compress
+             ? FileHandler.compress(file, this.options.getCompressionLevel())
+             : file) {
+      this.writeSvg(output);
+    }
+  }
+
+
+  /**
+   * Writes the SVG to a stream.
+   *
+   * @param output The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If the stream can not be written.
+   */
+  public void writeSvg(final OutputStream output) throws IOException {
+    this.declareNamespaces();
+    FileHandler.writeXml(this.svg, output, this.options.isCompact());
+  }
+
+
+  /**
+   * Writes the SVG to a channel.
+   *
+   * @param output The channel to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If the channel can not be written.
+   */
+  public void writeSvg(final WritableByteChannel output) throws IOException {
+    // The writer buffers, so the unbuffered channel stream is fine.
+    this.writeSvg(Channels.newOutputStream(output));
+  }
+
+
+  /**
+   * Declares the IVEO namespaces on the root element if necessary.
+   */
+  private void declareNamespaces() {
+    if (this.options.isIveo()) {
+      final Element root = this.svg.getDocumentElement();
+      root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                          "xmlns:iveo", Tactile.IVEO_URI);
+      root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                          "xmlns:daisy", Tactile.DAISY_URI);
+    }
+  }
+
+
+  /**
+   * Prints the SVG to standard output.
+   */
+  public void printSvg() {
+    FileHandler.printXml(this.svg, this.options.isCompact());
+  }
+
+
+  /**
+   * Prints the SVG to a stream standing in for standard output. As with
+   * {@link #printSvg()} the IVEO namespaces are not declared on the root.
+   *
+   * @param output The stream to write to. It is not closed.
+   *
+   * @throws IOException
+   *          If the stream can not be written.
+   */
+  public void printSvg(final OutputStream output) throws IOException {
+    FileHandler.writeXml(this.svg, output, this.options.isCompact());
+  }
+
+}
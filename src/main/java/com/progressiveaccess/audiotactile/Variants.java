@@ -0,0 +1,168 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @file   Variants.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  2 10:04:51 2017
+ *
+ * @brief  Fan out of a pair to several languages and profiles.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The combinations of languages and profiles every pair is converted to.
+ * Languages vary slowest. If no languages or no profiles are given, that
+ * dimension keeps the value of the options of the pair.
+ *
+ * <p>
+ * Output files are named after the output of the pair, with the language and
+ * the profile inserted before the extension, e.g.,
+ * <code>diagram.de.iveo_buttons.svg</code>.
+ * </p>
+ */
+final class Variants {
+
+  private final List<String> languages;
+  private final List<Profile> profiles;
+  private final Map<TactileConverter, List<TactileConverter>> converters =
+      new IdentityHashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param languages The languages, possibly empty.
+   * @param profiles The profiles, possibly empty.
+   */
+  Variants(final List<String> languages, final List<Profile> profiles) {
+    this.languages = languages;
+    this.profiles = profiles;
+  }
+
+
+  /**
+   * @return True if pairs are not fanned out.
+   */
+  boolean isEmpty() {
+    return this.languages.isEmpty() && this.profiles.isEmpty();
+  }
+
+
+  /**
+   * Adds all variants of a pair to a batch.
+   *
+   * @param batch The batch.
+   * @param svgFile The SVG file.
+   * @param xmlFile The XML annotation file.
+   * @param output The output file of the pair or null for standard output.
+   * @param converter The converter of the pair.
+   */
+  void add(final BatchConverter batch, final String svgFile,
+           final String xmlFile, final String output,
+           final TactileConverter converter) {
+    batch.add(svgFile, xmlFile, this.converters(converter),
+              this.outputs(output));
+  }
+
+
+  /**
+   * @param base The converter of a pair.
+   *
+   * @return The converters of all variants. They are created once per base
+   *         converter and shared by all pairs.
+   */
+  synchronized List<TactileConverter> converters(
+      final TactileConverter base) {
+    List<TactileConverter> result = this.converters.get(base);
+    if (result != null) {
+      return result;
+    }
+    result = new ArrayList<>();
+    for (final String language : Variants.orSelf(this.languages)) {
+      for (final Profile profile : Variants.orSelf(this.profiles)) {
+        final TactileOptions.Builder builder = base.getOptions().toBuilder();
+        if (language != null) {
+          builder.language(language);
+        }
+        if (profile != null) {
+          profile.apply(builder);
+        }
+        result.add(new TactileConverter(builder.build()));
+      }
+    }
+    result = Collections.unmodifiableList(result);
+    this.converters.put(base, result);
+    return result;
+  }
+
+
+  /**
+   * @param output The output file of a pair or null.
+   *
+   * @return The output files of all variants in the order of the
+   *         converters. All null for standard output.
+   */
+  List<String> outputs(final String output) {
+    final List<String> result = new ArrayList<>();
+    for (final String language : Variants.orSelf(this.languages)) {
+      for (final Profile profile : Variants.orSelf(this.profiles)) {
+        result.add(output == null ? null : Variants.insert(
+            output, (language == null ? "" : "." + language)
+            + (profile == null ? "" : "." + profile.getName())));
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * @param values The values of a dimension.
+   *
+   * @return The values or a single null if there are none.
+   */
+  private static <T> List<T> orSelf(final List<T> values) {
+    return values.isEmpty() ? Collections.singletonList(null) : values;
+  }
+
+
+  /**
+   * @param file A file name.
+   * @param suffix The suffix to insert.
+   *
+   * @return The file name with the suffix inserted before its extension.
+   */
+  private static String insert(final String file, final String suffix) {
+    final int dot = file.lastIndexOf('.');
+    if (dot <= file.lastIndexOf(File.separatorChar) + 1) {
+      return file + suffix;
+    }
+    return file.substring(0, dot) + suffix + file.substring(dot);
+  }
+
+}
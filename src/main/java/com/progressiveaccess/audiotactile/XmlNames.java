@@ -0,0 +1,81 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   XmlNames.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Aug 10 09:47:21 2017
+ *
+ * @brief  Qualified names of SVG and annotation nodes.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import org.w3c.dom.Node;
+
+
+/**
+ * Helpers for the qualified names seen by readers that are not namespace
+ * aware, and the prefix of speech rule engine attributes.
+ */
+final class XmlNames {
+
+  /** Prefix of speech rule engine attributes in annotation files. */
+  static final String SRE_PREFIX = "sre:";
+
+
+  /** Dummy constructor. */
+  private XmlNames() {
+    throw new AssertionError("Instantiating utility class...");
+  }
+
+
+  /**
+   * @param prefix A prefix, possibly null or empty.
+   * @param local A local name.
+   *
+   * @return The qualified name.
+   */
+  static String qualifiedName(final String prefix, final String local) {
+    return prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+  }
+
+
+  /**
+   * @param name A qualified name.
+   *
+   * @return Its local part.
+   */
+  static String localName(final String name) {
+    return name.substring(name.indexOf(':') + 1);
+  }
+
+
+  /**
+   * @param node An element.
+   *
+   * @return Its local name, also in documents parsed without namespaces.
+   */
+  static String localName(final Node node) {
+    final String local = node.getLocalName();
+    return local != null ? local : XmlNames.localName(node.getNodeName());
+  }
+
+}
@@ -0,0 +1,242 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   AnnotationReaderTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Aug  7 11:02:15 2017
+ *
+ * @brief  Tests for the streaming annotation reader.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+
+
+/**
+ * Reading annotations and messages as the DOM does, and refusing external
+ * content.
+ */
+public class AnnotationReaderTest {
+
+  private static final String SECRET = "secret-content-of-a-local-file";
+  private static final File SAMPLES = new File("samples");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Messages are collected for their language.
+   *
+   * @throws XMLStreamException If the file can not be read.
+   */
+  @Test
+  public void testMessages() throws XMLStreamException {
+    final AnnotationFile file = AnnotationReaderTest.read(
+        "<annotations><messages><language>en</language>"
+        + "<message msg=\"m\">A message</message></messages></annotations>");
+    final Map<String, String> messages = file.getCatalog().get("en");
+    assertEquals("A message", messages.get("m"));
+  }
+
+
+  /**
+   * The annotations of all sample files are read as from their DOM.
+   *
+   * @throws Exception If a sample can not be read.
+   */
+  @Test
+  public void testSamples() throws Exception {
+    final List<File> samples = new ArrayList<>();
+    AnnotationReaderTest.collect(AnnotationReaderTest.SAMPLES, samples);
+    assertFalse(samples.isEmpty());
+    for (final File sample : samples) {
+      final AnnotationFile file =
+          FileHandler.loadAnnotations(sample.getPath());
+      final Document xml = FileHandler.loadXml(sample.getPath());
+      AnnotationReaderTest.compare(sample.getPath(),
+                                   AnnotationIndex.fromDocument(xml),
+                                   file.getIndex());
+      assertArrayEquals(sample.getPath(),
+                        MessageCatalog.fromDocument(xml).digest(),
+                        file.getCatalog().digest());
+    }
+  }
+
+
+  /**
+   * Messages of several languages, also nested in annotations, are read as
+   * from the DOM.
+   *
+   * @throws Exception If the content can not be read.
+   */
+  @Test
+  public void testCatalog() throws Exception {
+    final String xml = "<annotations xmlns:sre='urn:sre'>"
+        + "<messages><language>en</language>"
+        + "<message msg='a'> One </message><message msg='b'>Two</message>"
+        + "</messages><sre:annotation speech='a'><sre:active>x</sre:active>"
+        + "<messages><language>de</language><message msg='a'>Eins</message>"
+        + "</messages></sre:annotation></annotations>";
+    final Document document = FileHandler.loadXml(
+        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    final AnnotationFile file = AnnotationReaderTest.read(xml);
+    assertArrayEquals(MessageCatalog.fromDocument(document).digest(),
+                      file.getCatalog().digest());
+    AnnotationReaderTest.compare(xml, AnnotationIndex.fromDocument(document),
+                                 file.getIndex());
+  }
+
+
+  /**
+   * An external entity in a message must not pull a local file into the
+   * catalog.
+   *
+   * @throws IOException If the local file can not be written.
+   */
+  @Test
+  public void testExternalEntity() throws IOException {
+    final File secret = this.folder.newFile("secret.txt");
+    Files.write(secret.toPath(), SECRET.getBytes(StandardCharsets.UTF_8));
+    final String xml = "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE annotations [<!ENTITY e SYSTEM \"" + secret.toURI()
+        + "\">]>\n<annotations><messages><language>en</language>"
+        + "<message msg=\"m\">&e;</message></messages></annotations>";
+    final AnnotationFile file;
+    try {
+      file = AnnotationReaderTest.read(xml);
+    } catch (final XMLStreamException e) {
+      // Refusing the document is fine.
+      return;
+    }
+    final Map<String, String> messages = file.getCatalog().get("en");
+    assertFalse(messages != null && messages.get("m") != null
+                && messages.get("m").contains(SECRET));
+  }
+
+
+  /**
+   * Compares two annotation indexes, including the links between their
+   * annotations.
+   *
+   * @param message The message on failure.
+   * @param expected The index read from the DOM.
+   * @param actual The index read from the stream.
+   */
+  private static void compare(final String message,
+                              final AnnotationIndex expected,
+                              final AnnotationIndex actual) {
+    assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(message,
+                   AnnotationReaderTest.describe(
+                       expected.getAnnotations().get(i)),
+                   AnnotationReaderTest.describe(
+                       actual.getAnnotations().get(i)));
+    }
+  }
+
+
+  /**
+   * @param annotation An annotation.
+   *
+   * @return The content of the annotation, with links given by position.
+   */
+  private static String describe(final Annotation annotation) {
+    final StringBuilder result = new StringBuilder(annotation.toString());
+    result.append(" plain=").append(annotation.getPlainSpeech())
+      .append(" type=").append(annotation.getType())
+      .append(" keys=").append(annotation.getKeys())
+      .append(" links=")
+      .append(AnnotationReaderTest.position(annotation.getComponent()))
+      .append(',')
+      .append(AnnotationReaderTest.position(annotation.getParent()));
+    for (final Annotation neighbour : annotation.getNeighbours()) {
+      result.append(',').append(AnnotationReaderTest.position(neighbour));
+    }
+    return result.toString();
+  }
+
+
+  /**
+   * @param annotation An annotation or null.
+   *
+   * @return The position of the annotation or -1 for null.
+   */
+  private static int position(final Annotation annotation) {
+    return annotation == null ? -1 : annotation.getPosition();
+  }
+
+
+  /**
+   * Collects the annotation files below a directory.
+   *
+   * @param directory The directory.
+   * @param samples The list to add the files to.
+   */
+  private static void collect(final File directory,
+                              final List<File> samples) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File file : files) {
+      if (file.isDirectory()) {
+        AnnotationReaderTest.collect(file, samples);
+      } else if (file.getName().endsWith(".xml")) {
+        samples.add(file);
+      }
+    }
+  }
+
+
+  /**
+   * @param xml The content of an annotation file.
+   *
+   * @return The annotations and messages.
+   *
+   * @throws XMLStreamException If the content can not be read.
+   */
+  private static AnnotationFile read(final String xml)
+      throws XMLStreamException {
+    return AnnotationReader.read(
+        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+  }
+
+}
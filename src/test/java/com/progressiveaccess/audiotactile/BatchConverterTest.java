@@ -0,0 +1,112 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   BatchConverterTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Aug  7 15:48:03 2017
+ *
+ * @brief  Tests for batch conversions.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Batches of pairs converted concurrently.
+ */
+public class BatchConverterTest {
+
+  private static final int PAIRS = 16;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Pairs written to the same output file do not corrupt it and the last
+   * one wins.
+   *
+   * @throws Exception If a file can not be written.
+   */
+  @Test
+  public void testSameOutput() throws Exception {
+    final File output = new File(this.folder.getRoot(), "out.svg");
+    final BatchConverter batch = new BatchConverter(
+        new TactileConverter(TactileOptions.builder().build()), 4);
+    for (int i = 0; i < PAIRS; i++) {
+      batch.add(this.svg(i), this.xml(i), output.getPath());
+    }
+    assertEquals(0, batch.run());
+    final String content = new String(
+        Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+    assertTrue(content, content.contains("id=\"r" + (PAIRS - 1) + "\""));
+    assertEquals(content.indexOf("<svg"), content.lastIndexOf("<svg"));
+  }
+
+
+  /**
+   * @param i The number of a pair.
+   *
+   * @return The SVG file of the pair, with a large body.
+   *
+   * @throws IOException If the file can not be written.
+   */
+  private String svg(final int i) throws IOException {
+    final StringBuilder svg = new StringBuilder(
+        "<svg xmlns=\"http://www.w3.org/2000/svg\">");
+    for (int j = 0; j < 2000; j++) {
+      svg.append("<rect id=\"r").append(i).append('_').append(j)
+        .append("\"/>");
+    }
+    svg.append("<rect id=\"r").append(i).append("\"/></svg>\n");
+    final File file = this.folder.newFile("pair" + i + ".svg");
+    Files.write(file.toPath(), svg.toString().getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+
+
+  /**
+   * @param i The number of a pair.
+   *
+   * @return The annotation file of the pair.
+   *
+   * @throws IOException If the file can not be written.
+   */
+  private String xml(final int i) throws IOException {
+    final File file = this.folder.newFile("pair" + i + ".xml");
+    Files.write(file.toPath(),
+                "<annotations/>\n".getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+
+}
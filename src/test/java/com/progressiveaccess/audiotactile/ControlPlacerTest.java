@@ -0,0 +1,137 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   ControlPlacerTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 17:02:44 2017
+ *
+ * @brief  Tests for the placement of interactive controls.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Controls go to free places close to the preferred one and never overlap
+ * the diagram or each other.
+ */
+public class ControlPlacerTest {
+
+  private static final String SVG_URI = "http://www.w3.org/2000/svg";
+
+
+  /**
+   * A free preferred position is taken as is, even beyond the canvas.
+   */
+  @Test
+  public void testPreferred() throws Exception {
+    final ControlPlacer placer = ControlPlacerTest.placer(
+        "<rect x='50' y='50' width='10' height='10'/>", 100, 100);
+    assertArrayEquals(new double[] {0, 0}, placer.place(10, 10, 0, 0), 0);
+    assertArrayEquals(new double[] {95, 95}, placer.place(10, 10, 95, 95), 0);
+  }
+
+
+  /**
+   * An occupied preferred position moves to the nearest free grid cell.
+   */
+  @Test
+  public void testMoved() throws Exception {
+    final ControlPlacer placer = ControlPlacerTest.placer(
+        "<line x1='0' y1='5' x2='12' y2='5'/>", 100, 100);
+    final double[] position = placer.place(10, 10, 0, 0);
+    assertArrayEquals(new double[] {0, 10}, position, 0);
+    assertFalse(placer.isFree(0, 10, 10, 20));
+  }
+
+
+  /**
+   * Later controls avoid earlier ones.
+   */
+  @Test
+  public void testReserved() throws Exception {
+    final ControlPlacer placer = ControlPlacerTest.placer("", 100, 100);
+    final double[] first = placer.place(10, 10, 20, 20);
+    final double[] second = placer.place(10, 10, 20, 20);
+    assertArrayEquals(new double[] {20, 20}, first, 0);
+    assertNotNull(second);
+    assertTrue(Math.abs(second[0] - 20) >= 10
+               || Math.abs(second[1] - 20) >= 10);
+  }
+
+
+  /**
+   * Every placed control is free of the diagram, and a full canvas has no
+   * room.
+   */
+  @Test
+  public void testFull() throws Exception {
+    final StringBuilder grid = new StringBuilder();
+    for (int i = 0; i <= 100; i += 8) {
+      grid.append("<line x1='").append(i).append("' y1='0' x2='").append(i)
+          .append("' y2='100'/>");
+    }
+    final ControlPlacer placer = ControlPlacerTest.placer(
+        grid.toString(), 100, 100);
+    for (int i = 0; i < 12; i++) {
+      final double[] position = placer.place(5, 20, 50, 50);
+      assertNotNull(position);
+      final double x = position[0];
+      assertTrue(x % 8 > 0 && x % 8 + 5 < 8);
+    }
+    assertNull(placer.place(10, 10, 50, 50));
+    assertNull(placer.place(200, 10, 0, 0));
+  }
+
+
+  /**
+   * @param content SVG elements.
+   * @param width The width of the canvas.
+   * @param height The height of the canvas.
+   *
+   * @return A placer on a document holding the elements.
+   */
+  private static ControlPlacer placer(final String content,
+                                      final double width,
+                                      final double height)
+      throws Exception {
+    final String svg = "<svg xmlns='" + ControlPlacerTest.SVG_URI + "'>"
+        + content + "</svg>";
+    final Document document = FileHandler.loadPlainSvg(
+        new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)), null);
+    return new ControlPlacer(
+        new SpatialIndex(Geometry.extract(document, ControlPlacerTest.SVG_URI)),
+        width, height);
+  }
+
+}
@@ -0,0 +1,314 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   ConversionServerTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Aug  7 10:18:42 2017
+ *
+ * @brief  Tests for the conversion service.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Requests against a server on an ephemeral loopback port.
+ */
+public class ConversionServerTest {
+
+  private static final String SECRET = "secret-content-of-a-local-file";
+  private static final String BOUNDARY = "----AudioTactileTestBoundary";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private ConversionServer server = null;
+
+
+  /**
+   * Stops the server of a test.
+   */
+  @After
+  public void tearDown() {
+    if (this.server != null) {
+      this.server.stop(0);
+    }
+  }
+
+
+  /**
+   * External entities in a posted SVG must not disclose local files.
+   *
+   * @throws IOException If a request fails.
+   */
+  @Test
+  public void testSvgEntityPlainDom() throws IOException {
+    this.start(TactileOptions.builder().build());
+    final Response response = this.post(this.entitySvg(), this.plainXml());
+    assertFalse(response.body, response.body.contains(SECRET));
+  }
+
+
+  /**
+   * External entities in a posted SVG must not disclose local files when
+   * loading into Batik's SVG DOM.
+   *
+   * @throws IOException If a request fails.
+   */
+  @Test
+  public void testSvgEntitySvgDom() throws IOException {
+    this.start(TactileOptions.builder().svgDom(true).build());
+    final Response response = this.post(this.entitySvg(), this.plainXml());
+    assertFalse(response.body, response.body.contains(SECRET));
+  }
+
+
+  /**
+   * A relative reference to an external DTD must not be resolved against a
+   * directory of the server.
+   *
+   * @throws IOException If a request fails.
+   */
+  @Test
+  public void testRelativeDtd() throws IOException {
+    this.start(TactileOptions.builder().build());
+    final File dtd = this.folder.newFile("entities.dtd");
+    Files.write(dtd.toPath(), ("<!ENTITY e \"" + SECRET + "\">")
+                .getBytes(StandardCharsets.UTF_8));
+    final String svg = "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE svg SYSTEM \"" + dtd.getName() + "\">\n"
+        + "<svg xmlns=\"http://www.w3.org/2000/svg\">"
+        + "<title>&e;</title></svg>\n";
+    final Response response = this.post(svg, this.plainXml());
+    assertFalse(response.body, response.body.contains(SECRET));
+  }
+
+
+  /**
+   * Internal entities are still expanded.
+   *
+   * @throws IOException If a request fails.
+   */
+  @Test
+  public void testInternalEntity() throws IOException {
+    this.start(TactileOptions.builder().build());
+    final String svg = "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE svg [<!ENTITY ns \"http://www.w3.org/2000/svg\">]>\n"
+        + "<svg xmlns=\"&ns;\"><rect id=\"r\"/></svg>\n";
+    final Response response = this.post(svg, this.plainXml());
+    assertTrue(response.body, response.status == 200);
+    assertTrue(response.body,
+               response.body.contains("http://www.w3.org/2000/svg"));
+  }
+
+
+  /**
+   * A server started with compression only encodes responses for clients
+   * that accept it or requests that ask for it.
+   *
+   * @throws IOException If a request fails.
+   */
+  @Test
+  public void testEncoding() throws IOException {
+    this.start(TactileOptions.builder().compress(true).build());
+    final String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\"/>";
+    Response response = this.post("/convert", svg, this.plainXml());
+    assertEquals(200, response.status);
+    assertNull(response.encoding);
+    assertTrue(response.body, response.body.contains("<svg"));
+    response = this.post("/convert?compress", svg, this.plainXml());
+    assertEquals(200, response.status);
+    assertEquals("gzip", response.encoding);
+  }
+
+
+  /**
+   * Starts a server.
+   *
+   * @param options The options of the server.
+   *
+   * @throws IOException If the server can not be bound.
+   */
+  private void start(final TactileOptions options) throws IOException {
+    this.server = new ConversionServer(
+        options, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        1, 1);
+    this.server.start();
+  }
+
+
+  /**
+   * @return An SVG document with an external entity for a local file.
+   *
+   * @throws IOException If the local file can not be written.
+   */
+  private String entitySvg() throws IOException {
+    final File secret = this.folder.newFile("secret.txt");
+    Files.write(secret.toPath(), SECRET.getBytes(StandardCharsets.UTF_8));
+    return "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE svg [<!ENTITY e SYSTEM \""
+        + secret.toURI() + "\">]>\n"
+        + "<svg xmlns=\"http://www.w3.org/2000/svg\">"
+        + "<title>&e;</title><desc>&e;</desc><rect id=\"r\"/></svg>\n";
+  }
+
+
+  /**
+   * @return An annotation file without annotations.
+   */
+  private String plainXml() {
+    return "<?xml version=\"1.0\"?>\n<annotations/>\n";
+  }
+
+
+  /**
+   * Posts a conversion request.
+   *
+   * @param svg The SVG part.
+   * @param xml The XML part.
+   *
+   * @return The response.
+   *
+   * @throws IOException If the request fails.
+   */
+  private Response post(final String svg, final String xml)
+      throws IOException {
+    return this.post("/convert", svg, xml);
+  }
+
+
+  /**
+   * Posts a conversion request.
+   *
+   * @param path The path and query of the request.
+   * @param svg The SVG part.
+   * @param xml The XML part.
+   *
+   * @return The response.
+   *
+   * @throws IOException If the request fails.
+   */
+  private Response post(final String path, final String svg,
+                        final String xml) throws IOException {
+    final URL url = new URL("http", "localhost",
+                            this.server.getAddress().getPort(), path);
+    final HttpURLConnection connection =
+        (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty(
+        "Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+    final String body = ConversionServerTest.part("svg", svg)
+        + ConversionServerTest.part("xml", xml) + "--" + BOUNDARY + "--\r\n";
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    final int status = connection.getResponseCode();
+    try (InputStream in = status < 400 ? connection.getInputStream()
+         : connection.getErrorStream()) {
+      return new Response(status, connection.getContentEncoding(),
+                          ConversionServerTest.read(in));
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+
+  /**
+   * @param name The name of a part.
+   * @param content The content of the part.
+   *
+   * @return The part of a multipart body.
+   */
+  private static String part(final String name, final String content) {
+    return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\""
+        + name + "\"; filename=\"" + name + "\"\r\n\r\n" + content + "\r\n";
+  }
+
+
+  /**
+   * @param input A stream or null.
+   *
+   * @return The content of the stream as UTF-8.
+   *
+   * @throws IOException If the stream can not be read.
+   */
+  private static String read(final InputStream input) throws IOException {
+    if (input == null) {
+      return "";
+    }
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int count;
+    while ((count = input.read(buffer)) >= 0) {
+      output.write(buffer, 0, count);
+    }
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+
+  /**
+   * Status and body of a response.
+   */
+  private static final class Response {
+
+    private final int status;
+    private final String encoding;
+    private final String body;
+
+    /**
+     * Constructor.
+     *
+     * @param status The status code.
+     * @param encoding The content encoding or null.
+     * @param body The body, as it was sent.
+     */
+    private Response(final int status, final String encoding,
+                     final String body) {
+      this.status = status;
+      this.encoding = encoding;
+      this.body = body;
+    }
+  }
+
+}
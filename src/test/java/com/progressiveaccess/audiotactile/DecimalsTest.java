@@ -0,0 +1,140 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   DecimalsTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 09:21:15 2017
+ *
+ * @brief  Tests for fixed precision formatting.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+
+/**
+ * Rounding, digits and the fallback of {@link Decimals}.
+ */
+public class DecimalsTest {
+
+  /**
+   * Digits of the fraction, trailing zeros and the decimal point.
+   */
+  @Test
+  public void testDigits() {
+    assertEquals("1.5", DecimalsTest.format(1.5, 3));
+    assertEquals("0.05", DecimalsTest.format(0.05, 2));
+    assertEquals("0.001", DecimalsTest.format(0.00123, 3));
+    assertEquals("12", DecimalsTest.format(12.0001, 3));
+    assertEquals("-3.25", DecimalsTest.format(-3.25, 2));
+    assertEquals("190", DecimalsTest.format(190.00205, 2));
+    assertEquals("7", DecimalsTest.format(6.5, 0));
+    assertEquals("1.38", DecimalsTest.format(1.375, 2));
+  }
+
+
+  /**
+   * Values rounding to zero, of either sign, are written as zero.
+   */
+  @Test
+  public void testZero() {
+    assertEquals("0", DecimalsTest.format(0.0, 2));
+    assertEquals("0", DecimalsTest.format(-0.0, 2));
+    assertEquals("0", DecimalsTest.format(-0.004, 2));
+    assertEquals("0", DecimalsTest.format(0.4, 0));
+  }
+
+
+  /**
+   * Values out of range fall back to the shortest representation.
+   */
+  @Test
+  public void testFallback() {
+    assertEquals("NaN", DecimalsTest.format(Double.NaN, 2));
+    assertEquals("Infinity", DecimalsTest.format(Double.POSITIVE_INFINITY, 2));
+    assertEquals("1.0E20", DecimalsTest.format(1e20, 2));
+    assertEquals("123456789012.35", DecimalsTest.format(123456789012.345, 2));
+  }
+
+
+  /**
+   * Page dimensions are rounded up, unless they are exact at the precision.
+   */
+  @Test
+  public void testUp() {
+    assertEquals("190.01", DecimalsTest.formatUp(190.00205, 2));
+    assertEquals("191", DecimalsTest.formatUp(190.00205, 0));
+    assertEquals("190.1", DecimalsTest.formatUp(190.1, 2));
+    assertEquals("190.1", DecimalsTest.formatUp(190.1, 1));
+    assertEquals("0.4", DecimalsTest.formatUp(0.1 + 0.2, 1));
+    assertEquals("0.01", DecimalsTest.formatUp(0.001, 2));
+    assertEquals("-0.01", DecimalsTest.formatUp(-0.001, 2));
+    assertEquals("0", DecimalsTest.formatUp(0.0, 2));
+  }
+
+
+  /**
+   * Random values parse back within half a unit, or within a unit and never
+   * smaller when rounding up.
+   */
+  @Test
+  public void testRandom() {
+    final Random random = new Random(23);
+    for (int i = 0; i < 100000; i++) {
+      final double value = (random.nextDouble() - 0.5)
+          * Math.pow(10, random.nextInt(12));
+      final int precision = random.nextInt(TactileOptions.MAX_PRECISION + 1);
+      final double unit = Math.pow(10, -precision);
+      final String nearest = DecimalsTest.format(value, precision);
+      assertTrue(nearest, Math.abs(Double.parseDouble(nearest) - value)
+                 <= unit / 2 + Math.ulp(value));
+      final String up = DecimalsTest.formatUp(value, precision);
+      final double written = Double.parseDouble(up);
+      assertTrue(value + " " + up, Math.abs(written) >= Math.abs(value));
+      assertTrue(value + " " + up,
+                 Math.abs(written - value) < unit + Math.ulp(value));
+    }
+  }
+
+
+  /**
+   * @return The number formatted to the nearest value.
+   */
+  private static String format(final double value, final int precision) {
+    return Decimals.append(new StringBuilder(), value, precision).toString();
+  }
+
+
+  /**
+   * @return The number formatted away from zero.
+   */
+  private static String formatUp(final double value, final int precision) {
+    return Decimals.appendUp(new StringBuilder(), value, precision)
+        .toString();
+  }
+
+}
@@ -0,0 +1,172 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   FileHandlerTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Aug  7 14:21:37 2017
+ *
+ * @brief  Tests for opening files and loading compressed and limited input.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+
+/**
+ * Opening of files, decompression of input and limits of its size.
+ */
+public class FileHandlerTest {
+
+  private static final String SVG =
+      "<svg xmlns=\"http://www.w3.org/2000/svg\"><rect id=\"r\"/></svg>";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Compressed input is inflated.
+   *
+   * @throws Exception If the input can not be loaded.
+   */
+  @Test
+  public void testCompressed() throws Exception {
+    final Document svg = FileHandler.loadPlainSvg(
+        new ByteArrayInputStream(FileHandlerTest.gzip(SVG)), null);
+    assertEquals("svg", svg.getDocumentElement().getLocalName());
+  }
+
+
+  /**
+   * The limit of a stream applies to the inflated content.
+   *
+   * @throws Exception If the input can not be loaded.
+   */
+  @Test(expected = FileHandler.ContentTooLargeException.class)
+  public void testLimitInflated() throws Exception {
+    final StringBuilder content = new StringBuilder("<svg>");
+    for (int i = 0; i < 10000; i++) {
+      content.append("<g/>");
+    }
+    final byte[] compressed =
+        FileHandlerTest.gzip(content.append("</svg>").toString());
+    final InputStream input = FileHandler.limit(
+        new ByteArrayInputStream(compressed), 4 * compressed.length);
+    FileHandler.loadPlainSvg(input, null);
+  }
+
+
+  /**
+   * Content within the limit is loaded.
+   *
+   * @throws Exception If the input can not be loaded.
+   */
+  @Test
+  public void testWithinLimit() throws Exception {
+    final InputStream input = FileHandler.limit(
+        new ByteArrayInputStream(FileHandlerTest.gzip(SVG)), 1024);
+    final Document svg = FileHandler.loadPlainSvg(input, null);
+    assertEquals("svg", svg.getDocumentElement().getLocalName());
+  }
+
+
+  /**
+   * Large files are read completely on opening, so that the file is not held
+   * and can be changed while the stream is in use.
+   *
+   * @throws Exception If the file can not be read.
+   */
+  @Test
+  public void testOpenLarge() throws Exception {
+    final File file = this.folder.newFile("large.svg");
+    final byte[] content = new byte[(int) FileHandler.READ_THRESHOLD + 17];
+    Arrays.fill(content, (byte) 'a');
+    content[content.length - 1] = 'z';
+    Files.write(file.toPath(), content);
+    try (InputStream input = FileHandler.open(file)) {
+      Files.write(file.toPath(), new byte[] {'b'});
+      final ByteArrayOutputStream read = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[4096];
+      for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+        read.write(buffer, 0, n);
+      }
+      assertArrayEquals(content, read.toByteArray());
+    }
+  }
+
+
+  /**
+   * Documents and elements are serialised like written SVG files, the
+   * elements without XML declaration.
+   *
+   * @throws Exception If the input can not be loaded.
+   */
+  @Test
+  public void testToString() throws Exception {
+    final String content = "<svg xmlns=\"http://www.w3.org/2000/svg\">"
+        + "<g><rect id=\"r\"/></g></svg>";
+    final Document svg = FileHandler.loadPlainSvg(new ByteArrayInputStream(
+        content.getBytes(StandardCharsets.UTF_8)), null);
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    FileHandler.writeXml(svg, written);
+    assertEquals(new String(written.toByteArray(), StandardCharsets.UTF_8),
+                 FileHandler.toString(svg));
+    assertEquals("<g xmlns=\"http://www.w3.org/2000/svg\">\n"
+                 + "  <rect id=\"r\"/>\n</g>\n",
+                 FileHandler.toString(
+                     (Element) svg.getDocumentElement().getFirstChild()));
+  }
+
+
+  /**
+   * @param content A string.
+   *
+   * @return The string compressed with gzip.
+   *
+   * @throws IOException Never.
+   */
+  private static byte[] gzip(final String content) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (OutputStream compressed = FileHandler.compress(output, 6)) {
+      compressed.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return output.toByteArray();
+  }
+
+}
@@ -0,0 +1,245 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   FolderWatcherTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Thu Aug 10 11:05:12 2017
+ *
+ * @brief  Tests for the folder watcher.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Only outdated pairs are converted, and a burst of changes results in a
+ * single conversion.
+ */
+public class FolderWatcherTest {
+
+  private static final String SVG = "<svg xmlns='http://www.w3.org/2000/svg'"
+      + " width='10' height='10'><rect id='r' width='1' height='1'/></svg>";
+  private static final String XML = "<annotations/>";
+  private static final long TIMEOUT = 10000;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private FolderWatcher watcher = null;
+  private Thread thread = null;
+
+
+  /**
+   * Stops the watcher of a test.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  @After
+  public void stop() throws InterruptedException {
+    if (this.watcher != null) {
+      this.watcher.stop(1);
+      this.thread.join(TIMEOUT);
+    }
+  }
+
+
+  /**
+   * On start only pairs with a missing or older output are converted.
+   *
+   * @throws Exception If the files can not be written.
+   */
+  @Test
+  public void testOutdated() throws Exception {
+    final File input = this.folder.newFolder("input");
+    final File output = this.folder.newFolder("output");
+    final long now = System.currentTimeMillis();
+    FolderWatcherTest.pair(new File(input, "missing"), "a", now - 20000);
+    FolderWatcherTest.pair(new File(input, "old"), "b", now - 20000);
+    FolderWatcherTest.pair(new File(input, "current"), "c", now - 20000);
+    final File old = FolderWatcherTest.write(
+        new File(output, "old/b.svg"), "old", now - 30000);
+    final File current = FolderWatcherTest.write(
+        new File(output, "current/c.svg"), "current", now - 10000);
+    this.start(input, output, 0);
+    this.await(2);
+    FolderWatcherTest.await(old, "old");
+    FolderWatcherTest.await(new File(output, "missing/a.svg"), "");
+    Thread.sleep(200);
+    assertEquals(2, this.watcher.getConversions());
+    assertEquals("current", FolderWatcherTest.read(current));
+  }
+
+
+  /**
+   * Changes within the debounce delay are converted once.
+   *
+   * @throws Exception If the files can not be written.
+   */
+  @Test
+  public void testDebounce() throws Exception {
+    final File input = this.folder.newFolder("input");
+    final File output = this.folder.newFolder("output");
+    final File svg = FolderWatcherTest.pair(
+        input, "a", System.currentTimeMillis() - 20000);
+    this.start(input, output, 500);
+    this.await(1);
+    for (int i = 0; i < 5; i++) {
+      FolderWatcherTest.write(svg, SVG, System.currentTimeMillis() + 20000);
+      Thread.sleep(50);
+    }
+    Thread.sleep(200);
+    assertEquals(1, this.watcher.getConversions());
+    this.await(2);
+    Thread.sleep(1000);
+    assertEquals(2, this.watcher.getConversions());
+  }
+
+
+  /**
+   * Starts watching a directory.
+   *
+   * @param input The directory to watch.
+   * @param output The output directory.
+   * @param debounce The debounce delay.
+   *
+   * @throws IOException If the directory can not be watched.
+   */
+  private void start(final File input, final File output,
+                     final long debounce) throws IOException {
+    this.watcher = new FolderWatcher(new TactileConverter(
+        TactileOptions.builder().build()), input.toPath(), output, 2,
+                                     debounce);
+    this.thread = new Thread(() -> {
+        try {
+          this.watcher.run();
+        } catch (final IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    this.thread.start();
+  }
+
+
+  /**
+   * Waits for a number of conversions to have started.
+   *
+   * @param count The number of conversions.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private void await(final int count) throws InterruptedException {
+    final long end = System.currentTimeMillis() + TIMEOUT;
+    while (this.watcher.getConversions() < count
+           && System.currentTimeMillis() < end) {
+      Thread.sleep(20);
+    }
+    assertEquals(count, this.watcher.getConversions());
+  }
+
+
+  /**
+   * Waits for a file to be written with a different content.
+   *
+   * @param file The file.
+   * @param content The old content or "" if the file is missing.
+   *
+   * @throws Exception If the file can not be read.
+   */
+  private static void await(final File file, final String content)
+      throws Exception {
+    final long end = System.currentTimeMillis() + TIMEOUT;
+    while (System.currentTimeMillis() < end) {
+      if (file.isFile()) {
+        final String svg = FolderWatcherTest.read(file);
+        if (!svg.equals(content) && svg.endsWith("</svg>\n")) {
+          return;
+        }
+      }
+      Thread.sleep(20);
+    }
+    fail(file + " not converted");
+  }
+
+
+  /**
+   * Writes a pair of SVG and annotation file.
+   *
+   * @param directory The directory of the pair.
+   * @param name The base name of the pair.
+   * @param time The modification time of both files.
+   *
+   * @return The SVG file.
+   *
+   * @throws IOException If a file can not be written.
+   */
+  private static File pair(final File directory, final String name,
+                           final long time) throws IOException {
+    FolderWatcherTest.write(new File(directory, name + ".xml"), XML, time);
+    return FolderWatcherTest.write(new File(directory, name + ".svg"), SVG,
+                                   time);
+  }
+
+
+  /**
+   * @param file A file to write.
+   * @param content The content.
+   * @param time The modification time.
+   *
+   * @return The file.
+   *
+   * @throws IOException If the file can not be written.
+   */
+  private static File write(final File file, final String content,
+                            final long time) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    assertTrue(file.setLastModified(time));
+    return file;
+  }
+
+
+  /**
+   * @param file A file.
+   *
+   * @return The content of the file.
+   *
+   * @throws IOException If the file can not be read.
+   */
+  private static String read(final File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()),
+                      StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,153 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   GrahamScanTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 11:05:49 2017
+ *
+ * @brief  Tests for the convex hull.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.vecmath.Point2d;
+
+
+/**
+ * Hull order, collinear points and degenerate inputs.
+ */
+public class GrahamScanTest {
+
+  /**
+   * Corners counter-clockwise from the lowest point, without points on
+   * edges, inner points or duplicates.
+   */
+  @Test
+  public void testSquare() {
+    final double[] xs = {2, 4, 0, 4, 2, 0, 2, 4, 0, 4};
+    final double[] ys = {0, 4, 4, 0, 2, 2, 4, 2, 0, 0};
+    assertArrayEquals(new double[] {0, 0, 4, 0, 4, 4, 0, 4},
+                      GrahamScan.convexHull(xs, ys), 0);
+  }
+
+
+  /**
+   * The lowest point with the lowest x comes first.
+   */
+  @Test
+  public void testStart() {
+    final double[] xs = {3, 1, 2, 0};
+    final double[] ys = {0, 0, 5, 3};
+    assertArrayEquals(new double[] {1, 0, 3, 0, 2, 5, 0, 3},
+                      GrahamScan.convexHull(xs, ys), 0);
+  }
+
+
+  /**
+   * Degenerate inputs give degenerate hulls.
+   */
+  @Test
+  public void testDegenerate() {
+    assertArrayEquals(new double[0],
+                      GrahamScan.convexHull(new double[0], new double[0]), 0);
+    assertArrayEquals(new double[] {1, 2},
+                      GrahamScan.convexHull(new double[] {1, 1, 1},
+                                            new double[] {2, 2, 2}), 0);
+    assertArrayEquals(new double[] {0, 0, 3, 3},
+                      GrahamScan.convexHull(new double[] {2, 0, 3, 1},
+                                            new double[] {2, 0, 3, 1}), 0);
+    assertArrayEquals(new double[] {0, 0, 0, 5},
+                      GrahamScan.convexHull(new double[] {0, 0, 0},
+                                            new double[] {5, 0, 2}), 0);
+  }
+
+
+  /**
+   * The primitive hull sorts its input in place and fills the buffer.
+   */
+  @Test
+  public void testBuffer() {
+    final double[] xs = {1, 0, 0, 1};
+    final double[] ys = {1, 1, 0, 0};
+    final double[] hull = new double[4 * xs.length + 2];
+    assertEquals(4, GrahamScan.convexHull(xs, ys, xs.length, hull));
+    assertArrayEquals(new double[] {0, 0, 1, 0, 1, 1, 0, 1},
+                      Arrays.copyOf(hull, 8), 0);
+    assertArrayEquals(new double[] {0, 0, 1, 1}, xs, 0);
+    assertArrayEquals(new double[] {0, 1, 0, 1}, ys, 0);
+  }
+
+
+  /**
+   * The point list hull is closed and omits points on its edges.
+   */
+  @Test
+  public void testPointList() {
+    final List<Point2d> points = new ArrayList<>();
+    for (int i = 0; i <= 4; i++) {
+      points.add(new Point2d(i, 0));
+      points.add(new Point2d(4 - i, i));
+    }
+    points.add(new Point2d(1, 1));
+    final List<Point2d> hull = GrahamScan.getConvexHull(points);
+    assertEquals(Arrays.asList(new Point2d(0, 0), new Point2d(4, 0),
+                               new Point2d(0, 4), new Point2d(0, 0)),
+                 hull);
+  }
+
+
+  /**
+   * Collinear points have no hull as point list.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPointListCollinear() {
+    GrahamScan.getConvexHull(new Double[] {0.0, 1.0, 2.0},
+                             new Double[] {0.0, 1.0, 2.0});
+  }
+
+
+  /**
+   * Fewer than three distinct points have no hull as point list.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPointListTooFew() {
+    GrahamScan.getConvexHull(new Double[] {0.0, 1.0, 1.0},
+                             new Double[] {0.0, 1.0, 1.0});
+  }
+
+
+  /**
+   * Coordinate arrays of different lengths are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testLengths() {
+    GrahamScan.convexHull(new double[2], new double[3]);
+  }
+
+}
@@ -0,0 +1,96 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   ManifestTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 11:58:03 2017
+ *
+ * @brief  Tests for scanning directory trees for pairs.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Pairing and error reporting of scanned trees.
+ */
+public class ManifestTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * SVG files are paired with XML before CML files, unpaired ones are errors
+   * and the skipped directory is not scanned.
+   *
+   * @throws IOException If the tree can not be created.
+   */
+  @Test
+  public void testScan() throws IOException {
+    final Path root = this.folder.newFolder("scan").toPath();
+    final Path sub = Files.createDirectory(root.resolve("sub"));
+    final Path out = Files.createDirectory(root.resolve("out"));
+    ManifestTest.touch(root.resolve("a.svg"), root.resolve("a.xml"),
+                       root.resolve("a.cml"), root.resolve("b.svg"),
+                       sub.resolve("c.svgz"), sub.resolve("c.cml"),
+                       sub.resolve("d.xml"), out.resolve("e.svg"));
+    final Manifest manifest = Manifest.scan(
+        root, out, new TactileConverter(TactileOptions.builder().build()));
+    final List<String> pairs = new ArrayList<>();
+    for (final Manifest.Entry entry : manifest.getEntries()) {
+      pairs.add(entry.getSvg() + " " + entry.getXml());
+    }
+    assertEquals(Arrays.asList(
+        root.resolve("a.svg") + " " + root.resolve("a.xml"),
+        sub.resolve("c.svgz") + " " + sub.resolve("c.cml")), pairs);
+    assertEquals(Collections.singletonList(
+        "File " + root.resolve("b.svg") + " has no annotation file."),
+                 manifest.getErrors());
+  }
+
+
+  /**
+   * @param files Empty files to create.
+   *
+   * @throws IOException If a file can not be created.
+   */
+  private static void touch(final Path... files) throws IOException {
+    for (final Path file : files) {
+      Files.createFile(file);
+    }
+  }
+
+}
@@ -0,0 +1,213 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   MetricsTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Mon Aug 14 09:37:02 2017
+ *
+ * @brief  Tests for the metrics export.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Recorded values show up in the JSON and Prometheus exports. Metrics are
+ * global, so the tests only compare values before and after recording.
+ */
+public class MetricsTest {
+
+  private static final Pattern SAMPLE = Pattern.compile(
+      "[a-z_]+(\\{[a-z_]+=\"[^\"]*\"(,[a-z_]+=\"[^\"]*\")*\\})? [0-9.E+-]+");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /** Enables the metrics. */
+  @Before
+  public void enable() {
+    Metrics.enable();
+    assertTrue(Metrics.isEnabled());
+  }
+
+
+  /**
+   * Documents, failures, sizes and stages are counted in the JSON export.
+   */
+  @Test
+  public void testJson() {
+    final String before = Metrics.toJson();
+    MetricsTest.record();
+    final String after = Metrics.toJson();
+    assertEquals(MetricsTest.json(before, "\"documents\": ") + 2,
+                 MetricsTest.json(after, "\"documents\": "));
+    assertEquals(MetricsTest.json(before, "\"failures\": ") + 1,
+                 MetricsTest.json(after, "\"failures\": "));
+    final String elements = "\"svg_elements\": {\"count\": ";
+    assertEquals(MetricsTest.json(before, elements) + 1,
+                 MetricsTest.json(after, elements));
+    final String output = "\"output\": {\"count\": ";
+    assertEquals(MetricsTest.json(before, output) + 1,
+                 MetricsTest.json(after, output));
+    assertTrue(after, after.contains("\"+Inf\": "));
+    assertEquals(MetricsTest.count(after, '{'), MetricsTest.count(after, '}'));
+  }
+
+
+  /**
+   * The Prometheus export has cumulative buckets ending in the count.
+   */
+  @Test
+  public void testPrometheus() {
+    final String before = Metrics.toPrometheus();
+    MetricsTest.record();
+    final String after = Metrics.toPrometheus();
+    assertEquals(
+        MetricsTest.prometheus(before, "audiotactile_documents_total") + 2,
+        MetricsTest.prometheus(after, "audiotactile_documents_total"), 0);
+    final String count =
+        "audiotactile_document_svg_elements_bucket{le=\"10\"}";
+    assertEquals(MetricsTest.prometheus(before, count) + 1,
+                 MetricsTest.prometheus(after, count), 0);
+    final String bucket = "audiotactile_stage_seconds_bucket{stage=\"output\"";
+    double previous = 0;
+    for (final String line : after.split("\n")) {
+      if (line.startsWith("#")) {
+        continue;
+      }
+      assertTrue(line, MetricsTest.SAMPLE.matcher(line).matches());
+      if (line.startsWith(bucket)) {
+        final double value = MetricsTest.value(line);
+        assertTrue(line, value >= previous);
+        previous = value;
+      }
+    }
+    assertEquals(previous, MetricsTest.prometheus(
+        after, "audiotactile_stage_seconds_count{stage=\"output\"}"), 0);
+  }
+
+
+  /**
+   * The file name selects the format.
+   *
+   * @throws Exception If a file can not be written.
+   */
+  @Test
+  public void testWrite() throws Exception {
+    final File json = new File(this.folder.getRoot(), "metrics.json");
+    final File prom = new File(this.folder.getRoot(), "metrics.prom");
+    Metrics.write(json.getPath());
+    Metrics.write(prom.getPath());
+    assertTrue(MetricsTest.read(json).startsWith("{\n  \"documents\": "));
+    assertTrue(MetricsTest.read(prom).startsWith(
+        "# HELP audiotactile_documents_total "));
+  }
+
+
+  /** Records two documents with one failure, a size and a stage. */
+  private static void record() {
+    Metrics.document(true);
+    Metrics.document(false);
+    Metrics.size(Metrics.Size.SVG_ELEMENTS, 5);
+    Metrics.begin().stop(Metrics.Stage.OUTPUT);
+  }
+
+
+  /**
+   * @param json A JSON export.
+   * @param key The text before a number.
+   *
+   * @return The first number after the text.
+   */
+  private static long json(final String json, final String key) {
+    final int start = json.indexOf(key) + key.length();
+    int end = start;
+    while (Character.isDigit(json.charAt(end))) {
+      end++;
+    }
+    return Long.parseLong(json.substring(start, end));
+  }
+
+
+  /**
+   * @param text A Prometheus export.
+   * @param sample The name and labels of a sample.
+   *
+   * @return The value of the sample.
+   */
+  private static double prometheus(final String text, final String sample) {
+    final Matcher matcher = Pattern.compile(
+        "^" + Pattern.quote(sample) + " (\\S+)$", Pattern.MULTILINE)
+        .matcher(text);
+    assertTrue(sample, matcher.find());
+    return Double.parseDouble(matcher.group(1));
+  }
+
+
+  /**
+   * @param line A sample line.
+   *
+   * @return The value of the sample.
+   */
+  private static double value(final String line) {
+    return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+  }
+
+
+  /**
+   * @param text A text.
+   * @param character A character.
+   *
+   * @return How often the character occurs in the text.
+   */
+  private static long count(final String text, final char character) {
+    return text.chars().filter(c -> c == character).count();
+  }
+
+
+  /**
+   * @param file A file.
+   *
+   * @return The content of the file.
+   *
+   * @throws Exception If the file can not be read.
+   */
+  private static String read(final File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath()),
+                      StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   OutputCacheTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 14:07:26 2017
+ *
+ * @brief  Tests for the keys of the output cache.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Keys depend on the content of the message catalog.
+ */
+public class OutputCacheTest {
+
+  private static final byte[] SVG = "<svg/>".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] XML = "<a/>".getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Catalogs whose hash codes collide give different keys, equal catalogs
+   * equal ones.
+   *
+   * @throws IOException If the cache can not be created.
+   */
+  @Test
+  public void testCatalog() throws IOException {
+    final OutputCache cache = new OutputCache(this.folder.getRoot(), 1 << 20);
+    // "Aa" and "BB" have the same hash code.
+    final MessageCatalog first = OutputCacheTest.catalog("Aa");
+    final MessageCatalog second = OutputCacheTest.catalog("BB");
+    assertEquals(first.toString(), second.toString());
+    assertNotEquals(OutputCacheTest.key(cache, first),
+                    OutputCacheTest.key(cache, second));
+    assertEquals(OutputCacheTest.key(cache, first),
+                 OutputCacheTest.key(cache, OutputCacheTest.catalog("Aa")));
+    assertNotEquals(OutputCacheTest.key(cache, first),
+                    OutputCacheTest.key(cache, MessageCatalog.EMPTY));
+  }
+
+
+  /**
+   * @param message The text of a message.
+   *
+   * @return A catalog with that single message.
+   */
+  private static MessageCatalog catalog(final String message) {
+    final Map<String, String> messages = new HashMap<>();
+    messages.put("greeting", message);
+    final Map<String, Map<String, String>> languages = new HashMap<>();
+    languages.put("en", messages);
+    return MessageCatalog.of(languages);
+  }
+
+
+  /**
+   * @param cache The cache.
+   * @param catalog A message catalog.
+   *
+   * @return The key of a conversion with the catalog.
+   */
+  private static String key(final OutputCache cache,
+                            final MessageCatalog catalog) {
+    return cache.key(OutputCacheTest.SVG, OutputCacheTest.XML,
+                     TactileOptions.builder().catalog(catalog).build(), "");
+  }
+
+}
@@ -0,0 +1,163 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   ParallelHullTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 09:37:26 2017
+ *
+ * @brief  Tests for the parallel convex hull.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Compares the parallel and the filtering computation with the sequential
+ * hull on random inputs of various shapes, including degenerate ones.
+ */
+public class ParallelHullTest {
+
+  private static final int[] SIZES = {1, 2, 3, 17, 1000, 70000, 150000};
+
+  private static final String[] SHAPES = {
+    "disc", "circle", "square", "grid", "line", "same", "duplicates", "ring"
+  };
+
+
+  /**
+   * Both computations give the sequential hull and leave the input alone.
+   */
+  @Test
+  public void testSameAsSequential() {
+    final Random random = new Random(42);
+    for (final String shape : SHAPES) {
+      for (final int size : SIZES) {
+        final double[] xs = new double[size];
+        final double[] ys = new double[size];
+        ParallelHullTest.points(shape, random, xs, ys);
+        final double[] xsCopy = xs.clone();
+        final double[] ysCopy = ys.clone();
+        final double[] hull = new double[4 * size + 2];
+        final double[] expected = Arrays.copyOf(
+            hull, 2 * GrahamScan.convexHull(xs.clone(), ys.clone(), size,
+                                            hull));
+        final String message = shape + " " + size;
+        assertArrayEquals(message, expected,
+                          ParallelHull.convexHull(xs, ys, true), 0);
+        assertArrayEquals(message, expected,
+                          ParallelHull.convexHull(xs, ys, false), 0);
+        assertArrayEquals(message, xsCopy, xs, 0);
+        assertArrayEquals(message, ysCopy, ys, 0);
+      }
+    }
+  }
+
+
+  /**
+   * The public entry point switches to the parallel hull for large inputs.
+   */
+  @Test
+  public void testThreshold() {
+    final Random random = new Random(7);
+    final int size = ParallelHull.THRESHOLD + 1;
+    final double[] xs = new double[size];
+    final double[] ys = new double[size];
+    ParallelHullTest.points("disc", random, xs, ys);
+    final double[] hull = new double[4 * size + 2];
+    final double[] expected = Arrays.copyOf(
+        hull, 2 * GrahamScan.convexHull(xs.clone(), ys.clone(), size, hull));
+    assertArrayEquals(expected, GrahamScan.convexHull(xs, ys), 0);
+  }
+
+
+  /**
+   * An empty input has an empty hull.
+   */
+  @Test
+  public void testEmpty() {
+    assertArrayEquals(new double[0],
+                      ParallelHull.convexHull(new double[0], new double[0],
+                                              true), 0);
+  }
+
+
+  /**
+   * Fills coordinates with points of a shape.
+   *
+   * @param shape The shape.
+   * @param random The source of randomness.
+   * @param xs The x coordinates.
+   * @param ys The y coordinates.
+   */
+  private static void points(final String shape, final Random random,
+                             final double[] xs, final double[] ys) {
+    for (int i = 0; i < xs.length; i++) {
+      final double phi = 2 * Math.PI * random.nextDouble();
+      final double r;
+      switch (shape) {
+        case "disc":
+          r = 500 * Math.sqrt(random.nextDouble());
+          xs[i] = r * Math.cos(phi);
+          ys[i] = r * Math.sin(phi);
+          break;
+        case "circle":
+          xs[i] = 500 * Math.cos(phi);
+          ys[i] = 500 * Math.sin(phi);
+          break;
+        case "ring":
+          r = 490 + 10 * random.nextDouble();
+          xs[i] = r * Math.cos(phi);
+          ys[i] = r * Math.sin(phi);
+          break;
+        case "square":
+          xs[i] = 1000 * random.nextDouble();
+          ys[i] = 1000 * random.nextDouble();
+          break;
+        case "grid":
+          xs[i] = random.nextInt(50);
+          ys[i] = random.nextInt(50);
+          break;
+        case "line":
+          xs[i] = random.nextInt(1000);
+          ys[i] = 2 * xs[i] + 3;
+          break;
+        case "same":
+          xs[i] = 3;
+          ys[i] = 4;
+          break;
+        case "duplicates":
+          xs[i] = random.nextInt(2);
+          ys[i] = random.nextInt(2);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown shape " + shape);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,273 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   PathFlattenerTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 14:12:31 2017
+ *
+ * @brief  Tests for the path data parser and flattener.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Path grammar edge cases, number forms and flattening accuracy.
+ */
+public class PathFlattenerTest {
+
+  private static final double DELTA = 1e-9;
+
+
+  /**
+   * Coordinates may run together where the grammar allows it.
+   */
+  @Test
+  public void testNumberForms() {
+    this.assertPoints("M1e-3.5-2.5.5", true, 1e-3, 0.5, -2.5, 0.5);
+    this.assertPoints("M+1,-1", true, 1, -1);
+    this.assertPoints("M1E2 2e+1", true, 100, 20);
+    this.assertPoints("M.5.5", true, 0.5, 0.5);
+    this.assertPoints("M 0.000001 123456789012345678", true,
+                      1e-6, 123456789012345678.0);
+    this.assertPoints("M1,,2", false);
+  }
+
+
+  /**
+   * Numbers are read like {@link Double#parseDouble}.
+   */
+  @Test
+  public void testNumbersAsParsed() {
+    final Random random = new Random(42);
+    final PathFlattener flattener = new PathFlattener();
+    for (int i = 0; i < 10000; i++) {
+      final double value = Double.longBitsToDouble(random.nextLong());
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        continue;
+      }
+      final String[] forms = {
+        Double.toString(value),
+        String.format(Locale.ROOT, "%.6f", value),
+        String.format(Locale.ROOT, "%.3e", value),
+        Long.toString(random.nextLong() >> random.nextInt(64))
+      };
+      for (final String form : forms) {
+        final double[] point = new double[1];
+        assertTrue(form, flattener.flatten("M" + form + " 0",
+                                           (x, y) -> point[0] = x));
+        assertEquals(form, Double.parseDouble(form), point[0], 0);
+      }
+    }
+  }
+
+
+  /**
+   * Moveto continues as lineto, other commands repeat themselves.
+   */
+  @Test
+  public void testImplicitCommands() {
+    this.assertPoints("M0 0 1 1 2 2", true, 0, 0, 1, 1, 2, 2);
+    this.assertPoints("m1 1 1 1 h2 3 v1", true,
+                      1, 1, 2, 2, 4, 2, 7, 2, 7, 3);
+    this.assertPoints("M0 0L1 1 2 0Z", true, 0, 0, 1, 1, 2, 0, 0, 0);
+    this.assertPoints("M0 0Z 1 1", false, 0, 0, 0, 0);
+    this.assertPoints("L1 1", false);
+  }
+
+
+  /**
+   * Parsing stops at the first error, keeping the points up to it.
+   */
+  @Test
+  public void testErrors() {
+    this.assertPoints("M0 0 L1 1 L2", false, 0, 0, 1, 1);
+    this.assertPoints("M0 0 X 1 1", false, 0, 0);
+    this.assertPoints("M0 0 L1 1e", false, 0, 0, 1, 1);
+  }
+
+
+  /**
+   * Smooth curves reflect the previous control point, but only after a curve
+   * of their kind.
+   */
+  @Test
+  public void testReflection() {
+    final PathFlattener flattener = new PathFlattener(1e-6);
+    final double[] last = new double[2];
+    final PathFlattener.Sink sink = (x, y) -> {
+      last[0] = x;
+      last[1] = y;
+    };
+    // The reflected control point (4, 0) makes the curve symmetric.
+    this.assertSame("M0 0 C0 2 2 2 2 0 C2 -2 4 -2 4 0",
+                    "M0 0 C0 2 2 2 2 0 S4 -2 4 0");
+    this.assertSame("M0 0 Q1 2 2 0 Q3 -2 4 0",
+                    "M0 0 Q1 2 2 0 T4 0");
+    // After a line the current point is the first control point.
+    this.assertSame("M0 0 L2 0 C2 0 4 2 4 0",
+                    "M0 0 L2 0 S4 2 4 0");
+    this.assertSame("M0 0 L2 0 Q2 0 4 0",
+                    "M0 0 L2 0 T4 0");
+    // A quadratic control point is not reflected by a cubic shorthand.
+    this.assertSame("M0 0 Q1 2 2 0 C2 0 3 2 4 0",
+                    "M0 0 Q1 2 2 0 S3 2 4 0");
+    assertTrue(flattener.flatten("m0 0 c0 2 2 2 2 0 s2 -2 2 0", sink));
+    assertArrayEquals(new double[] {4, 0}, last, DELTA);
+  }
+
+
+  /**
+   * Arcs with a zero radius are lines, arcs to the current point are
+   * skipped and the flags select one of four arcs.
+   */
+  @Test
+  public void testArcs() {
+    this.assertPoints("M0 0 A0 5 0 0 1 10 0", true, 0, 0, 10, 0);
+    this.assertPoints("M0 0 A5 0 0 0 1 10 0", true, 0, 0, 10, 0);
+    this.assertPoints("M1 1 A5 5 0 0 1 1 1", true, 1, 1);
+    // Half circles of radius 5 through (0, 0) and (10, 0).
+    assertEquals(-5, this.extremeY("M0 0 A5 5 0 0 1 10 0", false), 1e-3);
+    assertEquals(5, this.extremeY("M0 0 A5 5 0 0 0 10 0", true), 1e-3);
+    // Radius 10: the large arc goes round the far side of the centre.
+    assertEquals(1.34, this.extremeY("M0 0 A10 10 0 0 0 10 0", true), 1e-2);
+    assertEquals(-18.66, this.extremeY("M0 0 A10 10 0 1 1 10 0", false),
+                 1e-2);
+    // Radii too small are scaled up to a half circle.
+    assertEquals(-5, this.extremeY("M0 0 A1 1 0 0 1 10 0", false), 1e-3);
+    // Flags need no separators.
+    assertEquals(-18.66, this.extremeY("M0 0 A10 10 0 1110 0", false),
+                 1e-2);
+    assertEquals(-1, this.extremeY("M0 0 a1 1 0 0 1 2 0 a1 1 0 0 1 2 0",
+                                   false), 1e-3);
+  }
+
+
+  /**
+   * Flattened curves stay within the tolerance of the curve.
+   */
+  @Test
+  public void testTolerance() {
+    for (final double tolerance : new double[] {1, 0.25, 0.01}) {
+      final PathFlattener flattener = new PathFlattener(tolerance);
+      final double[] error = new double[1];
+      final double[] previous = {100, 0};
+      assertTrue(flattener.flatten("M100 0 A100 100 0 1 1 -100 0", (x, y) -> {
+            final double mx = (x + previous[0]) / 2;
+            final double my = (y + previous[1]) / 2;
+            error[0] = Math.max(error[0], 100 - Math.hypot(mx, my));
+            assertEquals(100, Math.hypot(x, y), 1e-6);
+            previous[0] = x;
+            previous[1] = y;
+          }));
+      assertTrue(tolerance + " " + error[0], error[0] <= tolerance);
+    }
+  }
+
+
+  /**
+   * The tolerance has to be positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTolerancePositive() {
+    new PathFlattener(0);
+  }
+
+
+  /**
+   * @param path Path data.
+   * @param complete Whether the data should parse completely.
+   * @param expected The expected points as interleaved coordinates.
+   */
+  private void assertPoints(final String path, final boolean complete,
+                            final double... expected) {
+    final double[] points = new double[expected.length + 64];
+    final int[] count = new int[1];
+    final boolean result = new PathFlattener().flatten(path, (x, y) -> {
+        points[count[0]++] = x;
+        points[count[0]++] = y;
+      });
+    assertEquals(path, complete, result);
+    final double[] actual = new double[count[0]];
+    System.arraycopy(points, 0, actual, 0, count[0]);
+    assertArrayEquals(path, expected, actual, DELTA);
+  }
+
+
+  /**
+   * Asserts that two paths flatten to the same points.
+   *
+   * @param expected The path in explicit form.
+   * @param actual The path using shorthands.
+   */
+  private void assertSame(final String expected, final String actual) {
+    assertArrayEquals(actual, this.points(expected), this.points(actual),
+                      DELTA);
+  }
+
+
+  /**
+   * @param path Path data.
+   *
+   * @return The points of a fine flattening as interleaved coordinates.
+   */
+  private double[] points(final String path) {
+    final double[][] points = {new double[64]};
+    final int[] count = new int[1];
+    assertTrue(path, new PathFlattener(1e-3).flatten(path, (x, y) -> {
+          if (count[0] + 2 > points[0].length) {
+            points[0] = Arrays.copyOf(points[0], 2 * points[0].length);
+          }
+          points[0][count[0]++] = x;
+          points[0][count[0]++] = y;
+        }));
+    return Arrays.copyOf(points[0], count[0]);
+  }
+
+
+  /**
+   * @param path Path data.
+   * @param max True for the maximal, false for the minimal y.
+   *
+   * @return The extreme y coordinate of the flattened path.
+   */
+  private double extremeY(final String path, final boolean max) {
+    final double[] extreme = {max ? Double.NEGATIVE_INFINITY
+                              : Double.POSITIVE_INFINITY};
+    assertTrue(path, new PathFlattener(1e-4).flatten(path, (x, y) -> {
+          extreme[0] = max ? Math.max(extreme[0], y)
+            : Math.min(extreme[0], y);
+        }));
+    return extreme[0];
+  }
+
+}
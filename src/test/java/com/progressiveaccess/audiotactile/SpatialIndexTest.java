@@ -0,0 +1,257 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   SpatialIndexTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 16:40:07 2017
+ *
+ * @brief  Tests for the R-tree over document elements.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Queries of the index against known answers and a linear scan.
+ */
+public class SpatialIndexTest {
+
+  private static final String SVG_URI = "http://www.w3.org/2000/svg";
+
+
+  /**
+   * Outlines are hit, the inside of rectangles and polygons is not.
+   */
+  @Test
+  public void testOutlines() throws Exception {
+    final SpatialIndex index = SpatialIndexTest.index(
+        "<line x1='0' y1='0' x2='10' y2='10'/>"
+        + "<rect x='20' y='0' width='10' height='10'/>"
+        + "<polygon points='40,0 50,0 45,10'/>"
+        + "<path d='M60 0 L70 0 L70 10'/>");
+    assertTrue(index.intersects(4, 4, 6, 6));
+    assertFalse(index.intersects(8, 1, 9, 2));
+    assertTrue(index.intersects(19, 4, 21, 6));
+    assertFalse(index.intersects(22, 2, 28, 8));
+    assertTrue(index.intersects(18, -2, 32, 12));
+    assertTrue(index.intersects(46, 4, 48, 6));
+    assertFalse(index.intersects(44, 2, 46, 3));
+    // The path is open, so its closing edge is not there.
+    assertTrue(index.intersects(69, 4, 71, 6));
+    assertFalse(index.intersects(64, 4, 66, 6));
+    assertFalse(index.intersects(100, 100, 200, 200));
+  }
+
+
+  /**
+   * The lowest point right of and below a corner.
+   */
+  @Test
+  public void testMaxY() throws Exception {
+    final SpatialIndex index = SpatialIndexTest.index(
+        "<line x1='0' y1='0' x2='10' y2='50'/>"
+        + "<rect x='20' y='0' width='10' height='30'/>"
+        + "<polygon points='40,0 50,0 45,20'/>");
+    assertEquals(50, index.maxY(0, 0), 0);
+    assertEquals(30, index.maxY(11, 0), 0);
+    assertEquals(20, index.maxY(31, 0), 0);
+    assertEquals(20, index.maxY(45, 0), 0);
+    assertTrue(Double.isNaN(index.maxY(46, 1)));
+    assertTrue(Double.isNaN(index.maxY(0, 51)));
+  }
+
+
+  /**
+   * Documents without drawable elements give an empty index.
+   */
+  @Test
+  public void testEmpty() throws Exception {
+    final SpatialIndex index = SpatialIndexTest.index("<g/><text>x</text>");
+    assertFalse(index.intersects(-1e9, -1e9, 1e9, 1e9));
+    assertTrue(Double.isNaN(index.maxY(-1e9, -1e9)));
+  }
+
+
+  /**
+   * Random documents of several sizes, so that trees of one to three levels
+   * are built, answer like a scan over all elements.
+   */
+  @Test
+  public void testRandom() throws Exception {
+    final Random random = new Random(7);
+    for (final int size : new int[] {1, 15, 16, 17, 300, 5000}) {
+      final StringBuilder content = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        final double x = 1000 * random.nextDouble();
+        final double y = 1000 * random.nextDouble();
+        final double w = 30 * random.nextDouble();
+        final double h = 30 * random.nextDouble();
+        switch (random.nextInt(3)) {
+          case 0:
+            content.append(String.format(
+                Locale.ROOT, "<line x1='%f' y1='%f' x2='%f' y2='%f'/>",
+                x, y, x + w, y + h - 15));
+            break;
+          case 1:
+            content.append(String.format(
+                Locale.ROOT, "<rect x='%f' y='%f' width='%f' height='%f'/>",
+                x, y, w, h));
+            break;
+          default:
+            content.append(String.format(
+                Locale.ROOT, "<polygon points='%f,%f %f,%f %f,%f'/>",
+                x, y, x + w, y, x, y + h));
+            break;
+        }
+      }
+      final SpatialIndex index = SpatialIndexTest.index(content.toString());
+      final Geometry geometry = index.getGeometry();
+      assertEquals(size, geometry.getElementCount());
+      for (int q = 0; q < 500; q++) {
+        final double x = 1000 * random.nextDouble();
+        final double y = 1000 * random.nextDouble();
+        final double w = 50 * random.nextDouble();
+        final double h = 50 * random.nextDouble();
+        assertEquals(size + " " + q,
+                     SpatialIndexTest.intersects(geometry, x, y, x + w, y + h),
+                     index.intersects(x, y, x + w, y + h));
+        assertEquals(size + " " + q, SpatialIndexTest.maxY(geometry, x, y),
+                     index.maxY(x, y), 0);
+      }
+    }
+  }
+
+
+  /**
+   * @param content SVG elements.
+   *
+   * @return The index over a document holding the elements.
+   */
+  private static SpatialIndex index(final String content) throws Exception {
+    final String svg = "<svg xmlns='" + SpatialIndexTest.SVG_URI + "'>"
+        + content + "</svg>";
+    final Document document = FileHandler.loadPlainSvg(
+        new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)), null);
+    return new SpatialIndex(Geometry.extract(document,
+                                             SpatialIndexTest.SVG_URI));
+  }
+
+
+  /**
+   * Linear scan for the intersection test, clipping every edge to the box.
+   *
+   * @return True if some outline intersects the box.
+   */
+  private static boolean intersects(final Geometry geometry,
+                                    final double minX, final double minY,
+                                    final double maxX, final double maxY) {
+    final double[] xs = geometry.getXs();
+    final double[] ys = geometry.getYs();
+    for (int e = 0; e < geometry.getElementCount(); e++) {
+      if (geometry.getType(e) == Geometry.RECT) {
+        // Corners of rectangles are not stored in outline order.
+        final double[] b = geometry.getBounds(e);
+        if (SpatialIndexTest.clips(b[0], b[1], b[2], b[1], minX, minY, maxX,
+                                   maxY)
+            || SpatialIndexTest.clips(b[2], b[1], b[2], b[3], minX, minY,
+                                      maxX, maxY)
+            || SpatialIndexTest.clips(b[2], b[3], b[0], b[3], minX, minY,
+                                      maxX, maxY)
+            || SpatialIndexTest.clips(b[0], b[3], b[0], b[1], minX, minY,
+                                      maxX, maxY)) {
+          return true;
+        }
+        continue;
+      }
+      final int start = geometry.getStart(e);
+      final int end = geometry.getEnd(e);
+      final boolean closed = geometry.getType(e) == Geometry.POLYGON;
+      for (int i = start; i < end; i++) {
+        final int j = i + 1 < end ? i + 1 : closed ? start : i;
+        if (SpatialIndexTest.clips(xs[i], ys[i], xs[j], ys[j],
+                                   minX, minY, maxX, maxY)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Liang-Barsky clipping of a segment to a box.
+   *
+   * @return True if part of the segment lies in the box.
+   */
+  private static boolean clips(final double x0, final double y0,
+                               final double x1, final double y1,
+                               final double minX, final double minY,
+                               final double maxX, final double maxY) {
+    final double[] p = {x0 - x1, x1 - x0, y0 - y1, y1 - y0};
+    final double[] q = {x0 - minX, maxX - x0, y0 - minY, maxY - y0};
+    double from = 0;
+    double to = 1;
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) {
+          return false;
+        }
+      } else if (p[i] < 0) {
+        from = Math.max(from, q[i] / p[i]);
+      } else {
+        to = Math.min(to, q[i] / p[i]);
+      }
+    }
+    return from <= to;
+  }
+
+
+  /**
+   * Linear scan for the lowest point in a region.
+   *
+   * @return The maximal y or NaN.
+   */
+  private static double maxY(final Geometry geometry, final double minX,
+                             final double minY) {
+    double best = Double.NaN;
+    final double[] xs = geometry.getXs();
+    final double[] ys = geometry.getYs();
+    for (int i = 0; i < geometry.getPointCount(); i++) {
+      if (xs[i] >= minX && ys[i] >= minY && !(ys[i] <= best)) {
+        best = ys[i];
+      }
+    }
+    return best;
+  }
+
+}
@@ -0,0 +1,154 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   SvgStreamerTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 10:12:37 2017
+ *
+ * @brief  Tests for the streaming conversion.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Streaming the samples gives the same documents as converting their DOM.
+ */
+public class SvgStreamerTest {
+
+  private static final File SAMPLES = new File("samples");
+
+
+  /**
+   * Streamed and DOM output agree with indented output.
+   *
+   * @throws Exception If a sample can not be converted.
+   */
+  @Test
+  public void testPretty() throws Exception {
+    SvgStreamerTest.compare(false);
+  }
+
+
+  /**
+   * Streamed and DOM output agree with compact output.
+   *
+   * @throws Exception If a sample can not be converted.
+   */
+  @Test
+  public void testCompact() throws Exception {
+    SvgStreamerTest.compare(true);
+  }
+
+
+  /**
+   * Converts all samples with annotations in both ways and compares the
+   * documents. Both outputs are written again with the compact serialiser,
+   * as the streamed output keeps the whitespace and namespace declarations
+   * of its input.
+   *
+   * @param compact True for compact output.
+   *
+   * @throws Exception If a sample can not be converted.
+   */
+  private static void compare(final boolean compact) throws Exception {
+    final TactileConverter converter = new TactileConverter(
+        TactileOptions.builder().stream(true).compact(compact).build());
+    final List<File> samples = new ArrayList<>();
+    SvgStreamerTest.collect(SvgStreamerTest.SAMPLES, samples);
+    assertFalse(samples.isEmpty());
+    for (final File svg : samples) {
+      final String xml = SvgStreamerTest.annotations(svg).getPath();
+      final ByteArrayOutputStream dom = new ByteArrayOutputStream();
+      converter.convert(svg.getPath(), xml).writeSvg(dom);
+      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      converter.stream(svg.getPath(), xml, stream);
+      assertEquals(svg.getPath(), SvgStreamerTest.normalise(dom),
+                   SvgStreamerTest.normalise(stream));
+    }
+  }
+
+
+  /**
+   * Collects the SVG files below a directory that have annotations.
+   *
+   * @param directory The directory.
+   * @param samples The list to add the files to.
+   */
+  private static void collect(final File directory,
+                              final List<File> samples) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File file : files) {
+      if (file.isDirectory()) {
+        SvgStreamerTest.collect(file, samples);
+      } else if (file.getName().endsWith(".svg")
+                 && SvgStreamerTest.annotations(file).isFile()) {
+        samples.add(file);
+      }
+    }
+  }
+
+
+  /**
+   * @param svg An SVG file.
+   *
+   * @return The annotation file next to it.
+   */
+  private static File annotations(final File svg) {
+    final String name = svg.getName();
+    return new File(svg.getParentFile(),
+                    name.substring(0, name.length() - 4) + ".xml");
+  }
+
+
+  /**
+   * @param output An SVG document.
+   *
+   * @return The document written by the compact serialiser.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  private static String normalise(final ByteArrayOutputStream output)
+      throws Exception {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    new SvgWriter(0, true).write(
+        FileHandler.loadPlainSvg(
+            new ByteArrayInputStream(output.toByteArray()), null),
+        result);
+    return new String(result.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,230 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   SvgWriterTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Tue Aug  8 09:41:26 2017
+ *
+ * @brief  Tests for the SVG serialiser.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Pretty and compact output, and whitespace that must survive both.
+ */
+public class SvgWriterTest {
+
+  private static final String SVG_URI = "http://www.w3.org/2000/svg";
+
+  private static final String DOCUMENT = "<svg xmlns='" + SVG_URI + "'"
+      + " xmlns:xlink='http://www.w3.org/1999/xlink' xmlns:unused='urn:u'>\n"
+      + "    <g id='a'><rect x='1' y='2' width='3' height='4'/>\n"
+      + "  <use xlink:href='#a'/></g>\n"
+      + "<!-- note --><text x='0'> <tspan>one</tspan> <tspan>two</tspan> "
+      + "</text>\n"
+      + "  <title>  spaced   title </title>"
+      + "<g xml:space='preserve'> <rect id='p'/> </g>"
+      + "<desc>a &amp; b &lt; c</desc></svg>";
+
+  private final SvgWriter pretty = new SvgWriter(2);
+  private final SvgWriter compact = new SvgWriter(0, true);
+
+
+  /**
+   * Pretty output indents elements that only hold other elements.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testPretty() throws Exception {
+    final String output = this.write(this.pretty,
+        "<svg xmlns='" + SVG_URI + "'><g><rect/><rect/></g></svg>");
+    assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                 + "<svg xmlns=\"" + SVG_URI + "\">\n"
+                 + "  <g>\n"
+                 + "    <rect/>\n"
+                 + "    <rect/>\n"
+                 + "  </g>\n"
+                 + "</svg>\n", output);
+  }
+
+
+  /**
+   * Compact output drops whitespace between elements and unused namespace
+   * declarations.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testCompact() throws Exception {
+    final String output = this.write(this.compact, DOCUMENT);
+    assertFalse(output, output.contains("xmlns:unused"));
+    assertTrue(output, output.contains("xmlns:xlink"));
+    assertTrue(output, output.contains("<g id=\"a\"><rect "));
+    assertTrue(output, output.contains("/><use xlink:href=\"#a\"/></g>"));
+  }
+
+
+  /**
+   * Pretty and compact output load into the same document, and writing
+   * either again does not change it.
+   *
+   * @throws Exception If a document can not be loaded.
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    final String pretty = this.write(this.pretty, DOCUMENT);
+    final String compact = this.write(this.compact, DOCUMENT);
+    assertEquals(pretty, this.write(this.pretty, pretty));
+    assertEquals(compact, this.write(this.compact, compact));
+    assertEquals(compact, this.write(this.compact, pretty));
+    assertEquals(this.write(this.pretty, compact),
+                 this.write(this.pretty, this.write(this.compact, pretty)));
+  }
+
+
+  /**
+   * Whitespace between the spans of a text element is rendered and must not
+   * be indented or dropped.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testTextWhitespace() throws Exception {
+    final String text =
+        "<text x=\"0\"> <tspan>one</tspan> <tspan>two</tspan> </text>";
+    assertTrue(this.write(this.pretty, DOCUMENT).contains(text));
+    assertTrue(this.write(this.compact, DOCUMENT).contains(text));
+  }
+
+
+  /**
+   * Whitespace in titles and descriptions is kept as is.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testTitleWhitespace() throws Exception {
+    final String title = "<title>  spaced   title </title>";
+    final String desc = "<desc>a &amp; b &lt; c</desc>";
+    for (final SvgWriter writer : new SvgWriter[] {this.pretty,
+                                                   this.compact}) {
+      final String output = this.write(writer, DOCUMENT);
+      assertTrue(output, output.contains(title));
+      assertTrue(output, output.contains(desc));
+    }
+  }
+
+
+  /**
+   * Whitespace in elements with <code>xml:space="preserve"</code> is kept,
+   * also for elements without text.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testXmlSpace() throws Exception {
+    final String group = "<g xml:space=\"preserve\"> <rect id=\"p\"/> </g>";
+    assertTrue(this.write(this.pretty, DOCUMENT).contains(group));
+    assertTrue(this.write(this.compact, DOCUMENT).contains(group));
+  }
+
+
+  /**
+   * Elements created with a namespace get the missing declaration.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  @Test
+  public void testMissingNamespace() throws Exception {
+    final Document document = SvgWriterTest.parse(
+        "<svg xmlns='" + SVG_URI + "'/>");
+    final Element added = document.createElementNS("urn:x", "x:added");
+    added.setAttributeNS("urn:y", "y:value", "1");
+    document.getDocumentElement().appendChild(added);
+    for (final SvgWriter writer : new SvgWriter[] {this.pretty,
+                                                   this.compact}) {
+      final String output = SvgWriterTest.write(writer, document);
+      assertTrue(output, output.contains(
+          "<x:added y:value=\"1\" xmlns:x=\"urn:x\" xmlns:y=\"urn:y\"/>"));
+    }
+  }
+
+
+  /**
+   * @param writer A serialiser.
+   * @param svg An SVG document.
+   *
+   * @return The document written by the serialiser.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  private String write(final SvgWriter writer, final String svg)
+      throws Exception {
+    return SvgWriterTest.write(writer, SvgWriterTest.parse(svg));
+  }
+
+
+  /**
+   * @param writer A serialiser.
+   * @param node A document or element.
+   *
+   * @return The node written by the serialiser.
+   *
+   * @throws IOException If the node can not be written.
+   */
+  private static String write(final SvgWriter writer, final Node node)
+      throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writer.write(node, output);
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+
+  /**
+   * @param svg An SVG document.
+   *
+   * @return The plain DOM of the document.
+   *
+   * @throws Exception If the document can not be loaded.
+   */
+  private static Document parse(final String svg) throws Exception {
+    return FileHandler.loadPlainSvg(
+        new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)), null);
+  }
+
+}
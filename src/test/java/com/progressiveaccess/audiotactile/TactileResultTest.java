@@ -0,0 +1,157 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   TactileResultTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 16:31:58 2017
+ *
+ * @brief  Tests for writing conversion results.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Written files declare the IVEO namespaces, are compressed on request and
+ * write errors are thrown.
+ */
+public class TactileResultTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * IVEO output declares its namespaces.
+   *
+   * @throws IOException If the result can not be written.
+   */
+  @Test
+  public void testWrite() throws IOException {
+    final File file = this.folder.newFile("result.svg");
+    TactileResultTest.result(false).writeSvg(file.getPath());
+    final String svg = new String(Files.readAllBytes(file.toPath()),
+                                  StandardCharsets.UTF_8);
+    assertTrue(svg, svg.contains(
+        "xmlns:iveo=\"" + Tactile.IVEO_URI + "\""));
+    assertTrue(svg, svg.contains(
+        "xmlns:daisy=\"" + Tactile.DAISY_URI + "\""));
+  }
+
+
+  /**
+   * Files ending in .svgz are compressed.
+   *
+   * @throws IOException If the result can not be written.
+   */
+  @Test
+  public void testWriteSvgz() throws IOException {
+    final File plain = this.folder.newFile("result.svg");
+    final File file = this.folder.newFile("result.svgz");
+    TactileResultTest.result(false).writeSvg(plain.getPath());
+    TactileResultTest.result(false).writeSvg(file.getPath());
+    assertEquals(new String(Files.readAllBytes(plain.toPath()),
+                            StandardCharsets.UTF_8),
+                 TactileResultTest.inflate(file));
+  }
+
+
+  /**
+   * With the compress option all files are compressed.
+   *
+   * @throws IOException If the result can not be written.
+   */
+  @Test
+  public void testWriteCompress() throws IOException {
+    final File file = this.folder.newFile("result.svg");
+    TactileResultTest.result(true).writeSvg(file.getPath());
+    final String svg = TactileResultTest.inflate(file);
+    assertTrue(svg, svg.contains(
+        "xmlns:iveo=\"" + Tactile.IVEO_URI + "\""));
+  }
+
+
+  /**
+   * Files that can not be written are reported.
+   *
+   * @throws IOException Expected, as the output is a directory.
+   */
+  @Test(expected = IOException.class)
+  public void testWriteFails() throws IOException {
+    final File directory = this.folder.newFolder("result");
+    TactileResultTest.result(false).writeSvg(directory.getPath());
+  }
+
+
+  /**
+   * @param compress True if all output is compressed.
+   *
+   * @return The IVEO conversion of a small drawing.
+   *
+   * @throws IOException If the conversion fails.
+   */
+  private static TactileResult result(final boolean compress)
+      throws IOException {
+    final String svg = "<svg xmlns='http://www.w3.org/2000/svg' width='10' "
+        + "height='10'><rect width='1' height='1'/></svg>";
+    return new TactileConverter(TactileOptions.builder().iveo(true)
+                                .compress(compress).compressionLevel(1)
+                                .build())
+        .convert(svg.getBytes(StandardCharsets.UTF_8), null,
+                 "<annotations/>".getBytes(StandardCharsets.UTF_8));
+  }
+
+
+  /**
+   * @param file A file compressed with gzip.
+   *
+   * @return The uncompressed content as UTF-8.
+   *
+   * @throws IOException If the file can not be read.
+   */
+  private static String inflate(final File file) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (InputStream input =
+         new GZIPInputStream(new FileInputStream(file))) {
+      final byte[] buffer = new byte[4096];
+      for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+        output.write(buffer, 0, n);
+      }
+    }
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
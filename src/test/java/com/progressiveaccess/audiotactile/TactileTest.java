@@ -0,0 +1,143 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   TactileTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Wed Aug  9 15:44:10 2017
+ *
+ * @brief  Tests for the IVEO page size and buttons.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * The size of the drawing is read from the lengths or the view box of the
+ * root element.
+ */
+public class TactileTest {
+
+  private static final String XML = "<annotations/>";
+
+
+  /**
+   * Exponents and units of lengths are read.
+   *
+   * @throws IOException If the conversion fails.
+   */
+  @Test
+  public void testLengths() throws IOException {
+    final Document svg = TactileTest.convert("width='1e3' height='500pt'");
+    assertEquals("1000.0", svg.getDocumentElement().getAttribute("width"));
+    assertEquals("710.0", svg.getDocumentElement().getAttribute("height"));
+    assertEquals("800.0", TactileTest.button(svg).getAttribute("cx"));
+  }
+
+
+  /**
+   * Percentages and missing lengths fall back to the view box.
+   *
+   * @throws IOException If the conversion fails.
+   */
+  @Test
+  public void testViewBox() throws IOException {
+    final Document svg = TactileTest.convert(
+        "width='100%' viewBox='10 10 200,100'");
+    assertEquals("200.0", svg.getDocumentElement().getAttribute("width"));
+    assertEquals("160.0", TactileTest.button(svg).getAttribute("cx"));
+  }
+
+
+  /**
+   * Without a size neither page size nor buttons are set.
+   *
+   * @throws IOException If the conversion fails.
+   */
+  @Test
+  public void testUnknown() throws IOException {
+    final Document svg = TactileTest.convert("width='wide'");
+    assertEquals("wide", svg.getDocumentElement().getAttribute("width"));
+    assertNull(TactileTest.button(svg));
+  }
+
+
+  /**
+   * @param attributes The attributes of the root element.
+   *
+   * @return The document converted for IVEO with buttons.
+   *
+   * @throws IOException If the conversion fails.
+   */
+  private static Document convert(final String attributes)
+      throws IOException {
+    final String svg = "<svg xmlns='http://www.w3.org/2000/svg' "
+        + attributes + "><rect width='1' height='1'/></svg>";
+    final TactileOptions options = TactileOptions.builder()
+        .iveo(true).iveoButtons(true).build();
+    return new TactileConverter(options).convert(
+        svg.getBytes(StandardCharsets.UTF_8), null,
+        TactileTest.XML.getBytes(StandardCharsets.UTF_8)).getDocument();
+  }
+
+
+  /**
+   * @param svg A converted document.
+   *
+   * @return The drilldown button or null if there is none.
+   */
+  private static Element button(final Document svg) {
+    return TactileTest.find(svg.getDocumentElement());
+  }
+
+
+  /**
+   * @param element An element.
+   *
+   * @return The first element with id drilldown below the element or null.
+   */
+  private static Element find(final Element element) {
+    if ("drilldown".equals(element.getAttribute("id"))) {
+      return element;
+    }
+    for (Node child = element.getFirstChild(); child != null;
+         child = child.getNextSibling()) {
+      if (child instanceof Element) {
+        final Element found = TactileTest.find((Element) child);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
+}
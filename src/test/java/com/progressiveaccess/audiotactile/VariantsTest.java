@@ -0,0 +1,125 @@
+// Copyright 2017 Volker Sorge
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+/**
+ * @file   VariantsTest.java
+ * @author Volker Sorge
+ *         <a href="mailto:V.Sorge@progressiveaccess.com">Volker Sorge</a>
+ * @date   Fri Aug 11 14:22:48 2017
+ *
+ * @brief  Tests for the language and profile variants.
+ *
+ *
+ */
+
+//
+
+package com.progressiveaccess.audiotactile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Output names carry the language and profile before the extension and
+ * converters are built for every variant.
+ */
+public class VariantsTest {
+
+  private static final String DIR = "out.d" + File.separator;
+
+  private final Variants variants = new Variants(
+      Arrays.asList("en", "de"),
+      Arrays.asList(Profile.PLAIN, Profile.IVEO_BUTTONS));
+
+
+  /**
+   * Languages vary slowest and both go before the extension.
+   */
+  @Test
+  public void testOutputs() {
+    assertEquals(Arrays.asList(DIR + "diagram.en.plain.svg",
+                               DIR + "diagram.en.iveo_buttons.svg",
+                               DIR + "diagram.de.plain.svg",
+                               DIR + "diagram.de.iveo_buttons.svg"),
+                 this.variants.outputs(DIR + "diagram.svg"));
+  }
+
+
+  /**
+   * Compressed outputs keep their extension, so they are still compressed.
+   */
+  @Test
+  public void testCompressed() {
+    assertEquals(Collections.singletonList(DIR + "diagram.iveo.svgz"),
+                 new Variants(Collections.emptyList(),
+                              Collections.singletonList(Profile.IVEO))
+                 .outputs(DIR + "diagram.svgz"));
+  }
+
+
+  /**
+   * Names without an extension, also with dots in directories or at their
+   * start, get the suffix appended.
+   */
+  @Test
+  public void testNoExtension() {
+    final Variants languages = new Variants(
+        Collections.singletonList("de"), Collections.emptyList());
+    assertEquals(Collections.singletonList(DIR + "diagram.de"),
+                 languages.outputs(DIR + "diagram"));
+    assertEquals(Collections.singletonList(DIR + ".diagram.de"),
+                 languages.outputs(DIR + ".diagram"));
+    assertEquals(Collections.singletonList("diagram.de"),
+                 languages.outputs("diagram"));
+  }
+
+
+  /**
+   * Standard output stays standard output for every variant.
+   */
+  @Test
+  public void testStandardOutput() {
+    assertEquals(Arrays.asList(null, null, null, null),
+                 this.variants.outputs(null));
+  }
+
+
+  /**
+   * Converters apply the language and profile in the order of the outputs
+   * and are shared per base converter.
+   */
+  @Test
+  public void testConverters() {
+    final TactileConverter base = new TactileConverter(
+        TactileOptions.builder().iveo(true).language("fr").build());
+    final List<TactileConverter> converters = this.variants.converters(base);
+    assertEquals(4, converters.size());
+    assertEquals("en", converters.get(0).getOptions().getLanguage());
+    assertEquals("de", converters.get(3).getOptions().getLanguage());
+    assertEquals(false, converters.get(2).getOptions().isIveo());
+    assertTrue(converters.get(3).getOptions().isIveoButtons());
+    assertSame(converters, this.variants.converters(base));
+  }
+
+}